@@ -0,0 +1,43 @@
+package com.vaguehope.dlnatoad.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.Random;
+
+import com.vaguehope.dlnatoad.util.HashHelper;
+
+public final class BenchmarkDb {
+
+	private BenchmarkDb() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Tags are picked with a skew so some are very common and most are rare, like real libraries.
+	 */
+	public static MediaDb withFilesAndTags(final int fileCount, final int tagsPerFile, final int distinctTags) throws SQLException, IOException {
+		final MediaDb db = new InMemoryMediaDb();
+		final Random rnd = new Random(fileCount);
+		final long now = System.currentTimeMillis();
+		try (final WritableMediaDb w = db.getWritable()) {
+			for (int i = 0; i < fileCount; i++) {
+				final String id = "id" + i;
+				final File file = new File("/bench/dir" + (i % 100) + "/file " + i + ".mp4");
+				final String hash = HashHelper.sha1(id).toString(16);
+				w.storeFileData(file, new FileData(1000L + i, now - i, hash, hash, "video/mp4", id, BigInteger.ZERO, false));
+				for (int t = 0; t < tagsPerFile; t++) {
+					final int tag = (int) (distinctTags * Math.pow(rnd.nextDouble(), 3));
+					w.addTag(id, tagName(tag), now);
+				}
+			}
+		}
+		return db;
+	}
+
+	public static String tagName(final int i) {
+		return "tag" + Integer.toString(i, 36) + " name";
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.vaguehope.dlnatoad.db;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagAutocompleterBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int fileCount;
+
+	@Param({ "1000", "50000" })
+	public int distinctTags;
+
+	private TagAutocompleter tagAutocompleter;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		final MediaDb db = BenchmarkDb.withFilesAndTags(this.fileCount, 5, this.distinctTags);
+		this.tagAutocompleter = new TagAutocompleter(db, null);
+		this.tagAutocompleter.generateIndex();
+	}
+
+	@Benchmark
+	public List<TagFrequency> suggestTagsShortPrefix() {
+		return this.tagAutocompleter.suggestTags("t");
+	}
+
+	@Benchmark
+	public List<TagFrequency> suggestTagsLongPrefix() {
+		return this.tagAutocompleter.suggestTags("tag1");
+	}
+
+	@Benchmark
+	public List<TagFrequency> suggestFragments() {
+		return this.tagAutocompleter.suggestFragments("nam");
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.vaguehope.dlnatoad.db.search;
+
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableSet;
+import com.vaguehope.dlnatoad.db.BenchmarkDb;
+import com.vaguehope.dlnatoad.db.MediaDb;
+import com.vaguehope.dlnatoad.db.search.DbSearchParser.DbSearch;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DbSearchParserBenchmark {
+
+	private static final Set<BigInteger> AUTH_IDS = ImmutableSet.of(BigInteger.ZERO, BigInteger.valueOf(1234L));
+	private static final String SIMPLE_QUERY = "foo";
+	private static final String COMPLEX_QUERY = "t=\"tag1 name\" OR (f~dir1/ -t~tag2 w>1000) OR \"some thing\" t>2";
+
+	@Param({ "10000", "100000" })
+	public int fileCount;
+
+	private MediaDb db;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.db = BenchmarkDb.withFilesAndTags(this.fileCount, 5, 1000);
+	}
+
+	@Benchmark
+	public DbSearch parseSimple() {
+		return DbSearchParser.parseSearch(SIMPLE_QUERY, AUTH_IDS, SortOrder.FILE.asc());
+	}
+
+	@Benchmark
+	public DbSearch parseComplex() {
+		return DbSearchParser.parseSearch(COMPLEX_QUERY, AUTH_IDS, SortOrder.FILE.asc());
+	}
+
+	@Benchmark
+	public List<String> executeTagSearchFirstPage() throws SQLException {
+		return DbSearchParser.parseSearch("t=\"" + BenchmarkDb.tagName(1) + "\"", AUTH_IDS, SortOrder.FILE.asc()).execute(this.db, 100, 0);
+	}
+
+}
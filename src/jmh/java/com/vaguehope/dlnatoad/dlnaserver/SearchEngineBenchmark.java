@@ -0,0 +1,83 @@
+package com.vaguehope.dlnatoad.dlnaserver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jupnp.support.contentdirectory.ContentDirectoryException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaguehope.dlnatoad.media.ContentItem;
+import com.vaguehope.dlnatoad.media.ContentNode;
+import com.vaguehope.dlnatoad.media.ContentTree;
+import com.vaguehope.dlnatoad.media.MediaFormat;
+import com.vaguehope.dlnatoad.media.MockContent;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchEngineBenchmark {
+
+	private static final int DIRS = 100;
+
+	// Items are Mockito mocks, so much above this needs a bigger heap than the default.
+	@Param({ "10000", "100000" })
+	public int itemCount;
+
+	private ContentTree contentTree;
+	private SearchEngine searchEngine;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.contentTree = new ContentTree();
+		final MockContent mockContent = new MockContent(this.contentTree);
+		mockContent.setShuffle(false);
+		mockContent.setSpy(false);
+		for (final ContentNode dir : mockContent.givenMockDirs(DIRS)) {
+			mockContent.givenMockItems(MediaFormat.MP4, this.itemCount / DIRS, dir);
+		}
+	}
+
+	/**
+	 * A fresh engine for each call so its results cache does not hide the search.
+	 */
+	@Setup(Level.Invocation)
+	public void newSearchEngine() {
+		this.searchEngine = new SearchEngine(this.contentTree);
+	}
+
+	@Benchmark
+	public List<ContentItem> titleContainsNoMatch() throws ContentDirectoryException {
+		return this.searchEngine.search(this.contentTree.getRootNode(),
+				"(upnp:class derivedfrom \"object.item.videoItem\" and dc:title contains \"no such title\")",
+				100, null);
+	}
+
+	@Benchmark
+	public List<ContentItem> titleContainsFirstPage() throws ContentDirectoryException {
+		return this.searchEngine.search(this.contentTree.getRootNode(),
+				"(upnp:class derivedfrom \"object.item.videoItem\" and dc:title contains \"item\")",
+				100, null);
+	}
+
+	@Benchmark
+	public List<ContentItem> orOfClasses() throws ContentDirectoryException {
+		return this.searchEngine.search(this.contentTree.getRootNode(),
+				"(upnp:class derivedfrom \"object.item.audioItem\" or upnp:class derivedfrom \"object.item.imageItem\")",
+				100, null);
+	}
+
+}
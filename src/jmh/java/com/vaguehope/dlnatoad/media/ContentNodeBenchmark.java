@@ -0,0 +1,71 @@
+package com.vaguehope.dlnatoad.media;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentNodeBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int itemCount;
+
+	private ContentNode node;
+	private ContentItem extraItem;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		this.node = new ContentNode("bench", ContentGroup.ROOT.getId(), "bench", null);
+		// Middle of the sort order so inserts are not all appends.
+		final int extra = this.itemCount / 2;
+		for (int i = 0; i < this.itemCount; i++) {
+			if (i != extra) this.node.addItemIfAbsent(makeItem(i));
+		}
+		this.extraItem = makeItem(extra);
+	}
+
+	private ContentItem makeItem(final int i) {
+		final String id = "id" + i;
+		return new ContentItem(id, this.node.getId(), "item " + i, new File("/bench/" + id + ".mp4"), MediaFormat.MP4);
+	}
+
+	@Benchmark
+	public boolean addAndRemoveItem() {
+		this.node.addItemIfAbsent(this.extraItem);
+		return this.node.removeItem(this.extraItem);
+	}
+
+	@Benchmark
+	public List<ContentItem> firstPageOfItems() {
+		return this.node.getCopyOfItems(ContentItem.Order.TITLE_CASE_INSENSITIVE, 0, 100);
+	}
+
+	@Benchmark
+	public List<ContentItem> lastPageOfItems() {
+		return this.node.getCopyOfItems(ContentItem.Order.TITLE_CASE_INSENSITIVE, this.itemCount - 100, 100);
+	}
+
+	@Benchmark
+	public List<ContentItem> pageOfItemsInOtherOrder() {
+		return this.node.getCopyOfItems(ContentItem.Order.MODIFIED_DESC, this.itemCount / 2, 100);
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.vaguehope.dlnatoad.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaguehope.dlnatoad.util.HashHelper.Md5AndSha1;
+
+/**
+ * File will mostly be in the page cache, so this measures CPU rather than disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashHelperBenchmark {
+
+	@Param({ "1", "64" })
+	public int fileSizeMb;
+
+	private File file;
+	private ByteBuffer buffer;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.file = File.createTempFile("hashbench", ".bin");
+		final byte[] data = new byte[this.fileSizeMb * 1024 * 1024];
+		new Random(this.fileSizeMb).nextBytes(data);
+		FileUtils.writeByteArrayToFile(this.file, data);
+		this.buffer = HashHelper.createByteBuffer();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileUtils.deleteQuietly(this.file);
+	}
+
+	@Benchmark
+	public BigInteger sha1() throws IOException {
+		return HashHelper.sha1(this.file, this.buffer);
+	}
+
+	@Benchmark
+	public Md5AndSha1 md5AndSha1() throws IOException {
+		return HashHelper.generateMd5AndSha1(this.file, this.buffer);
+	}
+
+}
@@ -13,6 +13,13 @@ import org.apache.commons.io.FileUtils;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 
+import com.vaguehope.dlnatoad.db.MediaDb;
+import com.vaguehope.dlnatoad.db.MediaMetadataStore;
+import com.vaguehope.dlnatoad.media.MediaInfo;
+import com.vaguehope.dlnatoad.media.ThumbnailGenerator;
+import com.vaguehope.dlnatoad.tagdeterminer.TagDeterminerController;
+import com.vaguehope.dlnatoad.ui.SearchServlet;
+
 public class Args {
 
 	@Option(name = "-h", aliases = { "--help" }, usage = "Print this help text.") private boolean help;
@@ -28,10 +35,21 @@ public class Args {
 	@Option(name = "--sessiondir", usage = "Path for droping metadata import files into.") private String sessionDir;
 	@Option(name = "--adduser", usage = "Interactivly add user to userfile.") private boolean addUser;
 	@Option(name = "--db", usage = "Path for metadata DB.") private String db;
+	@Option(name = "--dbreaders", usage = "Number of DB connections for reading, default " + MediaDb.DEFAULT_READ_CONNECTIONS + ".") private int dbReaders = MediaDb.DEFAULT_READ_CONNECTIONS;
+	@Option(name = "--dbmmap", usage = "Memory mapped IO size for DB in MiB, 0 to disable, default " + MediaDb.DEFAULT_MMAP_SIZE_MB + ".") private int dbMmapMb = MediaDb.DEFAULT_MMAP_SIZE_MB;
+	@Option(name = "--dbcache", usage = "Page cache size for each DB connection in MiB, default " + MediaDb.DEFAULT_CACHE_SIZE_MB + ".") private int dbCacheMb = MediaDb.DEFAULT_CACHE_SIZE_MB;
+	@Option(name = "--hashthreads", usage = "Number of files to read in parallel when generating IDs, default " + MediaMetadataStore.DEFAULT_HASH_THREADS + ".") private int hashThreads = MediaMetadataStore.DEFAULT_HASH_THREADS;
+	@Option(name = "--treesnapshot", usage = "Path for saving the content tree between restarts, for faster startup.") private String treeSnapshot;
 	@Option(name = "--thumbs", usage = "Path for caching image thumbnails.") private String thumbsDir;
+	@Option(name = "--mediainfothreads", usage = "Max ffprobe processes to run in parallel, default number of CPUs (" + MediaInfo.DEFAULT_MAX_WORKERS + ").") private int mediaInfoThreads = MediaInfo.DEFAULT_MAX_WORKERS;
+	@Option(name = "--thumbthreads", usage = "Number of image thumbnails to generate in parallel, default " + ThumbnailGenerator.DEFAULT_IMAGE_THREADS + ".") private int thumbThreads = ThumbnailGenerator.DEFAULT_IMAGE_THREADS;
+	@Option(name = "--videothumbthreads", usage = "Number of video thumbnails to generate in parallel, default " + ThumbnailGenerator.DEFAULT_VIDEO_THREADS + ".") private int videoThumbThreads = ThumbnailGenerator.DEFAULT_VIDEO_THREADS;
 	@Option(name = "--dropdir", usage = "Path for droping metadata import files into.") private String dropDir;
 	@Option(name = "--remote", usage = "HTTP(S) address of remote instance.", metaVar = "https://example.com/") private List<String> remotes;
 	@Option(name = "--tagdeterminer", usage = "HTTP(S) address of remote a TagDeterminer and query for which items it should be offered.", metaVar = "https://example.com/|f~mydir/path") private List<String> tagDeterminers;
+	@Option(name = "--tagdeterminerwindow", usage = "Max items in flight to each TagDeterminer, default " + TagDeterminerController.DEFAULT_MAX_IN_FLIGHT + ".") private int tagDeterminerWindow = TagDeterminerController.DEFAULT_MAX_IN_FLIGHT;
+	@Option(name = "--searchbudget", usage = "Milliseconds to wait for remote search results before showing the page, default " + SearchServlet.DEFAULT_REMOTE_SEARCH_BUDGET_MILLIS + ".") private long remoteSearchBudgetMillis = SearchServlet.DEFAULT_REMOTE_SEARCH_BUDGET_MILLIS;
+	@Option(name = "--metrics", usage = "Serve Prometheus metrics at /" + C.METRICS_PATH + ", which does not require login.") private boolean serveMetrics;
 	@Option(name = "--webroot", usage = "Override static file location, useful for UI dev.") private String webRoot;
 	@Option(name = "--templateroot", usage = "Override mustache template location, useful for UI dev.") private String templateRoot;
 	@Argument(multiValued = true, metaVar = "DIR") private List<String> dirPaths;
@@ -133,10 +151,46 @@ public class Args {
 		return this.db != null ? new File(this.db) : null;
 	}
 
+	public int getDbReaders() {
+		return this.dbReaders;
+	}
+
+	public int getDbMmapMb() {
+		return this.dbMmapMb;
+	}
+
+	public int getDbCacheMb() {
+		return this.dbCacheMb;
+	}
+
+	public File getTreeSnapshot() {
+		return this.treeSnapshot != null ? new File(this.treeSnapshot) : null;
+	}
+
+	public int getHashThreads() throws ArgsException {
+		if (this.hashThreads < 1) throw new ArgsException("--hashthreads must be at least 1.");
+		return this.hashThreads;
+	}
+
 	public File getThumbsDir() throws ArgsException {
 		return checkIsDirOrNull(this.thumbsDir);
 	}
 
+	public int getMediaInfoThreads() throws ArgsException {
+		if (this.mediaInfoThreads < 1) throw new ArgsException("--mediainfothreads must be at least 1.");
+		return this.mediaInfoThreads;
+	}
+
+	public int getThumbThreads() throws ArgsException {
+		if (this.thumbThreads < 1) throw new ArgsException("--thumbthreads must be at least 1.");
+		return this.thumbThreads;
+	}
+
+	public int getVideoThumbThreads() throws ArgsException {
+		if (this.videoThumbThreads < 1) throw new ArgsException("--videothumbthreads must be at least 1.");
+		return this.videoThumbThreads;
+	}
+
 	public File getDropDir() throws ArgsException {
 		if (this.dropDir != null && this.db == null) throw new ArgsException("--dropdir requires --db to be set.");
 		return checkIsDirOrNull(this.dropDir);
@@ -147,11 +201,23 @@ public class Args {
 		return this.remotes;
 	}
 
+	public long getRemoteSearchBudgetMillis() {
+		return this.remoteSearchBudgetMillis;
+	}
+
+	public boolean isServeMetrics() {
+		return this.serveMetrics;
+	}
+
 	public List<String> getTagDeterminers() {
 		if (this.tagDeterminers == null) return Collections.emptyList();
 		return this.tagDeterminers;
 	}
 
+	public int getTagDeterminerWindow() {
+		return this.tagDeterminerWindow;
+	}
+
 	public File getWebRoot() throws ArgsException {
 		return checkIsDirOrNull(this.webRoot);
 	}
@@ -33,6 +33,7 @@ public interface C {
 	String THUMBS_PATH_PREFIX = "t/";
 	String SEARCH_PATH_PREFIX = "search/";
 	String TAGS_PATH = "tags";
+	String METRICS_PATH = "metrics";
 
 	long DEVICE_SEARCH_INTERVAL_MINUTES = 15;
 
@@ -47,6 +47,7 @@ import com.vaguehope.dlnatoad.importer.MetadataImporter;
 import com.vaguehope.dlnatoad.media.ContentServingHistory;
 import com.vaguehope.dlnatoad.media.ContentServlet;
 import com.vaguehope.dlnatoad.media.ContentTree;
+import com.vaguehope.dlnatoad.media.ContentTreeSnapshot;
 import com.vaguehope.dlnatoad.media.ExternalUrls;
 import com.vaguehope.dlnatoad.media.MediaFormat;
 import com.vaguehope.dlnatoad.media.MediaId;
@@ -54,6 +55,8 @@ import com.vaguehope.dlnatoad.media.MediaIndex;
 import com.vaguehope.dlnatoad.media.MediaIndex.HierarchyMode;
 import com.vaguehope.dlnatoad.media.MediaInfo;
 import com.vaguehope.dlnatoad.media.ThumbnailGenerator;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
+import com.vaguehope.dlnatoad.metrics.MetricsServlet;
 import com.vaguehope.dlnatoad.rpc.client.RemoteContentServlet;
 import com.vaguehope.dlnatoad.rpc.client.RpcClient;
 import com.vaguehope.dlnatoad.rpc.server.MediaImpl;
@@ -140,12 +143,13 @@ public final class Main {
 		final InetAddress selfAddress = NetHelper.guessSelfAddress(bindAddresses);
 
 		final ScheduledExecutorService fsExSvc = ExecutorHelper.newScheduledExecutor(1, "fs");
-		final ExecutorService miExSvc = ExecutorHelper.newExecutor(1, "mi");
+		final ExecutorService miExSvc = ExecutorHelper.newExecutor(args.getMediaInfoThreads(), args.getMediaInfoThreads(), "mi", Thread.MIN_PRIORITY);
+		final ExecutorService hashExSvc = ExecutorHelper.newExecutor(args.getHashThreads(), args.getHashThreads(), "hash", Thread.MIN_PRIORITY);
 
 		final File thumbsDir = args.getThumbsDir();
 		final ThumbnailGenerator thumbnailGenerator =
 				thumbsDir != null
-				? new ThumbnailGenerator(thumbsDir)
+				? new ThumbnailGenerator(thumbsDir, args.getThumbThreads(), args.getVideoThumbThreads())
 				: null;
 
 		final File dbFile = args.getDb();
@@ -155,9 +159,9 @@ public final class Main {
 		final TagAutocompleter tagAutocompleter;
 		if (dbFile != null) {
 			LOG.info("DB: {}", dbFile.getAbsolutePath());
-			mediaDb = new MediaDb(dbFile);
+			mediaDb = new MediaDb(dbFile, args.getDbReaders(), args.getDbMmapMb(), args.getDbCacheMb());
 			dbCache = new DbCache(mediaDb, fsExSvc, args.isVerboseLog());
-			mediaMetadataStore = new MediaMetadataStore(mediaDb, fsExSvc, args.isVerboseLog());
+			mediaMetadataStore = new MediaMetadataStore(mediaDb, fsExSvc, hashExSvc, args.isVerboseLog());
 			tagAutocompleter = new TagAutocompleter(mediaDb, fsExSvc);
 		}
 		else {
@@ -168,12 +172,35 @@ public final class Main {
 		}
 
 		final MediaId mediaId = new MediaId(mediaMetadataStore);
-		final MediaInfo mediaInfo = new MediaInfo(mediaMetadataStore, thumbnailGenerator, miExSvc);
+		final MediaInfo mediaInfo = new MediaInfo(mediaMetadataStore, thumbnailGenerator, miExSvc, args.getMediaInfoThreads());
+		mediaInfo.preloadStoredInfos();
 		final ContentTree contentTree = new ContentTree();
 
+		final HierarchyMode hierarchyMode = args.isSimplifyHierarchy() ? HierarchyMode.FLATTERN : HierarchyMode.PRESERVE;
+		LOG.info("hierarchyMode: {}", hierarchyMode);
+
+		final File snapshotFile = args.getTreeSnapshot();
+		final ContentTreeSnapshot snapshot;
+		final boolean snapshotLoaded;
+		if (snapshotFile != null) {
+			snapshot = new ContentTreeSnapshot(snapshotFile, contentTree, hierarchyMode, args.getDirs());
+			snapshotLoaded = snapshot.load();
+		}
+		else {
+			snapshot = null;
+			snapshotLoaded = false;
+		}
+
 		final File dropDir = args.getDropDir();
 		final TagDeterminerController tagDeterminerController = new TagDeterminerController(args, contentTree, mediaDb);
 		final Runnable afterInitialScanIdsAllFiles = () -> {
+			mediaInfo.dropPreloadedInfos();
+			if (snapshot != null) {
+				// Not until now, so a shutdown during the initial scan leaves the previous snapshot alone.
+				final ScheduledExecutorService snapshotExSvc = ExecutorHelper.newScheduledExecutor(1, "snapshot");
+				if (snapshotLoaded) snapshotExSvc.execute(snapshot::removeMissing);
+				snapshot.start(snapshotExSvc);
+			}
 			if (mediaDb != null) {
 				new DbCleaner(contentTree, mediaDb, args.isVerboseLog()).start(fsExSvc);
 				if (dropDir != null) {
@@ -206,9 +233,6 @@ public final class Main {
 
 		final NodeConverter nodeConverter = new NodeConverter(externalUrls);
 
-		final HierarchyMode hierarchyMode = args.isSimplifyHierarchy() ? HierarchyMode.FLATTERN : HierarchyMode.PRESERVE;
-		LOG.info("hierarchyMode: {}", hierarchyMode);
-
 		final MediaIndex index = new MediaIndex(contentTree, hierarchyMode, mediaId, mediaInfo);
 
 		final Thread watcherThread = new Thread(new RunWatcher(args, index, afterInitialScanFindsAllDirs));
@@ -330,12 +354,15 @@ public final class Main {
 		final DirServlet dirServlet = new DirServlet(servletCommon, contentTree, thumbnailGenerator, mediaDb, dbCache);
 		servletHandler.addServlet(new ServletHolder(dirServlet), "/" + C.DIR_PATH_PREFIX + "*");
 
-		servletHandler.addServlet(new ServletHolder(new SearchServlet(servletCommon, contentTree, contentServlet, mediaDb, dbCache, upnpService, rpcClient, thumbnailGenerator)), "/" + C.SEARCH_PATH_PREFIX + "*");
+		servletHandler.addServlet(new ServletHolder(new SearchServlet(servletCommon, contentTree, contentServlet, mediaDb, dbCache, upnpService, rpcClient, thumbnailGenerator, args.getRemoteSearchBudgetMillis())), "/" + C.SEARCH_PATH_PREFIX + "*");
 		servletHandler.addServlet(new ServletHolder(new UpnpServlet(upnpService)), "/upnp");
 		servletHandler.addServlet(new ServletHolder(new ThumbsServlet(contentTree, thumbnailGenerator)), "/" + C.THUMBS_PATH_PREFIX + "*");
 		servletHandler.addServlet(new ServletHolder(new AutocompleteServlet(tagAutocompleter)), "/" + C.AUTOCOMPLETE_PATH);
 		servletHandler.addServlet(new ServletHolder(new ItemServlet(servletCommon, contentTree, mediaDb, tagAutocompleter)), "/" + C.ITEM_PATH_PREFIX + "*");
 		servletHandler.addServlet(new ServletHolder(new TagsServlet(contentTree, mediaDb, tagAutocompleter)), "/" + C.TAGS_PATH);
+		if (args.isServeMetrics()) {
+			servletHandler.addServlet(new ServletHolder(new MetricsServlet(MetricRegistry.DEFAULT)), "/" + C.METRICS_PATH);
+		}
 		servletHandler.addServlet(new ServletHolder(new StaticFilesServlet(args.getWebRoot())), "/" + C.STATIC_FILES_PATH_PREFIX + "*");
 		servletHandler.addServlet(new ServletHolder(new IndexServlet(contentTree, contentServlet, dirServlet)), "/*");
 
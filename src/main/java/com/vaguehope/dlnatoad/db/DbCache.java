@@ -14,12 +14,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.vaguehope.dlnatoad.db.search.DbSearchParser;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
 
 public class DbCache {
 
@@ -46,13 +48,25 @@ public class DbCache {
 				.refreshAfterWrite(5, TimeUnit.MINUTES)
 				.expireAfterWrite(5, TimeUnit.DAYS)
 				.ticker(ticker)
+				.recordStats()
 				.build(new DirTopTagLoader());
 		this.searchTopTags = CacheBuilder.newBuilder()
 				.maximumSize(1000L)
 				.refreshAfterWrite(5, TimeUnit.MINUTES)
 				.expireAfterWrite(5, TimeUnit.DAYS)
 				.ticker(ticker)
+				.recordStats()
 				.build(new SearchTopTagLoader());
+		addMetrics("dir_top_tags", this.dirTopTags);
+		addMetrics("search_top_tags", this.searchTopTags);
+	}
+
+	private static void addMetrics(final String name, final Cache<?, ?> cache) {
+		final MetricRegistry r = MetricRegistry.DEFAULT;
+		r.counter("dlnatoad_cache_hits_total", "Cache lookups that found a value.", () -> cache.stats().hitCount(), "cache", name);
+		r.counter("dlnatoad_cache_misses_total", "Cache lookups that had to load a value.", () -> cache.stats().missCount(), "cache", name);
+		r.counter("dlnatoad_cache_evictions_total", "Values removed from the cache to make space.", () -> cache.stats().evictionCount(), "cache", name);
+		r.gauge("dlnatoad_cache_size", "Values in the cache.", cache::size, "cache", name);
 	}
 
 	/**
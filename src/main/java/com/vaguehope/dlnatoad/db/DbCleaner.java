@@ -4,28 +4,38 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.vaguehope.dlnatoad.media.ContentItem;
 import com.vaguehope.dlnatoad.media.ContentTree;
 
+/**
+ * Files that go while running are marked missing as the Watcher reports them (see MediaMetadataStore.fileGone()).
+ * This is a slow background sweep over the whole files table to catch anything that was missed,
+ * such as files removed while not running.
+ * It checks a small batch at a time and carries on from where it got to, so never causes a burst of I/O.
+ */
 public class DbCleaner {
 
 	private static final long START_DELAY_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+	private static final int BATCH_SIZE = 200;
+	private static final long BATCH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+	private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(24);
 	private static final Logger LOG = LoggerFactory.getLogger(DbCleaner.class);
 
 	private final ContentTree contentTree;
 	private final MediaDb mediaDb;
 	private final boolean verboseLog;
 
+	// Only accessed by the worker.
+	private String lastFileChecked = null;
+	private int missingThisSweep = 0;
+
 	public DbCleaner(final ContentTree contentTree, final MediaDb mediaDb, final boolean verboseLog) {
 		this.contentTree = Objects.requireNonNull(contentTree, "contentTree");
 		this.mediaDb = Objects.requireNonNull(mediaDb, "mediaDb");
@@ -36,45 +46,73 @@ public class DbCleaner {
 		// Start via executor so we can be sure initial scan is done.
 		// Add an extra delay as a fudge factor.
 		schExSvc.submit(() -> {
-			schExSvc.schedule(new Worker(), START_DELAY_SECONDS, TimeUnit.SECONDS);
+			schExSvc.schedule(new Worker(schExSvc), START_DELAY_SECONDS, TimeUnit.SECONDS);
 		});
 	}
 
 	private class Worker implements Runnable {
+		private final ScheduledExecutorService schExSvc;
+
+		public Worker(final ScheduledExecutorService schExSvc) {
+			this.schExSvc = schExSvc;
+		}
+
 		@Override
 		public void run() {
+			long nextDelay = BATCH_INTERVAL_MILLIS;
 			try {
-				cleanDb();
+				if (cleanBatch()) nextDelay = SWEEP_INTERVAL_MILLIS;
 			}
 			catch (final Exception e) {
 				LOG.error("Exception while cleaning DB.", e);
 			}
+			this.schExSvc.schedule(this, nextDelay, TimeUnit.MILLISECONDS);
 		}
 	}
 
+	/**
+	 * Runs a whole sweep in one go.
+	 */
 	// Visible for testing.
 	void cleanDb() throws SQLException, IOException {
-		if (this.verboseLog) LOG.info("Running DB cleanup...");
-
-		final Set<String> existingFiles = new HashSet<>();
-		for (final ContentItem item : this.contentTree.getItems()) {
-			existingFiles.add(item.getFile().getAbsolutePath());
+		while (!cleanBatch()) {
+			// Keep going.
 		}
+	}
+
+	/**
+	 * Returns true if this batch completed the sweep, in which case the next batch starts a new one.
+	 */
+	private boolean cleanBatch() throws SQLException, IOException {
+		if (this.lastFileChecked == null && this.verboseLog) LOG.info("Starting DB cleanup sweep...");
 
+		final List<String> batch = this.mediaDb.getFilesNotMarkedAsMissing(this.lastFileChecked, BATCH_SIZE);
 		final List<String> newlyMissing = new ArrayList<>();
-		for (final String file : this.mediaDb.getAllFilesThatAreNotMarkedAsMissing()) {
-			if (!existingFiles.contains(file) && !(new File(file).exists())) {
+		for (final String file : batch) {
+			final File f = new File(file);
+			if (this.contentTree.getItemsForFile(f).isEmpty() && !f.exists()) {
 				newlyMissing.add(file);
 				if (this.verboseLog) LOG.info("Missing: {}", file);
 			}
 		}
 
-		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
-			for (final String f : newlyMissing) {
-				w.setFileMissing(f, true);
+		if (newlyMissing.size() > 0) {
+			try (final WritableMediaDb w = this.mediaDb.getWritable()) {
+				for (final String f : newlyMissing) {
+					w.setFileMissing(f, true, /* dbMustChange= */false);
+				}
 			}
+			this.missingThisSweep += newlyMissing.size();
+		}
+
+		if (batch.size() < BATCH_SIZE) {
+			LOG.info("DB cleanup sweep marked {} files as missing.", this.missingThisSweep);
+			this.lastFileChecked = null;
+			this.missingThisSweep = 0;
+			return true;
 		}
-		LOG.info("Marked {} files as missing.", newlyMissing.size());
+		this.lastFileChecked = batch.get(batch.size() - 1);
+		return false;
 	}
 
 }
@@ -18,6 +18,9 @@ class FileTask {
 	private final MediaIdCallback callback;
 	private final Runnable genericCallback;
 
+	private volatile FileData hashed;
+	private volatile boolean prepared;
+
 	public FileTask(final File file, final BigInteger auth, final MediaIdCallback callback) {
 		if (file == null) throw new IllegalArgumentException("file can not be null.");
 		if (auth == null) throw new IllegalArgumentException("auth can not be null, use 0 instead.");
@@ -27,6 +30,7 @@ class FileTask {
 		this.auth = auth;
 		this.callback = callback;
 		this.genericCallback = null;
+		this.prepared = false;
 	}
 
 	public FileTask(final File file) {
@@ -35,6 +39,7 @@ class FileTask {
 		this.auth = null;
 		this.callback = null;
 		this.genericCallback = null;
+		this.prepared = true;
 	}
 
 	public FileTask(final Runnable callback) {
@@ -43,6 +48,7 @@ class FileTask {
 		this.auth = null;
 		this.callback = null;
 		this.genericCallback = callback;
+		this.prepared = true;
 	}
 
 	public Action getAction() {
@@ -65,6 +71,26 @@ class FileTask {
 		return this.genericCallback;
 	}
 
+	/**
+	 * Result of hashing the file before it reached the DB writer.
+	 * null if hashing was not needed or failed.
+	 */
+	public FileData getHashed() {
+		return this.hashed;
+	}
+
+	/**
+	 * True once any slow work that can be done outside the DB transaction is done.
+	 */
+	public boolean isPrepared() {
+		return this.prepared;
+	}
+
+	public void setPrepared(final FileData hashed) {
+		this.hashed = hashed;
+		this.prepared = true;
+	}
+
 	@Override
 	public String toString() {
 		return String.format("FileTask{%s, %s, %s, %s, %s}", this.action, this.file, this.auth, this.callback, this.genericCallback);
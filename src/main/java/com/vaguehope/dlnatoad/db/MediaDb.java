@@ -11,34 +11,93 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteConfig;
 import org.sqlite.SQLiteConfig.Encoding;
+import org.sqlite.SQLiteConfig.JournalMode;
+import org.sqlite.SQLiteConfig.SynchronousMode;
 import org.sqlite.SQLiteConfig.TransactionMode;
 
+import com.vaguehope.dlnatoad.metrics.Histogram;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
+import com.vaguehope.dlnatoad.util.ExFunction;
+
+/**
+ * The DB runs in WAL mode so readers do not block each other or the writer.
+ * Reads borrow a connection from a small pool of query_only connections.
+ * All writes go via one long lived connection, one WritableMediaDb at a time.
+ */
 public class MediaDb {
 
 	public static final String COL_FILE = "file";
 	public static final String COL_TAG = "tag";
 
+	public static final int DEFAULT_READ_CONNECTIONS = 4;
+	public static final int DEFAULT_MMAP_SIZE_MB = 256;
+	public static final int DEFAULT_CACHE_SIZE_MB = 16;
+
+	private static final Logger LOG = LoggerFactory.getLogger(MediaDb.class);
+
+	private static final Histogram READ_WAIT = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_db_connection_wait_seconds", "Time waiting for a DB connection.", "conn", "read");
+	private static final Histogram WRITE_WAIT = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_db_connection_wait_seconds", "Time waiting for a DB connection.", "conn", "write");
+	private static final Histogram READ_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_db_query_seconds", "Time DB connection was in use.", "conn", "read");
+	private static final Histogram WRITE_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_db_query_seconds", "Time DB connection was in use.", "conn", "write");
+
 	private final String dbPath;
-	private final Connection dbConn;
+	private final int mmapSizeMb;
+	private final int cacheSizeMb;
+	private final BlockingQueue<Connection> readConns;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private Connection writeConn;  // Guarded by writeLock after construction.
 	protected final AtomicLong writeCounter = new AtomicLong(0L);
 
 	public MediaDb (final File dbFile) throws SQLException {
-		this("jdbc:sqlite:" + dbFile.getAbsolutePath());
+		this(dbFile, DEFAULT_READ_CONNECTIONS, DEFAULT_MMAP_SIZE_MB, DEFAULT_CACHE_SIZE_MB);
+	}
+
+	/**
+	 * @param mmapSizeMb 0 to disable memory mapped IO.
+	 * @param cacheSizeMb page cache size for each connection.
+	 */
+	public MediaDb (final File dbFile, final int readConnections, final int mmapSizeMb, final int cacheSizeMb) throws SQLException {
+		this("jdbc:sqlite:" + dbFile.getAbsolutePath(), readConnections, mmapSizeMb, cacheSizeMb);
 	}
 
 	protected MediaDb(final String dbPath) throws SQLException {
+		this(dbPath, DEFAULT_READ_CONNECTIONS, DEFAULT_MMAP_SIZE_MB, DEFAULT_CACHE_SIZE_MB);
+	}
+
+	protected MediaDb(final String dbPath, final int readConnections, final int mmapSizeMb, final int cacheSizeMb) throws SQLException {
+		if (readConnections < 1) throw new IllegalArgumentException("readConnections must be at least 1: " + readConnections);
+		if (mmapSizeMb < 0) throw new IllegalArgumentException("mmapSizeMb must not be negative: " + mmapSizeMb);
+		if (cacheSizeMb < 1) throw new IllegalArgumentException("cacheSizeMb must be at least 1: " + cacheSizeMb);
 		this.dbPath = dbPath;
-		this.dbConn = makeDbConnection(dbPath);
+		this.mmapSizeMb = mmapSizeMb;
+		this.cacheSizeMb = cacheSizeMb;
+
+		this.writeConn = makeDbConnection(false);
 		makeSchema();
 		executeSql("PRAGMA optimize;");  // https://sqlite.org/lang_analyze.html
+
+		this.readConns = new ArrayBlockingQueue<>(readConnections);
+		for (int i = 0; i < readConnections; i++) {
+			this.readConns.add(makeDbConnection(true));
+		}
 	}
 
 	private void makeSchema () throws SQLException {
@@ -55,10 +114,10 @@ public class MediaDb {
 					+ "mimetype STRING"
 					+ ");");
 		}
-		Sqlite.addColumnIfMissing(this.dbConn, "files", "auth", "STRING NOT NULL DEFAULT '0'");
-		Sqlite.addColumnIfMissing(this.dbConn, "files", "missing", "INT(1) NOT NULL DEFAULT 0");
-		Sqlite.addColumnIfMissing(this.dbConn, "files", "md5", "STRING");
-		Sqlite.addColumnIfMissing(this.dbConn, "files", "mimetype", "STRING");
+		Sqlite.addColumnIfMissing(this.writeConn, "files", "auth", "STRING NOT NULL DEFAULT '0'");
+		Sqlite.addColumnIfMissing(this.writeConn, "files", "missing", "INT(1) NOT NULL DEFAULT 0");
+		Sqlite.addColumnIfMissing(this.writeConn, "files", "md5", "STRING");
+		Sqlite.addColumnIfMissing(this.writeConn, "files", "mimetype", "STRING");
 		// TODO index on MD5?
 		executeSql("CREATE INDEX IF NOT EXISTS files_id_auth_mimetype_missing_idx ON files (id,auth,mimetype,missing);");
 
@@ -74,7 +133,7 @@ public class MediaDb {
 		}
 		executeSql("CREATE INDEX IF NOT EXISTS tags_id_tag_deleted_cls_idx ON tags (file_id,tag COLLATE NOCASE,deleted,cls);");
 
-		Sqlite.addColumnIfMissing(this.dbConn, "tags", "cls", "STRING NOT NULL COLLATE NOCASE DEFAULT ''");
+		Sqlite.addColumnIfMissing(this.writeConn, "tags", "cls", "STRING NOT NULL COLLATE NOCASE DEFAULT ''");
 		if (!tableExists("hashes")) {
 			executeSql("CREATE TABLE hashes ("
 					+ "hash STRING NOT NULL PRIMARY KEY, id STRING NOT NULL);");
@@ -101,19 +160,95 @@ public class MediaDb {
 		}
 	}
 
-	@SuppressWarnings("resource")
+	/**
+	 * Blocks until any other WritableMediaDb has been closed.
+	 * The transaction starts here and is committed by close().
+	 */
 	public WritableMediaDb getWritable() throws SQLException {
-		final Connection c = makeDbConnection(this.dbPath);
-		c.setAutoCommit(false);
-		return new WritableMediaDb(c, this.writeCounter);
+		if (this.writeLock.isHeldByCurrentThread()) throw new IllegalStateException("This thread already has an open WritableMediaDb.");
+		final long startWait = System.nanoTime();
+		this.writeLock.lock();
+		final long startWrite = System.nanoTime();
+		WRITE_WAIT.observeNanos(startWrite - startWait);
+		try {
+			if (this.writeConn == null) this.writeConn = makeDbConnection(false);
+			final Connection c = this.writeConn;
+			c.setAutoCommit(false);
+			return new WritableMediaDb(c, this.writeCounter, () -> {
+				releaseWriteConn(c);
+				WRITE_DURATION.observeSince(startWrite);
+			});
+		}
+		catch (final SQLException | RuntimeException e) {
+			this.writeLock.unlock();
+			throw e;
+		}
 	}
 
-	public PreparedStatement prepare(final String sql) throws SQLException {
+	/**
+	 * Back to auto commit so the idle connection is not holding a transaction open.
+	 */
+	private void releaseWriteConn(final Connection c) {
 		try {
-			return this.dbConn.prepareStatement(sql);
+			c.setAutoCommit(true);
 		}
 		catch (final SQLException e) {
-			throw new SQLException("Failed to compile query (sql='" + sql + "').", e);
+			LOG.warn("Discarding DB write connection after error.", e);
+			try {
+				c.close();
+			}
+			catch (final SQLException e1) {
+				LOG.error("Failed to close DB connection.", e1);
+			}
+			this.writeConn = null;
+		}
+		finally {
+			this.writeLock.unlock();
+		}
+	}
+
+	/**
+	 * The PreparedStatement is closed when handler returns.
+	 */
+	public <T> T withPreparedStatement(final String sql, final ExFunction<PreparedStatement, T, SQLException> handler) throws SQLException {
+		return withReadConn((conn) -> {
+			final PreparedStatement st;
+			try {
+				st = conn.prepareStatement(sql);
+			}
+			catch (final SQLException e) {
+				throw new SQLException("Failed to compile query (sql='" + sql + "').", e);
+			}
+			try {
+				return handler.apply(st);
+			}
+			finally {
+				st.close();
+			}
+		});
+	}
+
+	/**
+	 * Do not call back into MediaDb from fn, it may wait forever for a second connection.
+	 */
+	private <T> T withReadConn(final ExFunction<Connection, T, SQLException> fn) throws SQLException {
+		final long startWait = System.nanoTime();
+		final Connection conn;
+		try {
+			conn = this.readConns.take();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for DB connection.", e);
+		}
+		final long startRead = System.nanoTime();
+		READ_WAIT.observeNanos(startRead - startWait);
+		try {
+			return fn.apply(conn);
+		}
+		finally {
+			this.readConns.add(conn);
+			READ_DURATION.observeSince(startRead);
 		}
 	}
 
@@ -129,33 +264,37 @@ public class MediaDb {
 	 */
 	// TODO replace with readFileData() ?
 	BigInteger readFileAuth(final File file) throws SQLException {
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT auth FROM files WHERE file=?;")) {
-			st.setString(1, file.getAbsolutePath());
-			st.setMaxRows(2);
-			try (final ResultSet rs = st.executeQuery()) {
-				if (!rs.next()) return null;
-				final BigInteger ret = new BigInteger(rs.getString(1), 16);
-				if (rs.next()) throw new SQLException("Query for file '" + file.getAbsolutePath() + "' retured more than one result.");
-				return ret;
+		return withReadConn((conn) -> {
+			try (final PreparedStatement st = conn.prepareStatement("SELECT auth FROM files WHERE file=?;")) {
+				st.setString(1, file.getAbsolutePath());
+				st.setMaxRows(2);
+				try (final ResultSet rs = st.executeQuery()) {
+					if (!rs.next()) return null;
+					final BigInteger ret = new BigInteger(rs.getString(1), 16);
+					if (rs.next()) throw new SQLException("Query for file '" + file.getAbsolutePath() + "' retured more than one result.");
+					return ret;
+				}
 			}
-		}
+		});
 	}
 
 	public String getFilePathForId(final String id) throws SQLException {
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT file FROM files WHERE id=?;")) {
-			st.setString(1, id);
-			st.setMaxRows(2);
-			try (final ResultSet rs = st.executeQuery()) {
-				if (!rs.next()) return null;
-				final String file = rs.getString(1);
-				if (rs.next()) throw new SQLException("Query for file '" + id + "' retured more than one result.");
-				return file;
+		return withReadConn((conn) -> {
+			try (final PreparedStatement st = conn.prepareStatement("SELECT file FROM files WHERE id=?;")) {
+				st.setString(1, id);
+				st.setMaxRows(2);
+				try (final ResultSet rs = st.executeQuery()) {
+					if (!rs.next()) return null;
+					final String file = rs.getString(1);
+					if (rs.next()) throw new SQLException("Query for file '" + id + "' retured more than one result.");
+					return file;
+				}
 			}
-		}
+		});
 	}
 
 	public FileData getFileData(final File file) throws SQLException {
-		return readFileDataFromConn(this.dbConn, file);
+		return withReadConn((conn) -> readFileDataFromConn(conn, file));
 	}
 
 	protected static FileData readFileDataFromConn(final Connection conn, final File file) throws SQLException {
@@ -179,55 +318,75 @@ public class MediaDb {
 		}
 	}
 
-	public Collection<String> getAllFilesThatAreNotMarkedAsMissing() throws SQLException {
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT file FROM files WHERE missing=0;")) {
-			try (final ResultSet rs = st.executeQuery()) {
-				final Collection<String> ret = new ArrayList<>();
-				while (rs.next()) {
-					ret.add(rs.getString(1));
+	/**
+	 * Up to limit files in path order, starting after afterFile or from the start if it is null.
+	 */
+	public List<String> getFilesNotMarkedAsMissing(final String afterFile, final int limit) throws SQLException {
+		return withReadConn((conn) -> {
+			try (final PreparedStatement st = conn.prepareStatement("SELECT file FROM files WHERE missing=0 AND file>? ORDER BY file ASC LIMIT ?;")) {
+				st.setString(1, afterFile != null ? afterFile : "");
+				st.setInt(2, limit);
+				try (final ResultSet rs = st.executeQuery()) {
+					final List<String> ret = new ArrayList<>();
+					while (rs.next()) {
+						ret.add(rs.getString(1));
+					}
+					return ret;
 				}
-				return ret;
 			}
-		}
+		});
 	}
 
 //	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
 	// File Info; duration, width, height.
 
 	protected FileInfo readInfoCheckingFileSize (final String fileId, final long expectedSize) throws SQLException {
-		final PreparedStatement st = this.dbConn.prepareStatement(
-				"SELECT size, duration, width, height FROM infos WHERE file_id=?;");
-		try {
-			st.setString(1, fileId);
-			st.setMaxRows(2);
-			final ResultSet rs = st.executeQuery();
-			try {
-				if (!rs.next()) return null;
-
-				final long storedSize = rs.getLong(1);
-				final long duration = rs.getLong(2);
-				final int width = rs.getInt(3);
-				final int height = rs.getInt(4);
-
-				if (rs.next()) throw new SQLException("Query for file_id '" + fileId + "' retured more than one result.");
-				if (expectedSize != storedSize) return null;
-
-				return new FileInfo(duration, width, height);
+		return withReadConn((conn) -> {
+			try (final PreparedStatement st = conn.prepareStatement(
+					"SELECT size, duration, width, height FROM infos WHERE file_id=?;")) {
+				st.setString(1, fileId);
+				st.setMaxRows(2);
+				try (final ResultSet rs = st.executeQuery()) {
+					if (!rs.next()) return null;
+
+					final long storedSize = rs.getLong(1);
+					final long duration = rs.getLong(2);
+					final int width = rs.getInt(3);
+					final int height = rs.getInt(4);
+
+					if (rs.next()) throw new SQLException("Query for file_id '" + fileId + "' retured more than one result.");
+					if (expectedSize != storedSize) return null;
+
+					return new FileInfo(duration, width, height);
+				}
 			}
-			finally {
-				rs.close();
+		});
+	}
+
+	/**
+	 * Every stored info in one pass, for filling in items in bulk at startup.
+	 */
+	public Map<String, StoredFileInfo> readAllInfos () throws SQLException {
+		return withReadConn((conn) -> {
+			try (final PreparedStatement st = conn.prepareStatement(
+					"SELECT file_id, size, duration, width, height FROM infos;")) {
+				try (final ResultSet rs = st.executeQuery()) {
+					final Map<String, StoredFileInfo> ret = new HashMap<>();
+					while (rs.next()) {
+						final FileInfo info = new FileInfo(rs.getLong(3), rs.getInt(4), rs.getInt(5));
+						ret.put(rs.getString(1), new StoredFileInfo(rs.getLong(2), info));
+					}
+					return ret;
+				}
 			}
-		}
-		finally {
-			st.close();
-		}
+		});
 	}
 
 //	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
 	// Hashes.
 
 	public String canonicalIdForHash (final String hash) throws SQLException {
-		return MediaDb.canonicalIdForHashFromConn(this.dbConn, hash);
+		return withReadConn((conn) -> MediaDb.canonicalIdForHashFromConn(conn, hash));
 	}
 
 	/**
@@ -259,15 +418,53 @@ public class MediaDb {
 	// Tags.
 
 	public Collection<Tag> getTags(final String fileId, final boolean inclideHidden, final boolean includeDeleted) throws SQLException {
-		return getTagsFromConn(this.dbConn, fileId, inclideHidden, includeDeleted);
+		return withReadConn((conn) -> getTagsFromConn(conn, fileId, inclideHidden, includeDeleted));
 	}
 
-	protected static Collection<Tag> getTagFromConn(final Connection conn, final String fileId, final String tag, final String cls) throws SQLException {
-		try (final PreparedStatement st = conn.prepareStatement(SELECT_FROM_TAGS + "file_id=? AND tag=? AND cls=?")) {
-			st.setString(1, fileId);
-			st.setString(2, tag);
-			st.setString(3, cls);
-			return readTagsResultSet(st);
+	/**
+	 * Tags for many files with one query per TAG_BATCH_SIZE ids, all on the same connection.
+	 * Every id is in the returned map, in the order given, with an empty collection if it has no tags.
+	 */
+	public Map<String, Collection<Tag>> getTags(final Collection<String> fileIds, final boolean inclideHidden, final boolean includeDeleted) throws SQLException {
+		final Map<String, Collection<Tag>> ret = new LinkedHashMap<>();
+		for (final String id : fileIds) {
+			ret.put(id, new ArrayList<>());
+		}
+		if (ret.size() < 1) return ret;
+
+		final List<String> ids = new ArrayList<>(ret.keySet());
+		return withReadConn((conn) -> {
+			for (int from = 0; from < ids.size(); from += TAG_BATCH_SIZE) {
+				final List<String> batch = ids.subList(from, Math.min(from + TAG_BATCH_SIZE, ids.size()));
+				readTagsForFileIds(conn, batch, inclideHidden, includeDeleted, ret);
+			}
+			return ret;
+		});
+	}
+
+	/**
+	 * Well under SQLite's default limit on the number of bound parameters.
+	 */
+	private static final int TAG_BATCH_SIZE = 500;
+
+	private static void readTagsForFileIds(final Connection conn, final List<String> fileIds, final boolean inclideHidden, final boolean includeDeleted, final Map<String, Collection<Tag>> ret) throws SQLException {
+		final StringBuilder query = new StringBuilder("SELECT file_id,tag,cls,modified,deleted FROM tags WHERE file_id IN (");
+		for (int i = 0; i < fileIds.size(); i++) {
+			query.append(i > 0 ? ",?" : "?");
+		}
+		query.append(")");
+		if (!inclideHidden) query.append(" AND cls NOT LIKE '.%'");
+		if (!includeDeleted) query.append(" AND deleted=0");
+		query.append(" ORDER BY file_id ASC, tag ASC, cls ASC");
+		try (final PreparedStatement st = conn.prepareStatement(query.toString())) {
+			for (int i = 0; i < fileIds.size(); i++) {
+				st.setString(i + 1, fileIds.get(i));
+			}
+			try (final ResultSet rs = st.executeQuery()) {
+				while (rs.next()) {
+					ret.get(rs.getString(1)).add(new Tag(rs.getString(2), rs.getString(3), rs.getLong(4), rs.getInt(5) != 0));
+				}
+			}
 		}
 	}
 
@@ -302,19 +499,21 @@ public class MediaDb {
 		}
 		SqlFragments.appendWhereAuth(sql, authIds);
 		sql.append(" GROUP BY tag ORDER BY freq DESC, tag ASC LIMIT ?;");
-		try (final PreparedStatement st = this.dbConn.prepareStatement(sql.toString())) {
-			int param = 1;
-			if (pathPrefix != null) {
-				String pathLike = pathPrefix;
-				// TODO what about file systems that use \ ?
-				if (!pathLike.endsWith("/")) pathLike += "/";
-				st.setString(param++, Sqlite.escapeSearch(pathLike) + "%");
-				st.setString(param++, Sqlite.SEARCH_ESC);
+		return withReadConn((conn) -> {
+			try (final PreparedStatement st = conn.prepareStatement(sql.toString())) {
+				int param = 1;
+				if (pathPrefix != null) {
+					String pathLike = pathPrefix;
+					// TODO what about file systems that use \ ?
+					if (!pathLike.endsWith("/")) pathLike += "/";
+					st.setString(param++, Sqlite.escapeSearch(pathLike) + "%");
+					st.setString(param++, Sqlite.SEARCH_ESC);
+				}
+				st.setInt(param++, countLimit);
+				st.setMaxRows(countLimit);
+				return readTagFrequencyResultSet(countLimit, st);
 			}
-			st.setInt(param++, countLimit);
-			st.setMaxRows(countLimit);
-			return readTagFrequencyResultSet(countLimit, st);
-		}
+		});
 	}
 
 	// FIXME this does not honour auth.
@@ -327,9 +526,11 @@ public class MediaDb {
 				+ " AND cls NOT LIKE '.%'"
 				+ " GROUP BY tag"
 				+ " ORDER BY tag ASC, freq DESC;";  // Sort order depended on by TagAutocompleter.
-		try (final PreparedStatement st = this.dbConn.prepareStatement(sql.toString())) {
-			return readTagFrequencyResultSet(1000, st);
-		}
+		return withReadConn((conn) -> {
+			try (final PreparedStatement st = conn.prepareStatement(sql.toString())) {
+				return readTagFrequencyResultSet(1000, st);
+			}
+		});
 	}
 
 	private static List<TagFrequency> readTagFrequencyResultSet(final int count, final PreparedStatement st) throws SQLException {
@@ -346,29 +547,33 @@ public class MediaDb {
 	// prefs:
 
 	public Map<String, String> getNodePrefs(final String nodeId) throws SQLException {
-		final Map<String, String> ret = new HashMap<>();
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT key, value FROM nodeprefs WHERE id=?;")) {
-			st.setString(1, nodeId);
-			try (final ResultSet rs = st.executeQuery()) {
-				while (rs.next()) {
-					ret.put(rs.getString(1), rs.getString(2));
+		return withReadConn((conn) -> {
+			final Map<String, String> ret = new HashMap<>();
+			try (final PreparedStatement st = conn.prepareStatement("SELECT key, value FROM nodeprefs WHERE id=?;")) {
+				st.setString(1, nodeId);
+				try (final ResultSet rs = st.executeQuery()) {
+					while (rs.next()) {
+						ret.put(rs.getString(1), rs.getString(2));
+					}
+					return ret;
 				}
-				return ret;
 			}
-		}
+		});
 	}
 
 	public Map<String, String> getAllNodePref(final String key) throws SQLException {
-		final Map<String, String> ret = new HashMap<>();
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT id, value FROM nodeprefs WHERE key=?;")) {
-			st.setString(1, key);
-			try (final ResultSet rs = st.executeQuery()) {
-				while (rs.next()) {
-					ret.put(rs.getString(1), rs.getString(2));
+		return withReadConn((conn) -> {
+			final Map<String, String> ret = new HashMap<>();
+			try (final PreparedStatement st = conn.prepareStatement("SELECT id, value FROM nodeprefs WHERE key=?;")) {
+				st.setString(1, key);
+				try (final ResultSet rs = st.executeQuery()) {
+					while (rs.next()) {
+						ret.put(rs.getString(1), rs.getString(2));
+					}
+					return ret;
 				}
-				return ret;
 			}
-		}
+		});
 	}
 
 
@@ -377,19 +582,34 @@ public class MediaDb {
 	private static SQLiteConfig makeDbConfig() throws SQLException {
 		final SQLiteConfig c = new SQLiteConfig();
 		c.setEncoding(Encoding.UTF8);
-		c.setSharedCache(true);
+		// No shared cache: it uses table level locking between connections, which defeats WAL.
+		// In memory DBs for tests need cache=shared in their URI to share one DB, but WAL does not apply to them,
+		// so there a read during an open write fails with SQLITE_LOCKED instead of seeing the last commit.
+		c.setJournalMode(JournalMode.WAL);
+		c.setSynchronous(SynchronousMode.NORMAL);  // Durable enough in WAL mode, and fewer fsync()s.
 		c.setTransactionMode(TransactionMode.IMMEDIATE);
 		c.enforceForeignKeys(true);
 		c.setBusyTimeout((int) TimeUnit.SECONDS.toMillis(30));  // Should be longer than MediaMetadataStore.FILE_BATCH_MAX_DURATION.
 		return c;
 	}
 
-	private static Connection makeDbConnection (final String dbPath) throws SQLException {
-		return DriverManager.getConnection(dbPath, makeDbConfig().toProperties());
+	@SuppressWarnings("resource")
+	private Connection makeDbConnection (final boolean readOnly) throws SQLException {
+		final Connection c = DriverManager.getConnection(this.dbPath, makeDbConfig().toProperties());
+		try (final Statement st = c.createStatement()) {
+			st.execute("PRAGMA mmap_size=" + (this.mmapSizeMb * 1024L * 1024L) + ";");
+			st.execute("PRAGMA cache_size=-" + (this.cacheSizeMb * 1024L) + ";");  // Negative is KiB.
+			if (readOnly) st.execute("PRAGMA query_only=1;");
+		}
+		catch (final SQLException e) {
+			c.close();
+			throw e;
+		}
+		return c;
 	}
 
 	private boolean tableExists (final String tableName) throws SQLException {
-		final Statement st = this.dbConn.createStatement();
+		final Statement st = this.writeConn.createStatement();
 		try {
 			final ResultSet rs = st.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='" + tableName + "';");
 			try {
@@ -405,7 +625,7 @@ public class MediaDb {
 	}
 
 	private boolean executeSql (final String sql) throws SQLException {
-		final Statement st = this.dbConn.createStatement();
+		final Statement st = this.writeConn.createStatement();
 		try {
 			return st.executeUpdate(sql) > 0;
 		}
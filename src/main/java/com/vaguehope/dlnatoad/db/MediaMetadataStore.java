@@ -9,9 +9,13 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -21,29 +25,56 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vaguehope.dlnatoad.media.MediaFormat;
+import com.vaguehope.dlnatoad.metrics.Counter;
+import com.vaguehope.dlnatoad.metrics.Histogram;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
 import com.vaguehope.dlnatoad.media.MediaIdCallback;
 import com.vaguehope.dlnatoad.util.HashHelper;
 
 public class MediaMetadataStore {
 
+	public static final int DEFAULT_HASH_THREADS = 2;
+
 	private static final long FILE_BATCH_START_DELAY_MILLIS = 100;  // Yield to other activities / DB writers.
 	private static final long FILE_BATCH_MAX_DURATION_NANOS = TimeUnit.SECONDS.toNanos(10);
 	private static final int INFO_WRITE_INTERVAL_SECONDS = 30;
 	private static final Logger LOG = LoggerFactory.getLogger(MediaMetadataStore.class);
 
-	private final BlockingQueue<FileTask> fileQueue = new LinkedBlockingQueue<>();
+	private static final Histogram HASH_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_file_hash_seconds", "Time to read and hash a file.");
+	private static final Histogram BATCH_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_file_batch_seconds", "Time to write a batch of file metadata.");
+	private static final Counter FILES_PROCESSED = MetricRegistry.DEFAULT.counter(
+			"dlnatoad_file_tasks_total", "File tasks written to the DB.");
+
+	private final BlockingDeque<FileTask> fileQueue = new LinkedBlockingDeque<>();
 	private final AtomicBoolean fileIdWorkerRunning = new AtomicBoolean(false);
 	private final BlockingQueue<FileIdAndInfo> storeDuraionQueue = new LinkedBlockingQueue<>();
 
 	private final MediaDb mediaDb;
 	private final ScheduledExecutorService exSvc;
+	private final ExecutorService hashExSvc;
 	private final boolean verboseLog;
 
+	/**
+	 * Files are hashed on the thread that calls idForFile().
+	 */
 	public MediaMetadataStore(final MediaDb mediaDb, final ScheduledExecutorService exSvc, final boolean verboseLog) {
+		this(mediaDb, exSvc, null, verboseLog);
+	}
+
+	/**
+	 * @param hashExSvc Files are hashed on this executor, outside of any DB transaction, before being passed
+	 *            to the single DB writer in exSvc.  Its thread count is how many files are read in parallel.
+	 */
+	public MediaMetadataStore(final MediaDb mediaDb, final ScheduledExecutorService exSvc, final ExecutorService hashExSvc, final boolean verboseLog) {
 		this.mediaDb = mediaDb;
 		this.exSvc = exSvc;
+		this.hashExSvc = hashExSvc;
 		this.verboseLog = verboseLog;
 		exSvc.scheduleWithFixedDelay(new InfoWorker(), 0, INFO_WRITE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		MetricRegistry.DEFAULT.gauge("dlnatoad_metadata_queue_depth", "Tasks waiting to be written to the DB.", this.fileQueue::size, "queue", "file");
+		MetricRegistry.DEFAULT.gauge("dlnatoad_metadata_queue_depth", "Tasks waiting to be written to the DB.", this.storeDuraionQueue::size, "queue", "info");
 	}
 
 	public MediaDb getMediaDb() {
@@ -52,8 +83,44 @@ public class MediaMetadataStore {
 
 	public void idForFile(final File file, final BigInteger auth, final MediaIdCallback callback) throws IOException, InterruptedException {
 		if (!file.isFile()) throw new IOException("Not a file: " + file.getAbsolutePath());
-		this.fileQueue.put(new FileTask(file, auth, callback));
-		scheduleFileIdBatchIfNeeded();
+		final FileTask task = new FileTask(file, auth, callback);
+		if (this.hashExSvc != null) {
+			// Queue first so the task keeps its place in order while hashing.
+			this.fileQueue.put(task);
+			this.hashExSvc.execute(() -> {
+				prepareFileTask(task);
+				scheduleFileIdBatchIfNeeded();
+			});
+		}
+		else {
+			prepareFileTask(task);
+			this.fileQueue.put(task);
+			scheduleFileIdBatchIfNeeded();
+		}
+	}
+
+	/**
+	 * Does the slow part, reading the whole file, without holding a DB transaction.
+	 * Decisions made here are checked again by the writer, which also covers anything that changed in between.
+	 */
+	private void prepareFileTask(final FileTask task) {
+		FileData hashed = null;
+		try {
+			final File file = task.getFile();
+			final FileData oldFileData = this.mediaDb.getFileData(file);
+			if (file.exists() && (oldFileData == null || !oldFileData.upToDate(file) || oldFileData.getMd5() == null)) {
+				final long start = System.nanoTime();
+				hashed = FileData.forFile(file); // Slow.
+				HASH_DURATION.observeSince(start);
+			}
+		}
+		catch (final Exception e) {
+			// Writer will try again and report the error to the callback.
+			LOG.debug("Failed to prepare file task {}: {}", task, e.toString());
+		}
+		finally {
+			task.setPrepared(hashed);
+		}
 	}
 
 	public void fileGone(final File file) {
@@ -94,7 +161,38 @@ public class MediaMetadataStore {
 		}
 	}
 
+	private boolean isNextTaskReady() {
+		final FileTask f = this.fileQueue.peekFirst();
+		return f != null && f.isPrepared();
+	}
+
+	/**
+	 * Tasks are written in the order they were queued, so stop at the first one that is still being hashed.
+	 */
+	private FileTask pollReadyTask() {
+		final FileTask f;
+		try {
+			f = this.fileQueue.pollFirst(10, TimeUnit.MILLISECONDS);
+		}
+		catch (final InterruptedException e) {
+			return null;
+		}
+		if (f == null) return null;
+		if (!f.isPrepared()) {
+			this.fileQueue.offerFirst(f);
+			return null;
+		}
+		return f;
+	}
+
 	private void processFileQueue() throws SQLException, IOException {
+		if (!isNextTaskReady()) {
+			// Do not hold a transaction open waiting for hashing, completing it will schedule another batch.
+			this.fileIdWorkerRunning.compareAndSet(true, false);
+			if (isNextTaskReady()) scheduleFileIdBatchIfNeeded();
+			return;
+		}
+
 		final long startTime = System.nanoTime();
 		int count = 0;
 		Runnable genericCallback = null;
@@ -102,10 +200,7 @@ public class MediaMetadataStore {
 		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
 			FileTask f = null;
 			do {
-				try {
-					f = this.fileQueue.poll(10, TimeUnit.MILLISECONDS);
-				}
-				catch (InterruptedException e) {/* ignore */}
+				f = pollReadyTask();
 				if (f != null) {
 					genericCallback = f.getGenericCallback();
 					if (genericCallback != null) break;
@@ -116,12 +211,14 @@ public class MediaMetadataStore {
 			while (f != null && System.nanoTime() - startTime < FILE_BATCH_MAX_DURATION_NANOS);
 			this.fileIdWorkerRunning.compareAndSet(true, false);
 			// we have said we are not running anymore, any new work added to the queue
-			// will add a new batch.  if there is any work still on the queue, schedule a
-			// a batch to cover that.
-			if (this.fileQueue.size() > 0) {
+			// will add a new batch.  if there is any ready work still on the queue, schedule a
+			// a batch to cover that.  work still being hashed will schedule a batch when done.
+			if (isNextTaskReady()) {
 				scheduleFileIdBatchIfNeeded();
 			}
 		}
+		BATCH_DURATION.observeSince(startTime);
+		FILES_PROCESSED.add(count);
 		LOG.info("Batch file metadata write for {} files.", count);
 
 		if (genericCallback != null) {
@@ -133,11 +230,13 @@ public class MediaMetadataStore {
 		try {
 			switch (f.getAction()) {
 			case ID:
-				addOrUpdateFileData(w, f.getFile(), f.getAuth(), f.getCallback());
+				addOrUpdateFileData(w, f.getFile(), f.getAuth(), f.getHashed(), f.getCallback());
 				break;
 			case GONE:
 				// This is best effort as the file might have already been merged into another depending on message order.
 				w.setFileMissing(f.getFile().getAbsolutePath(), true, /* dbMustChange= */false);
+				// If it was a directory nothing under it will get its own event.
+				w.setFilesUnderDirMissing(f.getFile().getAbsolutePath());
 				break;
 			default:
 				LOG.error("Task missing action: {}", f);
@@ -159,15 +258,15 @@ public class MediaMetadataStore {
 		}
 	}
 
-	private void addOrUpdateFileData(final WritableMediaDb w, final File file, final BigInteger auth, final MediaIdCallback callback) throws SQLException, IOException {
+	private void addOrUpdateFileData(final WritableMediaDb w, final File file, final BigInteger auth, final FileData hashed, final MediaIdCallback callback) throws SQLException, IOException {
 		final FileData oldFileData = w.readFileData(file);
 		final String id;
 		if (oldFileData == null) {
-			final FileData newFileData = generateNewFileData(w, file);
+			final FileData newFileData = generateNewFileData(w, file, hashed);
 			id = canonicaliseAndStoreId(w, newFileData);
 		}
 		else if (file.exists() && !oldFileData.upToDate(file)) {
-			final FileData updatedFileData = generateUpdatedFileData(w, file, oldFileData);
+			final FileData updatedFileData = generateUpdatedFileData(w, file, hashed, oldFileData);
 			id = canonicaliseAndStoreId(w, updatedFileData);
 		}
 		else {
@@ -179,7 +278,9 @@ public class MediaMetadataStore {
 
 				// Back fill MD5 if needed.
 				if (oldFileData.getMd5() == null) {
-					final String md5 = HashHelper.md5(file).toString(16);
+					final String md5 = hashed != null && hashed.upToDate(file)
+							? hashed.getMd5()
+							: HashHelper.md5(file).toString(16);
 					w.updateFileData(file, oldFileData.withMd5(md5));
 				}
 
@@ -219,8 +320,16 @@ public class MediaMetadataStore {
 		return id;
 	}
 
-	private FileData generateNewFileData(final WritableMediaDb w, final File file) throws IOException, SQLException {
-		FileData fileData = FileData.forFile(file); // Slow.
+	/**
+	 * Use the hash from before the transaction if the file has not changed since.
+	 */
+	private static FileData hashedOrHashNow(final File file, final FileData hashed) throws IOException {
+		if (hashed != null && hashed.upToDate(file)) return hashed;
+		return FileData.forFile(file); // Slow.
+	}
+
+	private FileData generateNewFileData(final WritableMediaDb w, final File file, final FileData hashed) throws IOException, SQLException {
+		FileData fileData = hashedOrHashNow(file, hashed);
 		Collection<FileAndId> filesToRemove = null;
 
 		// A preexisting ID will only be used only if no other files with that hash still exist.
@@ -249,8 +358,8 @@ public class MediaMetadataStore {
 		return fileData;
 	}
 
-	private FileData generateUpdatedFileData(final WritableMediaDb w, final File file, final FileData oldFileData) throws SQLException, IOException {
-		final FileData newFileData = FileData.forFile(file).withId(oldFileData.getId()); // Slow.
+	private FileData generateUpdatedFileData(final WritableMediaDb w, final File file, final FileData hashed, final FileData oldFileData) throws SQLException, IOException {
+		final FileData newFileData = hashedOrHashNow(file, hashed).withId(oldFileData.getId());
 		return processUpdatedFileData(w, file, newFileData, oldFileData);
 	}
 
@@ -341,6 +450,10 @@ public class MediaMetadataStore {
 		return this.mediaDb.readInfoCheckingFileSize(fileId, file.length());
 	}
 
+	public Map<String, StoredFileInfo> readAllFileInfos() throws SQLException {
+		return this.mediaDb.readAllInfos();
+	}
+
 	public void storeFileInfoAsync(final String fileId, final File file, final FileInfo info) throws SQLException, InterruptedException {
 		this.storeDuraionQueue.put(new FileIdAndInfo(fileId, file, info));
 	}
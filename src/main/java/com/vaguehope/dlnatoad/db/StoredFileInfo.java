@@ -0,0 +1,35 @@
+package com.vaguehope.dlnatoad.db;
+
+import java.io.File;
+
+/**
+ * A row from the infos table, with the file size it was read at.
+ */
+public class StoredFileInfo {
+
+	private final long size;
+	private final FileInfo info;
+
+	public StoredFileInfo(final long size, final FileInfo info) {
+		if (info == null) throw new IllegalArgumentException("Info can not be null.");
+		this.size = size;
+		this.info = info;
+	}
+
+	public long getSize() {
+		return this.size;
+	}
+
+	public FileInfo getInfo() {
+		return this.info;
+	}
+
+	/**
+	 * Null if the file has changed size since the info was stored.
+	 */
+	public FileInfo getInfoIfStillValid(final File file) {
+		if (file.length() != this.size) return null;
+		return this.info;
+	}
+
+}
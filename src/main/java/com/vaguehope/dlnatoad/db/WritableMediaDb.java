@@ -11,6 +11,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -24,31 +25,46 @@ public class WritableMediaDb implements Closeable {
 
 	private final Connection conn;
 	private final AtomicLong writeCounter;
+	private final Runnable onClose;
 
-	protected WritableMediaDb(final Connection conn, final AtomicLong writeCounter) throws SQLException {
+	private PreparedStatement mergeTagUpdate;
+	private PreparedStatement mergeTagInsert;
+
+	/**
+	 * @param onClose called after commit or rollback to hand back the connection, which is not closed.
+	 */
+	protected WritableMediaDb(final Connection conn, final AtomicLong writeCounter, final Runnable onClose) throws SQLException {
 		this.writeCounter = writeCounter;
 		if (conn.getAutoCommit()) {
 			throw new IllegalArgumentException("AutoCommit must not be enabled.");
 		}
 		this.conn = conn;
+		this.onClose = onClose;
 	}
 
 	@Override
 	public void close() throws IOException {
-		boolean committed = false;
 		try {
+			closeStatements();
 			commitOrRollback();
-			committed = true;
 		}
 		finally {
+			this.onClose.run();
+		}
+	}
+
+	private void closeStatements() {
+		for (final PreparedStatement st : new PreparedStatement[] { this.mergeTagUpdate, this.mergeTagInsert }) {
+			if (st == null) continue;
 			try {
-				this.conn.close();
+				st.close();
 			}
 			catch (final SQLException e) {
-				if (committed) throw new IOException("Failed to close DB connection.", e);
-				LOG.error("Failed to close DB connection", e);
+				LOG.warn("Failed to close statement.", e);
 			}
 		}
+		this.mergeTagUpdate = null;
+		this.mergeTagInsert = null;
 	}
 
 	private void commitOrRollback() throws IOException {
@@ -205,6 +221,23 @@ public class WritableMediaDb implements Closeable {
 		}
 	}
 
+	/**
+	 * For when a directory has gone, as there will not be an event for each file that was in it.
+	 * Returns the number of files newly marked as missing.
+	 */
+	protected int setFilesUnderDirMissing(final String dir) throws SQLException {
+		final String prefix = dir.endsWith(File.separator) ? dir : dir + File.separator;
+		final String end = prefix.substring(0, prefix.length() - 1) + (char) (File.separatorChar + 1);
+		try (final PreparedStatement st = this.conn.prepareStatement("UPDATE files SET missing=1 WHERE missing=0 AND file>=? AND file<?;")) {
+			st.setString(1, prefix);
+			st.setString(2, end);
+			return st.executeUpdate();
+		}
+		catch (final SQLException e) {
+			throw new SQLException(String.format("Failed to set missing for files under \"%s\".", dir), e);
+		}
+	}
+
 	protected void removeFile (final File file) throws SQLException {
 		final PreparedStatement st = this.conn.prepareStatement(
 				"DELETE FROM files WHERE file=?;");
@@ -335,35 +368,106 @@ public class WritableMediaDb implements Closeable {
 		return mergeTag(fileId, tag, cls, modifiled, /* deleted= */deleted, /* updateModified= */true, /* insertOnly= */false);
 	}
 
-	private boolean mergeTag(final String fileId, final String tag, final String cls, final long modifiled, final boolean deleted, final boolean updateModified, final boolean insertOnly) throws SQLException {
-		final Collection<Tag> existing = MediaDb.getTagFromConn(this.conn, fileId, tag, cls);
-		if (existing.size() > 1) throw new IllegalStateException(String.format("DB UNIQUE(file_id, tag) constraint failed: id=%s tag='%s'", fileId, tag));
-		if (existing.size() > 0) {
-			if (insertOnly) return false;
-
-			final Tag e = existing.iterator().next();
-			if (e.getModified() >= modifiled) return false;
-			if (e.isDeleted() == deleted && !updateModified) return false;
-
-			setTagModifiedAndDeleted(fileId, tag, cls, deleted, modifiled);
-
-			if (!e.getTag().equals(tag)) {  // tag case changed.
-				updateTagString(fileId, tag, cls);
+	/**
+	 * Like addTag() for each file, as one batch of UPDATEs then one batch of INSERTs for files the UPDATE did not match.
+	 * Returns the number of files that were changed.
+	 */
+	public int addTag(final Collection<String> fileIds, final String tag, final String cls, final long modifiled) throws SQLException {
+		final List<String> ids = new ArrayList<>(new LinkedHashSet<>(fileIds));
+		if (ids.size() < 1) return 0;
+		try {
+			int count = 0;
+			final List<String> toInsert = new ArrayList<>();
+			try (final PreparedStatement st = this.conn.prepareStatement(
+					"UPDATE tags SET tag=?,modified=?,deleted=0 WHERE file_id=? AND tag=? AND cls=?"
+					+ " AND modified<? AND deleted<>0")) {
+				for (final String fileId : ids) {
+					st.setString(1, tag);
+					st.setLong(2, modifiled);
+					st.setString(3, fileId);
+					st.setString(4, tag);
+					st.setString(5, cls);
+					st.setLong(6, modifiled);
+					st.addBatch();
+				}
+				final int[] ns = st.executeBatch();
+				for (int i = 0; i < ns.length; i++) {
+					if (ns[i] > 0) {
+						count += 1;
+					}
+					else {
+						toInsert.add(ids.get(i));
+					}
+				}
 			}
 
-			return true;
+			if (toInsert.size() < 1) return count;
+			try (final PreparedStatement st = this.conn.prepareStatement(
+					"INSERT INTO tags (file_id,tag,cls,modified,deleted) SELECT ?,?,?,?,0"
+					+ " WHERE NOT EXISTS (SELECT 1 FROM tags WHERE file_id=? AND tag=? AND cls=?)")) {
+				for (final String fileId : toInsert) {
+					st.setString(1, fileId);
+					st.setString(2, tag);
+					st.setString(3, cls);
+					st.setLong(4, modifiled);
+					st.setString(5, fileId);
+					st.setString(6, tag);
+					st.setString(7, cls);
+					st.addBatch();
+				}
+				for (final int n : st.executeBatch()) {
+					if (n > 0) count += 1;
+				}
+			}
+			return count;
+		}
+		catch (final SQLException e) {
+			throw new SQLException(String.format("Failed to store tag for %s ids: tag='%s' cls='%s'", ids.size(), tag, cls), e);
 		}
+	}
+
+	/**
+	 * The rules for whether an existing row is changed are in the UPDATE's WHERE clause,
+	 * and the INSERT only happens if no row exists, so nothing needs to be read first.
+	 * Both statements are prepared once and reused until close().
+	 */
+	private boolean mergeTag(final String fileId, final String tag, final String cls, final long modifiled, final boolean deleted, final boolean updateModified, final boolean insertOnly) throws SQLException {
+		try {
+			if (!insertOnly) {
+				if (this.mergeTagUpdate == null) {
+					// Setting tag too picks up any change in case, as tag and cls are COLLATE NOCASE.
+					this.mergeTagUpdate = this.conn.prepareStatement(
+							"UPDATE tags SET tag=?,modified=?,deleted=? WHERE file_id=? AND tag=? AND cls=?"
+							+ " AND modified<? AND (deleted<>? OR ?<>0)");
+				}
+				final PreparedStatement st = this.mergeTagUpdate;
+				st.setString(1, tag);
+				st.setLong(2, modifiled);
+				st.setInt(3, deleted ? 1 : 0);
+				st.setString(4, fileId);
+				st.setString(5, tag);
+				st.setString(6, cls);
+				st.setLong(7, modifiled);
+				st.setInt(8, deleted ? 1 : 0);
+				st.setInt(9, updateModified ? 1 : 0);
+				if (st.executeUpdate() > 0) return true;
+			}
 
-		try (final PreparedStatement st = this.conn.prepareStatement(
-				"INSERT INTO tags (file_id,tag,cls,modified,deleted) VALUES (?,?,?,?,?)")) {
+			if (this.mergeTagInsert == null) {
+				this.mergeTagInsert = this.conn.prepareStatement(
+						"INSERT INTO tags (file_id,tag,cls,modified,deleted) SELECT ?,?,?,?,?"
+						+ " WHERE NOT EXISTS (SELECT 1 FROM tags WHERE file_id=? AND tag=? AND cls=?)");
+			}
+			final PreparedStatement st = this.mergeTagInsert;
 			st.setString(1, fileId);
 			st.setString(2, tag);
 			st.setString(3, cls);
 			st.setLong(4, modifiled);
-			st.setBoolean(5, deleted);  // Yes first write might be recoding a deletion.
-			final int n = st.executeUpdate();
-			if (n < 1) throw new SQLException(String.format("No update occured inserting tag for id=%s: tag='%s' cls='%s'", fileId, tag, cls));
-			return true;
+			st.setInt(5, deleted ? 1 : 0);  // Yes first write might be recoding a deletion.
+			st.setString(6, fileId);
+			st.setString(7, tag);
+			st.setString(8, cls);
+			return st.executeUpdate() > 0;
 		}
 		catch (final SQLException e) {
 			throw new SQLException(String.format("Failed to store tag for id=%s: tag='%s' cls='%s'", fileId, tag, cls), e);
@@ -385,6 +489,31 @@ public class WritableMediaDb implements Closeable {
 		}
 	}
 
+	/**
+	 * Like setTagModifiedAndDeleted() for each file, as one batch.
+	 */
+	public void setTagModifiedAndDeleted(final Collection<String> fileIds, final String tag, final String cls, final boolean deleted, final long modifiled) throws SQLException {
+		if (fileIds.size() < 1) return;
+		try (final PreparedStatement st = this.conn.prepareStatement("UPDATE tags SET deleted=?,modified=? WHERE file_id=? AND tag=? AND cls=?")) {
+			for (final String fileId : fileIds) {
+				st.setInt(1, deleted ? 1 : 0);
+				st.setLong(2, modifiled);
+				st.setString(3, fileId);
+				st.setString(4, tag);
+				st.setString(5, cls);
+				st.addBatch();
+			}
+			final int[] ns = st.executeBatch();
+			int i = 0;
+			for (final String fileId : fileIds) {
+				if (ns[i++] < 1) throw new SQLException(String.format("No update occured setting tag deleted=%s: id=%s tag='%s' cls='%s'", deleted, fileId, tag, cls));
+			}
+		}
+		catch (final SQLException e) {
+			throw new SQLException(String.format("Failed to set tag deleted=%s: %s ids tag='%s' cls='%s'", deleted, fileIds.size(), tag, cls), e);
+		}
+	}
+
 	public void updateTagString(final String fileId, final String tag, final String cls) throws SQLException {
 		try (final PreparedStatement st = this.conn.prepareStatement("UPDATE tags SET tag=? WHERE file_id=? AND tag=? AND cls=?")) {
 			st.setString(1, tag);
@@ -1,7 +1,6 @@
 package com.vaguehope.dlnatoad.db.search;
 
 import java.math.BigInteger;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -267,7 +266,7 @@ public class DbSearchParser {
 		}
 
 		public List<T> execute (final MediaDb db, final int maxResults, final int offset) throws SQLException {
-			try (final PreparedStatement ps = db.prepare(maybeAddLimit(this.sql, maxResults, offset))) {
+			return db.withPreparedStatement(maybeAddLimit(this.sql, maxResults, offset), (ps) -> {
 				int parmIn = 1;
 				for (final String term : this.terms) {
 					if ("OR".equals(term)) continue;
@@ -305,7 +304,7 @@ public class DbSearchParser {
 				try (final ResultSet rs = ps.executeQuery()) {
 					return parseRecordSet(rs);
 				}
-			}
+			});
 		}
 
 		private static String maybeAddLimit(final String sql, final int maxResults, final int offset) {
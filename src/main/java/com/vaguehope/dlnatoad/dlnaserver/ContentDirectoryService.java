@@ -15,14 +15,14 @@ import org.jupnp.support.model.BrowseFlag;
 import org.jupnp.support.model.BrowseResult;
 import org.jupnp.support.model.DIDLContent;
 import org.jupnp.support.model.SortCriterion;
-import org.jupnp.support.model.container.Container;
-import org.jupnp.support.model.item.Item;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vaguehope.dlnatoad.media.ContentItem;
 import com.vaguehope.dlnatoad.media.ContentNode;
 import com.vaguehope.dlnatoad.media.ContentTree;
+import com.vaguehope.dlnatoad.metrics.Histogram;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
 
 /**
  * Based on a class from WireMe and used under Apache 2 License. See
@@ -34,6 +34,11 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 
 	private static final int MAX_RESULTS = 500;
 
+	private static final Histogram BROWSE_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_upnp_action_seconds", "Time to answer a ContentDirectory request.", "action", "browse");
+	private static final Histogram SEARCH_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_upnp_action_seconds", "Time to answer a ContentDirectory request.", "action", "search");
+
 	private final ContentTree contentTree;
 	private final NodeConverter nodeConverter;
 	private final SearchEngine searchEngine;
@@ -70,9 +75,9 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 					return new BrowseResult(this.parserSupplier.get().generate(didl), 1, 1);
 				}
 
-				final List<Container> containers = this.nodeConverter.makeSubContainersWithoutTheirSubContainers(node);
-				final List<Item> items = this.nodeConverter.makeItems(node);
-				return toRangedResult(containers, items, firstResult, maxResults);
+				final List<ContentNode> subNodes = node.getCopyOfNodes();
+				subNodes.removeIf(ContentNode::hasAuthList);
+				return toRangedResult(subNodes, node.getItemCount(), (offset, limit) -> node.getCopyOfItems(null, offset, limit), firstResult, maxResults);
 			}
 
 			final ContentItem item = this.contentTree.getItem(objectID);
@@ -91,6 +96,7 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 			throw new ContentDirectoryException(ContentDirectoryErrorCode.CANNOT_PROCESS, e.toString()); // NOSONAR
 		}
 		finally {
+			BROWSE_DURATION.observeSince(startTime);
 			if (this.printAccessLog) {
 				LOG.info("browse: {} ({}, {}) in {}ms.",
 						objectID, firstResult, maxResults,
@@ -108,11 +114,8 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 			final ContentNode node = this.contentTree.getNode(containerId);
 			if (node == null) return new BrowseResult("", 0, 0);
 
-			// TODO cache search results to make pagination faster.
-
 			final List<ContentItem> results = this.searchEngine.search(node, searchCriteria, MAX_RESULTS, /* username= */null);
-			final List<Item> items = this.nodeConverter.makeItems(results);
-			return toRangedResult(Collections.<Container> emptyList(), items, firstResult, maxResults);
+			return toRangedResult(Collections.<ContentNode> emptyList(), results.size(), (offset, limit) -> results.subList(offset, offset + limit), firstResult, maxResults);
 		}
 		catch (final ContentDirectoryException e) {
 			LOG.warn(String.format("Failed to parse search request" +
@@ -127,6 +130,7 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 			throw new ContentDirectoryException(ErrorCode.ACTION_FAILED, e.toString());
 		}
 		finally {
+			SEARCH_DURATION.observeSince(startTime);
 			if (this.printAccessLog) {
 				LOG.info("search: {}, {}, {} ({}, {}, {}) in {}ms.",
 						containerId, searchCriteria, filter, firstResult, maxResults, Arrays.toString(orderBy),
@@ -135,23 +139,31 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 		}
 	}
 
-	private BrowseResult toRangedResult (final List<Container> containers, final List<Item> items, final long firstResult, final long maxResultsParam) throws Exception {
-		final long maxResults = maxResultsParam == 0 ? containers.size() + items.size() : maxResultsParam;
+	/**
+	 * Only the requested page is converted to DIDL.
+	 * Containers come first, then items.
+	 */
+	private BrowseResult toRangedResult (final List<ContentNode> nodes, final int itemCount, final ItemPager itemPager, final long firstResult, final long maxResultsParam) throws Exception {
+		final long maxResults = maxResultsParam == 0 ? nodes.size() + itemCount : maxResultsParam;
 
 		final DIDLContent didl = new DIDLContent();
-		if (containers.size() > firstResult) {
+		if (nodes.size() > firstResult) {
 			final int from = (int) firstResult;
-			final int to = Math.min((int) (firstResult + maxResults), containers.size());
-			didl.setContainers(containers.subList(from, to));
+			final int to = (int) Math.min(firstResult + maxResults, nodes.size());
+			didl.setContainers(this.nodeConverter.makeContainers(nodes.subList(from, to)));
 		}
 		if (didl.getContainers().size() < maxResults) {
-			final int from = (int) Math.max(firstResult - containers.size(), 0);
-			final int to = Math.min(items.size(), from + (int) (maxResults - didl.getContainers().size()));
-			didl.setItems(items.subList(from, to));
+			final int from = (int) Math.max(firstResult - nodes.size(), 0);
+			final int count = (int) Math.min(itemCount - from, maxResults - didl.getContainers().size());
+			if (count > 0) didl.setItems(this.nodeConverter.makeItems(itemPager.page(from, count)));
 		}
 		return new BrowseResult(this.parserSupplier.get().generate(didl),
 				didl.getContainers().size() + didl.getItems().size(),
-				containers.size() + items.size());
+				nodes.size() + itemCount);
+	}
+
+	private interface ItemPager {
+		List<ContentItem> page(int offset, int limit);
 	}
 
 }
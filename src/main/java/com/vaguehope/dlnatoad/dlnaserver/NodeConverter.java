@@ -35,43 +35,65 @@ import org.jupnp.support.model.item.Item;
 import org.jupnp.support.model.item.VideoItem;
 import org.jupnp.util.MimeType;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.vaguehope.dlnatoad.media.ContentItem;
 import com.vaguehope.dlnatoad.media.ContentNode;
 import com.vaguehope.dlnatoad.media.ExternalUrls;
 import com.vaguehope.dlnatoad.media.MetadataReader.Metadata;
 
 /**
- * TODO add caching like Morrigan ContentAdaptor has?
+ * DIDL objects are cached per node and item, and rebuilt if what they were made from has since changed.
+ * Cached objects are shared, so callers must not modify them.
  */
 public class NodeConverter {
 
+	private static final long MAX_CACHED = 20000L;
+
 	private final ExternalUrls externalUrls;
+	private final Cache<ContentNode, CachedContainer> containerCache = CacheBuilder.newBuilder()
+			.weakKeys()
+			.maximumSize(MAX_CACHED)
+			.build();
+	private final Cache<ContentItem, CachedItem> itemCache = CacheBuilder.newBuilder()
+			.weakKeys()
+			.maximumSize(MAX_CACHED)
+			.build();
 
 	public NodeConverter(final ExternalUrls externalUrls) {
 		this.externalUrls = externalUrls;
 	}
 
-	public List<Container> makeSubContainersWithoutTheirSubContainers(final ContentNode n) {
-		final List<Container> ret = new ArrayList<>();
-		n.withEachNode(i -> {
-			if (i.hasAuthList()) return;
-			ret.add(makeContainerWithoutSubContainers(i));
-		});
+	public List<Container> makeContainers(final List<ContentNode> nodes) {
+		final List<Container> ret = new ArrayList<>(nodes.size());
+		for (final ContentNode n : nodes) {
+			ret.add(makeContainerWithoutSubContainers(n));
+		}
 		return ret;
 	}
 
 	public Container makeContainerWithoutSubContainers(final ContentNode n) {
+		final int childCount = n.getNodeAndItemCount();
+		final ContentItem art = n.getArt();
+		final CachedContainer cached = this.containerCache.getIfPresent(n);
+		if (cached != null && cached.isFresh(childCount, art)) return cached.container;
+
+		final Container c = buildContainer(n, childCount, art);
+		this.containerCache.put(n, new CachedContainer(c, childCount, art));
+		return c;
+	}
+
+	private Container buildContainer(final ContentNode n, final int childCount, final ContentItem art) {
 		final Container c = new Container();
 		c.setClazz(new DIDLObject.Class("object.container"));
 		c.setId(n.getId());
 		c.setParentID(n.getParentId());
 		c.setTitle(n.getTitle());
-		c.setChildCount(Integer.valueOf(n.getNodeAndItemCount()));
+		c.setChildCount(Integer.valueOf(childCount));
 		c.setRestricted(true);
 		c.setWriteStatus(WriteStatus.NOT_WRITABLE);
 		c.setSearchable(true);
 
-		final ContentItem art = n.getArt();
 		if (art != null) {
 			final String artUri = this.externalUrls.contentUrl(art.getId());
 			c.addProperty(new DIDLObject.Property.UPNP.ALBUM_ART_URI(URI.create(artUri)));
@@ -80,14 +102,8 @@ public class NodeConverter {
 		return c;
 	}
 
-	public List<Item> makeItems(final ContentNode n) {
-		final List<Item> ret = new ArrayList<>();
-		n.withEachItem(i -> ret.add(makeItem(i)));
-		return ret;
-	}
-
 	public List<Item> makeItems(final List<ContentItem> items) {
-		final List<Item> ret = new ArrayList<>();
+		final List<Item> ret = new ArrayList<>(items.size());
 		for (final ContentItem i : items) {
 			ret.add(makeItem(i));
 		}
@@ -95,6 +111,18 @@ public class NodeConverter {
 	}
 
 	public Item makeItem(final ContentItem c) {
+		final int modCount = c.getModCount();
+		final ContentItem art = c.getArt();
+		final int artModCount = art != null ? art.getModCount() : 0;
+		final CachedItem cached = this.itemCache.getIfPresent(c);
+		if (cached != null && cached.isFresh(modCount, art, artModCount)) return cached.item;
+
+		final Item i = buildItem(c, art);
+		this.itemCache.put(c, new CachedItem(i, modCount, art, artModCount));
+		return i;
+	}
+
+	private Item buildItem(final ContentItem c, final ContentItem art) {
 		final Res res = new Res(c.getFormat().asMimetype(), Long.valueOf(c.getFileLength()), this.externalUrls.contentUrl(c.getId()));
 
 		final long durationSeconds = TimeUnit.MILLISECONDS.toSeconds(c.getDurationMillis());
@@ -117,7 +145,6 @@ public class NodeConverter {
 			throw new IllegalArgumentException();
 		}
 
-		final ContentItem art = c.getArt();
 		if (art != null) {
 			final String artUri = this.externalUrls.contentUrl(art.getId());
 			i.addProperty(new DIDLObject.Property.UPNP.ALBUM_ART_URI(URI.create(artUri)));
@@ -139,6 +166,40 @@ public class NodeConverter {
 		return i;
 	}
 
+	private static class CachedContainer {
+		final Container container;
+		final int childCount;
+		final ContentItem art;
+
+		CachedContainer(final Container container, final int childCount, final ContentItem art) {
+			this.container = container;
+			this.childCount = childCount;
+			this.art = art;
+		}
+
+		boolean isFresh(final int nowChildCount, final ContentItem nowArt) {
+			return this.childCount == nowChildCount && this.art == nowArt;
+		}
+	}
+
+	private static class CachedItem {
+		final Item item;
+		final int modCount;
+		final ContentItem art;
+		final int artModCount;
+
+		CachedItem(final Item item, final int modCount, final ContentItem art, final int artModCount) {
+			this.item = item;
+			this.modCount = modCount;
+			this.art = art;
+			this.artModCount = artModCount;
+		}
+
+		boolean isFresh(final int nowModCount, final ContentItem nowArt, final int nowArtModCount) {
+			return this.modCount == nowModCount && this.art == nowArt && this.artModCount == nowArtModCount;
+		}
+	}
+
 	private static Res makeArtRes(final ContentItem art, final String artUri) {
 		return new Res(makeProtocolInfo(art.getFormat().asMimetype()), Long.valueOf(art.getFileLength()), artUri);
 	}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -25,6 +26,8 @@ import org.jupnp.support.model.item.VideoItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.vaguehope.cdsc.CDSCBaseListener;
 import com.vaguehope.cdsc.CDSCLexer;
@@ -38,6 +41,8 @@ import com.vaguehope.dlnatoad.db.Sqlite;
 import com.vaguehope.dlnatoad.media.ContentGroup;
 import com.vaguehope.dlnatoad.media.ContentItem;
 import com.vaguehope.dlnatoad.media.ContentNode;
+import com.vaguehope.dlnatoad.media.ContentSearchIndex;
+import com.vaguehope.dlnatoad.media.ContentTree;
 import com.vaguehope.dlnatoad.media.MetadataReader.Metadata;
 import com.vaguehope.dlnatoad.util.StringHelper;
 
@@ -45,17 +50,105 @@ public class SearchEngine {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SearchEngine.class);
 
-	public SearchEngine () {}
+	private final ContentTree contentTree;
 
+	/**
+	 * Renderers page through results by repeating the same search, so both the parsed criteria and the results are kept.
+	 * Results are only reused while the tree version is unchanged, and expire anyway to pick up metadata changes.
+	 */
+	private final Cache<String, Predicate<ContentItem>> predicateCache = CacheBuilder.newBuilder()
+			.maximumSize(100L)
+			.build();
+	private final Cache<ResultsKey, List<ContentItem>> resultsCache = CacheBuilder.newBuilder()
+			.maximumSize(50L)
+			.expireAfterWrite(5, TimeUnit.MINUTES)
+			.build();
+
+	/**
+	 * Without a tree only parsed criteria are cached.
+	 */
+	public SearchEngine () {
+		this(null);
+	}
+
+	public SearchEngine (final ContentTree contentTree) {
+		this.contentTree = contentTree;
+	}
+
+	/**
+	 * Returned list is not modifiable.
+	 */
 	public List<ContentItem> search (final ContentNode node, final String searchCriteria, final int maxResults, final String username) throws ContentDirectoryException {
+		final ResultsKey key = this.contentTree != null
+				? new ResultsKey(node.getId(), searchCriteria, username, maxResults, this.contentTree.getVersion())
+				: null;
+		if (key != null) {
+			final List<ContentItem> cached = this.resultsCache.getIfPresent(key);
+			if (cached != null) return cached;
+		}
+
+		final Predicate<ContentItem> predicate = cachedCriteriaToPredicate(searchCriteria);
+		final List<ContentItem> results = new ArrayList<>();
+		final List<ContentItem> candidates = this.contentTree != null
+				? this.contentTree.getSearchIndex().find(predicate::candidates)
+				: null;
+		if (candidates != null) {
+			filterCandidates(this.contentTree, node, candidates, predicate, maxResults, username, results);
+		}
+		else {
+			filterItems(node, predicate, maxResults, username, results);
+		}
+		final List<ContentItem> ret = Collections.unmodifiableList(results);
+
+		if (key != null) this.resultsCache.put(key, ret);
+		return ret;
+	}
+
+	private Predicate<ContentItem> cachedCriteriaToPredicate (final String searchCriteria) throws ContentDirectoryException {
+		final Predicate<ContentItem> cached = this.predicateCache.getIfPresent(searchCriteria);
+		if (cached != null) return cached;
+
 		final long startTime = System.nanoTime();
 		final Predicate<ContentItem> predicate = criteriaToPredicate(searchCriteria);
 		if (predicate == null) throw new ContentDirectoryException(ContentDirectoryErrorCodes.UNSUPPORTED_SEARCH_CRITERIA, "Do not know how to parse: " + searchCriteria);
 		LOG.debug("'{}' => {} in {}ms.", searchCriteria, predicate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
 
-		final List<ContentItem> results = new ArrayList<>();
-		filterItems(node, predicate, maxResults, username, results);
-		return results;
+		this.predicateCache.put(searchCriteria, predicate);
+		return predicate;
+	}
+
+	private static class ResultsKey {
+		final String nodeId;
+		final String searchCriteria;
+		final String username;
+		final int maxResults;
+		final long treeVersion;
+
+		ResultsKey(final String nodeId, final String searchCriteria, final String username, final int maxResults, final long treeVersion) {
+			this.nodeId = nodeId;
+			this.searchCriteria = searchCriteria;
+			this.username = username;
+			this.maxResults = maxResults;
+			this.treeVersion = treeVersion;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.nodeId, this.searchCriteria, this.username, this.maxResults, this.treeVersion);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == null) return false;
+			if (this == obj) return true;
+			if (!(obj instanceof ResultsKey)) return false;
+			final ResultsKey that = (ResultsKey) obj;
+			return Objects.equals(this.nodeId, that.nodeId)
+					&& Objects.equals(this.searchCriteria, that.searchCriteria)
+					&& Objects.equals(this.username, that.username)
+					&& this.maxResults == that.maxResults
+					&& this.treeVersion == that.treeVersion;
+		}
 	}
 
 	protected static Predicate<ContentItem> criteriaToPredicate (final String searchCriteria) {
@@ -282,6 +375,78 @@ public class SearchEngine {
 		});
 	}
 
+	/**
+	 * Candidates are in index order, so matches are put back into the same order filterItems() gives before
+	 * being cut at maxResults: each node's items in that node's order, then its sub nodes in their order.
+	 */
+	private static void filterCandidates (final ContentTree tree, final ContentNode node, final List<ContentItem> candidates,
+			final Predicate<ContentItem> predicate, final int maxResults, final String username, final List<ContentItem> results) {
+		final Map<String, Boolean> visibleNodes = new HashMap<>();
+		final Map<String, List<ContentItem>> matchesByParent = new HashMap<>();
+		for (final ContentItem i : candidates) {
+			if (!predicate.matches(i)) continue;
+			if (!isVisibleUnder(tree, node, i, username, visibleNodes)) continue;
+			matchesByParent.computeIfAbsent(i.getParentId(), k -> new ArrayList<>()).add(i);
+		}
+		if (matchesByParent.isEmpty()) return;
+		addInTreeOrder(node, matchesByParent, visibleNodes, maxResults, results);
+	}
+
+	/**
+	 * Only visits nodes that isVisibleUnder() found a match under.
+	 */
+	private static void addInTreeOrder (final ContentNode node, final Map<String, List<ContentItem>> matchesByParent,
+			final Map<String, Boolean> visibleNodes, final int maxResults, final List<ContentItem> results) {
+		final List<ContentItem> matches = matchesByParent.get(node.getId());
+		if (matches != null) {
+			matches.sort(node.getItemOrder());
+			for (final ContentItem i : matches) {
+				if (results.size() >= maxResults) return;
+				results.add(i);
+			}
+		}
+		for (final ContentNode n : node.getCopyOfNodes()) {
+			if (results.size() >= maxResults) return;
+			if (!Boolean.TRUE.equals(visibleNodes.get(n.getId()))) continue;
+			addInTreeOrder(n, matchesByParent, visibleNodes, maxResults, results);
+		}
+	}
+
+	/**
+	 * Same rules as filterItems(): every node from the search node down must allow the user, and recent is skipped.
+	 * Answers for each node visited are kept in visibleNodes as most candidates share parents.
+	 */
+	private static boolean isVisibleUnder (final ContentTree tree, final ContentNode node, final ContentItem item, final String username, final Map<String, Boolean> visibleNodes) {
+		if (item.getParentId() == null) return false;
+
+		final List<String> walked = new ArrayList<>();
+		boolean visible = false;
+		String id = item.getParentId();
+		while (id != null) {
+			final Boolean known = visibleNodes.get(id);
+			if (known != null) {
+				visible = known;
+				break;
+			}
+			walked.add(id);
+			final ContentNode n = tree.getNode(id);
+			if (n == null || !n.isUserAuth(username) || ContentGroup.RECENT.getId().equals(id)) break;
+			if (node.getId().equals(id)) {
+				visible = true;
+				break;
+			}
+			id = n.getParentId();
+		}
+		for (final String w : walked) {
+			visibleNodes.put(w, visible);
+		}
+		if (!visible) return false;
+
+		// Art and subtitles are in the tree but not in their parent node, so are not search results.
+		final ContentNode parent = tree.getNode(item.getParentId());
+		return parent != null && parent.hasItemWithId(item.getId());
+	}
+
 	private enum LogOp {
 		OR, AND
 	}
@@ -317,6 +482,11 @@ public class SearchEngine {
 	protected interface Predicate<T> {
 		boolean matches (T thing);
 		Where getWhere();
+
+		/**
+		 * Returns null if the index can not narrow down what might match.
+		 */
+		int[] candidates (ContentSearchIndex index);
 	}
 
 	private static class Bool<T> implements Predicate<T> {
@@ -341,6 +511,11 @@ public class SearchEngine {
 		public Where getWhere() {
 			return new Where(this.v ? "TRUE" : "FALSE", null);
 		}
+
+		@Override
+		public int[] candidates (final ContentSearchIndex index) {
+			return this.v ? null : new int[0];
+		}
 	}
 
 	private static class Or<T> implements Predicate<T> {
@@ -369,6 +544,17 @@ public class SearchEngine {
 			return Where.join(this.predicates, "OR");
 		}
 
+		@Override
+		public int[] candidates (final ContentSearchIndex index) {
+			int[] ret = null;
+			for (final Predicate<T> p : this.predicates) {
+				final int[] c = p.candidates(index);
+				if (c == null) return null;
+				ret = ret == null ? c : ContentSearchIndex.union(ret, c);
+			}
+			return ret;
+		}
+
 		@Override
 		public int hashCode () {
 			return this.predicates.hashCode();
@@ -411,6 +597,17 @@ public class SearchEngine {
 			return Where.join(this.predicates, "AND");
 		}
 
+		@Override
+		public int[] candidates (final ContentSearchIndex index) {
+			int[] ret = null;
+			for (final Predicate<T> p : this.predicates) {
+				final int[] c = p.candidates(index);
+				if (c == null) continue;
+				ret = ret == null ? c : ContentSearchIndex.intersect(ret, c);
+			}
+			return ret;
+		}
+
 		@Override
 		public int hashCode () {
 			return this.predicates.hashCode();
@@ -450,6 +647,11 @@ public class SearchEngine {
 			return new Bool<>(true).getWhere();  // TODO check type.
 		}
 
+		@Override
+		public int[] candidates (final ContentSearchIndex index) {
+			return index.contentGroupIs(this.contentGroup);
+		}
+
 		@Override
 		public int hashCode () {
 			return this.contentGroup.hashCode();
@@ -490,6 +692,11 @@ public class SearchEngine {
 					Arrays.asList(Sqlite.escapeSearch(this.lcaseSubString), Sqlite.SEARCH_ESC));
 		}
 
+		@Override
+		public int[] candidates (final ContentSearchIndex index) {
+			return index.titleContains(this.lcaseSubString);
+		}
+
 		@Override
 		public int hashCode () {
 			return this.lcaseSubString.hashCode();
@@ -536,6 +743,11 @@ public class SearchEngine {
 					Arrays.asList(Sqlite.escapeSearch(this.lcaseSubString), Sqlite.SEARCH_ESC));
 		}
 
+		@Override
+		public int[] candidates (final ContentSearchIndex index) {
+			return index.artistContains(this.lcaseSubString);
+		}
+
 		@Override
 		public int hashCode () {
 			return this.lcaseSubString.hashCode();
@@ -603,6 +815,11 @@ public class SearchEngine {
 			return new Where(MediaDb.COL_TAG + q, Arrays.asList(v, Sqlite.SEARCH_ESC));
 		}
 
+		@Override
+		public int[] candidates (final ContentSearchIndex index) {
+			return null;  // Tags are only in the DB, and matches() is always true.
+		}
+
 		@Override
 		public int hashCode () {
 			return Objects.hash(this.val, this.op);
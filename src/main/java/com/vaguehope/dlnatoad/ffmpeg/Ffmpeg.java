@@ -2,6 +2,7 @@ package com.vaguehope.dlnatoad.ffmpeg;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +10,7 @@ import org.slf4j.LoggerFactory;
 public class Ffmpeg {
 
 	private static final String FFMPEG = "ffmpeg";
+	private static final long THUMBNAIL_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
 	private static final Logger LOG = LoggerFactory.getLogger(Ffprobe.class);
 
 	private static Boolean isAvailable = null;
@@ -35,12 +37,16 @@ public class Ffmpeg {
 		// https://ffmpeg.org/ffmpeg-filters.html#select_002c-aselect
 		// https://ffmpeg.org/ffmpeg-filters.html#scale-1
 		// https://ffmpeg.org/ffmpeg-utils.html
-		ProcessHelper.runAndWait(thumbCmd(videoFile, thumbnailFile, size, "gt(scene\\,0.5)+gt(n\\,300)"));
+		runWithTimeout(thumbCmd(videoFile, thumbnailFile, size, "gt(scene\\,0.5)+gt(n\\,300)"));
 		if (!thumbnailFile.exists()) {
-			ProcessHelper.runAndWait(thumbCmd(videoFile, thumbnailFile, size, "1"));
+			runWithTimeout(thumbCmd(videoFile, thumbnailFile, size, "1"));
 		}
 	}
 
+	private static void runWithTimeout(final String[] cmd) throws IOException {
+		ProcessHelper.runAndWait(cmd, (line) -> {}, THUMBNAIL_TIMEOUT_MILLIS);
+	}
+
 	private static String[] thumbCmd(final File inF, final File outF, final int size, final String select) {
 		return new String[] {
 				FFMPEG,
@@ -2,6 +2,7 @@ package com.vaguehope.dlnatoad.ffmpeg;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +10,7 @@ import org.slf4j.LoggerFactory;
 public class Ffprobe {
 
 	private static final String FFPROBE = "ffprobe";
+	private static final long INSPECT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
 	private static final Logger LOG = LoggerFactory.getLogger(Ffprobe.class);
 
 	private static Boolean isAvailable = null;
@@ -43,7 +45,7 @@ public class Ffprobe {
 				"-show_format",
 				"-print_format", "flat",
 				inFile.getAbsolutePath()
-		}, parser);
+		}, parser, INSPECT_TIMEOUT_MILLIS);
 		return parser.build();
 	}
 
@@ -6,13 +6,19 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.IOUtils;
 
+import com.vaguehope.dlnatoad.util.ExecutorHelper;
+
 public class ProcessHelper {
 
 	private static final int SHUTDOWN_TIMEOUT_SECONDS = 5;
+	private static final ScheduledExecutorService TIMEOUT_EX_SVC = ExecutorHelper.newScheduledExecutor(1, "proc-timeout");
 
 	public static List<String> runAndWait (final String... cmd) throws IOException {
 		final List<String> ret = new ArrayList<>();
@@ -26,11 +32,27 @@ public class ProcessHelper {
 	}
 
 	public static void runAndWait (final String[] cmd, final Listener<String> onLine) throws IOException {
+		runAndWait(cmd, onLine, 0);
+	}
+
+	/**
+	 * If the process is still running after timeoutMillis it is killed and an IOException thrown.
+	 * A timeoutMillis of 0 means no timeout.
+	 */
+	public static void runAndWait (final String[] cmd, final Listener<String> onLine, final long timeoutMillis) throws IOException {
 		Exception exception = null;
 
 		final ProcessBuilder pb = new ProcessBuilder(cmd);
 		pb.redirectErrorStream(true);
 		final Process p = pb.start();
+
+		final AtomicBoolean timedOut = new AtomicBoolean(false);
+		final ScheduledFuture<?> timeout = timeoutMillis > 0
+				? TIMEOUT_EX_SVC.schedule(() -> {
+					timedOut.set(true);
+					p.destroyForcibly();  // Closes stdout so the read below ends.
+				}, timeoutMillis, TimeUnit.MILLISECONDS)
+				: null;
 		try {
 			final BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
 			try {
@@ -47,6 +69,11 @@ public class ProcessHelper {
 			exception = e;
 		}
 		finally {
+			if (timeout != null) timeout.cancel(false);
+			if (timedOut.get()) {
+				// Reading may have failed because the process was killed, so report the real cause.
+				exception = new IOException("Process timed out after " + timeoutMillis + "ms: " + Arrays.toString(cmd));
+			}
 			try {
 				if (p.waitFor(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
 					final int result = p.exitValue();
@@ -0,0 +1,173 @@
+package com.vaguehope.dlnatoad.media;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import com.vaguehope.dlnatoad.util.ExConsumer;
+
+/**
+ * Children of a ContentNode, indexed by ID and kept in sorted order as they are added.
+ * Insert and remove are O(log n) rather than a scan plus a full re-sort.
+ * Other sort orders are built on first request and then maintained incrementally.
+ * All methods lock on this instance.
+ */
+class ContentChildren<T extends AbstractContent> {
+
+	private final Comparator<? super T> order;
+	private final Map<String, T> byId = new HashMap<>();
+	private final NavigableSet<T> sorted;
+	private final Map<Comparator<? super T>, NavigableSet<T>> otherOrders = new HashMap<>();
+
+	ContentChildren(final Comparator<? super T> order) {
+		if (order == null) throw new IllegalArgumentException("order must not be null.");
+		this.order = order;
+		this.sorted = new TreeSet<>(order);
+	}
+
+	synchronized int size() {
+		return this.byId.size();
+	}
+
+	synchronized boolean containsId(final String id) {
+		return this.byId.containsKey(id);
+	}
+
+	synchronized T get(final String id) {
+		return this.byId.get(id);
+	}
+
+	/**
+	 * Returns true if added.
+	 */
+	synchronized boolean addIfAbsent(final T t) {
+		if (this.byId.putIfAbsent(t.getId(), t) != null) return false;
+		this.sorted.add(t);
+		for (final NavigableSet<T> s : this.otherOrders.values()) {
+			s.add(t);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the removed instance, or null if not present.
+	 */
+	synchronized T remove(final String id) {
+		final T t = this.byId.remove(id);
+		if (t == null) return null;
+		removeFromSorted(t);
+		return t;
+	}
+
+	/**
+	 * Removes and returns the last child in the primary order.
+	 */
+	synchronized T pollLast() {
+		final T t = this.sorted.pollLast();
+		if (t == null) return null;
+		this.byId.remove(t.getId());
+		for (final NavigableSet<T> s : this.otherOrders.values()) {
+			removeFromSet(s, t);
+		}
+		return t;
+	}
+
+	synchronized T last() {
+		if (this.sorted.isEmpty()) return null;
+		return this.sorted.last();
+	}
+
+	/**
+	 * Runs a mutation that may change sort keys of a child while it is out of the sorted sets,
+	 * so the sets never contain an entry that is out of place.
+	 */
+	synchronized void update(final T t, final Runnable mutation) {
+		final boolean present = this.byId.get(t.getId()) == t;
+		if (present) removeFromSorted(t);
+		mutation.run();
+		if (present) {
+			this.sorted.add(t);
+			for (final NavigableSet<T> s : this.otherOrders.values()) {
+				s.add(t);
+			}
+		}
+	}
+
+	synchronized <E extends Exception> void forEach(final ExConsumer<T, E> consumer) throws E {
+		for (final T t : this.sorted) {
+			consumer.accept(t);
+		}
+	}
+
+	synchronized List<T> copy() {
+		return new ArrayList<>(this.sorted);
+	}
+
+	/**
+	 * Copies only the requested range.
+	 * A null sortOrder means the primary order.
+	 */
+	synchronized List<T> copy(final Comparator<? super T> sortOrder, final int offset, final int limit) {
+		final NavigableSet<T> set = setForOrder(sortOrder);
+		final int size = set.size();
+		if (offset >= size || limit < 1) return new ArrayList<>(0);
+
+		final int count = (int) Math.min((long) limit, size - offset);
+		final List<T> ret = new ArrayList<>(count);
+		if (offset > size / 2) {
+			// Closer to the end, so walk backwards and reverse.
+			final Iterator<T> ittr = set.descendingIterator();
+			for (int i = 0; i < size - offset - count; i++) {
+				ittr.next();
+			}
+			for (int i = 0; i < count; i++) {
+				ret.add(ittr.next());
+			}
+			Collections.reverse(ret);
+		}
+		else {
+			final Iterator<T> ittr = set.iterator();
+			for (int i = 0; i < offset; i++) {
+				ittr.next();
+			}
+			for (int i = 0; i < count; i++) {
+				ret.add(ittr.next());
+			}
+		}
+		return ret;
+	}
+
+	private NavigableSet<T> setForOrder(final Comparator<? super T> sortOrder) {
+		if (sortOrder == null || sortOrder.equals(this.order)) return this.sorted;
+		NavigableSet<T> s = this.otherOrders.get(sortOrder);
+		if (s == null) {
+			s = new TreeSet<>(sortOrder);
+			s.addAll(this.sorted);
+			this.otherOrders.put(sortOrder, s);
+		}
+		return s;
+	}
+
+	private void removeFromSorted(final T t) {
+		removeFromSet(this.sorted, t);
+		for (final NavigableSet<T> s : this.otherOrders.values()) {
+			removeFromSet(s, t);
+		}
+	}
+
+	/**
+	 * If the sort key of an entry was changed without going via update() then a lookup will miss it,
+	 * so fall back to a scan rather than leaving a ghost entry behind.
+	 */
+	private static <T> void removeFromSet(final NavigableSet<T> set, final T t) {
+		if (set.remove(t)) return;
+		set.removeIf(e -> e == t);
+	}
+
+}
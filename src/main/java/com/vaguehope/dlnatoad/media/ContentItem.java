@@ -24,6 +24,7 @@ public class ContentItem extends AbstractContent {
 	private volatile Metadata metadata;
 	private volatile long fileLength = 0L;
 	private volatile long lastModified = 0L;
+	private volatile int modCount = 0;
 
 	public ContentItem(
 			final String id,
@@ -31,34 +32,65 @@ public class ContentItem extends AbstractContent {
 			final String title,
 			final File file,
 			final MediaFormat format) {
+		this(id, parentId, title, file, format, 0L, 0L);
+		reload();
+	}
+
+	/**
+	 * For restoring from a snapshot without touching the file system.
+	 */
+	ContentItem(
+			final String id,
+			final String parentId,
+			final String title,
+			final File file,
+			final MediaFormat format,
+			final long fileLength,
+			final long lastModified) {
 		super(id, parentId, title);
 		if (parentId == null) throw new IllegalArgumentException("parentId must not be null.");
 		this.file = file;
 		this.format = format;
-		reload();
+		this.fileLength = fileLength;
+		this.lastModified = lastModified;
 	}
 
 	public void reload() {
 		if (this.file == null || !this.file.exists()) return;
-		this.fileLength = this.file.length();
-		this.lastModified = this.file.lastModified();
+		final long newLength = this.file.length();
+		final long newLastModified = this.file.lastModified();
+		if (newLength == this.fileLength && newLastModified == this.lastModified) return;
+		this.fileLength = newLength;
+		this.lastModified = newLastModified;
+		this.modCount++;
 	}
 
 	public void setDurationMillis(final long durationMillis) {
 		this.durationMillis = durationMillis;
+		this.modCount++;
 	}
 
 	public void setArt(final ContentItem art) {
 		this.art = art;
+		this.modCount++;
 	}
 
 	public void setMetadata(final Metadata metadata) {
 		this.metadata = metadata;
+		this.modCount++;
 	}
 
 	public void setWidthAndHeight(int width, int height) {
 		this.width = width;
 		this.height = height;
+		this.modCount++;
+	}
+
+	/**
+	 * Incremented on each change to this item's details, so cached views of it can tell when they are stale.
+	 */
+	public int getModCount() {
+		return this.modCount;
 	}
 
 	/**
@@ -71,6 +103,7 @@ public class ContentItem extends AbstractContent {
 				if (Objects.equals(a.getId(), attachment.getId())) return false;
 			}
 			this.attachments.add(attachment);
+			this.modCount++;
 			return true;
 		}
 	}
@@ -82,6 +115,7 @@ public class ContentItem extends AbstractContent {
 			while (ittr.hasNext()) {
 				if (attachmentId.equals(ittr.next().getId())) {
 					ittr.remove();
+					this.modCount++;
 					return true;
 				}
 			}
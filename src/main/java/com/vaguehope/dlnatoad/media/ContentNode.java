@@ -3,10 +3,7 @@ package com.vaguehope.dlnatoad.media;
 import java.io.File;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 
@@ -25,8 +22,9 @@ public class ContentNode extends AbstractContent {
 	private final String path;
 	private final AuthList authList;
 
-	private final List<ContentNode> nodes = new ArrayList<>();
-	private final Collection<ContentItem> items;
+	private final ContentChildren<ContentNode> nodes = new ContentChildren<>(Order.SORT_KEY);
+	private final Comparator<ContentItem> itemOrder;
+	private final ContentChildren<ContentItem> items;
 
 	private volatile ContentItem art;
 	private volatile long lastModified = 0L;
@@ -36,17 +34,18 @@ public class ContentNode extends AbstractContent {
 	}
 
 	public ContentNode (final String id, final String parentId, final String title, final File dir, final String path, final AuthList authList, final String sortKey) {
-		this(id, parentId, title, dir, path, authList, sortKey, new ArrayList<>());
+		this(id, parentId, title, dir, path, authList, sortKey, ContentItem.Order.TITLE_CASE_INSENSITIVE);
 	}
 
-	public ContentNode (final String id, final String parentId, final String title, final File dir, final String path, final AuthList authList, final String sortKey, final Collection<ContentItem> itemsCollection) {
+	public ContentNode (final String id, final String parentId, final String title, final File dir, final String path, final AuthList authList, final String sortKey, final Comparator<ContentItem> itemOrder) {
 		super(id, parentId, title);
 		if (parentId == null)  throw new IllegalArgumentException("parentId must not be null.");
 		this.file = dir;
 		this.path = path;
 		this.authList = authList;
 		this.sortKey = sortKey;
-		this.items = itemsCollection;
+		this.itemOrder = itemOrder;
+		this.items = new ContentChildren<>(itemOrder);
 		reload();
 	}
 
@@ -73,34 +72,31 @@ public class ContentNode extends AbstractContent {
 		return this.authList.hasUserWithPermission(username, permission);
 	}
 
+	/**
+	 * The default order of items in this node.
+	 */
+	public Comparator<ContentItem> getItemOrder() {
+		return this.itemOrder;
+	}
+
 	public String getSortKey() {
 		return this.sortKey;
 	}
 
 	public List<ContentNode> nodesUserHasAuth(final String username) {
-		synchronized (this.nodes) {
-			final List<ContentNode> ret = new ArrayList<>(this.nodes.size());
-			for (final ContentNode node : this.nodes) {
-				if (node.isUserAuth(username)) ret.add(node);
-			}
-			return ret;
-		}
+		final List<ContentNode> ret = new ArrayList<>();
+		this.nodes.forEach(node -> {
+			if (node.isUserAuth(username)) ret.add(node);
+		});
+		return ret;
 	}
 
 	public <E extends Exception> void withEachNode (final ExConsumer<ContentNode, E> consumer) throws E {
-		synchronized (this.nodes) {
-			for (final ContentNode node : this.nodes) {
-				consumer.accept(node);
-			}
-		}
+		this.nodes.forEach(consumer);
 	}
 
 	public <E extends Exception> void withEachItem (final ExConsumer<ContentItem, E> consumer) throws E {
-		synchronized (this.items) {
-			for (final ContentItem item : this.items) {
-				consumer.accept(item);
-			}
-		}
+		this.items.forEach(consumer);
 	}
 
 	public void setArt(final ContentItem art) {
@@ -128,33 +124,41 @@ public class ContentNode extends AbstractContent {
 	}
 
 	public int getNodeCount() {
-		synchronized (this.nodes) {
-			return this.nodes.size();
-		}
+		return this.nodes.size();
 	}
 
 	public int getItemCount() {
-		synchronized (this.items) {
-			return this.items.size();
-		}
+		return this.items.size();
 	}
 
 	public long getTotalFileLength() {
-		long total = 0L;
-		synchronized (this.items) {
-			for (final ContentItem i : this.items) {
-				total += i.getFileLength();
-			}
-		}
-		return total;
+		final long[] total = new long[] { 0L };
+		this.items.forEach(i -> total[0] += i.getFileLength());
+		return total[0];
 	}
 
 	public List<ContentNode> getCopyOfNodes() {
-		return new ArrayList<>(this.nodes);
+		return this.nodes.copy();
 	}
 
 	public List<ContentItem> getCopyOfItems() {
-		return new ArrayList<>(this.items);
+		return this.items.copy();
+	}
+
+	/**
+	 * Returns a copy of all items in the requested order.
+	 * A null order is the default order of this node.
+	 */
+	public List<ContentItem> getCopyOfItems(final Comparator<ContentItem> order) {
+		return this.items.copy(order, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Only copies the requested page, the full item list is not copied or sorted.
+	 * A null order is the default order of this node.
+	 */
+	public List<ContentItem> getCopyOfItems(final Comparator<ContentItem> order, final int offset, final int limit) {
+		return this.items.copy(order, offset, limit);
 	}
 
 	public boolean addNodeIfAbsent(final ContentNode node) {
@@ -164,12 +168,7 @@ public class ContentNode extends AbstractContent {
 					node.getId(), node.getParentId(), this.id));
 		}
 
-		synchronized (this.nodes) {
-			if (hasNodeWithId(node.getId())) return false;
-			this.nodes.add(node);
-			Collections.sort(this.nodes, Order.SORT_KEY);
-			return true;
-		}
+		return this.nodes.addIfAbsent(node);
 	}
 
 	public boolean addItemIfAbsent(final ContentItem item) {
@@ -179,57 +178,56 @@ public class ContentNode extends AbstractContent {
 					item.getId(), item.getParentId(), this.id));
 		}
 
+		return this.items.addIfAbsent(item);
+	}
+
+	/**
+	 * For virtual nodes, such as recent, where the items belong to other nodes.
+	 */
+	boolean addLinkedItemIfAbsent(final ContentItem item) {
+		return this.items.addIfAbsent(item);
+	}
+
+	/**
+	 * Returns the item removed to bring the item count down to maxItems, or null if nothing was removed.
+	 */
+	ContentItem trimLastItem(final int maxItems) {
 		synchronized (this.items) {
-			if (hasItemWithId(item.getId())) return false;
-			this.items.add(item);
-			if (this.items instanceof List) {
-				Collections.sort((List<ContentItem>) this.items, ContentItem.Order.TITLE_CASE_INSENSITIVE);
-			}
-			return true;
+			if (this.items.size() <= maxItems) return null;
+			return this.items.pollLast();
 		}
 	}
 
+	ContentItem getLastItem() {
+		return this.items.last();
+	}
+
 	public boolean removeNode(final ContentNode toRemove) {
-		synchronized (this.nodes) {
-			return removeById(this.nodes, toRemove.getId());
-		}
+		return this.nodes.remove(toRemove.getId()) != null;
 	}
 
 	public boolean removeItem(final ContentItem toRemove) {
-		synchronized (this.items) {
-			return removeById(this.items, toRemove.getId());
-		}
+		return this.items.remove(toRemove.getId()) != null;
 	}
 
-	private static <T extends AbstractContent> boolean removeById(final Collection<T> list, final String id) {
-		final Iterator<T> it = list.iterator();
-		boolean removed = false;
-		while (it.hasNext()) {
-			final T item = it.next();
-			if (id.equals(item.getId())) {
-				it.remove();
-				removed = true;
-			}
-		}
-		return removed;
+	public boolean hasNodeWithId(final String idToFind) {
+		return this.nodes.containsId(idToFind);
 	}
 
-	public boolean hasNodeWithId(final String idToRemove) {
-		synchronized (this.nodes) {
-			for (final ContentNode c : this.nodes) {
-				if (idToRemove.equals(c.getId())) return true;
-			}
-		}
-		return false;
+	public boolean hasItemWithId(final String idToFind) {
+		return this.items.containsId(idToFind);
 	}
 
-	public boolean hasItemWithId(final String idToFind) {
-		synchronized (this.items) {
-			for (final ContentItem i : this.items) {
-				if (idToFind.equals(i.getId())) return true;
-			}
-		}
-		return false;
+	/**
+	 * Reloads the item while keeping this node's sort orders correct.
+	 * Use ContentTree.reloadItem() so that other nodes linking the item, such as recent, stay correct too.
+	 */
+	public void reloadItem(final ContentItem item) {
+		updateItem(item, item::reload);
+	}
+
+	void updateItem(final ContentItem item, final Runnable mutation) {
+		this.items.update(item, mutation);
 	}
 
 	public void reload() {
@@ -259,12 +257,8 @@ public class ContentNode extends AbstractContent {
 		s.append(", ").append(this.parentId);
 		s.append(", ").append(this.title);
 		s.append(", ");
-		synchronized (this.nodes) {
-			s.append(this.nodes);
-		}
-		synchronized (this.items) {
-			s.append(this.items);
-		}
+		s.append(this.nodes.copy());
+		s.append(this.items.copy());
 		return s.append("}").toString();
 	}
 
@@ -0,0 +1,223 @@
+package com.vaguehope.dlnatoad.media;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.vaguehope.dlnatoad.media.MetadataReader.Metadata;
+
+/**
+ * Inverted index of items by title and artist trigrams and by content group, so common searches
+ * only need to check the items that could possibly match rather than every item in the tree.
+ * Lookups return candidates as ascending ordinals that are only valid within find(),
+ * and callers must still check each candidate really matches.
+ * Removed items leave a gap that is skipped until enough build up to be worth compacting.
+ * All methods lock on this instance.
+ */
+public class ContentSearchIndex {
+
+	/**
+	 * Substrings shorter than this can not be looked up.
+	 */
+	public static final int GRAM_LENGTH = 3;
+
+	private static final int MIN_DEAD_TO_COMPACT = 1000;
+
+	private final List<ContentItem> items = new ArrayList<>();
+	private final Map<String, Integer> ordinals = new HashMap<>();
+	private final Map<String, IntList> titleGrams = new HashMap<>();
+	private final Map<String, IntList> artistGrams = new HashMap<>();
+	private final Map<ContentGroup, IntList> groups = new EnumMap<>(ContentGroup.class);
+	private int deadCount = 0;
+
+	ContentSearchIndex() {}
+
+	synchronized void add(final ContentItem item) {
+		final Integer existing = this.ordinals.get(item.getId());
+		if (existing != null) markDead(existing);
+
+		final int ordinal = this.items.size();
+		this.items.add(item);
+		this.ordinals.put(item.getId(), ordinal);
+		indexItem(item, ordinal);
+	}
+
+	synchronized void remove(final ContentItem item) {
+		final Integer ordinal = this.ordinals.get(item.getId());
+		if (ordinal == null) return;
+		if (this.items.get(ordinal) != item) return;  // Already replaced by a newer instance.
+		this.ordinals.remove(item.getId());
+		markDead(ordinal);
+		if (this.deadCount >= MIN_DEAD_TO_COMPACT && this.deadCount > this.ordinals.size()) compact();
+	}
+
+	public synchronized int size() {
+		return this.ordinals.size();
+	}
+
+	/**
+	 * Runs the lookups in query and resolves the resulting ordinals to items, all under one lock.
+	 * Returns null if query returns null, meaning the index could not narrow the search.
+	 */
+	public synchronized List<ContentItem> find(final Function<ContentSearchIndex, int[]> query) {
+		final int[] ordinals = query.apply(this);
+		if (ordinals == null) return null;
+		final List<ContentItem> ret = new ArrayList<>(ordinals.length);
+		for (final int o : ordinals) {
+			final ContentItem item = this.items.get(o);
+			if (item != null) ret.add(item);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns null if lcaseSubString is too short to look up.
+	 */
+	public synchronized int[] titleContains(final String lcaseSubString) {
+		return lookupGrams(this.titleGrams, lcaseSubString);
+	}
+
+	/**
+	 * Returns null if lcaseSubString is too short to look up.
+	 */
+	public synchronized int[] artistContains(final String lcaseSubString) {
+		return lookupGrams(this.artistGrams, lcaseSubString);
+	}
+
+	public synchronized int[] contentGroupIs(final ContentGroup group) {
+		final IntList l = this.groups.get(group);
+		return l != null ? l.toArray() : new int[0];
+	}
+
+	public static int[] intersect(final int[] a, final int[] b) {
+		final int[] ret = new int[Math.min(a.length, b.length)];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			}
+			else if (a[i] > b[j]) {
+				j++;
+			}
+			else {
+				ret[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return n == ret.length ? ret : Arrays.copyOf(ret, n);
+	}
+
+	public static int[] union(final int[] a, final int[] b) {
+		final int[] ret = new int[a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < a.length || j < b.length) {
+			if (j >= b.length || (i < a.length && a[i] < b[j])) {
+				ret[n++] = a[i++];
+			}
+			else if (i >= a.length || b[j] < a[i]) {
+				ret[n++] = b[j++];
+			}
+			else {
+				ret[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return n == ret.length ? ret : Arrays.copyOf(ret, n);
+	}
+
+	private int[] lookupGrams(final Map<String, IntList> index, final String lcaseSubString) {
+		if (lcaseSubString == null || lcaseSubString.length() < GRAM_LENGTH) return null;
+		int[] ret = null;
+		for (final String gram : grams(lcaseSubString)) {
+			final IntList l = index.get(gram);
+			if (l == null) return new int[0];
+			ret = ret == null ? l.toArray() : intersect(ret, l.toArray());
+			if (ret.length < 1) return ret;
+		}
+		return ret;
+	}
+
+	private void indexItem(final ContentItem item, final int ordinal) {
+		final String title = item.getTitle();
+		if (title != null) {
+			for (final String gram : grams(title.toLowerCase(Locale.ENGLISH))) {
+				this.titleGrams.computeIfAbsent(gram, k -> new IntList()).add(ordinal);
+			}
+		}
+
+		final Metadata md = item.getMetadata();
+		if (md != null && md.getArtist() != null) {
+			for (final String gram : grams(md.getArtist().toLowerCase(Locale.ENGLISH))) {
+				this.artistGrams.computeIfAbsent(gram, k -> new IntList()).add(ordinal);
+			}
+		}
+
+		final MediaFormat format = item.getFormat();
+		if (format != null) {
+			this.groups.computeIfAbsent(format.getContentGroup(), k -> new IntList()).add(ordinal);
+		}
+	}
+
+	private void markDead(final int ordinal) {
+		this.items.set(ordinal, null);
+		this.deadCount += 1;
+	}
+
+	/**
+	 * Renumbers the live items, so ordinals handed out before this are no longer valid.
+	 */
+	private void compact() {
+		final List<ContentItem> live = new ArrayList<>(this.ordinals.size());
+		for (final ContentItem i : this.items) {
+			if (i != null) live.add(i);
+		}
+		this.items.clear();
+		this.ordinals.clear();
+		this.titleGrams.clear();
+		this.artistGrams.clear();
+		this.groups.clear();
+		this.deadCount = 0;
+		for (final ContentItem i : live) {
+			add(i);
+		}
+	}
+
+	private static Set<String> grams(final String s) {
+		final Set<String> ret = new HashSet<>();
+		for (int i = 0; i + GRAM_LENGTH <= s.length(); i++) {
+			ret.add(s.substring(i, i + GRAM_LENGTH));
+		}
+		return ret;
+	}
+
+	/**
+	 * Ordinals are only ever appended in ascending order, so these stay sorted.
+	 */
+	private static class IntList {
+		private int[] arr = new int[4];
+		private int size = 0;
+
+		void add(final int v) {
+			if (this.size == this.arr.length) this.arr = Arrays.copyOf(this.arr, this.size * 2);
+			this.arr[this.size++] = v;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(this.arr, this.size);
+		}
+	}
+
+}
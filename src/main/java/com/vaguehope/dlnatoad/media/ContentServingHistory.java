@@ -8,11 +8,16 @@ import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.Multiset;
+import com.vaguehope.dlnatoad.metrics.Counter;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
 import com.vaguehope.dlnatoad.util.Time;
 
 public class ContentServingHistory {
 
 	private static final long MAX_AGE_NANOS = TimeUnit.HOURS.toNanos(1);
+	// Not labelled by client as that would add a series for every address ever seen.
+	private static final Counter SERVED_BYTES = MetricRegistry.DEFAULT.counter(
+			"dlnatoad_content_served_bytes_total", "Bytes of media sent to clients.");
 
 	private final Multiset<String> active = ConcurrentHashMultiset.create();
 	private final Map<String, Long> lastActivity = new ConcurrentHashMap<>();
@@ -20,6 +25,7 @@ public class ContentServingHistory {
 
 	public ContentServingHistory() {
 		this.time = Time.DEFAULT;
+		MetricRegistry.DEFAULT.gauge("dlnatoad_content_active_clients", "Clients currently being sent media.", this::getActiveCount);
 	}
 
 	public void recordStart(final String remoteAddr, final String requestURI) {
@@ -32,6 +38,10 @@ public class ContentServingHistory {
 		this.lastActivity.put(remoteAddr, this.time.now());
 	}
 
+	public void recordBytesServed(final long bytes) {
+		SERVED_BYTES.add(bytes);
+	}
+
 	public int getActiveCount() {
 		return this.active.entrySet().size();
 	}
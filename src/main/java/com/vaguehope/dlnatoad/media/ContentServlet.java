@@ -7,6 +7,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.util.resource.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +39,8 @@ public class ContentServlet extends MyFileServlet {
 		}
 		finally {
 			this.contentServingHistory.recordEnd(remoteAddr, requestURI);
+			final Request baseReq = Request.getBaseRequest(req);
+			if (baseReq != null) this.contentServingHistory.recordBytesServed(baseReq.getResponse().getHttpOutput().getWritten());
 		}
 	}
 
@@ -3,14 +3,15 @@ package com.vaguehope.dlnatoad.media;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.NavigableSet;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,13 +32,25 @@ public class ContentTree {
 	private final Map<String, ContentNode> contentNodePaths = new ConcurrentHashMap<>();
 	private final ContentNode rootNode;
 	private final Map<String, ContentItem> contentItems = new ConcurrentHashMap<>();
+	private final ContentSearchIndex searchIndex = new ContentSearchIndex();
+
+	/**
+	 * Absolute file path to the content for that file, so removals do not need to scan the whole tree.
+	 * Sorted so that everything under a directory is one contiguous range.
+	 */
+	private final ConcurrentNavigableMap<String, List<ContentNode>> nodesByFile = new ConcurrentSkipListMap<>();
+	private final ConcurrentNavigableMap<String, List<ContentItem>> itemsByFile = new ConcurrentSkipListMap<>();
 
 	private static final int MAX_RECENT_ITEMS = 200;
 	private final ContentNode recentNode;
-	private final NavigableSet<ContentItem> recent = new ConcurrentSkipListSet<>(ContentItem.Order.MODIFIED_DESC);
 	private final Object[] recentLock = new Object[] {};
 	private volatile long oldestRecentItem = 0L;
 
+	/**
+	 * Incremented every time a node or item is added or removed, so cached views of the tree know when they are stale.
+	 */
+	private final AtomicLong version = new AtomicLong(0L);
+
 	public ContentTree () {
 		this(true);
 	}
@@ -47,7 +60,7 @@ public class ContentTree {
 		addNode(this.rootNode);
 
 		if (trackRecent) {
-			this.recentNode = new ContentNode(ContentGroup.RECENT.getId(), this.rootNode.getId(), ContentGroup.RECENT.getHumanName(), null, null, null, null, this.recent);
+			this.recentNode = new ContentNode(ContentGroup.RECENT.getId(), this.rootNode.getId(), ContentGroup.RECENT.getHumanName(), null, null, null, null, ContentItem.Order.MODIFIED_DESC);
 			// TODO mark recent as not searchable.
 			addNode(this.recentNode);
 			this.rootNode.addNodeIfAbsent(this.recentNode);
@@ -69,6 +82,14 @@ public class ContentTree {
 		return this.contentItems.size();
 	}
 
+	public long getVersion() {
+		return this.version.get();
+	}
+
+	public ContentSearchIndex getSearchIndex() {
+		return this.searchIndex;
+	}
+
 	public ContentNode getRootNode () {
 		return this.rootNode;
 	}
@@ -90,6 +111,8 @@ public class ContentTree {
 		this.authSet.add(node.getAuthList());
 		this.contentNodes.put(node.getId(), node);
 		addNodePath(node);
+		addToFileIndex(this.nodesByFile, node.getFile(), node);
+		this.version.incrementAndGet();
 	}
 
 	public ContentNode getNodeByPath(final String path) {
@@ -119,7 +142,32 @@ public class ContentTree {
 
 	public void addItem(final ContentItem item) {
 		this.contentItems.put(item.getId(), item);
+		addToFileIndex(this.itemsByFile, item.getFile(), item);
+		this.searchIndex.add(item);
 		maybeAddToRecent(item);
+		this.version.incrementAndGet();
+	}
+
+	/**
+	 * Reloads the item while keeping the sort orders of its parent and of recent correct.
+	 */
+	public void reloadItem(final ContentItem item) {
+		final ContentNode parent = item.getParentId() != null ? getNode(item.getParentId()) : null;
+		final Runnable reload = parent != null ? () -> parent.reloadItem(item) : item::reload;
+		if (this.recentNode == null) {
+			reload.run();
+			return;
+		}
+
+		synchronized (this.recentLock) {
+			this.recentNode.updateItem(item, reload);
+		}
+		maybeAddToRecent(item);  // May now be new enough to be recent.
+	}
+
+	public List<ContentItem> getItemsForFile(final File file) {
+		final List<ContentItem> items = this.itemsByFile.get(file.getAbsolutePath());
+		return items != null ? Collections.unmodifiableList(items) : Collections.emptyList();
 	}
 
 	public List<ContentItem> getItemsForIds(final Collection<String> ids, final String username) {
@@ -139,50 +187,133 @@ public class ContentTree {
 
 	/**
 	 * Returns number of items removed.
+	 * If file is a directory then everything under it is also removed.
 	 */
 	public int removeFile (final File file) {
 		if (file == null) throw new IllegalArgumentException("file can not be null.");
+		final String path = file.getAbsolutePath();
 		int removeCount = 0;
 
-		// FIXME this is very lazy and not efficient.
-
-		final Iterator<Entry<String, ContentNode>> nodeIttr = this.contentNodes.entrySet().iterator();
-		while (nodeIttr.hasNext()) {
-			final Entry<String, ContentNode> e = nodeIttr.next();
-			if (file.equals(e.getValue().getFile())) {
-				nodeIttr.remove();
-				removeNodePath(e.getValue());
-				removeNodesAndItemsInNode(e.getValue());
-				removeNodeFromParent(e.getValue());
-				removeCount += 1;
-			}
-		}
+		removeCount += removeNodesForPath(path);
+		removeCount += removeItemsForPath(path);
 
-		final Iterator<Entry<String, ContentItem>> itemIttr = this.contentItems.entrySet().iterator();
-		while (itemIttr.hasNext()) {
-			final Entry<String, ContentItem> e = itemIttr.next();
-			if (file.equals(e.getValue().getFile())) {
-				itemIttr.remove();
-				removeItemFromParent(e.getValue());
-				removeFromRecent(e.getValue());
-				removeCount += 1;
-			}
+		// Directories may have been removed without an event for each thing under them,
+		// so remove anything left within that range of the index.
+		final String prefix = path.endsWith(File.separator) ? path : path + File.separator;
+		for (final String p : pathsUnder(this.nodesByFile, prefix)) {
+			removeCount += removeNodesForPath(p);
+		}
+		for (final String p : pathsUnder(this.itemsByFile, prefix)) {
+			removeCount += removeItemsForPath(p);
 		}
 
 		return removeCount;
 	}
 
-	private void removeNodesAndItemsInNode(final ContentNode node) {
-		node.withEachNode((n) -> {
-			this.contentNodes.remove(n.getId());
-			removeNodePath(n);
+	/**
+	 * For when the item is about to be replaced, so unlike removeFile() the parent is kept even if this leaves it empty.
+	 */
+	public void removeItemKeepingParent(final ContentItem item) {
+		forgetItem(item);
+		if (item.getParentId() == null) return;
+		final ContentNode parentNode = this.contentNodes.get(item.getParentId());
+		if (parentNode != null) parentNode.removeItem(item);
+	}
+
+	/**
+	 * Files of items directly in dir, not in any sub directory.
+	 */
+	public List<File> getItemFilesInDir(final File dir) {
+		final String path = dir.getAbsolutePath();
+		final String prefix = path.endsWith(File.separator) ? path : path + File.separator;
+		final List<File> ret = new ArrayList<>();
+		for (final String p : pathsUnder(this.itemsByFile, prefix)) {
+			if (p.indexOf(File.separatorChar, prefix.length()) < 0) ret.add(new File(p));
+		}
+		return ret;
+	}
 
-			// in theory this recursively getting a lock on a node via withEachNode() while within a lock
-			// could deadlock, but lets see if that ever happens in practice before switching to a list copy.
+	private int removeNodesForPath(final String path) {
+		final List<ContentNode> nodes = this.nodesByFile.remove(path);
+		if (nodes == null) return 0;
+		for (final ContentNode node : nodes) {
+			forgetNode(node);
+			removeNodesAndItemsInNode(node);
+			removeNodeFromParent(node);
+		}
+		return nodes.size();
+	}
+
+	private int removeItemsForPath(final String path) {
+		final List<ContentItem> items = this.itemsByFile.remove(path);
+		if (items == null) return 0;
+		for (final ContentItem item : items) {
+			forgetItem(item);
+			removeItemFromParent(item);
+		}
+		return items.size();
+	}
+
+	private static List<String> pathsUnder(final NavigableMap<String, ?> index, final String prefix) {
+		final List<String> ret = new ArrayList<>();
+		for (final String p : index.tailMap(prefix, true).keySet()) {
+			if (!p.startsWith(prefix)) break;
+			ret.add(p);
+		}
+		return ret;
+	}
+
+	private void removeNodesAndItemsInNode(final ContentNode node) {
+		// Work on copies so no locks are held while recursing or while removing from recent.
+		for (final ContentNode n : node.getCopyOfNodes()) {
+			forgetNode(n);
 			removeNodesAndItemsInNode(n);
+		}
+		for (final ContentItem i : node.getCopyOfItems()) {
+			forgetItem(i);
+		}
+	}
+
+	private void forgetNode(final ContentNode node) {
+		this.contentNodes.remove(node.getId());
+		removeNodePath(node);
+		removeFromFileIndex(this.nodesByFile, node.getFile(), node);
+		this.version.incrementAndGet();
+	}
+
+	private void forgetItem(final ContentItem item) {
+		this.contentItems.remove(item.getId());
+		removeFromFileIndex(this.itemsByFile, item.getFile(), item);
+		this.searchIndex.remove(item);
+		removeFromRecent(item);
+		this.version.incrementAndGet();
+	}
+
+	private static <T> void addToFileIndex(final ConcurrentNavigableMap<String, List<T>> index, final File file, final T t) {
+		if (file == null) return;
+		final String path = file.getAbsolutePath();
+		if (path == null) return;
+		// Lists are copied rather than modified as compute() may run the function more than once.
+		index.compute(path, (k, v) -> {
+			if (v == null) return Collections.singletonList(t);
+			if (v.contains(t)) return v;
+			final List<T> l = new ArrayList<>(v.size() + 1);
+			l.addAll(v);
+			l.add(t);
+			return l;
 		});
-		node.withEachItem((i) -> {
-			this.contentItems.remove(i.getId());
+	}
+
+	private static <T> void removeFromFileIndex(final ConcurrentNavigableMap<String, List<T>> index, final File file, final T t) {
+		if (file == null) return;
+		final String path = file.getAbsolutePath();
+		if (path == null) return;
+		index.computeIfPresent(path, (k, v) -> {
+			if (!v.contains(t)) return v;
+			if (v.size() == 1) return null;
+			final List<T> l = new ArrayList<>(v);
+			l.remove(t);
+			return l;
 		});
 	}
 
@@ -196,8 +327,7 @@ public class ContentTree {
 			LOG.error("Container '{}' not in its parent: '{}'.", node.getId(), node.getParentId());
 		}
 		if (isContainerEmptyAndRemoveable(parentNode)) {
-			this.contentNodes.remove(parentNode.getId());
-			removeNodePath(parentNode);
+			forgetNode(parentNode);
 			removeNodeFromParent(parentNode);
 		}
 	}
@@ -218,14 +348,14 @@ public class ContentTree {
 			LOG.error("Item '{}' not in its parent: '{}'.", item.getId(), item.getParentId());
 		}
 		if (isContainerEmptyAndRemoveable(parentNode)) {
-			this.contentNodes.remove(parentNode.getId());
-			removeNodePath(parentNode);
+			forgetNode(parentNode);
 			removeNodeFromParent(parentNode);
 		}
 	}
 
 	public Collection<ContentItem> getRecent () {
-		return this.recent;
+		if (this.recentNode == null) return Collections.emptyList();
+		return this.recentNode.getCopyOfItems();
 	}
 
 	private void maybeAddToRecent(final ContentItem item) {
@@ -244,10 +374,9 @@ public class ContentTree {
 		if (item.getLastModified() < this.oldestRecentItem) return;
 
 		synchronized (this.recentLock) {
-			this.recent.add(item);
-			if (this.recent.size() > MAX_RECENT_ITEMS) {
-				this.recent.pollLast();
-				this.oldestRecentItem = this.recent.last().getLastModified();
+			this.recentNode.addLinkedItemIfAbsent(item);
+			if (this.recentNode.trimLastItem(MAX_RECENT_ITEMS) != null) {
+				this.oldestRecentItem = this.recentNode.getLastItem().getLastModified();
 			}
 			else {
 				this.oldestRecentItem = 0L;
@@ -259,7 +388,7 @@ public class ContentTree {
 		if (this.recentNode == null) return;
 
 		synchronized (this.recentLock) {
-			this.recent.remove(item);
+			this.recentNode.removeItem(item);
 		}
 	}
 
@@ -0,0 +1,370 @@
+package com.vaguehope.dlnatoad.media;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vaguehope.dlnatoad.auth.AuthList;
+import com.vaguehope.dlnatoad.media.MediaIndex.HierarchyMode;
+import com.vaguehope.dlnatoad.media.MetadataReader.Metadata;
+
+/**
+ * Saves the ContentTree to disk so the next start can serve straight away,
+ * leaving the file system scan to catch up with any differences in the background.
+ * AUTH files are always re-read on load rather than trusted from the snapshot.
+ */
+public class ContentTreeSnapshot {
+
+	private static final int VERSION = 1;
+	private static final long SAVE_INTERVAL_MINUTES = 15;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ContentTreeSnapshot.class);
+
+	private final File file;
+	private final ContentTree contentTree;
+	private final HierarchyMode hierarchyMode;
+	private final List<File> roots;
+
+	public ContentTreeSnapshot(final File file, final ContentTree contentTree, final HierarchyMode hierarchyMode, final List<File> roots) {
+		this.file = file;
+		this.contentTree = contentTree;
+		this.hierarchyMode = hierarchyMode;
+		this.roots = roots;
+	}
+
+	/**
+	 * Call once the initial scan has an ID for every file, not before, so that a shutdown part way through
+	 * the scan keeps the previous snapshot rather than replacing it with a tree that is only partly checked.
+	 */
+	public void start(final ScheduledExecutorService schExSvc) {
+		schExSvc.scheduleWithFixedDelay(this::saveAndLogErrors, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::saveAndLogErrors, "snapshot-shutdown"));
+	}
+
+	private void saveAndLogErrors() {
+		try {
+			save();
+		}
+		catch (final Exception e) {
+			LOG.error("Failed to save content tree snapshot: " + this.file.getAbsolutePath(), e);
+		}
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Save.
+
+	public synchronized void save() throws IOException {
+		final long startTime = System.nanoTime();
+		final File tmpFile = new File(this.file.getAbsolutePath() + ".tmp");
+		final int[] counts;
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024))) {
+			writeHeader(out);
+			counts = new int[] { writeNodes(out), writeItems(out) };
+		}
+		Files.move(tmpFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		LOG.info("Saved {} nodes and {} items to snapshot in {}ms.", counts[0], counts[1],
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+	}
+
+	private void writeHeader(final DataOutputStream out) throws IOException {
+		out.writeInt(VERSION);
+		out.writeUTF(this.hierarchyMode.name());
+		out.writeInt(this.roots.size());
+		for (final File root : this.roots) {
+			out.writeUTF(root.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Parents are always written before their children.
+	 * Root and recent are skipped as every ContentTree already has them.
+	 */
+	private int writeNodes(final DataOutputStream out) throws IOException {
+		final List<ContentNode> nodes = new ArrayList<>();
+		final Deque<ContentNode> queue = new ArrayDeque<>();
+		queue.add(this.contentTree.getRootNode());
+		while (!queue.isEmpty()) {
+			final ContentNode node = queue.poll();
+			for (final ContentNode child : node.getCopyOfNodes()) {
+				if (ContentGroup.RECENT.getId().equals(child.getId())) continue;
+				nodes.add(child);
+				queue.add(child);
+			}
+		}
+
+		out.writeInt(nodes.size());
+		for (final ContentNode node : nodes) {
+			out.writeUTF(node.getId());
+			out.writeUTF(node.getParentId());
+			out.writeUTF(node.getTitle());
+			writeNullableFile(out, node.getFile());
+			writeNullableString(out, node.getPath());
+			writeNullableString(out, node.getSortKey());
+			writeNullableString(out, node.getArt() != null ? node.getArt().getId() : null);
+		}
+		return nodes.size();
+	}
+
+	/**
+	 * Includes art and subtitles, which are in the tree but not children of any node.
+	 */
+	private int writeItems(final DataOutputStream out) throws IOException {
+		final List<ContentItem> items = new ArrayList<>(this.contentTree.getItems());
+		out.writeInt(items.size());
+		for (final ContentItem item : items) {
+			final ContentNode parent = this.contentTree.getNode(item.getParentId());
+			out.writeUTF(item.getId());
+			out.writeUTF(item.getParentId());
+			out.writeUTF(item.getTitle());
+			writeNullableFile(out, item.getFile());
+			out.writeUTF(item.getFormat().name());
+			out.writeBoolean(parent != null && parent.hasItemWithId(item.getId()));
+			out.writeLong(item.getFileLength());
+			out.writeLong(item.getLastModified());
+			out.writeLong(item.getDurationMillis());
+			out.writeInt(item.getWidth());
+			out.writeInt(item.getHeight());
+
+			final Metadata md = item.getMetadata();
+			out.writeBoolean(md != null);
+			if (md != null) {
+				writeNullableString(out, md.getArtist());
+				writeNullableString(out, md.getAlbum());
+			}
+
+			writeNullableString(out, item.getArt() != null ? item.getArt().getId() : null);
+			final List<ContentItem> attachments = item.getCopyOfAttachments();
+			out.writeInt(attachments.size());
+			for (final ContentItem a : attachments) {
+				out.writeUTF(a.getId());
+			}
+		}
+		return items.size();
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Load.
+
+	/**
+	 * Call before anything else adds to the tree.
+	 * Returns true if anything may have been loaded, and so removeMissing() should be called after the initial scan.
+	 */
+	public boolean load() {
+		if (!this.file.exists()) return false;
+		final long startTime = System.nanoTime();
+		boolean started = false;
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), 64 * 1024))) {
+			if (!readAndCheckHeader(in)) return false;
+			started = true;
+			final Map<ContentNode, String> nodeArtIds = new HashMap<>();
+			final int nodeCount = readNodes(in, nodeArtIds);
+			final int itemCount = readItems(in, nodeArtIds);
+			LOG.info("Loaded {} nodes and {} items from snapshot in {}ms.", nodeCount, itemCount,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+			return true;
+		}
+		catch (final IOException | RuntimeException e) {
+			LOG.warn("Failed to fully read content tree snapshot: {}: {}", this.file.getAbsolutePath(), e.toString());
+			return started;
+		}
+	}
+
+	private boolean readAndCheckHeader(final DataInputStream in) throws IOException {
+		final int version = in.readInt();
+		if (version != VERSION) {
+			LOG.info("Ignoring snapshot with version {}, expected {}.", version, VERSION);
+			return false;
+		}
+		final String mode = in.readUTF();
+		if (!this.hierarchyMode.name().equals(mode)) {
+			LOG.info("Ignoring snapshot with hierarchy mode {}.", mode);
+			return false;
+		}
+		final int rootCount = in.readInt();
+		final List<String> snapshotRoots = new ArrayList<>(rootCount);
+		for (int i = 0; i < rootCount; i++) {
+			snapshotRoots.add(in.readUTF());
+		}
+		final List<String> currentRoots = new ArrayList<>();
+		for (final File root : this.roots) {
+			currentRoots.add(root.getAbsolutePath());
+		}
+		if (!currentRoots.equals(snapshotRoots)) {
+			LOG.info("Ignoring snapshot for different roots: {}", snapshotRoots);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Art for nodes is added to nodeArtIds to be linked once items are loaded.
+	 */
+	private int readNodes(final DataInputStream in, final Map<ContentNode, String> nodeArtIds) throws IOException {
+		final int count = in.readInt();
+		int added = 0;
+		for (int i = 0; i < count; i++) {
+			final String id = in.readUTF();
+			final String parentId = in.readUTF();
+			final String title = in.readUTF();
+			final File dir = readNullableFile(in);
+			final String path = readNullableString(in);
+			final String sortKey = readNullableString(in);
+			final String artId = readNullableString(in);
+
+			final ContentNode parent = this.contentTree.getNode(parentId);
+			if (parent == null) continue;  // Parent was dropped, so drop this too.
+
+			final AuthList authList;
+			if (dir != null) {
+				try {
+					authList = AuthList.forDir(dir);
+				}
+				catch (final IOException e) {
+					continue;  // Dir has gone.
+				}
+			}
+			else {
+				authList = null;
+			}
+
+			final ContentNode node = new ContentNode(id, parentId, title, dir, path, authList, sortKey);
+			if (parent.addNodeIfAbsent(node)) {
+				this.contentTree.addNode(node);
+				if (artId != null) nodeArtIds.put(node, artId);
+				added += 1;
+			}
+		}
+		return added;
+	}
+
+	private int readItems(final DataInputStream in, final Map<ContentNode, String> nodeArtIds) throws IOException {
+		final int count = in.readInt();
+		final Map<String, ContentItem> items = new HashMap<>(count);
+		final Map<ContentItem, String> artIds = new HashMap<>();
+		final Map<ContentItem, List<String>> attachmentIds = new HashMap<>();
+
+		for (int i = 0; i < count; i++) {
+			final String id = in.readUTF();
+			final String parentId = in.readUTF();
+			final String title = in.readUTF();
+			final File file = readNullableFile(in);
+			final MediaFormat format = MediaFormat.valueOf(in.readUTF());
+			final boolean inParent = in.readBoolean();
+			final long fileLength = in.readLong();
+			final long lastModified = in.readLong();
+			final long durationMillis = in.readLong();
+			final int width = in.readInt();
+			final int height = in.readInt();
+			Metadata md = null;
+			if (in.readBoolean()) {
+				final String artist = readNullableString(in);
+				final String album = readNullableString(in);
+				md = new Metadata(artist, album);
+			}
+			final String artId = readNullableString(in);
+			final int attachmentCount = in.readInt();
+			final List<String> attachments = new ArrayList<>(attachmentCount);
+			for (int x = 0; x < attachmentCount; x++) {
+				attachments.add(in.readUTF());
+			}
+
+			final ContentNode parent = this.contentTree.getNode(parentId);
+			if (parent == null) continue;
+
+			final ContentItem item = new ContentItem(id, parentId, title, file, format, fileLength, lastModified);
+			if (durationMillis > 0) item.setDurationMillis(durationMillis);
+			if (width > 0 || height > 0) item.setWidthAndHeight(width, height);
+			if (md != null) item.setMetadata(md);
+			if (artId != null) artIds.put(item, artId);
+			if (attachments.size() > 0) attachmentIds.put(item, attachments);
+
+			if (inParent && !parent.addItemIfAbsent(item)) continue;
+			this.contentTree.addItem(item);
+			items.put(id, item);
+		}
+
+		for (final Map.Entry<ContentItem, String> e : artIds.entrySet()) {
+			final ContentItem art = items.get(e.getValue());
+			if (art != null) e.getKey().setArt(art);
+		}
+		for (final Map.Entry<ContentItem, List<String>> e : attachmentIds.entrySet()) {
+			for (final String attachmentId : e.getValue()) {
+				final ContentItem a = items.get(attachmentId);
+				if (a != null) e.getKey().addAttachmentIfNotPresent(a);
+			}
+		}
+		for (final Map.Entry<ContentNode, String> e : nodeArtIds.entrySet()) {
+			final ContentItem art = items.get(e.getValue());
+			if (art != null) e.getKey().setArt(art);
+		}
+
+		return items.size();
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Reconcile.
+
+	/**
+	 * The file system scan only reports what exists, so anything deleted while not running has to be found here.
+	 * Call once the initial scan has completed.
+	 */
+	public void removeMissing() {
+		final long startTime = System.nanoTime();
+		int removed = 0;
+		removed += removeMissing(new ArrayList<>(this.contentTree.getNodes()), ContentNode::getFile);
+		removed += removeMissing(new ArrayList<>(this.contentTree.getItems()), ContentItem::getFile);
+		LOG.info("Removed {} missing files found via snapshot in {}ms.", removed,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+	}
+
+	private <T> int removeMissing(final Collection<T> all, final Function<T, File> toFile) {
+		int removed = 0;
+		for (final T t : all) {
+			final File f = toFile.apply(t);
+			if (f == null || f.exists()) continue;
+			removed += this.contentTree.removeFile(f);
+		}
+		return removed;
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+
+	private static void writeNullableString(final DataOutputStream out, final String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) out.writeUTF(s);
+	}
+
+	private static String readNullableString(final DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeNullableFile(final DataOutputStream out, final File f) throws IOException {
+		writeNullableString(out, f != null ? f.getAbsolutePath() : null);
+	}
+
+	private static File readNullableFile(final DataInputStream in) throws IOException {
+		final String s = readNullableString(in);
+		return s != null ? new File(s) : null;
+	}
+
+}
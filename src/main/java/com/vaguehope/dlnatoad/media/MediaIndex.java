@@ -6,8 +6,11 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
@@ -111,7 +114,7 @@ public class MediaIndex implements FileListener {
 					});
 				}
 				else {
-					itemInTree.reload();
+					MediaIndex.this.contentTree.reloadItem(itemInTree);
 				}
 			}
 
@@ -142,6 +145,14 @@ public class MediaIndex implements FileListener {
 		this.mediaId.fileGoneAsync(file);
 	}
 
+	@Override
+	public void dirRescanned(final File dir, final Collection<File> files) throws IOException {
+		final Set<File> present = new HashSet<>(files);
+		for (final File file : this.contentTree.getItemFilesInDir(dir)) {
+			if (!present.contains(file)) fileGone(file, false);
+		}
+	}
+
 	private void addFile(final File rootDir, final File file, final Runnable onComplete) throws IOException {
 		if (!rootDir.exists()) throw new IllegalArgumentException("Not found: " + rootDir);
 		if (!file.isFile()) return;
@@ -318,12 +329,25 @@ public class MediaIndex implements FileListener {
 
 	private boolean makeItemInContainer(final MediaFormat format, final ContentNode parent, final File file,
 			final String title, final String id) throws IOException {
-		if (parent.hasItemWithId(id)) return false;  // Optimistic lock.
+		final ContentItem existing = this.contentTree.getItem(id);
+		if (existing != null && parent.hasItemWithId(id)) {  // Optimistic lock.
+			// Already in tree, e.g. restored from a snapshot, so only the cheap refresh is needed.
+			this.contentTree.reloadItem(existing);
+			return false;
+		}
+
+		// File may have been restored from a snapshot under a different ID.
+		// Only the stale item is removed, as removing the file would also prune the parent if this left it empty.
+		for (final ContentItem stale : this.contentTree.getItemsForFile(file)) {
+			if (!stale.getId().equals(id) && parent.getId().equals(stale.getParentId())) {
+				this.contentTree.removeItemKeepingParent(stale);
+			}
+		}
 
 		final ContentItem item = new ContentItem(id, parent.getId(), title, file, format);
 		if (parent.addItemIfAbsent(item)) {
+			findMetadata(file, item);  // Before adding to tree so the artist is indexed.
 			this.contentTree.addItem(item);
-			findMetadata(file, item);
 			findArt(file, format, item, parent);
 
 			final ContentGroup contentGroup = format.getContentGroup();
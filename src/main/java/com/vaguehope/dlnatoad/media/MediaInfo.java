@@ -2,89 +2,257 @@ package com.vaguehope.dlnatoad.media;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vaguehope.dlnatoad.db.FileInfo;
 import com.vaguehope.dlnatoad.db.MediaMetadataStore;
+import com.vaguehope.dlnatoad.db.StoredFileInfo;
 import com.vaguehope.dlnatoad.ffmpeg.Ffprobe;
 import com.vaguehope.dlnatoad.ffmpeg.FfprobeInfo;
-import com.vaguehope.dlnatoad.util.ExceptionHelper;
+import com.vaguehope.dlnatoad.metrics.Counter;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
+import com.vaguehope.dlnatoad.probe.HeaderProbe;
+import com.vaguehope.dlnatoad.util.AdaptiveLimit;
+import com.vaguehope.dlnatoad.util.ExFunction;
 
+/**
+ * Reads duration and size, from the DB if possible, else from the file headers, else with ffprobe.
+ * ffprobe runs in parallel up to an AdaptiveLimit, which backs off when probes slow down, fail or time out,
+ * and no more are started while the system load is above the number of CPUs.
+ */
 public class MediaInfo {
 
+	public static final int DEFAULT_MAX_WORKERS = Runtime.getRuntime().availableProcessors();
+
 	private static final Logger LOG = LoggerFactory.getLogger(MediaInfo.class);
+	private static final Counter HEADER_PROBES = MetricRegistry.DEFAULT.counter(
+			"dlnatoad_media_info_probes_total", "Files whose info was read, by how.", "method", "headers");
+	private static final Counter FFPROBE_PROBES = MetricRegistry.DEFAULT.counter(
+			"dlnatoad_media_info_probes_total", "Files whose info was read, by how.", "method", "ffprobe");
 
 	private final MediaMetadataStore mediaMetadataStore;
 	private final ThumbnailGenerator thumbnailGenerator;
 	private final ExecutorService exSvc;
+	private final AdaptiveLimit limit;
+	private final ExFunction<File, FfprobeInfo, IOException> ffprobe;
+	private final BooleanSupplier overloaded;
+
+	// Queued and running jobs by item ID, so asking again for the same item does not read it twice.
+	private final Map<String, ReadInfoJob> jobs = new LinkedHashMap<>();  // Guarded by itself.
 
+	// Only set between preloadStoredInfos() and dropPreloadedInfos().
+	private volatile Map<String, StoredFileInfo> preloaded;
 
 	public MediaInfo () {
-		this(null, null, null);
+		this(null, null, null, 1);
+	}
+
+	/**
+	 * exSvc should have at least maxWorkers threads.
+	 */
+	public MediaInfo (final MediaMetadataStore mediaMetadataStore, final ThumbnailGenerator thumbnailGenerator, final ExecutorService exSvc, final int maxWorkers) {
+		this(mediaMetadataStore, thumbnailGenerator, exSvc, maxWorkers, MediaInfo::ffprobeIfAvailable, MediaInfo::systemOverloaded);
 	}
 
-	public MediaInfo (final MediaMetadataStore mediaMetadataStore, final ThumbnailGenerator thumbnailGenerator, final ExecutorService exSvc) {
+	MediaInfo (final MediaMetadataStore mediaMetadataStore, final ThumbnailGenerator thumbnailGenerator, final ExecutorService exSvc, final int maxWorkers,
+			final ExFunction<File, FfprobeInfo, IOException> ffprobe, final BooleanSupplier overloaded) {
 		this.mediaMetadataStore = mediaMetadataStore;
 		this.thumbnailGenerator = thumbnailGenerator;
 		this.exSvc = exSvc;
+		this.limit = new AdaptiveLimit(maxWorkers);
+		this.ffprobe = ffprobe;
+		this.overloaded = overloaded;
+	}
+
+	/**
+	 * Read all stored infos in one go so items found by the initial scan do not each need a query.
+	 * Call before the initial scan starts.
+	 */
+	public void preloadStoredInfos () throws SQLException {
+		if (this.mediaMetadataStore == null) return;
+		final long startNanos = System.nanoTime();
+		this.preloaded = new ConcurrentHashMap<>(this.mediaMetadataStore.readAllFileInfos());
+		LOG.info("Preloaded {} infos in {}ms.", this.preloaded.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+	}
+
+	/**
+	 * Call once the initial scan has an ID for every file.
+	 */
+	public void dropPreloadedInfos () {
+		final Map<String, StoredFileInfo> p = this.preloaded;
+		this.preloaded = null;
+		if (p != null) LOG.info("Dropped {} preloaded infos.", p.size());
 	}
 
 	public void readInfoAsync (final File file, final ContentItem item) {
 		if (this.mediaMetadataStore != null) {
-			this.exSvc.submit(new ReadInfoJob(file, item, this.mediaMetadataStore));
+			final Map<String, StoredFileInfo> p = this.preloaded;
+			if (p != null) {
+				// get() not remove(), as files with the same content share an ID.
+				final StoredFileInfo stored = p.get(item.getId());
+				final FileInfo info = stored != null ? stored.getInfoIfStillValid(file) : null;
+				if (info != null) {
+					applyInfo(item, info);
+				}
+				else {
+					// If the DB had it but for a different size, asking again would get the same answer.
+					// If not, a file with the same content may have been read since the preload.
+					queueJob(file, item, stored == null);
+				}
+			}
+			else {
+				queueJob(file, item, true);
+			}
 		}
 
 		// TODO read dir prefs for video_thumbs prefs.
 		if (this.thumbnailGenerator != null && this.thumbnailGenerator.supported(item.getFormat().getContentGroup(), false)) {
-			this.exSvc.submit(() -> generateThumbnail(item));
+			this.thumbnailGenerator.generateInBackground(item);
+		}
+	}
+
+	private void queueJob (final File file, final ContentItem item, final boolean checkStore) {
+		synchronized (this.jobs) {
+			final ReadInfoJob existing = this.jobs.get(item.getId());
+			if (existing != null) {
+				// Same ID is same content, so one read does for both.
+				existing.items.add(item);
+				return;
+			}
+			this.jobs.put(item.getId(), new ReadInfoJob(file, item, checkStore));
+		}
+		pump();
+	}
+
+	private void pump () {
+		synchronized (this.jobs) {
+			final Iterator<ReadInfoJob> ittr = this.jobs.values().iterator();
+			while (ittr.hasNext()) {
+				final ReadInfoJob job = ittr.next();
+				if (job.started) continue;
+				if (this.limit.getInFlight() > 0 && this.overloaded.getAsBoolean()) return;
+				if (!this.limit.tryAcquire()) return;
+				job.started = true;
+				this.exSvc.execute(job);
+			}
+		}
+	}
+
+	/**
+	 * Null if ffprobe is not installed.
+	 */
+	private static FfprobeInfo ffprobeIfAvailable (final File file) throws IOException {
+		if (!Ffprobe.isAvailable()) return null;
+		return Ffprobe.inspect(file);
+	}
+
+	private static boolean systemOverloaded () {
+		final double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+		return load >= Runtime.getRuntime().availableProcessors();
+	}
+
+	private void jobFinished (final ReadInfoJob job) {
+		synchronized (this.jobs) {
+			this.jobs.remove(job.id, job);
 		}
+		pump();
 	}
 
-	private static class ReadInfoJob implements Runnable {
+	private static void applyInfo (final ContentItem item, final FileInfo info) {
+		if (info.hasDuration()) {
+			item.setDurationMillis(info.getDurationMillis());
+		}
+		if (info.hasWidthAndHeight()) {
+			item.setWidthAndHeight(info.getWidth(), info.getHeight());
+		}
+	}
+
+	private class ReadInfoJob implements Runnable {
 
+		private final String id;
 		private final File file;
-		private final ContentItem item;
-		private final MediaMetadataStore mediaMetadataStore;
+		private final MediaFormat format;
+		private final List<ContentItem> items = new ArrayList<>();  // Guarded by MediaInfo.this.jobs.
+		private final boolean checkStore;
+		private boolean started = false;  // Guarded by MediaInfo.this.jobs.
+		private boolean limitUpdated = false;  // Only probes count towards the limit, DB reads just give the slot back.
 
-		public ReadInfoJob (final File file, final ContentItem item, final MediaMetadataStore mediaMetadataStore) {
+		public ReadInfoJob (final File file, final ContentItem item, final boolean checkStore) {
+			this.id = item.getId();
 			this.file = file;
-			this.item = item;
-			this.mediaMetadataStore = mediaMetadataStore;
+			this.format = item.getFormat();
+			this.items.add(item);
+			this.checkStore = checkStore;
 		}
 
 		@Override
 		public void run () {
+			FileInfo info = null;
 			try {
-				final FileInfo info = readInfo();
-				if (info != null) {
-					if (info.hasDuration()) {
-						this.item.setDurationMillis(info.getDurationMillis());
-					}
-					if (info.hasWidthAndHeight()) {
-						this.item.setWidthAndHeight(info.getWidth(), info.getHeight());
-					}
-				}
+				info = readInfo();
 			}
 			catch (final Exception e) {
 				LOG.warn("Failed to read info: \"{}\" {}", this.file.getAbsolutePath(), e.toString());
 			}
+			finally {
+				if (!this.limitUpdated) MediaInfo.this.limit.cancel();
+				jobFinished(this);
+			}
+
+			if (info != null) {
+				// Removed from jobs by now, so no more items can be added.
+				for (final ContentItem item : this.items) {
+					applyInfo(item, info);
+				}
+			}
 		}
 
 		private FileInfo readInfo () throws IOException, SQLException, InterruptedException {
-			final FileInfo storedInfo = this.mediaMetadataStore.readFileInfo(this.item.getId(), this.file);
-			if (storedInfo != null) return storedInfo;
+			if (this.checkStore) {
+				final FileInfo storedInfo = MediaInfo.this.mediaMetadataStore.readFileInfo(this.id, this.file);
+				if (storedInfo != null) return storedInfo;
+			}
 
-			if (!Ffprobe.isAvailable()) return null;
 			if (!this.file.exists()) return null;  // did file disappear between being put on the queue and now?
 
-			final FfprobeInfo probeInfo = Ffprobe.inspect(this.file);
+			final FileInfo headerInfo = readHeaders();
+			if (headerInfo != null) {
+				HEADER_PROBES.inc();
+				MediaInfo.this.mediaMetadataStore.storeFileInfoAsync(this.id, this.file, headerInfo);
+				return headerInfo;
+			}
+
+			final long startNanos = System.nanoTime();
+			final FfprobeInfo probeInfo;
+			try {
+				probeInfo = MediaInfo.this.ffprobe.apply(this.file);
+			}
+			catch (final IOException e) {
+				MediaInfo.this.limit.onFailure();
+				this.limitUpdated = true;
+				throw e;
+			}
+			if (probeInfo == null) return null;
+			FFPROBE_PROBES.inc();
+			MediaInfo.this.limit.onSuccess(System.nanoTime() - startNanos);
+			this.limitUpdated = true;
+
 			if (probeInfo.hasDuration() || probeInfo.hasWidthAndHeight()) {
 				final FileInfo info = new FileInfo(probeInfo.getDurationMillis(), probeInfo.getWidth(), probeInfo.getHeight());
-				this.mediaMetadataStore.storeFileInfoAsync(this.item.getId(), this.file, info);
+				MediaInfo.this.mediaMetadataStore.storeFileInfoAsync(this.id, this.file, info);
 				return info;
 			}
 
@@ -92,15 +260,19 @@ public class MediaInfo {
 			return null;
 		}
 
-	}
-
-	private void generateThumbnail(final ContentItem item) {
-		try {
-			this.thumbnailGenerator.generate(item);
-		}
-		catch (final IOException e) {
-			LOG.warn("Failed to generate thumbnail for {}: {}", item.getFile(), ExceptionHelper.causeTrace(e));
+		/**
+		 * Null if ffprobe is needed.
+		 */
+		private FileInfo readHeaders () {
+			try {
+				return HeaderProbe.probe(this.file, this.format);
+			}
+			catch (final IOException | RuntimeException e) {
+				LOG.debug("Failed to read headers, will try ffprobe: \"{}\" {}", this.file.getAbsolutePath(), e.toString());
+				return null;
+			}
 		}
+
 	}
 
 }
@@ -2,26 +2,72 @@ package com.vaguehope.dlnatoad.media;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.vaguehope.dlnatoad.ffmpeg.Ffmpeg;
+import com.vaguehope.dlnatoad.metrics.Counter;
+import com.vaguehope.dlnatoad.metrics.Histogram;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
+import com.vaguehope.dlnatoad.util.ExceptionHelper;
+import com.vaguehope.dlnatoad.util.ExecutorHelper;
 import com.vaguehope.dlnatoad.util.HashHelper;
 import com.vaguehope.dlnatoad.util.ImageResizer;
 
+/**
+ * Image resizes and ffmpeg video thumbnails run in separate pools so a slow video does not hold up images.
+ * Requests for a thumbnail that is already queued or running share the one task.
+ * A client waiting on a thumbnail jumps ahead of any queued background work.
+ */
 public class ThumbnailGenerator {
 
+	public static final int DEFAULT_IMAGE_THREADS = 2;
+	public static final int DEFAULT_VIDEO_THREADS = 1;
+
 	private static final int THUMB_SIZE_PIXELS = 200;
 	private static final float THUMB_QUALITY = 0.8f;
 
-	private static final Object[] LOCK = new Object[0];
+	private static final Logger LOG = LoggerFactory.getLogger(ThumbnailGenerator.class);
+
+	private static final Counter FRESH = MetricRegistry.DEFAULT.counter(
+			"dlnatoad_thumbnail_requests_total", "Thumbnails requested by clients.", "result", "cached");
+	private static final Counter NOT_FRESH = MetricRegistry.DEFAULT.counter(
+			"dlnatoad_thumbnail_requests_total", "Thumbnails requested by clients.", "result", "generated");
+	private static final Histogram CLIENT_WAIT = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_thumbnail_wait_seconds", "Time a client waited for a thumbnail to be generated.");
+	private static final Histogram IMAGE_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_thumbnail_generate_seconds", "Time to generate a thumbnail.", "type", "image");
+	private static final Histogram VIDEO_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_thumbnail_generate_seconds", "Time to generate a thumbnail.", "type", "video");
 
 	private final File cacheDir;
 	private final ImageResizer imageResizer;
+	private final ThreadPoolExecutor imageExSvc;
+	private final ThreadPoolExecutor videoExSvc;
+	private final ConcurrentMap<File, ThumbTask> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong taskCounter = new AtomicLong(0L);
 
 	public ThumbnailGenerator(final File cacheDir) {
+		this(cacheDir, DEFAULT_IMAGE_THREADS, DEFAULT_VIDEO_THREADS);
+	}
+
+	public ThumbnailGenerator(final File cacheDir, final int imageThreads, final int videoThreads) {
+		this(cacheDir, imageThreads, videoThreads, new ImageResizer());
+	}
+
+	ThumbnailGenerator(final File cacheDir, final int imageThreads, final int videoThreads, final ImageResizer imageResizer) {
 		this.cacheDir = cacheDir;
-		this.imageResizer = new ImageResizer();
+		this.imageResizer = imageResizer;
+		this.imageExSvc = ExecutorHelper.newPriorityExecutor(imageThreads, "thumb-img", Thread.MIN_PRIORITY);
+		this.videoExSvc = ExecutorHelper.newPriorityExecutor(videoThreads, "thumb-vid", Thread.MIN_PRIORITY);
 	}
 
 	public boolean supported(final ContentGroup group, final boolean videoThumbs) {
@@ -35,29 +81,88 @@ public class ThumbnailGenerator {
 		}
 	}
 
+	/**
+	 * For when a client is waiting, blocks until the thumbnail is ready.
+	 */
 	public File generate(final ContentItem item) throws IOException {
 		final File inF = item.getFile();
 		if (!inF.exists()) throw new IllegalArgumentException("File does not exist: " + inF.getAbsolutePath());
 
 		final File outF = chooseOutputFile(inF, THUMB_SIZE_PIXELS);
-		if (outF.exists() && outF.lastModified() > inF.lastModified()) return outF;
+		if (isFresh(inF, outF)) {
+			FRESH.inc();
+			return outF;
+		}
+		NOT_FRESH.inc();
 
-		// TODO do something better than this nasty rate-limiting hack.
-		synchronized (LOCK) {
-			FileUtils.forceMkdir(outF.getParentFile());
-			doGenerate(item, inF, outF);
+		final long start = System.nanoTime();
+		final ThumbTask task = schedule(item, inF, outF, true);
+		try {
+			return task.result.get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for thumbnail: " + inF.getAbsolutePath(), e);
+		}
+		catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Failed to generate thumbnail: " + inF.getAbsolutePath(), e.getCause());
 		}
-		return outF;
+		finally {
+			CLIENT_WAIT.observeSince(start);
+		}
+	}
+
+	/**
+	 * Queues behind any thumbnails a client is waiting for.
+	 * Failures are logged.
+	 */
+	public void generateInBackground(final ContentItem item) {
+		final File inF = item.getFile();
+		if (!inF.exists()) return;
+
+		final File outF = chooseOutputFile(inF, THUMB_SIZE_PIXELS);
+		if (isFresh(inF, outF)) return;
+
+		final ThumbTask task = schedule(item, inF, outF, false);
+		task.result.whenComplete((f, e) -> {
+			if (e != null) LOG.warn("Failed to generate thumbnail for {}: {}", inF, ExceptionHelper.causeTrace(e));
+		});
+	}
+
+	private static boolean isFresh(final File inF, final File outF) {
+		return outF.exists() && outF.lastModified() > inF.lastModified();
+	}
+
+	private ThumbTask schedule(final ContentItem item, final File inF, final File outF, final boolean foreground) {
+		final ThreadPoolExecutor exSvc = item.getFormat().getContentGroup() == ContentGroup.VIDEO ? this.videoExSvc : this.imageExSvc;
+		final ThumbTask newTask = new ThumbTask(item, inF, outF, foreground, this.taskCounter.incrementAndGet());
+		final ThumbTask existing = this.inFlight.putIfAbsent(outF, newTask);
+		if (existing == null) {
+			exSvc.execute(newTask);
+			return newTask;
+		}
+
+		// Only re-queue if still waiting, removing first so the queue never sees a changed priority.
+		if (foreground && !existing.foreground && exSvc.getQueue().remove(existing)) {
+			existing.foreground = true;
+			exSvc.getQueue().add(existing);
+		}
+		return existing;
 	}
 
 	private void doGenerate(final ContentItem item, final File inF, final File outF) throws IOException {
 		switch (item.getFormat().getContentGroup()) {
 		case IMAGE:
+			final long imageStart = System.nanoTime();
 			this.imageResizer.scaleImageToFile(inF, THUMB_SIZE_PIXELS, THUMB_QUALITY, outF);
+			IMAGE_DURATION.observeSince(imageStart);
 			return;
 		case VIDEO:
 			if (!Ffmpeg.isAvailable()) return;
+			final long videoStart = System.nanoTime();
 			Ffmpeg.generateThumbnail(inF, THUMB_SIZE_PIXELS, outF);
+			VIDEO_DURATION.observeSince(videoStart);
 			return;
 		default:
 		}
@@ -69,4 +174,49 @@ public class ThumbnailGenerator {
 		return new File(outDir, outName);
 	}
 
+	/**
+	 * Foreground first, then oldest first.
+	 */
+	private class ThumbTask implements Runnable, Comparable<ThumbTask> {
+
+		final ContentItem item;
+		final File inF;
+		final File outF;
+		final long seq;
+		final CompletableFuture<File> result = new CompletableFuture<>();
+		volatile boolean foreground;
+
+		ThumbTask(final ContentItem item, final File inF, final File outF, final boolean foreground, final long seq) {
+			this.item = item;
+			this.inF = inF;
+			this.outF = outF;
+			this.foreground = foreground;
+			this.seq = seq;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (!isFresh(this.inF, this.outF)) {
+					FileUtils.forceMkdir(this.outF.getParentFile());
+					doGenerate(this.item, this.inF, this.outF);
+				}
+				this.result.complete(this.outF);
+			}
+			catch (final Throwable e) {
+				this.result.completeExceptionally(e);
+			}
+			finally {
+				ThumbnailGenerator.this.inFlight.remove(this.outF, this);
+			}
+		}
+
+		@Override
+		public int compareTo(final ThumbTask o) {
+			if (this.foreground != o.foreground) return this.foreground ? -1 : 1;
+			return Long.compare(this.seq, o.seq);
+		}
+
+	}
+
 }
@@ -0,0 +1,23 @@
+package com.vaguehope.dlnatoad.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class Counter {
+
+	private final LongAdder value = new LongAdder();
+
+	Counter() {}
+
+	public void inc() {
+		this.value.increment();
+	}
+
+	public void add(final long amount) {
+		this.value.add(amount);
+	}
+
+	public long get() {
+		return this.value.sum();
+	}
+
+}
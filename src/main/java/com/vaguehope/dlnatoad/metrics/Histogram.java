@@ -0,0 +1,67 @@
+package com.vaguehope.dlnatoad.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies, reported in seconds.
+ */
+public class Histogram {
+
+	private static final double[] BUCKET_SECONDS = new double[] {
+			0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+	private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+	static {
+		for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+			BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+		}
+	}
+
+	// Last is for anything bigger than all the buckets.
+	private final LongAdder[] counts = new LongAdder[BUCKET_NANOS.length + 1];
+	private final LongAdder sumNanos = new LongAdder();
+
+	Histogram() {
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] = new LongAdder();
+		}
+	}
+
+	public void observeNanos(final long nanos) {
+		int i = 0;
+		while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) {
+			i += 1;
+		}
+		this.counts[i].increment();
+		this.sumNanos.add(nanos);
+	}
+
+	/**
+	 * startNanos is from System.nanoTime().
+	 */
+	public void observeSince(final long startNanos) {
+		observeNanos(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		long total = 0;
+		for (final LongAdder c : this.counts) {
+			total += c.sum();
+		}
+		return total;
+	}
+
+	void writeTo(final Appendable out, final String name, final String labels) throws IOException {
+		final String labelPrefix = labels.length() > 0 ? labels + "," : "";
+		long cumulative = 0;
+		for (int i = 0; i < this.counts.length; i++) {
+			cumulative += this.counts[i].sum();
+			final String le = i < BUCKET_SECONDS.length ? MetricRegistry.formatDouble(BUCKET_SECONDS[i]) : "+Inf";
+			MetricRegistry.writeLine(out, name + "_bucket", labelPrefix + "le=\"" + le + "\"", String.valueOf(cumulative));
+		}
+		MetricRegistry.writeLine(out, name + "_sum", labels, String.valueOf(this.sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)));
+		MetricRegistry.writeLine(out, name + "_count", labels, String.valueOf(cumulative));
+	}
+
+}
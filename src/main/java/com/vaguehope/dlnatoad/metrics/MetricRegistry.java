@@ -0,0 +1,129 @@
+package com.vaguehope.dlnatoad.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms, written out in the Prometheus text format.
+ * Asking for the same name and labels again returns the same Counter or Histogram.
+ * Registering a gauge or function counter again replaces its supplier, so the latest instance wins.
+ */
+public class MetricRegistry {
+
+	public static final MetricRegistry DEFAULT = new MetricRegistry();
+
+	private enum Type {
+		COUNTER, GAUGE, HISTOGRAM;
+
+		String promName() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+	/**
+	 * labels are name and value pairs.
+	 */
+	public Counter counter(final String name, final String help, final String... labels) {
+		return (Counter) family(name, help, Type.COUNTER).series.computeIfAbsent(labelsText(labels), k -> new Counter());
+	}
+
+	/**
+	 * For something that already counts, eg a cache or an executor.
+	 */
+	public void counter(final String name, final String help, final LongSupplier supplier, final String... labels) {
+		family(name, help, Type.COUNTER).series.put(labelsText(labels), supplier);
+	}
+
+	public void gauge(final String name, final String help, final DoubleSupplier supplier, final String... labels) {
+		family(name, help, Type.GAUGE).series.put(labelsText(labels), supplier);
+	}
+
+	public Histogram histogram(final String name, final String help, final String... labels) {
+		return (Histogram) family(name, help, Type.HISTOGRAM).series.computeIfAbsent(labelsText(labels), k -> new Histogram());
+	}
+
+	private Family family(final String name, final String help, final Type type) {
+		final Family f = this.families.computeIfAbsent(name, k -> new Family(name, help, type));
+		if (f.type != type) throw new IllegalArgumentException("Metric " + name + " is a " + f.type.promName() + " not a " + type.promName());
+		return f;
+	}
+
+	public void writeTo(final Appendable out) throws IOException {
+		for (final Family f : this.families.values()) {
+			out.append("# HELP ").append(f.name).append(' ').append(escapeHelp(f.help)).append('\n');
+			out.append("# TYPE ").append(f.name).append(' ').append(f.type.promName()).append('\n');
+			for (final Entry<String, Object> s : f.series.entrySet()) {
+				writeSeries(out, f.name, s.getKey(), s.getValue());
+			}
+		}
+	}
+
+	private static void writeSeries(final Appendable out, final String name, final String labels, final Object series) throws IOException {
+		if (series instanceof Counter) {
+			writeLine(out, name, labels, String.valueOf(((Counter) series).get()));
+		}
+		else if (series instanceof LongSupplier) {
+			writeLine(out, name, labels, String.valueOf(((LongSupplier) series).getAsLong()));
+		}
+		else if (series instanceof DoubleSupplier) {
+			writeLine(out, name, labels, formatDouble(((DoubleSupplier) series).getAsDouble()));
+		}
+		else if (series instanceof Histogram) {
+			((Histogram) series).writeTo(out, name, labels);
+		}
+		else {
+			throw new IllegalStateException("Unknown series: " + series);
+		}
+	}
+
+	static void writeLine(final Appendable out, final String name, final String labels, final String value) throws IOException {
+		out.append(name);
+		if (labels.length() > 0) out.append('{').append(labels).append('}');
+		out.append(' ').append(value).append('\n');
+	}
+
+	static String formatDouble(final double d) {
+		if (d == Double.POSITIVE_INFINITY) return "+Inf";
+		if (d == Double.NEGATIVE_INFINITY) return "-Inf";
+		if (d == Math.rint(d) && Math.abs(d) < 1e15) return String.valueOf((long) d);
+		return String.valueOf(d);
+	}
+
+	static String labelsText(final String... labels) {
+		if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name and value pairs.");
+		final StringBuilder s = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (s.length() > 0) s.append(',');
+			s.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+		}
+		return s.toString();
+	}
+
+	private static String escapeLabelValue(final String v) {
+		return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String escapeHelp(final String v) {
+		return v.replace("\\", "\\\\").replace("\n", "\\n");
+	}
+
+	private static class Family {
+		final String name;
+		final String help;
+		final Type type;
+		final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+		Family(final String name, final String help, final Type type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.vaguehope.dlnatoad.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class MetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -6290373870960618530L;
+
+	private final MetricRegistry registry;
+
+	public MetricsServlet(final MetricRegistry registry) {
+		this.registry = registry;
+	}
+
+	@SuppressWarnings("resource")
+	@Override
+	protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+		// Render first so a failing gauge gives an error page instead of half an output.
+		final StringWriter w = new StringWriter();
+		this.registry.writeTo(w);
+
+		resp.setContentType("text/plain; version=0.0.4");
+		resp.setCharacterEncoding("UTF-8");
+		resp.getWriter().write(w.toString());
+	}
+
+}
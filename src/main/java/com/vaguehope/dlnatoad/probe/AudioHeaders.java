@@ -0,0 +1,214 @@
+package com.vaguehope.dlnatoad.probe;
+
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.be32;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.le16;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.le32;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.le64;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.readAt;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.startsWith;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.u8;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.vaguehope.dlnatoad.db.FileInfo;
+
+class AudioHeaders {
+
+	/**
+	 * How far past any ID3v2 tag to look for the first MP3 frame.
+	 */
+	private static final int MP3_SYNC_SEARCH_BYTES = 64 * 1024;
+
+	/**
+	 * How far back from the end to look for the last Ogg page, which is at most 64K.
+	 */
+	private static final int OGG_TAIL_BYTES = 65307;
+
+	private static final int OPUS_SAMPLE_RATE = 48000;
+
+	// kbit/s by bitrate index, for Layer III.
+	private static final int[] MPEG1_L3_BITRATES = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 };
+	private static final int[] MPEG2_L3_BITRATES = { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 };
+	private static final int[] MPEG1_SAMPLE_RATES = { 44100, 48000, 32000 };
+
+	private AudioHeaders () {
+		throw new AssertionError();
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// MP3.
+
+	/**
+	 * Layer III only.  Frame count from a Xing/Info or VBRI header if there is one,
+	 * otherwise an estimate from the first frame's bitrate, same as ffprobe does.
+	 */
+	static FileInfo readMp3 (final RandomAccessFile raf) throws IOException {
+		final long audioStart = skipId3v2(raf);
+		if (audioStart >= raf.length()) return null;
+		final byte[] search = readAt(raf, audioStart, (int) Math.min(MP3_SYNC_SEARCH_BYTES, raf.length() - audioStart));
+		if (search == null) return null;
+
+		for (int i = 0; i + 4 <= search.length; i++) {
+			if (u8(search, i) != 0xff || (u8(search, i + 1) & 0xe0) != 0xe0) continue;
+			final Mp3Frame frame = Mp3Frame.parse(be32(search, i));
+			if (frame == null) continue;
+
+			// Random data can look like a frame header, so check the next frame too if it is in the buffer.
+			final int next = i + frame.lengthBytes(be32(search, i));
+			if (next + 4 <= search.length && Mp3Frame.parse(be32(search, next)) == null) continue;
+
+			final long frameStart = audioStart + i;
+			final long frames = readVbrFrameCount(raf, frameStart, frame);
+			final long durationMillis;
+			if (frames > 0) {
+				durationMillis = frames * frame.samplesPerFrame * 1000L / frame.sampleRate;
+			}
+			else {
+				final long audioBytes = raf.length() - frameStart - (hasId3v1(raf) ? 128 : 0);
+				durationMillis = audioBytes * 8L / frame.bitrateKbps;
+			}
+			return new FileInfo(durationMillis, 0, 0);
+		}
+		return null;
+	}
+
+	private static long readVbrFrameCount (final RandomAccessFile raf, final long frameStart, final Mp3Frame frame) throws IOException {
+		// Xing / Info goes after the side info, which is smaller for mono and for MPEG 2 and 2.5.
+		final int sideInfo = frame.mpeg1 ? (frame.mono ? 17 : 32) : (frame.mono ? 9 : 17);
+		final byte[] xing = readAt(raf, frameStart + 4 + sideInfo, 12);
+		if (startsWith(xing, 0, "Xing") || startsWith(xing, 0, "Info")) {
+			final long flags = be32(xing, 4);
+			if ((flags & 0x1) != 0) return be32(xing, 8);
+			return 0;
+		}
+
+		// VBRI is always 32 bytes after the frame header.
+		final byte[] vbri = readAt(raf, frameStart + 4 + 32, 18);
+		if (startsWith(vbri, 0, "VBRI")) return be32(vbri, 14);
+		return 0;
+	}
+
+	private static boolean hasId3v1 (final RandomAccessFile raf) throws IOException {
+		return startsWith(readAt(raf, raf.length() - 128, 3), 0, "TAG");
+	}
+
+	/**
+	 * Offset of whatever comes after any ID3v2 tag at the start of the file.
+	 */
+	private static long skipId3v2 (final RandomAccessFile raf) throws IOException {
+		final byte[] h = readAt(raf, 0, 10);
+		if (!startsWith(h, 0, "ID3")) return 0;
+		// Size is 4 bytes of 7 bits each and does not include the header or footer.
+		final long size = ((h[6] & 0x7f) << 21) | ((h[7] & 0x7f) << 14) | ((h[8] & 0x7f) << 7) | (h[9] & 0x7f);
+		final boolean hasFooter = (u8(h, 5) & 0x10) != 0;
+		return 10 + size + (hasFooter ? 10 : 0);
+	}
+
+	private static class Mp3Frame {
+		final boolean mpeg1;
+		final boolean mono;
+		final int bitrateKbps;
+		final int sampleRate;
+		final int samplesPerFrame;
+
+		private Mp3Frame (final boolean mpeg1, final boolean mono, final int bitrateKbps, final int sampleRate) {
+			this.mpeg1 = mpeg1;
+			this.mono = mono;
+			this.bitrateKbps = bitrateKbps;
+			this.sampleRate = sampleRate;
+			this.samplesPerFrame = mpeg1 ? 1152 : 576;
+		}
+
+		int lengthBytes (final long header) {
+			final int padding = (int) (header >> 9) & 0x1;
+			return (this.samplesPerFrame / 8) * this.bitrateKbps * 1000 / this.sampleRate + padding;
+		}
+
+		/**
+		 * Null if not a valid Layer III frame header.
+		 */
+		static Mp3Frame parse (final long header) {
+			final int version = (int) (header >> 19) & 0x3;  // 0 = 2.5, 1 = reserved, 2 = 2, 3 = 1.
+			final int layer = (int) (header >> 17) & 0x3;  // 1 = III.
+			final int bitrateIndex = (int) (header >> 12) & 0xf;
+			final int sampleRateIndex = (int) (header >> 10) & 0x3;
+			final int channelMode = (int) (header >> 6) & 0x3;  // 3 = mono.
+			if (version == 1 || layer != 1 || bitrateIndex == 0 || bitrateIndex == 0xf || sampleRateIndex == 3) return null;
+
+			final boolean mpeg1 = version == 3;
+			final int bitrate = mpeg1 ? MPEG1_L3_BITRATES[bitrateIndex] : MPEG2_L3_BITRATES[bitrateIndex];
+			final int divisor = mpeg1 ? 1 : (version == 2 ? 2 : 4);
+			final int sampleRate = MPEG1_SAMPLE_RATES[sampleRateIndex] / divisor;
+			return new Mp3Frame(mpeg1, channelMode == 3, bitrate, sampleRate);
+		}
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// FLAC.
+
+	/**
+	 * Sample rate and total samples from STREAMINFO, which is always the first metadata block.
+	 */
+	static FileInfo readFlac (final RandomAccessFile raf) throws IOException {
+		final long start = skipId3v2(raf);
+		final byte[] b = readAt(raf, start, 4 + 4 + 18);
+		if (!startsWith(b, 0, "fLaC") || (u8(b, 4) & 0x7f) != 0) return null;
+
+		// STREAMINFO: 2+2+3+3 bytes of block and frame sizes, then 20 bits sample rate, 3 channels, 5 bits per sample, 36 total samples.
+		final int i = 8 + 10;
+		final long sampleRate = (u8(b, i) << 12) | (u8(b, i + 1) << 4) | (u8(b, i + 2) >> 4);
+		final long totalSamples = ((long) (u8(b, i + 3) & 0x0f) << 32) | be32(b, i + 4);
+		if (sampleRate < 1 || totalSamples < 1) return null;  // 0 total samples means unknown.
+		return new FileInfo(totalSamples * 1000L / sampleRate, 0, 0);
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Ogg.
+
+	/**
+	 * Vorbis and Opus: sample rate from the first packet, and the granule position of
+	 * the last page of the same stream is the total samples.
+	 */
+	static FileInfo readOgg (final RandomAccessFile raf) throws IOException {
+		final byte[] first = readAt(raf, 0, (int) Math.min(27 + 255, raf.length()));
+		if (first == null || first.length < 27 || !startsWith(first, 0, "OggS")) return null;
+		final long serial = le32(first, 14);
+		final int packetStart = 27 + u8(first, 26);
+		final byte[] packet = readAt(raf, packetStart, 19);
+		if (packet == null) return null;
+
+		final long sampleRate;
+		final long preSkip;
+		if (u8(packet, 0) == 0x01 && startsWith(packet, 1, "vorbis")) {
+			sampleRate = le32(packet, 12);
+			preSkip = 0;
+		}
+		else if (startsWith(packet, 0, "OpusHead")) {
+			sampleRate = OPUS_SAMPLE_RATE;  // Granule position is always at 48 kHz regardless of input rate.
+			preSkip = le16(packet, 10);
+		}
+		else {
+			return null;
+		}
+		if (sampleRate < 1) return null;
+
+		final long granule = readLastGranule(raf, serial);
+		if (granule <= preSkip) return null;
+		return new FileInfo((granule - preSkip) * 1000L / sampleRate, 0, 0);
+	}
+
+	private static long readLastGranule (final RandomAccessFile raf, final long serial) throws IOException {
+		final int length = (int) Math.min(OGG_TAIL_BYTES, raf.length());
+		final byte[] tail = readAt(raf, raf.length() - length, length);
+		if (tail == null) return -1;
+		for (int i = tail.length - 27; i >= 0; i--) {
+			if (!startsWith(tail, i, "OggS")) continue;
+			if (le32(tail, i + 14) != serial) continue;
+			final long granule = le64(tail, i + 6);
+			if (granule != -1) return granule;  // -1 means no packet ends on this page.
+		}
+		return -1;
+	}
+
+}
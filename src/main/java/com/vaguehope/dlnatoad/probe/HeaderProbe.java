@@ -0,0 +1,140 @@
+package com.vaguehope.dlnatoad.probe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.vaguehope.dlnatoad.db.FileInfo;
+import com.vaguehope.dlnatoad.media.ContentGroup;
+import com.vaguehope.dlnatoad.media.MediaFormat;
+
+/**
+ * Reads duration and size from the headers of common formats without starting a process.
+ * Only the few headers needed are read, seeking past everything else.
+ * Returns null when the format is not handled or the headers do not have everything,
+ * eg a video with no duration, so the caller can fall back to ffprobe.
+ */
+public class HeaderProbe {
+
+	private HeaderProbe () {
+		throw new AssertionError();
+	}
+
+	public static FileInfo probe (final File file, final MediaFormat format) throws IOException {
+		if (format == null) return null;
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final FileInfo info = read(raf, format);
+			if (info == null) return null;
+			return isComplete(info, format.getContentGroup()) ? info : null;
+		}
+	}
+
+	private static FileInfo read (final RandomAccessFile raf, final MediaFormat format) throws IOException {
+		switch (format) {
+			case JPEG:
+			case JPG:
+				return ImageHeaders.readJpeg(raf);
+			case PNG:
+				return ImageHeaders.readPng(raf);
+			case GIF:
+				return ImageHeaders.readGif(raf);
+			case WEBP:
+				return ImageHeaders.readWebp(raf);
+			case MP4:
+			case M4V:
+			case M4A:
+			case MOV:
+			case _3GP:
+				return Mp4Headers.read(raf);
+			case MKV:
+			case WEBM:
+				return MatroskaHeaders.read(raf);
+			case MP3:
+				return AudioHeaders.readMp3(raf);
+			case FLAC:
+				return AudioHeaders.readFlac(raf);
+			case OGG:
+			case OGA:
+			case OPUS:
+				return AudioHeaders.readOgg(raf);
+			default:
+				return null;
+		}
+	}
+
+	private static boolean isComplete (final FileInfo info, final ContentGroup group) {
+		switch (group) {
+			case IMAGE:
+				return info.hasWidthAndHeight();
+			case AUDIO:
+				return info.hasDuration();
+			case VIDEO:
+				return info.hasDuration() && info.hasWidthAndHeight();
+			default:
+				return false;
+		}
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Shared by the format readers.
+
+	/**
+	 * Null if the file ends first.
+	 */
+	static byte[] readAt (final RandomAccessFile raf, final long pos, final int length) throws IOException {
+		if (pos < 0 || pos + length > raf.length()) return null;
+		final byte[] b = new byte[length];
+		raf.seek(pos);
+		raf.readFully(b);
+		return b;
+	}
+
+	static boolean startsWith (final byte[] b, final int offset, final String ascii) {
+		if (b == null || offset + ascii.length() > b.length) return false;
+		for (int i = 0; i < ascii.length(); i++) {
+			if (b[offset + i] != (byte) ascii.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	static int u8 (final byte[] b, final int i) {
+		return b[i] & 0xff;
+	}
+
+	static int be16 (final byte[] b, final int i) {
+		return (u8(b, i) << 8) | u8(b, i + 1);
+	}
+
+	static long be32 (final byte[] b, final int i) {
+		return ((long) be16(b, i) << 16) | be16(b, i + 2);
+	}
+
+	static long be64 (final byte[] b, final int i) {
+		return (be32(b, i) << 32) | be32(b, i + 4);
+	}
+
+	static int le16 (final byte[] b, final int i) {
+		return u8(b, i) | (u8(b, i + 1) << 8);
+	}
+
+	static int le24 (final byte[] b, final int i) {
+		return le16(b, i) | (u8(b, i + 2) << 16);
+	}
+
+	static long le32 (final byte[] b, final int i) {
+		return le16(b, i) | ((long) le16(b, i + 2) << 16);
+	}
+
+	static long le64 (final byte[] b, final int i) {
+		return le32(b, i) | (le32(b, i + 4) << 32);
+	}
+
+	/**
+	 * Caps at Integer.MAX_VALUE so a silly value can not overflow, and 0 for a negative one.
+	 */
+	static int toDimension (final long v) {
+		if (v < 0) return 0;
+		return (int) Math.min(v, Integer.MAX_VALUE);
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.vaguehope.dlnatoad.probe;
+
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.be16;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.be32;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.le16;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.le24;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.readAt;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.startsWith;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.toDimension;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.u8;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.vaguehope.dlnatoad.db.FileInfo;
+
+/**
+ * Width and height as stored, ignoring any EXIF rotation, same as ffprobe.
+ */
+class ImageHeaders {
+
+	private static final int MAX_JPEG_SEGMENTS = 1000;
+
+	private ImageHeaders () {
+		throw new AssertionError();
+	}
+
+	static FileInfo readPng (final RandomAccessFile raf) throws IOException {
+		final byte[] b = readAt(raf, 0, 24);
+		if (b == null || u8(b, 0) != 0x89 || !startsWith(b, 1, "PNG") || !startsWith(b, 12, "IHDR")) return null;
+		return new FileInfo(0, toDimension(be32(b, 16)), toDimension(be32(b, 20)));
+	}
+
+	static FileInfo readGif (final RandomAccessFile raf) throws IOException {
+		final byte[] b = readAt(raf, 0, 10);
+		if (!startsWith(b, 0, "GIF8")) return null;
+		return new FileInfo(0, le16(b, 6), le16(b, 8));
+	}
+
+	static FileInfo readWebp (final RandomAccessFile raf) throws IOException {
+		final byte[] b = readAt(raf, 0, 30);
+		if (!startsWith(b, 0, "RIFF") || !startsWith(b, 8, "WEBP")) return null;
+
+		if (startsWith(b, 12, "VP8 ")) {
+			// Lossy: 3 byte frame tag, 3 byte start code, then 14 bit width and height.
+			if (u8(b, 23) != 0x9d || u8(b, 24) != 0x01 || u8(b, 25) != 0x2a) return null;
+			return new FileInfo(0, le16(b, 26) & 0x3fff, le16(b, 28) & 0x3fff);
+		}
+		if (startsWith(b, 12, "VP8L")) {
+			// Lossless: signature byte, then 14 bits each of width-1 and height-1.
+			if (u8(b, 20) != 0x2f) return null;
+			final long bits = le16(b, 21) | ((long) le16(b, 23) << 16);
+			return new FileInfo(0, (int) (bits & 0x3fff) + 1, (int) ((bits >> 14) & 0x3fff) + 1);
+		}
+		if (startsWith(b, 12, "VP8X")) {
+			// Extended: flags and reserved, then 24 bits each of canvas width-1 and height-1.
+			return new FileInfo(0, le24(b, 24) + 1, le24(b, 27) + 1);
+		}
+		return null;
+	}
+
+	static FileInfo readJpeg (final RandomAccessFile raf) throws IOException {
+		final byte[] soi = readAt(raf, 0, 2);
+		if (soi == null || u8(soi, 0) != 0xff || u8(soi, 1) != 0xd8) return null;
+
+		long pos = 2;
+		for (int i = 0; i < MAX_JPEG_SEGMENTS; i++) {
+			final byte[] m = readAt(raf, pos, 4);
+			if (m == null || u8(m, 0) != 0xff) return null;
+			final int marker = u8(m, 1);
+			if (marker == 0xff) {  // Fill byte.
+				pos += 1;
+				continue;
+			}
+			if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {  // No length.
+				pos += 2;
+				continue;
+			}
+			if (marker == 0xd9 || marker == 0xda) return null;  // End of image or start of scan without a frame header.
+
+			final int length = be16(m, 2);
+			if (length < 2) return null;
+			if (isStartOfFrame(marker)) {
+				final byte[] sof = readAt(raf, pos + 4, 5);
+				if (sof == null) return null;
+				return new FileInfo(0, be16(sof, 3), be16(sof, 1));
+			}
+			pos += 2 + length;
+		}
+		return null;
+	}
+
+	/**
+	 * SOF0 to SOF15, except DHT, JPG and DAC which share the range.
+	 */
+	private static boolean isStartOfFrame (final int marker) {
+		return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+	}
+
+}
@@ -0,0 +1,202 @@
+package com.vaguehope.dlnatoad.probe;
+
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.readAt;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.toDimension;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.u8;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vaguehope.dlnatoad.db.FileInfo;
+
+/**
+ * Matroska and WebM: duration from Segment/Info and size from the first video TrackEntry.
+ * Both come before the first Cluster in any normal file, so reading stops there.
+ */
+class MatroskaHeaders {
+
+	private static final long ID_EBML = 0x1A45DFA3L;
+	private static final long ID_SEGMENT = 0x18538067L;
+	private static final long ID_INFO = 0x1549A966L;
+	private static final long ID_TIMECODE_SCALE = 0x2AD7B1L;
+	private static final long ID_DURATION = 0x4489L;
+	private static final long ID_TRACKS = 0x1654AE6BL;
+	private static final long ID_TRACK_ENTRY = 0xAEL;
+	private static final long ID_TRACK_TYPE = 0x83L;
+	private static final long ID_VIDEO = 0xE0L;
+	private static final long ID_PIXEL_WIDTH = 0xB0L;
+	private static final long ID_PIXEL_HEIGHT = 0xBAL;
+	private static final long ID_CLUSTER = 0x1F43B675L;
+
+	private static final long TRACK_TYPE_VIDEO = 1;
+	private static final long DEFAULT_TIMECODE_SCALE_NANOS = 1000000L;
+	private static final int MAX_ELEMENTS_PER_PARENT = 10000;
+
+	private MatroskaHeaders () {
+		throw new AssertionError();
+	}
+
+	static FileInfo read (final RandomAccessFile raf) throws IOException {
+		final long fileLength = raf.length();
+		final Element ebml = readElement(raf, 0, fileLength);
+		if (ebml == null || ebml.id != ID_EBML || ebml.unknownSize) return null;
+		final Element segment = readElement(raf, ebml.end, fileLength);
+		if (segment == null || segment.id != ID_SEGMENT) return null;
+
+		long durationMillis = 0;
+		int width = 0;
+		int height = 0;
+		boolean foundInfo = false;
+		boolean foundTracks = false;
+		for (final Element e : children(raf, segment, ID_CLUSTER)) {
+			if (e.id == ID_INFO) {
+				durationMillis = readDurationMillis(raf, e);
+				foundInfo = true;
+			}
+			else if (e.id == ID_TRACKS) {
+				final int[] size = readVideoSize(raf, e);
+				if (size != null) {
+					width = size[0];
+					height = size[1];
+				}
+				foundTracks = true;
+			}
+			if (foundInfo && foundTracks) break;
+		}
+		return new FileInfo(durationMillis, width, height);
+	}
+
+	private static long readDurationMillis (final RandomAccessFile raf, final Element info) throws IOException {
+		long scaleNanos = DEFAULT_TIMECODE_SCALE_NANOS;
+		double duration = 0;
+		for (final Element e : children(raf, info, -1)) {
+			if (e.id == ID_TIMECODE_SCALE) {
+				scaleNanos = readUint(raf, e);
+			}
+			else if (e.id == ID_DURATION) {
+				duration = readFloat(raf, e);
+			}
+		}
+		if (scaleNanos < 1 || !(duration > 0)) return 0;
+		return (long) (duration * scaleNanos / 1000000d);
+	}
+
+	private static int[] readVideoSize (final RandomAccessFile raf, final Element tracks) throws IOException {
+		for (final Element entry : children(raf, tracks, -1)) {
+			if (entry.id != ID_TRACK_ENTRY) continue;
+
+			long type = 0;
+			Element video = null;
+			for (final Element e : children(raf, entry, -1)) {
+				if (e.id == ID_TRACK_TYPE) type = readUint(raf, e);
+				else if (e.id == ID_VIDEO) video = e;
+			}
+			if (type != TRACK_TYPE_VIDEO || video == null) continue;
+
+			long width = 0;
+			long height = 0;
+			for (final Element e : children(raf, video, -1)) {
+				if (e.id == ID_PIXEL_WIDTH) width = readUint(raf, e);
+				else if (e.id == ID_PIXEL_HEIGHT) height = readUint(raf, e);
+			}
+			return new int[] { toDimension(width), toDimension(height) };
+		}
+		return null;
+	}
+
+	/**
+	 * Stops before an element with stopAtId, or any element with an unknown size as there is no way to skip it.
+	 */
+	private static List<Element> children (final RandomAccessFile raf, final Element parent, final long stopAtId) throws IOException {
+		final List<Element> ret = new ArrayList<>();
+		long pos = parent.start;
+		for (int i = 0; i < MAX_ELEMENTS_PER_PARENT && pos < parent.end; i++) {
+			final Element e = readElement(raf, pos, parent.end);
+			if (e == null || e.id == stopAtId || e.unknownSize) break;
+			ret.add(e);
+			pos = e.end;
+		}
+		return ret;
+	}
+
+	/**
+	 * Null if there is no valid element header at pos.
+	 */
+	private static Element readElement (final RandomAccessFile raf, final long pos, final long parentEnd) throws IOException {
+		if (pos >= parentEnd) return null;
+		final byte[] b = readAt(raf, pos, (int) Math.min(12, parentEnd - pos));
+		if (b == null || b.length < 2) return null;
+
+		final int idLength = vintLength(u8(b, 0));
+		if (idLength < 1 || idLength > 4) return null;
+		long id = 0;
+		for (int i = 0; i < idLength; i++) {
+			id = (id << 8) | u8(b, i);
+		}
+
+		if (idLength >= b.length) return null;
+		final int sizeLength = vintLength(u8(b, idLength));
+		if (sizeLength < 1 || idLength + sizeLength > b.length) return null;
+		long size = u8(b, idLength) & (0xff >> sizeLength);
+		boolean allOnes = size == (0xff >> sizeLength);
+		for (int i = 1; i < sizeLength; i++) {
+			final int v = u8(b, idLength + i);
+			size = (size << 8) | v;
+			allOnes &= v == 0xff;
+		}
+
+		final long start = pos + idLength + sizeLength;
+		if (allOnes) return new Element(id, start, parentEnd, true);
+		if (size < 0 || start + size > parentEnd) return null;
+		return new Element(id, start, start + size, false);
+	}
+
+	/**
+	 * Number of leading zero bits plus one, or 0 if there are none set.
+	 */
+	private static int vintLength (final int firstByte) {
+		if (firstByte == 0) return 0;
+		return Integer.numberOfLeadingZeros(firstByte) - 23;
+	}
+
+	private static long readUint (final RandomAccessFile raf, final Element e) throws IOException {
+		final int length = (int) (e.end - e.start);
+		if (length < 1 || length > 8) return 0;
+		final byte[] b = readAt(raf, e.start, length);
+		if (b == null) return 0;
+		long v = 0;
+		for (int i = 0; i < length; i++) {
+			v = (v << 8) | u8(b, i);
+		}
+		return v;
+	}
+
+	private static double readFloat (final RandomAccessFile raf, final Element e) throws IOException {
+		final int length = (int) (e.end - e.start);
+		if (length != 4 && length != 8) return 0;
+		final byte[] b = readAt(raf, e.start, length);
+		if (b == null) return 0;
+		long bits = 0;
+		for (int i = 0; i < length; i++) {
+			bits = (bits << 8) | u8(b, i);
+		}
+		return length == 4 ? Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+	}
+
+	private static class Element {
+		final long id;
+		final long start;
+		final long end;
+		final boolean unknownSize;
+
+		Element (final long id, final long start, final long end, final boolean unknownSize) {
+			this.id = id;
+			this.start = start;
+			this.end = end;
+			this.unknownSize = unknownSize;
+		}
+	}
+
+}
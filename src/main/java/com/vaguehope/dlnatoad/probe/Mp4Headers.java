@@ -0,0 +1,132 @@
+package com.vaguehope.dlnatoad.probe;
+
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.be16;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.be32;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.be64;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.readAt;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.startsWith;
+import static com.vaguehope.dlnatoad.probe.HeaderProbe.u8;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vaguehope.dlnatoad.db.FileInfo;
+
+/**
+ * MP4 and QuickTime: duration from moov/mvhd and size from the sample description of the first video track.
+ * moov is often after mdat, but only box headers are read on the way so that costs a seek.
+ */
+class Mp4Headers {
+
+	private static final int MAX_BOXES_PER_PARENT = 10000;
+
+	private Mp4Headers () {
+		throw new AssertionError();
+	}
+
+	static FileInfo read (final RandomAccessFile raf) throws IOException {
+		final Box moov = findBox(raf, 0, raf.length(), "moov");
+		if (moov == null) return null;
+
+		final long durationMillis = readDurationMillis(raf, moov);
+
+		int width = 0;
+		int height = 0;
+		for (final Box trak : findBoxes(raf, moov.start, moov.end, "trak")) {
+			final Box mdia = findBox(raf, trak.start, trak.end, "mdia");
+			if (mdia == null) continue;
+			final Box hdlr = findBox(raf, mdia.start, mdia.end, "hdlr");
+			if (hdlr == null) continue;
+			final byte[] h = readAt(raf, hdlr.start, 12);
+			if (!startsWith(h, 8, "vide")) continue;
+
+			final Box minf = findBox(raf, mdia.start, mdia.end, "minf");
+			final Box stbl = minf != null ? findBox(raf, minf.start, minf.end, "stbl") : null;
+			final Box stsd = stbl != null ? findBox(raf, stbl.start, stbl.end, "stsd") : null;
+			if (stsd == null) continue;
+
+			// version and flags, entry count, then a VisualSampleEntry with width and height 32 bytes in.
+			final byte[] s = readAt(raf, stsd.start, 44);
+			if (s == null || be32(s, 4) < 1) continue;
+			width = be16(s, 40);
+			height = be16(s, 42);
+			break;
+		}
+
+		return new FileInfo(durationMillis, width, height);
+	}
+
+	private static long readDurationMillis (final RandomAccessFile raf, final Box moov) throws IOException {
+		final Box mvhd = findBox(raf, moov.start, moov.end, "mvhd");
+		if (mvhd == null) return 0;
+		final byte[] b = readAt(raf, mvhd.start, 32);
+		if (b == null) return 0;
+
+		final long timescale;
+		final long duration;
+		if (u8(b, 0) == 1) {
+			timescale = be32(b, 20);
+			duration = be64(b, 24);
+		}
+		else {
+			timescale = be32(b, 12);
+			duration = be32(b, 16);
+			if (duration == 0xffffffffL) return 0;
+		}
+		if (timescale < 1 || duration < 1) return 0;  // Negative is all ones for unknown in version 1.
+		return (long) (duration * 1000d / timescale);
+	}
+
+	private static Box findBox (final RandomAccessFile raf, final long start, final long end, final String type) throws IOException {
+		final List<Box> boxes = readBoxes(raf, start, end, type, true);
+		return boxes.size() > 0 ? boxes.get(0) : null;
+	}
+
+	private static List<Box> findBoxes (final RandomAccessFile raf, final long start, final long end, final String type) throws IOException {
+		return readBoxes(raf, start, end, type, false);
+	}
+
+	private static List<Box> readBoxes (final RandomAccessFile raf, final long start, final long end, final String type, final boolean firstOnly) throws IOException {
+		final List<Box> ret = new ArrayList<>();
+		long pos = start;
+		for (int i = 0; i < MAX_BOXES_PER_PARENT && pos + 8 <= end; i++) {
+			final byte[] h = readAt(raf, pos, 8);
+			if (h == null) break;
+			long size = be32(h, 0);
+			long headerLength = 8;
+			if (size == 1) {
+				final byte[] large = readAt(raf, pos + 8, 8);
+				if (large == null) break;
+				size = be64(large, 0);
+				headerLength = 16;
+			}
+			else if (size == 0) {  // Runs to the end of the parent.
+				size = end - pos;
+			}
+			if (size < headerLength || pos + size > end) break;  // Corrupt, or not this format at all.
+
+			if (startsWith(h, 4, type)) {
+				ret.add(new Box(pos + headerLength, pos + size));
+				if (firstOnly) break;
+			}
+			pos += size;
+		}
+		return ret;
+	}
+
+	/**
+	 * Content of a box, after its header.
+	 */
+	private static class Box {
+		final long start;
+		final long end;
+
+		Box (final long start, final long end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+}
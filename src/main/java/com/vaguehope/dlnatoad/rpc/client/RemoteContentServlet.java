@@ -13,6 +13,7 @@ import com.vaguehope.dlnatoad.rpc.MediaGrpc.MediaBlockingStub;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.ReadMediaReply;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.ReadMediaRequest;
 import com.vaguehope.dlnatoad.ui.ServletCommon;
+import com.vaguehope.dlnatoad.util.ByteRange;
 
 public class RemoteContentServlet extends HttpServlet {
 
@@ -41,17 +42,48 @@ public class RemoteContentServlet extends HttpServlet {
 			return;
 		}
 
-		// TODO support Range header.
+		ByteRange.Requested requested = ByteRange.Requested.parse(req.getHeader("Range"));
+		// Can never be satisfied and has no offset form to pass on, so ignore it and send everything.
+		if (requested != null && requested.isEmptySuffix()) requested = null;
+
+		final ReadMediaRequest.Builder readReq = ReadMediaRequest.newBuilder().setId(id);
+		if (requested != null) {
+			readReq.setOffset(requested.getOffset());
+			readReq.setLength(requested.getLength());
+		}
+
 		// TODO better timeout / deadline handling.
 		final Iterator<ReadMediaReply> replies = stub
 				.withDeadlineAfter(15, TimeUnit.MINUTES)
-				.readMedia(ReadMediaRequest.newBuilder().setId(id).build());
+				.readMedia(readReq.build());
 
 		final ReadMediaReply first = replies.next(); // TODO catch this throwing StatusRuntimeException for not found, etc.
+		final long totalLength = first.getTotalFileLength();
+		resp.setHeader("Accept-Ranges", "bytes");
 		resp.setContentType(first.getMimeType());
-		resp.setContentLengthLong(first.getTotalFileLength());
-		first.getContent().writeTo(resp.getOutputStream());
 
+		if (requested != null && first.hasRangeStart()) {
+			// Remote resolves the range the same way, so this matches what it is sending.
+			final ByteRange range = requested.resolve(totalLength);
+			if (!range.isSatisfiable()) {
+				resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				resp.setHeader("Content-Range", ByteRange.unsatisfiableContentRange(totalLength));
+				return;
+			}
+			if (range.getFirst() != first.getRangeStart()) {
+				ServletCommon.returnStatus(resp, HttpServletResponse.SC_BAD_GATEWAY, "Remote sent a different range.");
+				return;
+			}
+			resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			resp.setHeader("Content-Range", range.toContentRange());
+			resp.setContentLengthLong(range.length());
+		}
+		else {
+			// Older remotes ignore the range and send the whole file, so reply with all of it.
+			resp.setContentLengthLong(totalLength);
+		}
+
+		first.getContent().writeTo(resp.getOutputStream());
 		while (replies.hasNext()) {
 			replies.next().getContent().writeTo(resp.getOutputStream());
 		}
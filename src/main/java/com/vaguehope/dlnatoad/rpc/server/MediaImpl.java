@@ -1,22 +1,30 @@
 package com.vaguehope.dlnatoad.rpc.server;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import com.vaguehope.dlnatoad.db.MediaDb;
 import com.vaguehope.dlnatoad.db.search.DbSearchParser;
 import com.vaguehope.dlnatoad.db.search.SortOrder;
 import com.vaguehope.dlnatoad.media.ContentItem;
 import com.vaguehope.dlnatoad.media.ContentNode;
 import com.vaguehope.dlnatoad.media.ContentTree;
+import com.vaguehope.dlnatoad.metrics.Counter;
+import com.vaguehope.dlnatoad.metrics.Histogram;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
 import com.vaguehope.dlnatoad.rpc.MediaGrpc;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.MediaItem;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.ReadMediaReply;
@@ -24,14 +32,29 @@ import com.vaguehope.dlnatoad.rpc.MediaToadProto.ReadMediaRequest;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.SearchReply;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.SearchReply.Builder;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.SearchRequest;
+import com.vaguehope.dlnatoad.util.ByteRange;
 
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 public class MediaImpl extends MediaGrpc.MediaImplBase {
 
 	private static final int MAX_SEARCH_RESULTS = 500;
 	private static final int MESSAGE_SIZE_BYTES = 256 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 16;
+	private static final Queue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+	private static final Histogram SEARCH_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_rpc_seconds", "Time to answer an RPC, for streams this is until the last message is sent.", "method", "Search");
+	private static final Histogram READ_MEDIA_DURATION = MetricRegistry.DEFAULT.histogram(
+			"dlnatoad_rpc_seconds", "Time to answer an RPC, for streams this is until the last message is sent.", "method", "ReadMedia");
+	private static final Counter READ_MEDIA_BYTES = MetricRegistry.DEFAULT.counter(
+			"dlnatoad_rpc_read_media_bytes_total", "Bytes of media sent by ReadMedia.");
+	private static final AtomicInteger ACTIVE_READ_MEDIA = new AtomicInteger(0);
+	static {
+		MetricRegistry.DEFAULT.gauge("dlnatoad_rpc_read_media_active", "ReadMedia streams in progress.", ACTIVE_READ_MEDIA::get);
+	}
 
 	private final ContentTree contentTree;
 	private final MediaDb mediaDb;
@@ -43,6 +66,16 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 
 	@Override
 	public void search(final SearchRequest request, final StreamObserver<SearchReply> responseObserver) {
+		final long startTime = System.nanoTime();
+		try {
+			doSearch(request, responseObserver);
+		}
+		finally {
+			SEARCH_DURATION.observeSince(startTime);
+		}
+	}
+
+	private void doSearch(final SearchRequest request, final StreamObserver<SearchReply> responseObserver) {
 		// TODO figure out auth.
 		final String username = null;
 		final Set<BigInteger> authIds = null;
@@ -98,22 +131,28 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 			return;
 		}
 
-		try (final BufferedInputStream is = new BufferedInputStream(new FileInputStream(file))) {
-			final byte[] buffer = new byte[MESSAGE_SIZE_BYTES];
-			boolean first = true;
-			int readLength;
-			while ((readLength = is.read(buffer, 0, MESSAGE_SIZE_BYTES)) != -1) {
-				final ReadMediaReply.Builder builder = ReadMediaReply.newBuilder().setContent(ByteString.copyFrom(buffer, 0, readLength));
-				if (first) {
-					builder.setTotalFileLength(file.length());
-					builder.setMimeType(item.getFormat().getMime());
-					first = false;
-				}
-				responseObserver.onNext(builder.build());
-			}
+		if (request.getLength() < 0) {
+			responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Negative length.").asRuntimeException());
+			return;
+		}
+
+		final long totalLength = file.length();
+		final ByteRange range = ByteRange.Requested.of(request.getOffset(), request.getLength()).resolve(totalLength);
+		if (!range.isSatisfiable()) {
+			responseObserver.onNext(ReadMediaReply.newBuilder()
+					.setTotalFileLength(totalLength)
+					.setMimeType(item.getFormat().getMime())
+					.setRangeStart(totalLength)
+					.build());
 			responseObserver.onCompleted();
+			return;
 		}
-		catch (final FileNotFoundException e) {
+
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		}
+		catch (final NoSuchFileException e) {
 			responseObserver.onError(Status.INTERNAL.withDescription("File missing.").asRuntimeException());
 			return;
 		}
@@ -121,6 +160,144 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 			responseObserver.onError(Status.INTERNAL.withDescription("File error.").asRuntimeException());
 			return;
 		}
+
+		final ReadMediaReply.Builder firstReply = ReadMediaReply.newBuilder()
+				.setTotalFileLength(totalLength)
+				.setMimeType(item.getFormat().getMime())
+				.setRangeStart(range.getFirst());
+
+		if (responseObserver instanceof ServerCallStreamObserver) {
+			sendWhenReady(channel, range, firstReply, (ServerCallStreamObserver<ReadMediaReply>) responseObserver);
+		}
+		else {
+			new FileSender(channel, range, firstReply, responseObserver, false).sendAll();
+		}
+	}
+
+	/**
+	 * Sends from the onReady handler until done or cancelled, closing channel either way.
+	 */
+	static void sendWhenReady(final FileChannel channel, final ByteRange range, final ReadMediaReply.Builder firstReply,
+			final ServerCallStreamObserver<ReadMediaReply> serverObserver) {
+		final FileSender sender = new FileSender(channel, range, firstReply, serverObserver, true);
+		serverObserver.setOnCancelHandler(sender::close);
+		serverObserver.setOnReadyHandler(sender::sendWhileReady);
+	}
+
+	private static ByteBuffer borrowBuffer() {
+		final ByteBuffer b = BUFFER_POOL.poll();
+		if (b != null) return b;
+		return ByteBuffer.allocateDirect(MESSAGE_SIZE_BYTES);
+	}
+
+	private static void returnBuffer(final ByteBuffer b) {
+		b.clear();
+		BUFFER_POOL.offer(b);
+	}
+
+	static int pooledBufferCount() {
+		return BUFFER_POOL.size();
+	}
+
+	/**
+	 * Reads straight from the file into a direct buffer that is wrapped, not copied, into each reply.
+	 * This relies on the transport serialising each message before onNext() returns, which is true for
+	 * the servlet transport, so the buffer can be refilled for the next reply.
+	 * Buffers are only reused like that when the stream is flow controlled: anything else, such as
+	 * a mock, may keep hold of replies and so gets a copy of each chunk.
+	 */
+	private static class FileSender {
+		private final FileChannel channel;
+		private final ReadMediaReply.Builder firstReply;
+		private final StreamObserver<ReadMediaReply> responseObserver;
+		private final ServerCallStreamObserver<ReadMediaReply> serverObserver;
+		private final boolean reuseBuffer;
+		private final long startTime = System.nanoTime();
+
+		private long position;
+		private long remaining;
+		private ByteBuffer buffer;
+		private boolean first = true;
+		private boolean closed = false;
+
+		FileSender(final FileChannel channel, final ByteRange range, final ReadMediaReply.Builder firstReply,
+				final StreamObserver<ReadMediaReply> responseObserver, final boolean reuseBuffer) {
+			this.channel = channel;
+			this.firstReply = firstReply;
+			this.responseObserver = responseObserver;
+			this.serverObserver = reuseBuffer ? (ServerCallStreamObserver<ReadMediaReply>) responseObserver : null;
+			this.reuseBuffer = reuseBuffer;
+			this.position = range.getFirst();
+			this.remaining = range.length();
+			ACTIVE_READ_MEDIA.incrementAndGet();
+		}
+
+		synchronized void sendWhileReady() {
+			while (!this.closed && this.serverObserver.isReady()) {
+				sendNext();
+			}
+		}
+
+		synchronized void sendAll() {
+			while (!this.closed) {
+				sendNext();
+			}
+		}
+
+		private void sendNext() {
+			try {
+				if (this.buffer == null) this.buffer = this.reuseBuffer ? borrowBuffer() : ByteBuffer.allocate(MESSAGE_SIZE_BYTES);
+				this.buffer.clear();
+				this.buffer.limit((int) Math.min(this.buffer.capacity(), this.remaining));
+				while (this.buffer.hasRemaining()) {
+					final int read = this.channel.read(this.buffer, this.position + this.buffer.position());
+					if (read < 0) break;
+				}
+				this.buffer.flip();
+
+				final int readLength = this.buffer.remaining();
+				if (readLength < 1) {
+					// File got shorter since the range was worked out.
+					close();
+					this.responseObserver.onCompleted();
+					return;
+				}
+				this.position += readLength;
+				this.remaining -= readLength;
+				READ_MEDIA_BYTES.add(readLength);
+
+				final ByteString content = this.reuseBuffer
+						? UnsafeByteOperations.unsafeWrap(this.buffer)
+						: ByteString.copyFrom(this.buffer);
+				final ReadMediaReply.Builder builder = this.first ? this.firstReply : ReadMediaReply.newBuilder();
+				this.first = false;
+				this.responseObserver.onNext(builder.setContent(content).build());
+
+				if (this.remaining < 1) {
+					close();
+					this.responseObserver.onCompleted();
+				}
+			}
+			catch (final IOException e) {
+				close();
+				this.responseObserver.onError(Status.INTERNAL.withDescription("File error.").asRuntimeException());
+			}
+		}
+
+		synchronized void close() {
+			if (this.closed) return;
+			this.closed = true;
+			ACTIVE_READ_MEDIA.decrementAndGet();
+			READ_MEDIA_DURATION.observeSince(this.startTime);
+			try {
+				this.channel.close();
+			}
+			catch (final IOException e) {
+				// Only reading, nothing lost.
+			}
+			if (this.buffer != null && this.reuseBuffer) returnBuffer(this.buffer);
+			this.buffer = null;
+		}
 	}
 
 }
@@ -2,6 +2,8 @@ package com.vaguehope.dlnatoad.tagdeterminer;
 
 import java.io.BufferedInputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.SQLException;
 import java.time.Clock;
 import java.util.ArrayList;
@@ -13,11 +15,11 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
@@ -47,14 +49,19 @@ import com.vaguehope.dlnatoad.tagdeterminer.TagDeterminerProto.AboutReply;
 import com.vaguehope.dlnatoad.tagdeterminer.TagDeterminerProto.AboutRequest;
 import com.vaguehope.dlnatoad.tagdeterminer.TagDeterminerProto.DetermineTagsReply;
 import com.vaguehope.dlnatoad.tagdeterminer.TagDeterminerProto.DetermineTagsRequest;
+import com.vaguehope.dlnatoad.util.AdaptiveLimit;
 import com.vaguehope.dlnatoad.util.ExceptionHelper;
 import com.vaguehope.dlnatoad.util.ExecutorHelper;
 
 import io.grpc.ManagedChannel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
 public class TagDeterminerController {
 
+	public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
 	private static final long WORK_FINDER_INTERVAL_SECONDS = TimeUnit.MINUTES.toSeconds(1);
 	private static final int QUERY_LIMIT = 100;
 	private static final int BATCH_WRITE_INTERVAL_SECONDS = 30;
@@ -69,6 +76,7 @@ public class TagDeterminerController {
 	private final ScheduledExecutorService schExSvc;
 	private final boolean verbose;
 	private final Clock clock;
+	private final int maxInFlight;
 
 	private final List<TagDeterminer> determiners = new CopyOnWriteArrayList<>();
 	private final Map<TagDeterminer, Boolean> determinerStatus = new ConcurrentHashMap<>();
@@ -78,6 +86,9 @@ public class TagDeterminerController {
 	private final Map<TagDeterminer, TagDeterminerStub> stubs = new ConcurrentHashMap<>();
 	private final Map<TagDeterminer, TagDeterminerFutureStub> futureStubs = new ConcurrentHashMap<>();
 
+	private final Map<TagDeterminer, Deque<PendingItem>> pendingItems = new ConcurrentHashMap<>();
+	private final Map<TagDeterminer, AdaptiveLimit> inFlightLimits = new ConcurrentHashMap<>();
+
 	private final Deque<Runnable> workQueue = new ConcurrentLinkedDeque<>();
 	private final BlockingQueue<TDResponse> storeQueue = new LinkedBlockingQueue<>();
 
@@ -91,6 +102,7 @@ public class TagDeterminerController {
 		this.schExSvc = schExSvc;
 		this.verbose = args.isVerboseLog();
 		this.clock = clock;
+		this.maxInFlight = Math.max(1, args.getTagDeterminerWindow());
 		for (final String arg : args.getTagDeterminers()) {
 			this.determiners.add(parseArg(arg));
 		}
@@ -118,6 +130,7 @@ public class TagDeterminerController {
 			this.managedChannels.put(d, channel);
 			this.stubs.put(d, TagDeterminerGrpc.newStub(channel));
 			this.futureStubs.put(d, TagDeterminerGrpc.newFutureStub(channel));
+			addQueues(d);
 		}
 
 		this.schExSvc.scheduleWithFixedDelay(this::findWork, 0, WORK_FINDER_INTERVAL_SECONDS, TimeUnit.SECONDS);
@@ -157,8 +170,19 @@ public class TagDeterminerController {
 		}
 	}
 
+	private void addQueues(final TagDeterminer determiner) {
+		this.pendingItems.put(determiner, new ConcurrentLinkedDeque<>());
+		this.inFlightLimits.put(determiner, new AdaptiveLimit(this.maxInFlight));
+	}
+
 	void findWork() {
 		if (this.workQueue.size() > 0 || this.storeQueue.size() > 0) return;
+		for (final Deque<PendingItem> q : this.pendingItems.values()) {
+			if (q.size() > 0) return;
+		}
+		for (final AdaptiveLimit l : this.inFlightLimits.values()) {
+			if (l.getInFlight() > 0) return;
+		}
 
 		for (final Entry<TagDeterminer, TagDeterminerFutureStub> m : this.futureStubs.entrySet()) {
 			startFindingWorkForDeterminer(m.getKey(), m.getValue());
@@ -216,68 +240,191 @@ public class TagDeterminerController {
 			LOG.info("Determiner {} query returned 0 results, sleeping until DB changes.", determiner);
 		}
 
+		final Deque<PendingItem> pending = this.pendingItems.get(determiner);
 		for (final String id : ids) {
 			final ContentItem item = this.contentTree.getItem(id);
 			if (item == null) {
 				LOG.error("ID from DB not found in contentTree: {}", id);
 				continue;  // TODO this will retry forever.
 			}
-			this.workQueue.add(() -> {
-				sendItemToDetminer(determiner, about, item);
-			});
+			pending.add(new PendingItem(about, item));
 		}
 
-		scheduleWorker();
+		schedulePump(determiner);
+	}
+
+	private void schedulePump(final TagDeterminer determiner) {
+		this.schExSvc.execute(() -> pump(determiner));
+	}
+
+	/**
+	 * Send pending items until the determiner's limit of items in flight is reached.
+	 * Called again each time an item completes.
+	 */
+	private void pump(final TagDeterminer determiner) {
+		final Deque<PendingItem> pending = this.pendingItems.get(determiner);
+		final AdaptiveLimit limit = this.inFlightLimits.get(determiner);
+		while (limit.tryAcquire()) {
+			final PendingItem p = pending.poll();
+			if (p == null) {
+				limit.cancel();
+				return;
+			}
+			sendItemToDetminer(determiner, p.about, p.item);
+		}
 	}
 
 	private void sendItemToDetminer(final TagDeterminer determiner, final AboutReply about, final ContentItem item) {
-		final TagDeterminerStub stub = this.stubs.get(determiner);
+		final ItemCall call = new ItemCall(determiner, about, item);
+		try {
+			final StreamObserver<DetermineTagsRequest> reqObs = this.stubs.get(determiner)
+					.withDeadlineAfter(RPC_DEADLINE_SECONDS, TimeUnit.SECONDS)
+					.determineTags(call);
+			// Stubs that do not support flow control, eg in tests, get the whole file now.
+			if (!call.isFlowControlled()) call.sendAll(reqObs);
+		}
+		catch (final Exception e) {
+			call.onError(e);
+		}
+	}
 
-		final CountDownLatch latch = new CountDownLatch(1);
-		final StreamObserver<DetermineTagsRequest> reqObs = stub
-				.withDeadlineAfter(RPC_DEADLINE_SECONDS, TimeUnit.SECONDS)
-				.determineTags(new StreamObserver<>() {
-			@Override
-			public void onNext(final DetermineTagsReply reply) {
-				// Processing responses takes priority over sending more work.
-				TagDeterminerController.this.workQueue.push(() -> {
-					responseFromDeterminer(determiner, about, item, reply);
-				});
-				scheduleWorker();
+	/**
+	 * One DetermineTags() call.  The file is only read as fast as gRPC flow control says the
+	 * determiner is ready for it, so many calls in flight do not all buffer whole files in memory.
+	 * Latency for the limit is timed from the end of the upload, so big files taking longer to send
+	 * do not look like the determiner slowing down.
+	 */
+	private class ItemCall implements ClientResponseObserver<DetermineTagsRequest, DetermineTagsReply> {
+		private final TagDeterminer determiner;
+		private final AboutReply about;
+		private final ContentItem item;
+		private final long startNanos = System.nanoTime();
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		private volatile long uploadEndNanos = 0L;
+
+		private ClientCallStreamObserver<DetermineTagsRequest> reqStream;
+		private InputStream input;
+		private byte[] buffer;  // Reused for every message, as ByteString.copyFrom() copies it.
+		private boolean uploadDone = false;
+
+		ItemCall(final TagDeterminer determiner, final AboutReply about, final ContentItem item) {
+			this.determiner = determiner;
+			this.about = about;
+			this.item = item;
+		}
+
+		@Override
+		public void beforeStart(final ClientCallStreamObserver<DetermineTagsRequest> requestStream) {
+			this.reqStream = requestStream;
+			requestStream.setOnReadyHandler(this::onReady);
+		}
+
+		boolean isFlowControlled() {
+			return this.reqStream != null;
+		}
+
+		private synchronized void onReady() {
+			if (this.uploadDone) return;
+			try {
+				if (this.input == null) this.input = openFile();
+				while (this.reqStream.isReady()) {
+					final DetermineTagsRequest req = readRequest(this.input);
+					if (req == null) {
+						this.uploadEndNanos = System.nanoTime();
+						endUpload();
+						this.reqStream.onCompleted();
+						return;
+					}
+					this.reqStream.onNext(req);
+				}
 			}
-			@Override
-			public void onError(final Throwable t) {
-				latch.countDown();
-				LOG.warn("Determiner {} DetermineTags() failed: {}", determiner, ExceptionHelper.causeTrace(t));
-				errorFromDeterminer(determiner, about, item, t);
+			catch (final Exception e) {
+				endUpload();
+				this.reqStream.onError(e);
+				LOG.warn("Failed to call TagDeterminer DetermineTags():", e);
 			}
-			@Override
-			public void onCompleted() {
-				latch.countDown();
+		}
+
+		synchronized void sendAll(final StreamObserver<DetermineTagsRequest> reqObs) {
+			try {
+				this.input = openFile();
+				DetermineTagsRequest req;
+				while ((req = readRequest(this.input)) != null) {
+					reqObs.onNext(req);
+				}
+				this.uploadEndNanos = System.nanoTime();
+				endUpload();
+				reqObs.onCompleted();
 			}
-		});
+			catch (final Exception e) {
+				endUpload();
+				reqObs.onError(e);
+				LOG.warn("Failed to call TagDeterminer DetermineTags():", e);
+			}
+		}
+
+		private InputStream openFile() throws IOException {
+			return new BufferedInputStream(new FileInputStream(this.item.getFile()));
+		}
 
-		try (final BufferedInputStream is = new BufferedInputStream(new FileInputStream(item.getFile()))) {
-			final byte[] buffer = new byte[MESSAGE_SIZE_BYTES];
-			int readLength;
-			while ((readLength = is.read(buffer, 0, MESSAGE_SIZE_BYTES)) != -1) {
-				final DetermineTagsRequest req = DetermineTagsRequest.newBuilder()
-						.setFileExt(item.getFormat().getExt())  // TODO only send on first part?
-						.setContent(ByteString.copyFrom(buffer, 0, readLength))
-						.build();
-				reqObs.onNext(req);
+		private DetermineTagsRequest readRequest(final InputStream is) throws IOException {
+			if (this.buffer == null) this.buffer = new byte[MESSAGE_SIZE_BYTES];
+			final int readLength = is.readNBytes(this.buffer, 0, MESSAGE_SIZE_BYTES);
+			if (readLength < 1) return null;
+			return DetermineTagsRequest.newBuilder()
+					.setFileExt(this.item.getFormat().getExt())  // TODO only send on first part?
+					.setContent(ByteString.copyFrom(this.buffer, 0, readLength))
+					.build();
+		}
+
+		private synchronized void endUpload() {
+			this.uploadDone = true;
+			this.buffer = null;
+			if (this.input != null) {
+				try {
+					this.input.close();
+				}
+				catch (final IOException e) {
+					// Only reading, nothing lost.
+				}
 			}
-			reqObs.onCompleted();
 		}
-		catch (final Exception e) {
-			reqObs.onError(e);
-			LOG.warn("Failed to call TagDeterminer DetermineTags():", e);
+
+		@Override
+		public void onNext(final DetermineTagsReply reply) {
+			// Processing responses takes priority over sending more work.
+			TagDeterminerController.this.workQueue.push(() -> {
+				responseFromDeterminer(this.determiner, this.about, this.item, reply);
+			});
+			scheduleWorker();
 		}
 
-		try {
-			latch.await();
+		@Override
+		public void onError(final Throwable t) {
+			endUpload();
+			finish(false);
+			LOG.warn("Determiner {} DetermineTags() failed: {}", this.determiner, ExceptionHelper.causeTrace(t));
+			errorFromDeterminer(this.determiner, this.about, this.item, t);
+		}
+
+		@Override
+		public void onCompleted() {
+			finish(true);
+		}
+
+		private void finish(final boolean success) {
+			if (!this.finished.compareAndSet(false, true)) return;
+			final AdaptiveLimit limit = TagDeterminerController.this.inFlightLimits.get(this.determiner);
+			if (success) {
+				// Replying before the upload ends is unusual, so time the whole call.
+				final long fromNanos = this.uploadEndNanos != 0L ? this.uploadEndNanos : this.startNanos;
+				limit.onSuccess(System.nanoTime() - fromNanos);
+			}
+			else {
+				limit.onFailure();
+			}
+			schedulePump(this.determiner);
 		}
-		catch (final InterruptedException e) {}
 	}
 
 	private void responseFromDeterminer(final TagDeterminer determiner, final AboutReply about, final ContentItem item, final DetermineTagsReply reply) {
@@ -346,6 +493,16 @@ public class TagDeterminerController {
 		}
 	}
 
+	private static class PendingItem {
+		final AboutReply about;
+		final ContentItem item;
+
+		public PendingItem(final AboutReply about, final ContentItem item) {
+			this.about = about;
+			this.item = item;
+		}
+	}
+
 	private static class TDResponse {
 		final AboutReply about;
 		final ContentItem item;
@@ -364,10 +521,15 @@ public class TagDeterminerController {
 		this.determiners.add(determiner);
 		this.stubs.put(determiner, stub);
 		this.futureStubs.put(determiner, futureStub);
+		addQueues(determiner);
 	}
 
 	int queueSize() {
-		return this.workQueue.size();
+		int size = this.workQueue.size();
+		for (final Deque<PendingItem> q : this.pendingItems.values()) {
+			size += q.size();
+		}
+		return size;
 	}
 
 }
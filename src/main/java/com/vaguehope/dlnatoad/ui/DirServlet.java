@@ -11,16 +11,12 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.function.Supplier;
-import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.text.StringEscapeUtils;
 
 import com.github.mustachejava.Mustache;
@@ -41,7 +37,9 @@ import com.vaguehope.dlnatoad.media.ThumbnailGenerator;
 import com.vaguehope.dlnatoad.ui.templates.NodeIndexScope;
 import com.vaguehope.dlnatoad.ui.templates.PageScope;
 import com.vaguehope.dlnatoad.ui.templates.ResultGroupScope;
+import com.vaguehope.dlnatoad.util.ByteRange;
 import com.vaguehope.dlnatoad.util.FileHelper;
+import com.vaguehope.dlnatoad.util.StoredZip;
 
 public class DirServlet extends HttpServlet {
 
@@ -85,7 +83,7 @@ public class DirServlet extends HttpServlet {
 		}
 
 		if (req.getPathInfo().endsWith(".zip")) {
-			returnNodeAsZipFile(node, resp);
+			returnNodeAsZipFile(req, node, resp);
 			return;
 		}
 
@@ -149,16 +147,13 @@ public class DirServlet extends HttpServlet {
 		final String listTitle = makeIndexTitle(node, nodesUserHasAuth);
 		final long nodeTotalFileLength = node.getTotalFileLength();
 
-		final List<ContentItem> allItems = node.getCopyOfItems();
 		final Order sort = sortModified ? ContentItem.Order.MODIFIED_DESC : parseSort(sortRaw);
 		final String sortParam = paramForSort(sort);
-		if (sort != null) {
-			allItems.sort(sort);
-		}
-		final List<ContentItem> pageItems = allItems.subList(offset, Math.min(allItems.size(), offset + limit));
+		final int totalItemCount = node.getItemCount();
+		final List<ContentItem> pageItems = node.getCopyOfItems(sort, offset, limit);
 
 		final String nextPagePath;
-		if (offset + limit < allItems.size()) {
+		if (offset + limit < totalItemCount) {
 			final StringBuilder s = new StringBuilder("?");
 			s.append(sortParam);
 			if (s.length() > 1) s.append("&");
@@ -273,22 +268,40 @@ public class DirServlet extends HttpServlet {
 		}
 	}
 
-	private static void returnNodeAsZipFile(final ContentNode node, final HttpServletResponse resp) throws IOException {
+	private static void returnNodeAsZipFile(final HttpServletRequest req, final ContentNode node, final HttpServletResponse resp) throws IOException {
+		// Work from a copy so the node is not locked for however long the download takes.
+		final List<StoredZip.Entry> entries = new ArrayList<>();
+		for (final ContentItem i : node.getCopyOfItems()) {
+			if (i.getFile() == null) continue;
+			entries.add(new StoredZip.Entry(i.getFile().getName(), i.getFile(), i.getFileLength(), i.getLastModified()));
+		}
+		final StoredZip zip = new StoredZip(entries);
+		final String etag = "\"" + zip.etag() + "\"";
+
 		resp.setContentType("application/zip");
-		final ZipOutputStream zo = new ZipOutputStream(resp.getOutputStream());
-		zo.setLevel(Deflater.NO_COMPRESSION);  // No point try to compress media files.
-
-		node.withEachItem(i -> {
-			final ZipEntry e = new ZipEntry(i.getFile().getName());
-			e.setSize(i.getFileLength());
-			e.setTime(i.getLastModified());
-			zo.putNextEntry(e);
-			FileUtils.copyFile(i.getFile(), zo);
-			zo.closeEntry();
-		});
-
-		zo.flush();
-		zo.close();
+		resp.setHeader("Accept-Ranges", "bytes");
+		resp.setHeader("ETag", etag);
+
+		final String ifRange = req.getHeader("If-Range");
+		final ByteRange range = ifRange == null || ifRange.equals(etag)
+				? ByteRange.parse(req.getHeader("Range"), zip.length())
+				: null;
+
+		if (range == null) {
+			resp.setContentLengthLong(zip.length());
+			zip.write(resp.getOutputStream(), 0, zip.length() - 1);
+		}
+		else if (!range.isSatisfiable()) {
+			resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			resp.setHeader("Content-Range", ByteRange.unsatisfiableContentRange(zip.length()));
+			return;
+		}
+		else {
+			resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			resp.setHeader("Content-Range", range.toContentRange());
+			resp.setContentLengthLong(range.length());
+			zip.write(resp.getOutputStream(), range.getFirst(), range.getLast());
+		}
 		resp.flushBuffer();
 	}
 
@@ -228,10 +228,7 @@ public class ItemServlet extends HttpServlet {
 				return printPrevNextLinksHtml(itemScope, null, sortParam, node, prevIdParam, nextIdParam, null, null);
 			}
 
-			results = node.getCopyOfItems();
-			if (sort != null) {
-				results.sort(sort);
-			}
+			results = node.getCopyOfItems(sort);
 
 			searchOffset = null;
 		}
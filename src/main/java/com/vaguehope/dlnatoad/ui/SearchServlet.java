@@ -6,15 +6,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
@@ -44,6 +42,7 @@ import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.net.UrlEscapers;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.vaguehope.dlnatoad.C;
 import com.vaguehope.dlnatoad.auth.ReqAttr;
 import com.vaguehope.dlnatoad.db.DbCache;
@@ -60,6 +59,8 @@ import com.vaguehope.dlnatoad.media.ContentNode;
 import com.vaguehope.dlnatoad.media.ContentServlet;
 import com.vaguehope.dlnatoad.media.ContentTree;
 import com.vaguehope.dlnatoad.media.ThumbnailGenerator;
+import com.vaguehope.dlnatoad.metrics.Histogram;
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
 import com.vaguehope.dlnatoad.rpc.MediaGrpc.MediaFutureStub;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.MediaItem;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.SearchReply;
@@ -82,11 +83,21 @@ public class SearchServlet extends HttpServlet {
 	static final SortOrder RESULT_SORT_ORDER = SortOrder.MODIFIED.desc();
 
 	static final int MAX_RESULTS = 500;
+	public static final long DEFAULT_REMOTE_SEARCH_BUDGET_MILLIS = 5000L;
 	private static final String ROOT_CONTENT_ID = "0"; // Root id of '0' is in the spec.
 	private static final ServiceType CONTENT_DIRECTORY_TYPE = ServiceType.valueOf("urn:schemas-upnp-org:service:ContentDirectory:1");
 
 	private static final long serialVersionUID = -3882119061427383748L;
 
+	private static final Histogram PAGE_DURATION = searchHistogram("page");
+	private static final Histogram FILE_QUERY_DURATION = searchHistogram("file_query");
+	private static final Histogram TAGS_QUERY_DURATION = searchHistogram("tags_query");
+	private static final Histogram LOCAL_SEARCH_DURATION = searchHistogram("local_search");
+
+	private static Histogram searchHistogram(final String stage) {
+		return MetricRegistry.DEFAULT.histogram("dlnatoad_search_seconds", "Time taken by each stage of a search page.", "stage", stage);
+	}
+
 	private final ServletCommon servletCommon;
 	private final ContentTree contentTree;
 	private final ContentServlet contentServlet;
@@ -96,13 +107,14 @@ public class SearchServlet extends HttpServlet {
 	private final RpcClient rpcClient;
 	private final ThumbnailGenerator thumbnailGenerator;
 	private final SearchEngine searchEngine;
+	private final long remoteSearchBudgetMillis;
 	private final Supplier<Mustache> resultsTemplate;
 
-	public SearchServlet(final ServletCommon servletCommon, final ContentTree contentTree, ContentServlet contentServlet, final MediaDb mediaDb, final DbCache dbCache, final UpnpService upnpService, final RpcClient rpcClient, final ThumbnailGenerator thumbnailGenerator) {
-		this(servletCommon, contentTree, contentServlet, mediaDb, dbCache, upnpService, rpcClient, thumbnailGenerator, new SearchEngine());
+	public SearchServlet(final ServletCommon servletCommon, final ContentTree contentTree, ContentServlet contentServlet, final MediaDb mediaDb, final DbCache dbCache, final UpnpService upnpService, final RpcClient rpcClient, final ThumbnailGenerator thumbnailGenerator, final long remoteSearchBudgetMillis) {
+		this(servletCommon, contentTree, contentServlet, mediaDb, dbCache, upnpService, rpcClient, thumbnailGenerator, new SearchEngine(contentTree), remoteSearchBudgetMillis);
 	}
 
-	protected SearchServlet(final ServletCommon servletCommon, final ContentTree contentTree, ContentServlet contentServlet, final MediaDb mediaDb, final DbCache dbCache, final UpnpService upnpService, final RpcClient rpcClient, final ThumbnailGenerator thumbnailGenerator, final SearchEngine searchEngine) {
+	protected SearchServlet(final ServletCommon servletCommon, final ContentTree contentTree, ContentServlet contentServlet, final MediaDb mediaDb, final DbCache dbCache, final UpnpService upnpService, final RpcClient rpcClient, final ThumbnailGenerator thumbnailGenerator, final SearchEngine searchEngine, final long remoteSearchBudgetMillis) {
 		this.servletCommon = servletCommon;
 		this.contentTree = contentTree;
 		this.contentServlet = contentServlet;
@@ -112,6 +124,7 @@ public class SearchServlet extends HttpServlet {
 		this.upnpService = upnpService;
 		this.thumbnailGenerator = thumbnailGenerator;
 		this.searchEngine = searchEngine;
+		this.remoteSearchBudgetMillis = remoteSearchBudgetMillis;
 		this.resultsTemplate = servletCommon.mustacheTemplate("searchresults.html");
 	}
 
@@ -131,9 +144,16 @@ public class SearchServlet extends HttpServlet {
 		final Stopwatch stopwatch = Stopwatch.createUnstarted();
 
 		if (!StringUtils.isBlank(query)) {
+			final long pageStart = System.nanoTime();
 			final String username = ReqAttr.USERNAME.get(req);
 			final String upnpQuery = String.format("(dc:title contains \"%s\")", query);
 
+			// Remote searches run while the local search does, and the page waits for them only up to the budget.
+			final String remote = StringUtils.trimToEmpty(req.getParameter(PARAM_REMOTE));
+			final RemoteSearches remoteSearches = ReqAttr.ALLOW_REMOTE_SEARCH.get(req) && StringUtils.isNotBlank(remote)
+					? startRemoteSearches(query, upnpQuery)
+					: null;
+
 			try {
 				final List<ContentItem> results;
 				final List<TagFrequency> tagResults;
@@ -151,6 +171,7 @@ public class SearchServlet extends HttpServlet {
 					final DbSearch idsQuery = DbSearchParser.parseSearch(query, authIds, RESULT_SORT_ORDER);
 					stopwatch.start();
 					final List<String> ids = idsQuery.execute(this.mediaDb, limit, offset);
+					FILE_QUERY_DURATION.observeNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS));
 					debugFooter.append(String.format("file query: %s ms\n%s\n",
 							stopwatch.elapsed(TimeUnit.MILLISECONDS), idsQuery));
 
@@ -160,11 +181,15 @@ public class SearchServlet extends HttpServlet {
 
 					stopwatch.reset().start();
 					tagResults = this.dbCache.searchTopTags(authIds, query);
+					TAGS_QUERY_DURATION.observeNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS));
 					debugFooter.append(String.format("tags query: %s ms\n", stopwatch.elapsed(TimeUnit.MILLISECONDS)));
 				}
 				else {
 					final ContentNode rootNode = this.contentTree.getNode(ContentGroup.ROOT.getId());
+					stopwatch.start();
 					results = this.searchEngine.search(rootNode, upnpQuery, MAX_RESULTS, username);
+					LOCAL_SEARCH_DURATION.observeNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS));
+					debugFooter.append(String.format("local search: %s ms\n", stopwatch.elapsed(TimeUnit.MILLISECONDS)));
 					offset = null;
 					nextLimit = MAX_RESULTS;  // Not implemented.
 					nextOffset = 0;
@@ -187,13 +212,7 @@ public class SearchServlet extends HttpServlet {
 				appendItems(resultGroup, results, linkQuery, offset);
 				DirServlet.addTagFrequenciesToScope(resultGroup, null, tagResults);
 
-				// Only do remote search if local does not error.
-				final String remote = StringUtils.trimToEmpty(req.getParameter(PARAM_REMOTE));
-				if (ReqAttr.ALLOW_REMOTE_SEARCH.get(req) && StringUtils.isNotBlank(remote)) {
-					// TODO Do these all in parallel.
-					remoteSearch(upnpQuery, resultsScope);
-					rpcSearch(query, resultsScope);
-				}
+				if (remoteSearches != null) remoteSearches.awaitAndAppend(resultsScope, debugFooter);
 
 				pageScope.setDebugfooter(debugFooter.toString());
 				ServletCommon.setHtmlContentType(resp);
@@ -203,6 +222,10 @@ public class SearchServlet extends HttpServlet {
 				ServletCommon.returnStatus(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to run query.");
 				e.printStackTrace(resp.getWriter());  // TODO maybe do something better here...
 			}
+			finally {
+				if (remoteSearches != null) remoteSearches.cancel();
+				PAGE_DURATION.observeSince(pageStart);
+			}
 		}
 	}
 
@@ -232,36 +255,28 @@ public class SearchServlet extends HttpServlet {
 		}
 	}
 
-	private void rpcSearch(final String query, final SearchResultsScope resultsScope) throws InterruptedException, ExecutionException {
-		final Map<RemoteInstance, Future<SearchReply>> futures = new LinkedHashMap<>();
+	private RemoteSearches startRemoteSearches(final String query, final String upnpQuery) {
+		final RemoteSearches ret = new RemoteSearches(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.remoteSearchBudgetMillis));
+
+		for (final RemoteService cd : findAllContentDirectoryServices()) {
+			final CDSearch cds = new CDSearch(cd, ROOT_CONTENT_ID, upnpQuery, Search.CAPS_WILDCARD, 0, (long) MAX_RESULTS);
+			final String title = cd.getDevice().getDetails().getFriendlyName();
+			ret.contentDirectories.add(new RemoteSource<>(title, cds, this.upnpService.getControlPoint().execute(cds), cds.startNanos));
+		}
+
+		final SearchRequest searchReq = SearchRequest.newBuilder().setQuery(query).build();
 		for (final RemoteInstance ri : this.rpcClient.getRemoteInstances()) {
+			final long startNanos = System.nanoTime();
 			final MediaFutureStub stub = this.rpcClient.getMediaFutureStub(ri.getId());
-			final SearchRequest req = SearchRequest.newBuilder().setQuery(query).build();
 			final ListenableFuture<SearchReply> f = stub
-					.withDeadlineAfter(30, TimeUnit.SECONDS)
-					.search(req);
-			futures.put(ri, f);
+					.withDeadlineAfter(this.remoteSearchBudgetMillis, TimeUnit.MILLISECONDS)
+					.search(searchReq);
+			final RemoteSource<RemoteInstance, SearchReply> source = new RemoteSource<>(ri.getTarget().toString(), ri, f, startNanos);
+			f.addListener(source::markDone, MoreExecutors.directExecutor());
+			ret.rpcs.add(source);
 		}
 
-		for (final Entry<RemoteInstance, Future<SearchReply>> a : futures.entrySet()) {
-			final SearchReply rep = a.getValue().get();
-			final ResultGroupScope resultGroup = resultsScope.addResultGroup(a.getKey().getTarget() + " items: " + rep.getResultCount());
-			for (final MediaItem i : rep.getResultList()) {
-				final String path = C.REMOTE_CONTENT_PATH_PREFIX + a.getKey().getId() + "/" + i.getId();
-				final long fileLength = i.getFileLength();
-				final long durationSeconds = TimeUnit.MILLISECONDS.toSeconds(i.getDurationMillis());
-				resultGroup.addRemoteItem(
-						path,
-						i.getTitle(),
-						fileLength > 0 ? FileHelper.readableFileSize(fileLength) : null,
-						durationSeconds > 0 ? ModelUtil.toTimeString(durationSeconds) : null);
-			}
-		}
-	}
-
-	private void remoteSearch(final String searchCriteria, final SearchResultsScope resultsScope) throws InterruptedException, ExecutionException {
-		final Collection<RemoteService> contentDirectoryServices = findAllContentDirectoryServices();
-		searchContentDirectories(contentDirectoryServices, searchCriteria, resultsScope);
+		return ret;
 	}
 
 	private Collection<RemoteService> findAllContentDirectoryServices() {
@@ -272,37 +287,126 @@ public class SearchServlet extends HttpServlet {
 		return ret;
 	}
 
-	private void searchContentDirectories(final Collection<RemoteService> contentDirectoryServices, final String searchCriteria, final SearchResultsScope resultsScope) throws InterruptedException, ExecutionException {
-		final Collection<CDSearch> searches = new ArrayList<>();
-		final Collection<Future<?>> futures = new ArrayList<>();
-		for (final RemoteService cd : contentDirectoryServices) {
-			final CDSearch cds = new CDSearch(cd, ROOT_CONTENT_ID, searchCriteria, Search.CAPS_WILDCARD, 0, (long) MAX_RESULTS);
-			futures.add(this.upnpService.getControlPoint().execute(cds));
-			searches.add(cds);
-		}
+	private static class RemoteSearches {
 
-		for (final Future<?> f : futures) {
-			f.get();
+		final long deadlineNanos;
+		final List<RemoteSource<CDSearch, ?>> contentDirectories = new ArrayList<>();
+		final List<RemoteSource<RemoteInstance, SearchReply>> rpcs = new ArrayList<>();
+
+		RemoteSearches(final long deadlineNanos) {
+			this.deadlineNanos = deadlineNanos;
 		}
 
-		for (final CDSearch s : searches) {
-			final String title = s.getService().getDevice().getDetails().getFriendlyName();
+		/**
+		 * Sources that fail or do not reply in time are shown as errors without holding up the others.
+		 */
+		void awaitAndAppend(final SearchResultsScope resultsScope, final StringBuilder debugFooter) throws InterruptedException {
+			for (final RemoteSource<CDSearch, ?> s : this.contentDirectories) {
+				final String err = s.await(this.deadlineNanos);
+				debugFooter.append(s.describeTiming());
+				if (err != null) {
+					resultsScope.addErrorGroup(s.title, err);
+					continue;
+				}
+				appendContentDirectoryResults(s.title, s.source, resultsScope);
+			}
+
+			for (final RemoteSource<RemoteInstance, SearchReply> s : this.rpcs) {
+				final String err = s.await(this.deadlineNanos);
+				debugFooter.append(s.describeTiming());
+				if (err != null) {
+					resultsScope.addErrorGroup(s.title, err);
+					continue;
+				}
+				appendRpcResults(s.source, s.result, resultsScope);
+			}
+		}
 
-			final String err = s.getErr();
-			if (StringUtils.isNotBlank(err)) {
-				resultsScope.addErrorGroup(title, err);
-				continue;
+		void cancel() {
+			for (final RemoteSource<?, ?> s : this.contentDirectories) {
+				s.future.cancel(true);
+			}
+			for (final RemoteSource<?, ?> s : this.rpcs) {
+				s.future.cancel(true);
 			}
+		}
+	}
 
-			final List<Item> items = s.getPayload().getItems();
-			final ResultGroupScope resultGroup = resultsScope.addResultGroup(title + " items: " + items.size());
-			for (final Item item : items) {
-				final Res res = biggestRes(item.getResources());
-				if (res == null) continue;
+	private static class RemoteSource<S, R> {
+
+		final String title;
+		final S source;
+		final Future<R> future;
+		final long startNanos;
+		volatile long endNanos = 0L;
+		R result;
+		boolean timedOut = false;
+
+		RemoteSource(final String title, final S source, final Future<R> future, final long startNanos) {
+			this.title = title;
+			this.source = source;
+			this.future = future;
+			this.startNanos = startNanos;
+		}
 
-				final String size = res.getSize() != null ? FileHelper.readableFileSize(res.getSize()) : null;
-				resultGroup.addRemoteItem(res.getValue(), item.getTitle(), size, res.getDuration());
+		void markDone() {
+			this.endNanos = System.nanoTime();
+		}
+
+		/**
+		 * Returns an error message, or null if the source replied.
+		 */
+		String await(final long deadlineNanos) throws InterruptedException {
+			try {
+				this.result = this.future.get(Math.max(deadlineNanos - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+				if (this.source instanceof CDSearch) {
+					final CDSearch cds = (CDSearch) this.source;
+					this.endNanos = cds.endNanos > 0L ? cds.endNanos : System.nanoTime();
+					return cds.getErr();
+				}
+				if (this.endNanos == 0L) markDone();
+				return null;
+			}
+			catch (final TimeoutException e) {
+				this.timedOut = true;
+				this.future.cancel(true);
+				return "No reply within " + TimeUnit.NANOSECONDS.toMillis(deadlineNanos - this.startNanos) + " ms.";
 			}
+			catch (final ExecutionException e) {
+				if (this.endNanos == 0L) markDone();
+				return "Search failed: " + e.getCause();
+			}
+		}
+
+		String describeTiming() {
+			if (this.timedOut) return String.format("%s: timed out\n", this.title);
+			return String.format("%s: %s ms\n", this.title, TimeUnit.NANOSECONDS.toMillis(this.endNanos - this.startNanos));
+		}
+	}
+
+	private static void appendRpcResults(final RemoteInstance ri, final SearchReply rep, final SearchResultsScope resultsScope) {
+		final ResultGroupScope resultGroup = resultsScope.addResultGroup(ri.getTarget() + " items: " + rep.getResultCount());
+		for (final MediaItem i : rep.getResultList()) {
+			final String path = C.REMOTE_CONTENT_PATH_PREFIX + ri.getId() + "/" + i.getId();
+			final long fileLength = i.getFileLength();
+			final long durationSeconds = TimeUnit.MILLISECONDS.toSeconds(i.getDurationMillis());
+			resultGroup.addRemoteItem(
+					path,
+					i.getTitle(),
+					fileLength > 0 ? FileHelper.readableFileSize(fileLength) : null,
+					durationSeconds > 0 ? ModelUtil.toTimeString(durationSeconds) : null);
+		}
+	}
+
+	private static void appendContentDirectoryResults(final String title, final CDSearch s, final SearchResultsScope resultsScope) {
+		final List<Item> items = s.getPayload().getItems();
+		final ResultGroupScope resultGroup = resultsScope.addResultGroup(title + " items: " + items.size());
+		for (final Item item : items) {
+			final Res res = biggestRes(item.getResources());
+			if (res == null) continue;
+
+			final String size = res.getSize() != null ? FileHelper.readableFileSize(res.getSize()) : null;
+			resultGroup.addRemoteItem(res.getValue(), item.getTitle(), size, res.getDuration());
 		}
 	}
 
@@ -319,6 +423,8 @@ public class SearchServlet extends HttpServlet {
 		private final Service<?, ?> service;
 		private final AtomicReference<DIDLContent> payload = new AtomicReference<>();
 		private final AtomicReference<String> err = new AtomicReference<>();
+		final long startNanos = System.nanoTime();
+		volatile long endNanos = 0L;
 
 		public CDSearch(final Service<?, ?> service, final String containerId, final String searchCriteria, final String filter, final long firstResult, final Long maxResults, final SortCriterion... orderBy) {
 			super(service, containerId, searchCriteria, filter, firstResult, maxResults, orderBy);
@@ -340,11 +446,13 @@ public class SearchServlet extends HttpServlet {
 		@Override
 		public void failure(final ActionInvocation invocation, final UpnpResponse operation, final String defaultMsg) {
 			this.err.set("Failed to search content directory: " + defaultMsg);
+			this.endNanos = System.nanoTime();
 		}
 
 		@Override
 		public void received(final ActionInvocation<?> invocation, final DIDLContent didl) {
 			this.payload.set(didl);
+			this.endNanos = System.nanoTime();
 		}
 
 		@Override
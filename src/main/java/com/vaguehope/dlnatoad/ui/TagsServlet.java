@@ -3,6 +3,7 @@ package com.vaguehope.dlnatoad.ui;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -127,14 +128,13 @@ public class TagsServlet extends HttpServlet {
 		}
 
 		final long now = System.currentTimeMillis();
+		final List<String> ids = itemIds(items);
 		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
-			for (final ContentItem i : items) {
-				if (remove) {
-					w.setTagModifiedAndDeleted(i.getId(), tag, tagReq.cls, true, now);
-				}
-				else {
-					w.addTag(i.getId(), tag, now);
-				}
+			if (remove) {
+				w.setTagModifiedAndDeleted(ids, tag, tagReq.cls, true, now);
+			}
+			else {
+				w.addTag(ids, tag, "", now);
 			}
 		}
 
@@ -158,8 +158,8 @@ public class TagsServlet extends HttpServlet {
 	@SuppressWarnings("resource")
 	private void returnTagsAndCounts(final HttpServletResponse resp, final List<ContentItem> items) throws SQLException, IOException {
 		final Multiset<Tag> tagCounts = HashMultiset.create();
-		for (final ContentItem i : items) {
-			for (final Tag t : this.mediaDb.getTags(i.getId(), false, false)) {
+		for (final Collection<Tag> tags : this.mediaDb.getTags(itemIds(items), false, false).values()) {
+			for (final Tag t : tags) {
 				tagCounts.add(new Tag(t.getTag(), t.getCls(), 0L, false));
 			}
 		}
@@ -173,6 +173,14 @@ public class TagsServlet extends HttpServlet {
 		this.gson.toJson(ret, resp.getWriter());
 	}
 
+	private static List<String> itemIds(final List<ContentItem> items) {
+		final List<String> ret = new ArrayList<>(items.size());
+		for (final ContentItem i : items) {
+			ret.add(i.getId());
+		}
+		return ret;
+	}
+
 	private static class TagsRequest {
 		String action;
 		String tag;
@@ -0,0 +1,73 @@
+package com.vaguehope.dlnatoad.util;
+
+/**
+ * Limit on concurrent requests to something that slows down when overloaded, eg a remote service or local processes.
+ * Starts at 1 and grows by about 1 for each full window of requests that succeed without
+ * taking much longer than the baseline latency, up to max.  Halves on failure.
+ * The baseline drops straight to any quicker reply and otherwise drifts up towards recent
+ * latencies, so one unusually quick reply does not hold the limit down forever.
+ */
+public class AdaptiveLimit {
+
+	/**
+	 * Requests slower than this multiple of the baseline are taken to mean the target is saturated.
+	 */
+	private static final double SATURATED_LATENCY_FACTOR = 2.0d;
+
+	/**
+	 * Roughly how many slower replies it takes for the baseline to catch up with them.
+	 */
+	private static final double BASELINE_DRIFT_SAMPLES = 100d;
+
+	private final int max;
+
+	private double limit = 1d;
+	private int inFlight = 0;
+	private double baselineLatencyNanos = Double.MAX_VALUE;
+
+	public AdaptiveLimit(final int max) {
+		this.max = Math.max(1, max);
+	}
+
+	public synchronized boolean tryAcquire() {
+		if (this.inFlight >= (int) this.limit) return false;
+		this.inFlight += 1;
+		return true;
+	}
+
+	/**
+	 * Give back a slot from tryAcquire() without it counting as success or failure.
+	 */
+	public synchronized void cancel() {
+		this.inFlight -= 1;
+	}
+
+	public synchronized void onSuccess(final long latencyNanos) {
+		this.inFlight -= 1;
+		if (latencyNanos < this.baselineLatencyNanos) this.baselineLatencyNanos = latencyNanos;
+		final boolean saturated = latencyNanos > this.baselineLatencyNanos * SATURATED_LATENCY_FACTOR;
+		this.baselineLatencyNanos += (latencyNanos - this.baselineLatencyNanos) / BASELINE_DRIFT_SAMPLES;
+		if (!saturated) {
+			this.limit = Math.min(this.max, this.limit + 1d / this.limit);
+		}
+	}
+
+	public synchronized void onFailure() {
+		this.inFlight -= 1;
+		this.limit = Math.max(1d, this.limit / 2d);
+	}
+
+	public synchronized int getLimit() {
+		return (int) this.limit;
+	}
+
+	public synchronized int getInFlight() {
+		return this.inFlight;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s/%s", this.inFlight, (int) this.limit);
+	}
+
+}
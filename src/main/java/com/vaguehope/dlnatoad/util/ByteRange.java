@@ -0,0 +1,163 @@
+package com.vaguehope.dlnatoad.util;
+
+/**
+ * A single HTTP byte range, as requested in a Range header.
+ * Only single ranges are supported, anything else means the whole entity should be sent.
+ */
+public class ByteRange {
+
+	private static final String PREFIX = "bytes=";
+	private static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1, 0);
+
+	private final long first;
+	private final long last;
+	private final long totalLength;
+
+	private ByteRange(final long first, final long last, final long totalLength) {
+		this.first = first;
+		this.last = last;
+		this.totalLength = totalLength;
+	}
+
+	/**
+	 * Returns null if there is no usable range and the whole entity should be sent.
+	 * Check isSatisfiable() on the result before using it.
+	 */
+	public static ByteRange parse(final String header, final long totalLength) {
+		final Requested requested = Requested.parse(header);
+		if (requested == null) return null;
+		return requested.resolve(totalLength);
+	}
+
+	/**
+	 * A range before it is checked against the length of the entity,
+	 * for passing on to whatever does know the length.
+	 * A negative offset counts back from the end, and a length of 0 means up to the end.
+	 */
+	public static class Requested {
+
+		private static final Requested EMPTY_SUFFIX = new Requested(0, 0);
+
+		private final long offset;
+		private final long length;
+
+		private Requested(final long offset, final long length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public static Requested of(final long offset, final long length) {
+			if (length < 0) throw new IllegalArgumentException("Negative length: " + length);
+			return new Requested(offset, length);
+		}
+
+		/**
+		 * Returns null if there is no usable range and the whole entity should be sent.
+		 */
+		public static Requested parse(final String header) {
+			if (header == null) return null;
+			final String h = header.trim();
+			if (!h.startsWith(PREFIX)) return null;
+			final String spec = h.substring(PREFIX.length()).trim();
+			if (spec.indexOf(',') >= 0) return null;
+
+			final int dash = spec.indexOf('-');
+			if (dash < 0) return null;
+			final String a = spec.substring(0, dash).trim();
+			final String b = spec.substring(dash + 1).trim();
+
+			try {
+				if (a.isEmpty()) {
+					if (b.isEmpty()) return null;
+					final long suffix = Long.parseLong(b);
+					if (suffix < 0) return null;
+					if (suffix == 0) return EMPTY_SUFFIX;
+					return new Requested(-suffix, 0);
+				}
+
+				final long first = Long.parseLong(a);
+				if (first < 0) return null;
+				if (b.isEmpty()) return new Requested(first, 0);
+				final long last = Long.parseLong(b);
+				if (last < first) return null;
+				final long length = last - first + 1;
+				return new Requested(first, length > 0 ? length : 0);  // Overflow means up to the end.
+			}
+			catch (final NumberFormatException e) {
+				return null;
+			}
+		}
+
+		public long getOffset() {
+			return this.offset;
+		}
+
+		public long getLength() {
+			return this.length;
+		}
+
+		/**
+		 * A suffix range of zero bytes, which can never be satisfied and has no offset and length form.
+		 */
+		public boolean isEmptySuffix() {
+			return this == EMPTY_SUFFIX;
+		}
+
+		public ByteRange resolve(final long totalLength) {
+			if (isEmptySuffix() || totalLength < 1) return UNSATISFIABLE;
+			if (this.offset < 0) {
+				return new ByteRange(Math.max(totalLength + this.offset, 0), totalLength - 1, totalLength);
+			}
+			if (this.offset >= totalLength) return UNSATISFIABLE;
+			final long last = this.length > 0 && this.length <= totalLength - this.offset
+					? this.offset + this.length - 1
+					: totalLength - 1;
+			return new ByteRange(this.offset, last, totalLength);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Requested{%s, %s}", this.offset, this.length);
+		}
+
+	}
+
+	public boolean isSatisfiable() {
+		return this.first >= 0;
+	}
+
+	public long getFirst() {
+		return this.first;
+	}
+
+	/**
+	 * Inclusive.
+	 */
+	public long getLast() {
+		return this.last;
+	}
+
+	public long length() {
+		return this.last - this.first + 1;
+	}
+
+	/**
+	 * Value for the Content-Range header of a 206 response.
+	 */
+	public String toContentRange() {
+		return "bytes " + this.first + "-" + this.last + "/" + this.totalLength;
+	}
+
+	/**
+	 * Value for the Content-Range header of a 416 response.
+	 */
+	public static String unsatisfiableContentRange(final long totalLength) {
+		return "bytes */" + totalLength;
+	}
+
+	@Override
+	public String toString() {
+		return isSatisfiable() ? toContentRange() : "unsatisfiable";
+	}
+
+}
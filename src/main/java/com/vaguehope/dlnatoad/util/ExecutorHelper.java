@@ -2,20 +2,45 @@ package com.vaguehope.dlnatoad.util;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import com.vaguehope.dlnatoad.metrics.MetricRegistry;
+
 public class ExecutorHelper {
 
+	/**
+	 * No core threads and an unbounded queue means this only ever runs one task at a time,
+	 * so use the minThreads version for a pool that really runs in parallel.
+	 */
 	public static ExecutorService newExecutor(final int maxThreads, final String name) {
 		return newExecutor(0, maxThreads, name, Thread.MIN_PRIORITY);
 	}
 
 	public static ExecutorService newExecutor(final int minThreads, final int maxThreads, final String name, final int priority) {
-		final ExecutorService e = new ThreadPoolExecutor(minThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+		final ThreadPoolExecutor e = new ThreadPoolExecutor(minThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
 				new DaemonThreadFactory(name, priority));
+		addMetrics(name, e);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				e.shutdown();
+			}
+		});
+		return e;
+	}
+
+	/**
+	 * Queued tasks run in their natural order, so only use execute() with Runnables that are Comparable.
+	 * submit() wraps tasks and so will fail.
+	 */
+	public static ThreadPoolExecutor newPriorityExecutor(final int threads, final String name, final int priority) {
+		final ThreadPoolExecutor e = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+				new DaemonThreadFactory(name, priority));
+		addMetrics(name, e);
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run() {
@@ -30,7 +55,8 @@ public class ExecutorHelper {
 	}
 
 	public static ScheduledExecutorService newScheduledExecutor(final int threads, final String name, final int priority) {
-		final ScheduledExecutorService e = new ScheduledThreadPoolExecutor(threads, new DaemonThreadFactory(name, priority));
+		final ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(threads, new DaemonThreadFactory(name, priority));
+		addMetrics(name, e);
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run() {
@@ -40,4 +66,11 @@ public class ExecutorHelper {
 		return e;
 	}
 
+	private static void addMetrics(final String name, final ThreadPoolExecutor e) {
+		final MetricRegistry r = MetricRegistry.DEFAULT;
+		r.gauge("dlnatoad_executor_queue_depth", "Tasks waiting to run.", () -> e.getQueue().size(), "executor", name);
+		r.gauge("dlnatoad_executor_active_threads", "Threads running a task.", e::getActiveCount, "executor", name);
+		r.counter("dlnatoad_executor_completed_tasks_total", "Tasks that have finished running.", e::getCompletedTaskCount, "executor", name);
+	}
+
 }
@@ -30,6 +30,15 @@ import com.google.common.collect.Iterators;
 
 public class ImageResizer {
 
+	/**
+	 * Decode at least this multiple of the output size so scaling down still has pixels to average.
+	 */
+	private static final int DECODE_OVERSAMPLE = 2;
+	/**
+	 * Embedded thumbnails are often letterboxed or not rotated, so only use ones that match the image's shape.
+	 */
+	private static final double MAX_THUMBNAIL_ASPECT_DIFFERENCE = 0.02d;
+
 	private static final Logger LOG = LoggerFactory.getLogger(ImageResizer.class);
 
 	public ImageResizer() {
@@ -61,7 +70,7 @@ public class ImageResizer {
 	public void scaleImageToFile (final File inF, final int size, final float quality, final File outF) throws IOException {
 		if (size < 16 || size > 1000) throw new IllegalArgumentException("Invalid size: " + size);
 
-		final BufferedImage inImg = readImage(inF);
+		final BufferedImage inImg = readImage(inF, size);
 
 		if (inImg.getWidth() < 1 || inImg.getHeight() < 1) throw new IllegalArgumentException("Image too small: " + inF.getAbsolutePath());
 
@@ -83,7 +92,12 @@ public class ImageResizer {
 		writeImageViaTmpFile(outImg, quality, outF);
 	}
 
-	private static BufferedImage readImage(final File file) throws IOException {
+	/**
+	 * Only decodes what is needed for an output of size: an embedded thumbnail (JFIF, or EXIF with 12 Monkeys)
+	 * that is at least size and the same shape, otherwise the image subsampled to about DECODE_OVERSAMPLE times size.
+	 * The whole image is always wanted, so no source region is set.
+	 */
+	private static BufferedImage readImage(final File file, final int size) throws IOException {
 		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
 			final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
 			if (!readers.hasNext()) {
@@ -94,9 +108,17 @@ public class ImageResizer {
 			while (readers.hasNext()) {
 				final ImageReader reader = readers.next();
 				try {
-					final ImageReadParam param = reader.getDefaultReadParam();
 					input.mark();
 					reader.setInput(input, true, true);
+					final int width = reader.getWidth(0);
+					final int height = reader.getHeight(0);
+
+					final BufferedImage thumb = readThumbnailIfBigEnough(reader, width, height, size);
+					if (thumb != null) return thumb;
+
+					final ImageReadParam param = reader.getDefaultReadParam();
+					final int subsampling = subsamplingFor(width, height, size);
+					if (subsampling > 1) param.setSourceSubsampling(subsampling, subsampling, 0, 0);
 					return reader.read(0, param);
 				}
 				catch (final Exception e) {
@@ -116,6 +138,41 @@ public class ImageResizer {
 		return null;
 	}
 
+	private static BufferedImage readThumbnailIfBigEnough(final ImageReader reader, final int width, final int height, final int size) throws IOException {
+		if (!reader.readerSupportsThumbnails()) return null;
+		final int count = reader.getNumThumbnails(0);
+		if (count < 1) return null;
+
+		final double aspect = width / (double) height;
+		int best = -1;
+		int bestLongSide = Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			final int tw = reader.getThumbnailWidth(0, i);
+			final int th = reader.getThumbnailHeight(0, i);
+			if (tw < 1 || th < 1) continue;
+			if (Math.abs((tw / (double) th) - aspect) / aspect > MAX_THUMBNAIL_ASPECT_DIFFERENCE) continue;
+			final int longSide = Math.max(tw, th);
+			if (longSide >= size && longSide < bestLongSide) {
+				best = i;
+				bestLongSide = longSide;
+			}
+		}
+		if (best < 0) return null;
+		try {
+			return reader.readThumbnail(0, best);
+		}
+		catch (final IOException e) {
+			return null;  // Main image might still be fine.
+		}
+	}
+
+	/**
+	 * Largest whole factor that keeps the longest side at least DECODE_OVERSAMPLE times size.
+	 */
+	static int subsamplingFor(final int width, final int height, final int size) {
+		return Math.max(1, Math.max(width, height) / (size * DECODE_OVERSAMPLE));
+	}
+
 	private static BufferedImage scaleImage (final BufferedImage inImg, final int width, final int height) {
 		final BufferedImage outImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 		final Graphics2D g = outImg.createGraphics();
@@ -2,6 +2,7 @@ package com.vaguehope.dlnatoad.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -102,4 +103,9 @@ public class ProgressLogFileListener implements FileListener {
 		this.deligate.fileGone(file, isDir);
 	}
 
+	@Override
+	public void dirRescanned (final File dir, final Collection<File> files) throws IOException {
+		this.deligate.dirRescanned(dir, files);
+	}
+
 }
@@ -0,0 +1,445 @@
+package com.vaguehope.dlnatoad.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Zip of uncompressed (STORED) entries that is generated on the fly from a fixed list of files.
+ * As nothing is compressed the total length and the position of every byte is known up front,
+ * so any byte range can be written without writing what comes before it.
+ * CRCs are only known once a file has been read, so they go in a data descriptor after each entry,
+ * and are remembered so that resuming a download does not need to read everything again.
+ * Uses ZIP64 where sizes or offsets do not fit in 32 bits.
+ * Readers that use the central directory are fine with this, but some streaming readers (e.g. java.util.zip.ZipInputStream)
+ * refuse STORED entries that have a data descriptor.
+ * If a file changes length after the list was made it is truncated or padded with zeros to keep the layout.
+ */
+public class StoredZip {
+
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int ZIP64_END_SIG = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	private static final int END_SIG = 0x06054b50;
+
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final int VERSION_DEFAULT = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final long MAX_32 = 0xFFFFFFFFL;
+	private static final int MAX_16 = 0xFFFF;
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private static final Cache<String, Long> CRC_CACHE = CacheBuilder.newBuilder()
+			.maximumSize(100000L)
+			.expireAfterAccess(1, TimeUnit.DAYS)
+			.build();
+
+	public static class Entry {
+		final String name;
+		final byte[] nameBytes;
+		final File file;
+		final long length;
+		final long lastModified;
+
+		public Entry(final String name, final File file, final long length, final long lastModified) {
+			this.name = name;
+			this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		boolean isZip64() {
+			return this.length >= MAX_32;
+		}
+
+		String crcCacheKey() {
+			return this.file.getAbsolutePath() + ":" + this.length + ":" + this.lastModified;
+		}
+	}
+
+	private final List<Entry> entries;
+	private final long[] localHeaderOffsets;
+	private final Long[] crcs;
+	private final long centralDirOffset;
+	private final long centralDirLength;
+	private final long totalLength;
+
+	public StoredZip(final List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+		this.localHeaderOffsets = new long[this.entries.size()];
+		this.crcs = new Long[this.entries.size()];
+
+		long offset = 0L;
+		for (int i = 0; i < this.entries.size(); i++) {
+			final Entry e = this.entries.get(i);
+			this.localHeaderOffsets[i] = offset;
+			offset += localHeaderLength(e) + e.length + dataDescriptorLength(e);
+		}
+		this.centralDirOffset = offset;
+
+		long cdLength = 0L;
+		for (int i = 0; i < this.entries.size(); i++) {
+			cdLength += centralHeaderLength(this.entries.get(i), this.localHeaderOffsets[i]);
+		}
+		this.centralDirLength = cdLength;
+
+		this.totalLength = this.centralDirOffset + this.centralDirLength + endLength();
+	}
+
+	public long length() {
+		return this.totalLength;
+	}
+
+	/**
+	 * Changes if any entry's name, length or modified time changes.
+	 */
+	public String etag() {
+		final StringBuilder s = new StringBuilder();
+		for (final Entry e : this.entries) {
+			s.append(e.name).append('\0').append(e.length).append('\0').append(e.lastModified).append('\0');
+		}
+		return HashHelper.md5(s.toString()).toString(16);
+	}
+
+	/**
+	 * Writes bytes first to last inclusive.
+	 */
+	public void write(final OutputStream out, final long first, final long last) throws IOException {
+		if (first < 0 || last >= this.totalLength || first > last) {
+			throw new IllegalArgumentException("Invalid range " + first + "-" + last + " for length " + this.totalLength);
+		}
+		final RangeWriter w = new RangeWriter(out, first, last);
+
+		for (int i = 0; i < this.entries.size() && !w.isDone(); i++) {
+			final Entry e = this.entries.get(i);
+			w.bytes(localHeader(e));
+			writeEntryData(w, i, e);
+			if (w.wants(dataDescriptorLength(e))) {
+				w.bytes(dataDescriptor(e, crc(i)));
+			}
+			else {
+				w.skip(dataDescriptorLength(e));
+			}
+		}
+
+		for (int i = 0; i < this.entries.size() && !w.isDone(); i++) {
+			final Entry e = this.entries.get(i);
+			final long len = centralHeaderLength(e, this.localHeaderOffsets[i]);
+			if (w.wants(len)) {
+				w.bytes(centralHeader(e, this.localHeaderOffsets[i], crc(i)));
+			}
+			else {
+				w.skip(len);
+			}
+		}
+
+		if (!w.isDone()) w.bytes(endRecords());
+	}
+
+	private void writeEntryData(final RangeWriter w, final int i, final Entry e) throws IOException {
+		if (!w.wants(e.length)) {
+			w.skip(e.length);
+			return;
+		}
+		final long from = w.offsetInto();
+		final long count = Math.min(e.length - from, w.remaining());
+		final boolean whole = from == 0 && count == e.length;
+		final CRC32 crc = whole && this.crcs[i] == null ? new CRC32() : null;
+		copyEntryData(e, from, count, w.out, crc);
+		w.skip(e.length);
+		if (crc != null) rememberCrc(i, e, crc.getValue());
+	}
+
+	private long crc(final int i) throws IOException {
+		if (this.crcs[i] != null) return this.crcs[i];
+		final Entry e = this.entries.get(i);
+		final Long cached = CRC_CACHE.getIfPresent(e.crcCacheKey());
+		if (cached != null) {
+			this.crcs[i] = cached;
+			return cached;
+		}
+		final CRC32 crc = new CRC32();
+		copyEntryData(e, 0, e.length, null, crc);
+		rememberCrc(i, e, crc.getValue());
+		return crc.getValue();
+	}
+
+	private void rememberCrc(final int i, final Entry e, final long crc) {
+		this.crcs[i] = crc;
+		CRC_CACHE.put(e.crcCacheKey(), crc);
+	}
+
+	/**
+	 * Writes count bytes of the entry starting at from, padding with zeros if the file is now shorter.
+	 * out may be null if only the CRC is wanted.
+	 */
+	private static void copyEntryData(final Entry e, final long from, final long count, final OutputStream out, final CRC32 crc) throws IOException {
+		final byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(count, 1))];
+		long remaining = count;
+		if (e.file.isFile()) {
+			try (final InputStream in = new FileInputStream(e.file)) {
+				long toSkip = from;
+				while (toSkip > 0) {
+					final long skipped = in.skip(toSkip);
+					if (skipped <= 0) break;
+					toSkip -= skipped;
+				}
+				if (toSkip == 0) {
+					while (remaining > 0) {
+						final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+						if (read < 0) break;
+						if (out != null) out.write(buffer, 0, read);
+						if (crc != null) crc.update(buffer, 0, read);
+						remaining -= read;
+					}
+				}
+			}
+		}
+		if (remaining > 0) {
+			Arrays.fill(buffer, (byte) 0);
+			while (remaining > 0) {
+				final int n = (int) Math.min(buffer.length, remaining);
+				if (out != null) out.write(buffer, 0, n);
+				if (crc != null) crc.update(buffer, 0, n);
+				remaining -= n;
+			}
+		}
+	}
+
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Layout.
+
+	private static long localHeaderLength(final Entry e) {
+		return 30 + e.nameBytes.length + (e.isZip64() ? 20 : 0);
+	}
+
+	private static long dataDescriptorLength(final Entry e) {
+		return e.isZip64() ? 24 : 16;
+	}
+
+	private static int centralZip64FieldCount(final Entry e, final long localHeaderOffset) {
+		return (e.isZip64() ? 2 : 0) + (localHeaderOffset >= MAX_32 ? 1 : 0);
+	}
+
+	private static long centralHeaderLength(final Entry e, final long localHeaderOffset) {
+		final int fields = centralZip64FieldCount(e, localHeaderOffset);
+		return 46 + e.nameBytes.length + (fields > 0 ? 4 + 8 * fields : 0);
+	}
+
+	private boolean needsZip64End() {
+		return this.entries.size() >= MAX_16 || this.centralDirOffset >= MAX_32 || this.centralDirLength >= MAX_32;
+	}
+
+	private long endLength() {
+		return (needsZip64End() ? 56 + 20 : 0) + 22;
+	}
+
+	private static byte[] localHeader(final Entry e) {
+		final LeBytes b = new LeBytes();
+		b.int32(LOCAL_HEADER_SIG);
+		b.int16(e.isZip64() ? VERSION_ZIP64 : VERSION_DEFAULT);
+		b.int16(FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+		b.int16(0);  // STORED.
+		b.int32(dosTime(e.lastModified));
+		b.int32(0);  // CRC is in the data descriptor.
+		b.int32(e.isZip64() ? MAX_32 : e.length);
+		b.int32(e.isZip64() ? MAX_32 : e.length);
+		b.int16(e.nameBytes.length);
+		b.int16(e.isZip64() ? 20 : 0);
+		b.bytes(e.nameBytes);
+		if (e.isZip64()) {
+			b.int16(0x0001);
+			b.int16(16);
+			b.int64(e.length);
+			b.int64(e.length);
+		}
+		return b.toByteArray();
+	}
+
+	private static byte[] dataDescriptor(final Entry e, final long crc) {
+		final LeBytes b = new LeBytes();
+		b.int32(DATA_DESCRIPTOR_SIG);
+		b.int32(crc);
+		if (e.isZip64()) {
+			b.int64(e.length);
+			b.int64(e.length);
+		}
+		else {
+			b.int32(e.length);
+			b.int32(e.length);
+		}
+		return b.toByteArray();
+	}
+
+	private static byte[] centralHeader(final Entry e, final long localHeaderOffset, final long crc) {
+		final int fields = centralZip64FieldCount(e, localHeaderOffset);
+		final boolean offsetZip64 = localHeaderOffset >= MAX_32;
+		final LeBytes b = new LeBytes();
+		b.int32(CENTRAL_HEADER_SIG);
+		b.int16(VERSION_ZIP64);  // Made by.
+		b.int16(fields > 0 ? VERSION_ZIP64 : VERSION_DEFAULT);
+		b.int16(FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+		b.int16(0);  // STORED.
+		b.int32(dosTime(e.lastModified));
+		b.int32(crc);
+		b.int32(e.isZip64() ? MAX_32 : e.length);
+		b.int32(e.isZip64() ? MAX_32 : e.length);
+		b.int16(e.nameBytes.length);
+		b.int16(fields > 0 ? 4 + 8 * fields : 0);
+		b.int16(0);  // Comment length.
+		b.int16(0);  // Disk number.
+		b.int16(0);  // Internal attributes.
+		b.int32(0);  // External attributes.
+		b.int32(offsetZip64 ? MAX_32 : localHeaderOffset);
+		b.bytes(e.nameBytes);
+		if (fields > 0) {
+			b.int16(0x0001);
+			b.int16(8 * fields);
+			if (e.isZip64()) {
+				b.int64(e.length);
+				b.int64(e.length);
+			}
+			if (offsetZip64) b.int64(localHeaderOffset);
+		}
+		return b.toByteArray();
+	}
+
+	private byte[] endRecords() {
+		final LeBytes b = new LeBytes();
+		final boolean zip64 = needsZip64End();
+		if (zip64) {
+			final long zip64EndOffset = this.centralDirOffset + this.centralDirLength;
+			b.int32(ZIP64_END_SIG);
+			b.int64(44);  // Size of the rest of this record.
+			b.int16(VERSION_ZIP64);
+			b.int16(VERSION_ZIP64);
+			b.int32(0);
+			b.int32(0);
+			b.int64(this.entries.size());
+			b.int64(this.entries.size());
+			b.int64(this.centralDirLength);
+			b.int64(this.centralDirOffset);
+
+			b.int32(ZIP64_LOCATOR_SIG);
+			b.int32(0);
+			b.int64(zip64EndOffset);
+			b.int32(1);
+		}
+		b.int32(END_SIG);
+		b.int16(0);
+		b.int16(0);
+		b.int16(zip64 ? MAX_16 : this.entries.size());
+		b.int16(zip64 ? MAX_16 : this.entries.size());
+		b.int32(zip64 ? MAX_32 : this.centralDirLength);
+		b.int32(zip64 ? MAX_32 : this.centralDirOffset);
+		b.int16(0);  // Comment length.
+		return b.toByteArray();
+	}
+
+	private static long dosTime(final long millis) {
+		final LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+		if (t.getYear() < 1980) return (1 << 21) | (1 << 16);  // 1980-01-01 00:00.
+		return ((long) (t.getYear() - 1980) << 25)
+				| ((long) t.getMonthValue() << 21)
+				| ((long) t.getDayOfMonth() << 16)
+				| ((long) t.getHour() << 11)
+				| ((long) t.getMinute() << 5)
+				| (t.getSecond() >> 1);
+	}
+
+	private static class LeBytes extends ByteArrayOutputStream {
+		void int16(final int v) {
+			write(v & 0xFF);
+			write((v >>> 8) & 0xFF);
+		}
+
+		void int32(final long v) {
+			for (int i = 0; i < 4; i++) {
+				write((int) ((v >>> (8 * i)) & 0xFF));
+			}
+		}
+
+		void int64(final long v) {
+			for (int i = 0; i < 8; i++) {
+				write((int) ((v >>> (8 * i)) & 0xFF));
+			}
+		}
+
+		void bytes(final byte[] b) {
+			write(b, 0, b.length);
+		}
+	}
+
+	/**
+	 * Tracks the position in the whole zip and only writes what falls within first to last.
+	 */
+	private static class RangeWriter {
+		final OutputStream out;
+		final long first;
+		final long last;
+		long pos = 0L;
+
+		RangeWriter(final OutputStream out, final long first, final long last) {
+			this.out = out;
+			this.first = first;
+			this.last = last;
+		}
+
+		boolean isDone() {
+			return this.pos > this.last;
+		}
+
+		boolean wants(final long len) {
+			return this.pos + len > this.first && this.pos <= this.last;
+		}
+
+		/**
+		 * How far into the current section the range starts.
+		 */
+		long offsetInto() {
+			return Math.max(this.first - this.pos, 0L);
+		}
+
+		/**
+		 * Bytes left to write, measured from where writing will start in the current section.
+		 */
+		long remaining() {
+			return this.last - Math.max(this.pos, this.first) + 1;
+		}
+
+		void skip(final long len) {
+			this.pos += len;
+		}
+
+		void bytes(final byte[] b) throws IOException {
+			if (wants(b.length)) {
+				final int from = (int) offsetInto();
+				final int to = (int) Math.min(b.length, this.last - this.pos + 1);
+				this.out.write(b, from, to - from);
+			}
+			this.pos += b.length;
+		}
+	}
+
+}
@@ -3,70 +3,172 @@ package com.vaguehope.dlnatoad.util;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.comparator.NameFileComparator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Breadth first walk where directories may be listed in parallel, but the Hiker is
+ * only ever called on the thread that called walk() and always in the same order.
+ * onDir() is always called before that directory is listed.
+ */
 public class TreeWalker {
 
+	public static final int DEFAULT_LISTER_THREADS = 8;
+
+	/**
+	 * How many directories each lister may be ahead of the Hiker.
+	 */
+	private static final int LISTINGS_AHEAD_PER_THREAD = 4;
+
 	private final List<File> roots;
 	private final FileFilter fileFilter;
 	private final Hiker hiker;
+	private final ExecutorService listers;
+	private final int listerThreads;
 
+	/**
+	 * Lists directories on the thread that calls walk().
+	 */
 	public TreeWalker (final File root, final FileFilter fileFilter, final Hiker hiker) {
-		this.roots = Collections.singletonList(root);
-		this.fileFilter = fileFilter;
-		this.hiker = hiker;
+		this(Collections.singletonList(root), fileFilter, hiker);
 	}
 
+	/**
+	 * Lists directories on the thread that calls walk().
+	 */
 	public TreeWalker (final List<File> roots, final FileFilter fileFilter, final Hiker hiker) {
+		this(roots, fileFilter, hiker, null, 1);
+	}
+
+	/**
+	 * @param listers shared pool to list directories on, which walk() does not shut down.
+	 * @param listerThreads how many threads listers has, which bounds how far listing runs ahead of the Hiker.
+	 */
+	public TreeWalker (final List<File> roots, final FileFilter fileFilter, final Hiker hiker, final ExecutorService listers, final int listerThreads) {
 		this.roots = roots;
 		this.fileFilter = fileFilter;
 		this.hiker = hiker;
+		this.listers = listers;
+		this.listerThreads = listerThreads;
 	}
 
 	public void walk () throws IOException {
-		final Queue<File> dirs = new LinkedList<>();
-		for (File root : this.roots) {
-			dirs.add(root);
+		final int maxAhead = this.listerThreads * LISTINGS_AHEAD_PER_THREAD;
+		final Deque<File> toList = new ArrayDeque<>();
+		final Deque<Future<Listing>> listings = new ArrayDeque<>();
+
+		for (final File root : this.roots) {
+			this.hiker.onDir(root);
+			toList.add(root);
 		}
 
-		while (!dirs.isEmpty()) {
-			final File dir = dirs.poll();
-			this.hiker.onDir(dir);
-
-			final File[] listFiles = dir.listFiles();
-			if (listFiles != null) {
-				Arrays.sort(listFiles, NameFileComparator.NAME_INSENSITIVE_COMPARATOR);
-				List<File> keepFiles = null;
-				for (final File file : listFiles) {
-					if (file.getName().startsWith(".")) {
-						continue;
-					}
-					else if (file.isDirectory()) {
-						dirs.add(file);
-					}
-					else if (file.isFile() && this.fileFilter.accept(file)) {
-						if (keepFiles == null) keepFiles = new ArrayList<>();
-						keepFiles.add(file);
-					}
+		try {
+			while (!toList.isEmpty() || !listings.isEmpty()) {
+				while (!toList.isEmpty() && listings.size() < maxAhead) {
+					final File dir = toList.poll();
+					listings.add(this.listers != null
+							? this.listers.submit(() -> list(dir))
+							: CompletableFuture.completedFuture(list(dir)));
 				}
-				if (keepFiles != null) {
-					this.hiker.onDirWithFiles(dir, keepFiles);
-					keepFiles = null;
+
+				final Listing listing = waitFor(listings.poll());
+				if (listing.files == null) {
+					this.hiker.onUnreadableDir(listing.dir);
+					continue;
 				}
+				if (listing.files.size() > 0) {
+					this.hiker.onDirWithFiles(listing.dir, listing.files);
+				}
+				for (final File subDir : listing.dirs) {
+					this.hiker.onDir(subDir);
+					toList.add(subDir);
+				}
+			}
+		}
+		finally {
+			// The pool is shared, so cancel only this walk's outstanding listings if it ended early.
+			for (final Future<Listing> f : listings) {
+				f.cancel(true);
 			}
-			else {
-				this.hiker.onUnreadableDir(dir);
+		}
+	}
+
+	/**
+	 * Attributes are read with one call per entry rather than separate isDirectory() and isFile() calls,
+	 * and on some platforms come with the directory listing for free.
+	 */
+	private Listing list (final File dir) {
+		final List<File> dirs = new ArrayList<>();
+		final List<File> files = new ArrayList<>();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+			for (final Path p : stream) {
+				final Path name = p.getFileName();
+				if (name == null || name.toString().startsWith(".")) continue;
+
+				final BasicFileAttributes attr;
+				try {
+					attr = Files.readAttributes(p, BasicFileAttributes.class);
+				}
+				catch (final IOException e) {
+					continue;  // Broken link or gone since listing.
+				}
+
+				final File file = p.toFile();
+				if (attr.isDirectory()) {
+					dirs.add(file);
+				}
+				else if (attr.isRegularFile() && this.fileFilter.accept(file)) {
+					files.add(file);
+				}
 			}
 		}
+		catch (final IOException | RuntimeException e) {
+			return new Listing(dir, null, null);
+		}
+		dirs.sort(NameFileComparator.NAME_INSENSITIVE_COMPARATOR);
+		files.sort(NameFileComparator.NAME_INSENSITIVE_COMPARATOR);
+		return new Listing(dir, dirs, files);
+	}
+
+	private static Listing waitFor (final Future<Listing> future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while walking tree.");
+		}
+		catch (final ExecutionException e) {
+			throw new IOException("Failed to list directory.", e.getCause());
+		}
+	}
+
+	private static class Listing {
+		final File dir;
+		final List<File> dirs;
+		final List<File> files;  // null if dir could not be read.
+
+		Listing (final File dir, final List<File> dirs, final List<File> files) {
+			this.dir = dir;
+			this.dirs = dirs;
+			this.files = files;
+		}
 	}
 
 	public abstract static class Hiker {
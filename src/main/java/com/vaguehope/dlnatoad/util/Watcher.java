@@ -12,6 +12,10 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,9 +24,11 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.io.comparator.NameFileComparator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +51,11 @@ public class Watcher {
 		EventResult fileFound (File rootDir, File file, EventType eventType, Runnable onUsed) throws IOException;
 		EventResult fileModified (final File rootDir, File file, Runnable onUsed) throws IOException;
 		void fileGone (File file, boolean isDir) throws IOException;
+		/**
+		 * Events for dir were lost and it has been rescanned, fileFound() will have been called for each of files.
+		 * Anything found directly in dir before that is not in files has gone.
+		 */
+		void dirRescanned (File dir, Collection<File> files) throws IOException;
 	}
 
 	/**
@@ -63,7 +74,9 @@ public class Watcher {
 	private final FileFilter filter;
 	private final FileListener listener;
 	private final Time time;
-	private final long pollIntervalMillis;
+	private final long maxWaitMillis;
+	private final ExecutorService listers;
+	private final int listerThreads;
 
 	private final List<Runnable> onPrescanComplete = new CopyOnWriteArrayList<>();
 	private final CountDownLatch prescanComplete = new CountDownLatch(1);
@@ -71,34 +84,38 @@ public class Watcher {
 
 	private final WatchService watchService;
 	private final Map<WatchKey, Path> watchKeys = new HashMap<>();
+	private final Map<Path, WatchKey> watchPaths = new HashMap<>();
 	private final Map<WatchKey, File> watchKeyRoots = new HashMap<>();
 	private final Queue<WaitingFile> waitingFiles = new DelayQueue<>();
 
 	private volatile boolean running = true;
 
 	public Watcher (final List<File> roots, final FileFilter filter, final FileListener listener) throws IOException {
-		this(roots, filter, listener, Time.DEFAULT, TimeUnit.SECONDS.toMillis(5));
+		this(roots, filter, listener, Time.DEFAULT, TimeUnit.SECONDS.toMillis(1),
+				ExecutorHelper.newExecutor(TreeWalker.DEFAULT_LISTER_THREADS, TreeWalker.DEFAULT_LISTER_THREADS, "treewalk", Thread.NORM_PRIORITY),
+				TreeWalker.DEFAULT_LISTER_THREADS);
 	}
 
+	/**
+	 * @param maxWaitMillis longest to block waiting for an event, which bounds how long shutdown() takes.
+	 * @param listers used by every TreeWalker, both for the prescan and for dirs found later.
+	 */
 	@SuppressWarnings("resource")
-	Watcher (final List<File> roots, final FileFilter filter, final FileListener listener, final Time time, final long pollIntervalMillis) throws IOException {
+	Watcher (final List<File> roots, final FileFilter filter, final FileListener listener, final Time time, final long maxWaitMillis,
+			final ExecutorService listers, final int listerThreads) throws IOException {
 		this.roots = roots;
 		this.filter = filter;
 		this.listener = listener;
 		this.time = time;
-		this.pollIntervalMillis = pollIntervalMillis;
+		this.maxWaitMillis = maxWaitMillis;
+		this.listers = listers;
+		this.listerThreads = listerThreads;
 		this.watchService = FileSystems.getDefault().newWatchService();
 	}
 
 	public void run () throws IOException {
 		try {
-			long totalFiles = 0L;
-			final long startTime = System.nanoTime();
-			for (final File root : this.roots) {
-				totalFiles += registerRecursive(root, root);
-			}
-			final long scanTime = System.nanoTime() - startTime;
-			LOG.info("Found {} media files in {} seconds.", totalFiles, TimeUnit.NANOSECONDS.toSeconds(scanTime));
+			prescan();
 
 			this.prescanComplete.countDown();
 			for (final Runnable l : this.onPrescanComplete) {
@@ -129,6 +146,16 @@ public class Watcher {
 		this.running = false;
 	}
 
+	void prescan () throws IOException {
+		long totalFiles = 0L;
+		final long startTime = System.nanoTime();
+		for (final File root : this.roots) {
+			totalFiles += registerRecursive(root, root);
+		}
+		final long scanTime = System.nanoTime() - startTime;
+		LOG.info("Found {} media files in {} seconds.", totalFiles, TimeUnit.NANOSECONDS.toSeconds(scanTime));
+	}
+
 	protected void register (final File rootDir, final Path dir) throws IOException {
 		if (!Files.isReadable(dir)) {
 			LOG.debug("Waiting for access to register: {}", dir);
@@ -142,51 +169,41 @@ public class Watcher {
 				StandardWatchEventKinds.ENTRY_MODIFY,
 				StandardWatchEventKinds.ENTRY_DELETE);
 		this.watchKeys.put(watchKey, dir);
+		this.watchPaths.put(dir, watchKey);
 		this.watchKeyRoots.put(watchKey, rootDir);
 		LOG.debug("Register complete: {}", dir);
 	}
 
+	private void unregister (final Path dir, final WatchKey key) {
+		this.watchKeys.remove(key);
+		this.watchPaths.remove(dir, key);
+		this.watchKeyRoots.remove(key);
+	}
+
 	/**
 	 * Returns number of files found during initial scan.
 	 */
 	private long registerRecursive (final File rootDir, final File dir) throws IOException {
 		if (!dir.exists()) throw new FileNotFoundException("Unable to watch dir '" + dir + "' as it does not exist.");
 		final RegisterRecursiveHiker hiker = new RegisterRecursiveHiker(this, rootDir);
-		new TreeWalker(dir, this.filter, hiker).walk();
+		new TreeWalker(Collections.singletonList(dir), this.filter, hiker, this.listers, this.listerThreads).walk();
 		return hiker.getTotalFiles();
 	}
 
 	private void watch () {
 		while (this.running) {
-			WaitingFile modFile;
-			while ((modFile = this.waitingFiles.poll()) != null) {
-				if (modFile.isReady()) {
-					try {
-						readReadyPath(modFile.getEventKind(), modFile.getPath(), modFile.getFile().isDirectory(), modFile.getRootDir());
-					}
-					catch (final Exception e) {
-						LOG.warn("Failed to process waiting file that should have been ready: {} {}: {}",
-								modFile.getEventKind().name(), modFile.getFile().getAbsolutePath(), e);
-					}
-				}
-				else if (modFile.exists()) {
-					LOG.info("File not ready: {}", modFile.getFile());
-					this.waitingFiles.add(modFile.renew());
-				}
-			}
+			readyWaitingFiles();
 
-			final WatchKey key = this.watchService.poll();
-			if (key == null) {
-				try {
-					TimeUnit.MILLISECONDS.sleep(this.pollIntervalMillis);
-				}
-				catch (final InterruptedException e) {
-					LOG.debug("Interrupted, terminating watcher...");
-					this.running = false;
-					return;
-				}
-				continue;
+			final WatchKey key;
+			try {
+				key = this.watchService.poll(nextWaitMillis(), TimeUnit.MILLISECONDS);
 			}
+			catch (final InterruptedException e) {
+				LOG.debug("Interrupted, terminating watcher...");
+				this.running = false;
+				return;
+			}
+			if (key == null) continue;
 
 			final Path dir = this.watchKeys.get(key);
 			if (dir == null) {
@@ -209,8 +226,7 @@ public class Watcher {
 
 			if (!key.reset()) {
 				LOG.info("WatchKey no longer valid: {}", dir);
-				this.watchKeys.remove(key);
-				this.watchKeyRoots.remove(key);
+				unregister(dir, key);
 				if (this.watchKeys.isEmpty()) {
 					this.running = false;
 					return;
@@ -219,10 +235,42 @@ public class Watcher {
 		}
 	}
 
-	private void readWatchKey (final File rootDir, final Path dir, final WatchKey key) throws IOException {
+	private void readyWaitingFiles() {
+		WaitingFile modFile;
+		while ((modFile = this.waitingFiles.poll()) != null) {
+			if (modFile.isReady()) {
+				try {
+					readReadyPath(modFile.getEventKind(), modFile.getPath(), modFile.getFile().isDirectory(), modFile.getRootDir());
+				}
+				catch (final Exception e) {
+					LOG.warn("Failed to process waiting file that should have been ready: {} {}: {}",
+							modFile.getEventKind().name(), modFile.getFile().getAbsolutePath(), e);
+				}
+			}
+			else if (modFile.exists()) {
+				LOG.info("File not ready: {}", modFile.getFile());
+				this.waitingFiles.add(modFile.renew());
+			}
+		}
+	}
+
+	/**
+	 * Block until the next waiting file is due, or maxWaitMillis at most.
+	 */
+	private long nextWaitMillis() {
+		final WaitingFile next = this.waitingFiles.peek();
+		if (next == null) return this.maxWaitMillis;
+		return Math.max(1L, Math.min(next.getDelay(TimeUnit.MILLISECONDS), this.maxWaitMillis));
+	}
+
+	/**
+	 * Only call from the thread that runs the Watcher.
+	 */
+	void readWatchKey (final File rootDir, final Path dir, final WatchKey key) throws IOException {
+		boolean overflow = false;
 		for (final WatchEvent<?> event : key.pollEvents()) {
 			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
-				LOG.warn("Overflow WatchEvent!");
+				overflow = true;  // Not a file event, so not counted in watchEvents.
 				continue;
 			}
 
@@ -231,8 +279,7 @@ public class Watcher {
 			LOG.debug("Event: {} {}", ev.kind().name(), path);
 
 			// Files.isDirectory() will return false for deleted dirs.
-			// containsValue() is a linear search.
-			final boolean isDir = Files.isDirectory(path) || this.watchKeys.containsValue(path);
+			final boolean isDir = Files.isDirectory(path) || this.watchPaths.containsKey(path);
 
 			// TODO ignore . files
 			if (!isDir && !this.filter.accept(path.toFile())) {
@@ -265,6 +312,43 @@ public class Watcher {
 
 			this.watchEvents.incrementAndGet();
 		}
+
+		if (overflow) rescanDir(rootDir, dir);
+	}
+
+	/**
+	 * Some events for dir were lost, so work out what changed from what is there now.
+	 * Files are passed to the listener again, which should ignore any it already has.
+	 */
+	private void rescanDir (final File rootDir, final Path dir) throws IOException {
+		LOG.warn("Events lost, rescanning: {}", dir);
+		final File[] children = dir.toFile().listFiles();
+		if (children == null) return;  // Gone or unreadable, the WatchKey will no longer be valid.
+		Arrays.sort(children, NameFileComparator.NAME_INSENSITIVE_COMPARATOR);
+
+		final List<File> files = new ArrayList<>();
+		for (final File child : children) {
+			if (child.getName().startsWith(".")) continue;
+			if (child.isDirectory()) {
+				if (!this.watchPaths.containsKey(child.toPath())) registerRecursive(rootDir, child);
+			}
+			else if (child.isFile() && this.filter.accept(child)) {
+				files.add(child);
+			}
+		}
+		initialScanFiles(files, rootDir);
+
+		for (final Map.Entry<Path, WatchKey> e : new ArrayList<>(this.watchPaths.entrySet())) {
+			final Path p = e.getKey();
+			if (dir.equals(p.getParent()) && !Files.exists(p)) {
+				// Forget it now so a later rescan does not report it gone again.
+				e.getValue().cancel();
+				unregister(p, e.getValue());
+				callListener(StandardWatchEventKinds.ENTRY_DELETE, p.toFile(), true, rootDir, EventType.NOTIFY);
+			}
+		}
+
+		this.listener.dirRescanned(dir.toFile(), files);
 	}
 
 	private void readReadyPath(final Kind<Path> kind, final Path path, boolean isDir, final File rootDir) throws IOException {
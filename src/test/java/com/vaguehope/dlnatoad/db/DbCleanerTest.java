@@ -8,6 +8,8 @@ import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -63,6 +65,24 @@ public class DbCleanerTest {
 		assertFalse(getFileData(f3).isMissing());
 	}
 
+	@Test
+	public void itSweepsMoreFilesThanFitInOneBatch() throws Exception {
+		final List<File> files = new ArrayList<>();
+		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
+			for (int i = 0; i < 450; i++) {
+				final File f = new File(this.tmp.getRoot(), String.format("gone%03d.wav", i));
+				w.storeFileData(f, new FileData(12, 123456, "hash" + i, "md5" + i, "mime/type", "id" + i, BigInteger.ZERO, false));
+				files.add(f);
+			}
+		}
+
+		this.undertest.cleanDb();
+
+		for (final File f : files) {
+			assertTrue(getFileData(f).isMissing());
+		}
+	}
+
 	private FileData getFileData(final File f) throws IOException, SQLException {
 		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
 			return w.readFileData(f);
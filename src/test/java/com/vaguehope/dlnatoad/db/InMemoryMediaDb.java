@@ -3,6 +3,10 @@ package com.vaguehope.dlnatoad.db;
 import java.sql.SQLException;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Connections share one DB via the shared cache, which locks whole tables and has no WAL.
+ * Only use for tests that never read while a write transaction is open, else use a temp file MediaDb.
+ */
 public class InMemoryMediaDb extends MediaDb {
 
 	public InMemoryMediaDb() throws SQLException {
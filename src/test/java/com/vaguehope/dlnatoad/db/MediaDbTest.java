@@ -11,8 +11,11 @@ import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -41,6 +44,22 @@ public class MediaDbTest {
 		this.undertest.getWritable().close();
 	}
 
+	/**
+	 * Needs a file backed DB: WAL does not apply to InMemoryMediaDb, where the reader would get SQLITE_LOCKED.
+	 */
+	@Test
+	public void itReadsWhileAWriteIsInProgress() throws Exception {
+		final MediaDb db = new MediaDb(this.tmp.newFile("wal.db3"));
+		final File file = new File("/media/foo.wav");
+		final FileData expected = new FileData(12, 123456, "myhash", "mymd5", "mime/type", "fileId", BigInteger.ZERO, false);
+		try (final WritableMediaDb w = db.getWritable()) {
+			w.storeFileData(file, expected);
+			assertTrue(new File(this.tmp.getRoot(), "wal.db3-wal").exists());
+			assertEquals(null, db.getFileData(file));
+		}
+		assertEquals(expected, db.getFileData(file));
+	}
+
 	@Test
 	public void itStoresFileData() throws Exception {
 		final File file = new File("/media/foo.wav");
@@ -95,6 +114,65 @@ public class MediaDbTest {
 				new Tag("my-tag", "", 1234567890L, false)));
 	}
 
+	@Test
+	public void itGetsTagsForManyFilesAtOnce() throws Exception {
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.storeFileData(new File("/media/a.wav"), new FileData(12, 123456, "hasha", "md5a", "mime/type", "ida", BigInteger.ZERO, false));
+			w.storeFileData(new File("/media/b.wav"), new FileData(12, 123456, "hashb", "md5b", "mime/type", "idb", BigInteger.ZERO, false));
+			assertTrue(w.addTag("ida", "tag-a", "", 1234567890L));
+			assertTrue(w.addTag("idb", "tag-b", "", 1234567891L));
+			assertTrue(w.addTag("idb", "hidden", ".hidden", 1234567892L));
+		}
+
+		final Map<String, Collection<Tag>> actual = this.undertest.getTags(Arrays.asList("idb", "ida", "idc"), false, false);
+		assertThat(actual.keySet(), contains("idb", "ida", "idc"));
+		assertThat(actual.get("ida"), contains(new Tag("tag-a", "", 1234567890L, false)));
+		assertThat(actual.get("idb"), contains(new Tag("tag-b", "", 1234567891L, false)));
+		assertThat(actual.get("idc"), hasSize(0));
+	}
+
+	@Test
+	public void itAddsAndRemovesATagForManyFiles() throws Exception {
+		final List<String> ids = Arrays.asList("ida", "idb");
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.storeFileData(new File("/media/a.wav"), new FileData(12, 123456, "hasha", "md5a", "mime/type", "ida", BigInteger.ZERO, false));
+			w.storeFileData(new File("/media/b.wav"), new FileData(12, 123456, "hashb", "md5b", "mime/type", "idb", BigInteger.ZERO, false));
+			assertTrue(w.addTag("ida", "my-tag", "", 1234567890L));
+			assertEquals(1, w.addTag(ids, "my-tag", "", 1234567891L));
+		}
+		assertThat(this.undertest.getTags("ida", true, true), contains(new Tag("my-tag", 1234567890L, false)));
+		assertThat(this.undertest.getTags("idb", true, true), contains(new Tag("my-tag", 1234567891L, false)));
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.setTagModifiedAndDeleted(ids, "my-tag", "", true, 1234567892L);
+		}
+		assertThat(this.undertest.getTags("ida", true, true), contains(new Tag("my-tag", 1234567892L, true)));
+		assertThat(this.undertest.getTags("idb", true, true), contains(new Tag("my-tag", 1234567892L, true)));
+	}
+
+	@Test
+	public void itAddsATagToHundredsOfFilesInOneCall() throws Exception {
+		final List<String> ids = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			ids.add("id" + i);
+		}
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			for (int i = 0; i < ids.size(); i += 3) {
+				assertTrue(w.mergeTag(ids.get(i), "my-tag", "", 1234567890L, true));
+				assertTrue(w.addTag(ids.get(i + 1), "my-tag", "", 1234567890L));
+			}
+			final List<String> withDuplicate = new ArrayList<>(ids);
+			withDuplicate.add(ids.get(2));
+			assertEquals(200, w.addTag(withDuplicate, "my-tag", "", 1234567891L));
+		}
+
+		final Map<String, Collection<Tag>> actual = this.undertest.getTags(ids, true, true);
+		for (int i = 0; i < ids.size(); i++) {
+			final long expectedModified = i % 3 == 1 ? 1234567890L : 1234567891L;
+			assertThat(ids.get(i), actual.get(ids.get(i)), contains(new Tag("my-tag", expectedModified, false)));
+		}
+	}
+
 	@Test
 	public void itAddsAndReadsAndRemovesATag() throws Exception {
 		final String fileId = "myid";
@@ -255,6 +333,25 @@ public class MediaDbTest {
 		assertTrue(getFileData(file).isMissing());
 	}
 
+	@Test
+	public void itMarksFilesUnderADirAsMissing() throws Exception {
+		final File inDir = new File("/media/dir/foo.wav");
+		final File inSubDir = new File("/media/dir/sub/bar.wav");
+		final File similarName = new File("/media/dir2/foo.wav");
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.storeFileData(inDir, new FileData(12, 123456, "hash1", "md51", "mime/type", "id1", BigInteger.ZERO, false));
+			w.storeFileData(inSubDir, new FileData(12, 123456, "hash2", "md52", "mime/type", "id2", BigInteger.ZERO, false));
+			w.storeFileData(similarName, new FileData(12, 123456, "hash3", "md53", "mime/type", "id3", BigInteger.ZERO, false));
+		}
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			assertEquals(2, w.setFilesUnderDirMissing(new File("/media/dir").getAbsolutePath()));
+		}
+		assertTrue(getFileData(inDir).isMissing());
+		assertTrue(getFileData(inSubDir).isMissing());
+		assertFalse(getFileData(similarName).isMissing());
+	}
+
 	@Test
 	public void itInsertsInfos() throws Exception {
 		final List<FileIdAndInfo> infos = ImmutableList.of(
@@ -268,6 +365,23 @@ public class MediaDbTest {
 		assertEquals(new FileInfo(0, 2000, 1000), this.undertest.readInfoCheckingFileSize("id1", 0));
 	}
 
+	@Test
+	public void itReadsAllInfos() throws Exception {
+		final List<FileIdAndInfo> infos = ImmutableList.of(
+				new FileIdAndInfo("id1", new File("/media/foo.jpg"), new FileInfo(0, 2000, 1000)),
+				new FileIdAndInfo("id2", new File("/media/bar.mp4"), new FileInfo(123456, 640, 480))
+				);
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.storeInfos(infos);
+		}
+
+		final Map<String, StoredFileInfo> all = this.undertest.readAllInfos();
+		assertEquals(2, all.size());
+		assertEquals(0, all.get("id1").getSize());
+		assertEquals(new FileInfo(0, 2000, 1000), all.get("id1").getInfo());
+		assertEquals(new FileInfo(123456, 640, 480), all.get("id2").getInfo());
+	}
+
 	@Test
 	public void itInsertsInfosWithSameIdTwiceIn1Batch() throws Exception {
 		final List<FileIdAndInfo> infos = ImmutableList.of(
@@ -1,6 +1,7 @@
 package com.vaguehope.dlnatoad.db;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
@@ -21,7 +22,11 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.charset.Charset;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -35,6 +40,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.vaguehope.dlnatoad.media.MediaIdCallback;
 import com.vaguehope.dlnatoad.media.StoringMediaIdCallback;
 
 public class MediaMetadataStoreTest {
@@ -123,6 +129,49 @@ public class MediaMetadataStoreTest {
 				callIdForFile(f2));
 	}
 
+	@Test
+	public void itWritesInQueueOrderWhenALaterFileFinishesHashingFirst() throws Exception {
+		final List<Runnable> hashTasks = new ArrayList<>();
+		final ExecutorService hashEx = mock(ExecutorService.class);
+		doAnswer(inv -> hashTasks.add(inv.getArgument(0, Runnable.class))).when(hashEx).execute(any(Runnable.class));
+		final MediaMetadataStore store = new MediaMetadataStore(this.undertest.getMediaDb(), this.schEx, hashEx, true);
+
+		final List<String> written = new ArrayList<>();
+		final File slow = mockMediaFile("media-slow.ext");
+		final File fast = mockMediaFile("media-fast.ext");
+		store.idForFile(slow, BigInteger.ZERO, new RecordingCallback("slow", written));
+		store.idForFile(fast, BigInteger.ZERO, new RecordingCallback("fast", written));
+		assertEquals(2, hashTasks.size());
+
+		hashTasks.get(1).run();
+		assertThat(written, empty());  // Waits for the file ahead of it.
+
+		hashTasks.get(0).run();
+		assertEquals(Arrays.asList("slow", "fast"), written);
+		assertNotNull(store.getMediaDb().getFileData(slow));
+		assertNotNull(store.getMediaDb().getFileData(fast));
+	}
+
+	private static class RecordingCallback implements MediaIdCallback {
+		private final String name;
+		private final List<String> written;
+
+		RecordingCallback(final String name, final List<String> written) {
+			this.name = name;
+			this.written = written;
+		}
+
+		@Override
+		public void onResult(final String mediaId) {
+			this.written.add(this.name);
+		}
+
+		@Override
+		public void onError(final IOException e) {
+			this.written.add(this.name + " failed: " + e);
+		}
+	}
+
 	@Ignore("It is debatable if this test should pass or not.")
 	@Test
 	public void itStoresTheSameIdInTheFilesTableForIdenticalFiles() throws Exception {
@@ -24,6 +24,7 @@ import org.jupnp.support.model.item.Item;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 
+import com.vaguehope.dlnatoad.auth.AuthList;
 import com.vaguehope.dlnatoad.media.ContentItem;
 import com.vaguehope.dlnatoad.media.ContentNode;
 import com.vaguehope.dlnatoad.media.ContentTree;
@@ -176,6 +177,19 @@ public class ContentDirectoryServiceTest {
 		assertParserMarshaled(null, items.subList(0, 10));
 	}
 
+	@Test
+	public void itDoesNotListDirsWithAuthLists () throws Exception {
+		final List<ContentNode> dirs = new ArrayList<>(this.mockContent.givenMockDirs(1));
+		this.mockContent.addMockDir("dir restricted", mock(AuthList.class));
+		dirs.addAll(this.mockContent.givenMockDirs(1));
+		final List<ContentItem> items = this.mockContent.givenMockItems(1);
+
+		final BrowseResult ret = this.undertest.browse(this.contentTree.getRootNode().getId(), BrowseFlag.DIRECT_CHILDREN, null, 0, 10, null);
+
+		assertCorrectResult(ret, 3, 3);
+		assertParserMarshaled(dirs, items);
+	}
+
 	@Test
 	public void itSearchesUsingSearchEngine () throws Exception {
 		final List<ContentItem> items = this.mockContent.givenMockItems(10);
@@ -4,12 +4,13 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.net.URI;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
@@ -22,7 +23,6 @@ import org.jupnp.support.model.container.Container;
 import org.jupnp.support.model.item.AudioItem;
 import org.jupnp.support.model.item.Item;
 
-import com.vaguehope.dlnatoad.auth.AuthList;
 import com.vaguehope.dlnatoad.media.ContentItem;
 import com.vaguehope.dlnatoad.media.ContentNode;
 import com.vaguehope.dlnatoad.media.ExternalUrls;
@@ -68,17 +68,6 @@ public class NodeConverterTest {
 		assertThat(c.getItems(), hasSize(0));
 	}
 
-	@Test
-	public void itDoesNotMakeContainersWithAuthLists() throws Exception {
-		final ContentNode input = new ContentNode("id", "pid", "title", null);
-		input.addNodeIfAbsent(new ContentNode("0", "id", "0", null, null, mock(AuthList.class), null));
-		input.addNodeIfAbsent(new ContentNode("1", "id", "1", null));
-
-		final List<Container> actual = this.undertest.makeSubContainersWithoutTheirSubContainers(input);
-		assertEquals("1", actual.get(0).getId());
-		assertThat(actual, hasSize(1));
-	}
-
 	@Test
 	public void itMakesAnItem() throws Exception {
 		final File inputFile = mock(File.class);
@@ -138,4 +127,36 @@ public class NodeConverterTest {
 		assertEquals("album", albumProp.getValue());
 	}
 
+	@Test
+	public void itReusesItemsUntilTheyChange() throws Exception {
+		final File inputFile = mock(File.class);
+		when(inputFile.exists()).thenReturn(true);
+		when(inputFile.length()).thenReturn(123L);
+		final ContentItem input = new ContentItem("id", "pid", "title", inputFile, MediaFormat.MP3);
+
+		final Item first = this.undertest.makeItem(input);
+		assertSame(first, this.undertest.makeItem(input));
+
+		input.reload();
+		assertSame(first, this.undertest.makeItem(input));
+
+		when(inputFile.length()).thenReturn(456L);
+		input.reload();
+		final Item second = this.undertest.makeItem(input);
+		assertNotSame(first, second);
+		assertEquals(Long.valueOf(456L), second.getResources().get(0).getSize());
+	}
+
+	@Test
+	public void itRebuildsContainerWhenChildCountChanges() throws Exception {
+		final ContentNode input = new ContentNode("id", "pid", "title", null);
+		input.addItemIfAbsent(new ContentItem("1", "id", "1", null, MediaFormat.AAC));
+
+		final Container first = this.undertest.makeContainerWithoutSubContainers(input);
+		assertSame(first, this.undertest.makeContainerWithoutSubContainers(input));
+
+		input.addItemIfAbsent(new ContentItem("2", "id", "2", null, MediaFormat.AAC));
+		assertEquals(Integer.valueOf(2), this.undertest.makeContainerWithoutSubContainers(input).getChildCount());
+	}
+
 }
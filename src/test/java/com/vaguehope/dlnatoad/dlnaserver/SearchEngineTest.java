@@ -1,13 +1,16 @@
 package com.vaguehope.dlnatoad.dlnaserver;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasToString;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -88,6 +91,71 @@ public class SearchEngineTest {
 		assertEquals(Arrays.asList(openItems.get(3), protecItems.get(4)), protecRet);
 	}
 
+	@Test
+	public void itReusesResultsUntilTreeChanges () throws Exception {
+		final SearchEngine cachingEngine = new SearchEngine(this.contentTree);
+		this.mockContent.givenMockItems(MediaFormat.MP4, 10);
+
+		final List<ContentItem> first = cachingEngine.search(this.contentTree.getRootNode(), "dc:title contains \"item\"", 100, null);
+		final List<ContentItem> second = cachingEngine.search(this.contentTree.getRootNode(), "dc:title contains \"item\"", 100, null);
+		assertEquals(10, first.size());
+		assertSame(first, second);
+
+		final ContentItem added = this.mockContent.addMockItem("added", this.contentTree.getRootNode());
+		final List<ContentItem> third = cachingEngine.search(this.contentTree.getRootNode(), "dc:title contains \"item\"", 100, null);
+		assertEquals(11, third.size());
+		assertTrue(third.contains(added));
+	}
+
+	@Test
+	public void itSearchesUsingIndexWithinContainer () throws Exception {
+		final SearchEngine indexedEngine = new SearchEngine(this.contentTree);
+		final ContentNode dirA = this.mockContent.addMockDir("dir-a");
+		final ContentNode dirB = this.mockContent.addMockDir("dir-b");
+		final List<ContentItem> itemsA = this.mockContent.givenMockItems(MediaFormat.MP4, 5, dirA);
+		final List<ContentItem> itemsB = this.mockContent.givenMockItems(MediaFormat.MP3, 5, dirB);
+
+		final String criteria = "(upnp:class derivedfrom \"object.item.videoItem\" and dc:title contains \"" + itemsA.get(2).getId() + "\")";
+		assertEquals(itemsA.subList(2, 3), indexedEngine.search(this.contentTree.getRootNode(), criteria, 10, null));
+		assertEquals(Collections.emptyList(), indexedEngine.search(dirB, criteria, 10, null));
+
+		final List<ContentItem> audio = indexedEngine.search(this.contentTree.getRootNode(), "upnp:class derivedfrom \"object.item.audioItem\"", 10, null);
+		assertThat(audio, containsInAnyOrder(itemsB.toArray()));
+	}
+
+	@Test
+	public void itReturnsIndexedResultsInTreeOrder () throws Exception {
+		final ContentNode dirB = this.mockContent.addMockDir("dir-b");
+		final ContentNode dirA = this.mockContent.addMockDir("dir-a");
+		final ContentNode dirAA = this.mockContent.addMockDir("dir-aa", dirA);
+		final List<ContentItem> itemsB = this.mockContent.givenMockItems(MediaFormat.MP4, 3, dirB);
+		final List<ContentItem> itemsAA = this.mockContent.givenMockItems(MediaFormat.MP4, 3, dirAA);
+		final List<ContentItem> itemsA = this.mockContent.givenMockItems(MediaFormat.MP4, 3, dirA);
+
+		final List<ContentItem> expected = new ArrayList<>();
+		expected.addAll(itemsA);
+		expected.addAll(itemsAA);
+		expected.addAll(itemsB);
+		final String criteria = "dc:title contains \"item\"";
+		final ContentNode root = this.contentTree.getRootNode();
+		assertEquals(expected, new SearchEngine(this.contentTree).search(root, criteria, 10, null));
+		assertEquals(expected.subList(0, 4), new SearchEngine(this.contentTree).search(root, criteria, 4, null));
+		assertEquals(expected, this.undertest.search(root, criteria, 10, null));
+	}
+
+	@Test
+	public void itEnforcesAuthListsWhenUsingIndex () throws Exception {
+		final SearchEngine indexedEngine = new SearchEngine(this.contentTree);
+		final AuthList authlist = mock(AuthList.class);
+		when(authlist.hasUser("shork")).thenReturn(true);
+		final ContentNode protecDir = this.mockContent.addMockDir("dir-protec", authlist);
+		final List<ContentItem> protecItems = this.mockContent.givenMockItems(3, protecDir);
+
+		assertEquals(Collections.emptyList(), indexedEngine.search(this.contentTree.getRootNode(), "dc:title contains \"item\"", 10, null));
+		assertThat(indexedEngine.search(this.contentTree.getRootNode(), "dc:title contains \"item\"", 10, "shork"),
+				containsInAnyOrder(protecItems.toArray()));
+	}
+
 	@Test
 	public void itParsesVideoWithTitle () throws Exception {
 		final Predicate<ContentItem> p = SearchEngine.criteriaToPredicate("(upnp:class derivedfrom \"object.item.videoItem\" and dc:title contains \"daa\")");
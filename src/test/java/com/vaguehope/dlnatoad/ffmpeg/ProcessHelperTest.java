@@ -0,0 +1,44 @@
+package com.vaguehope.dlnatoad.ffmpeg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ProcessHelperTest {
+
+	@Test
+	public void itReturnsOutput() throws Exception {
+		assertEquals(Arrays.asList("hello"), ProcessHelper.runAndWait("echo", "hello"));
+	}
+
+	@Test
+	public void itKillsAProcessThatRunsPastItsTimeout() throws Exception {
+		final long startNanos = System.nanoTime();
+		try {
+			ProcessHelper.runAndWait(new String[] { "sleep", "30" }, (line) -> {}, 200);
+			fail("Expected timeout.");
+		}
+		catch (final IOException e) {
+			assertThat(e.getMessage(), containsString("timed out after 200ms"));
+		}
+		assertThat(System.nanoTime() - startNanos, lessThan(TimeUnit.SECONDS.toNanos(10)));
+	}
+
+	@Test
+	public void itDoesNotTimeOutAProcessThatFinishesInTime() throws Exception {
+		final List<String> lines = new ArrayList<>();
+		ProcessHelper.runAndWait(new String[] { "echo", "done" }, lines::add, TimeUnit.SECONDS.toMillis(30));
+		assertEquals(Arrays.asList("done"), lines);
+	}
+
+}
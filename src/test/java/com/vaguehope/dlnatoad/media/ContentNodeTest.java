@@ -2,7 +2,10 @@ package com.vaguehope.dlnatoad.media;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -52,6 +55,42 @@ public class ContentNodeTest {
 		assertThat(actual, contains("1", "2", "a", "B", "c"));
 	}
 
+	@Test
+	public void itReturnsPagesOfItems() throws Exception {
+		final ContentNode n = new ContentNode("id", ContentGroup.AUDIO.getId(), "title", new File(""), null, null, null);
+		for (int i = 0; i < 10; i++) {
+			n.addItemIfAbsent(new ContentItem("id" + i, n.getId(), "t" + i, null, null));
+		}
+
+		assertThat(titles(n.getCopyOfItems(null, 0, 3)), contains("t0", "t1", "t2"));
+		assertThat(titles(n.getCopyOfItems(null, 8, 5)), contains("t8", "t9"));
+		assertThat(titles(n.getCopyOfItems(null, 10, 5)), empty());
+		assertThat(titles(n.getCopyOfItems(ContentItem.Order.ID, 6, 2)), contains("t6", "t7"));
+	}
+
+	@Test
+	public void itRemovesItemsById() throws Exception {
+		final ContentNode n = new ContentNode("id", ContentGroup.AUDIO.getId(), "title", new File(""), null, null, null);
+		final ContentItem a = new ContentItem("a", n.getId(), "A", null, null);
+		final ContentItem b = new ContentItem("b", n.getId(), "B", null, null);
+		assertTrue(n.addItemIfAbsent(a));
+		assertTrue(n.addItemIfAbsent(b));
+		assertFalse(n.addItemIfAbsent(new ContentItem("a", n.getId(), "other", null, null)));
+
+		// Build a secondary order so it is also maintained.
+		n.getCopyOfItems(ContentItem.Order.ID, 0, 10);
+
+		assertTrue(n.removeItem(a));
+		assertFalse(n.hasItemWithId("a"));
+		assertEquals(1, n.getItemCount());
+		assertThat(titles(n.getCopyOfItems()), contains("B"));
+		assertThat(titles(n.getCopyOfItems(ContentItem.Order.ID, 0, 10)), contains("B"));
+	}
+
+	private static List<String> titles(final List<ContentItem> items) {
+		return items.stream().map(i -> i.getTitle()).collect(Collectors.toList());
+	}
+
 	@Ignore("Micro benchmark for checking performance of sort on insert.")
 	@Test
 	public void itAddsManyRandomItems() throws Exception {
@@ -0,0 +1,92 @@
+package com.vaguehope.dlnatoad.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaguehope.dlnatoad.media.MetadataReader.Metadata;
+
+public class ContentSearchIndexTest {
+
+	private ContentSearchIndex undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.undertest = new ContentSearchIndex();
+	}
+
+	@Test
+	public void itFindsByTitleSubstring() throws Exception {
+		final ContentItem a = item("a", "Some Song.mp3", MediaFormat.MP3);
+		final ContentItem b = item("b", "Other thing.mp4", MediaFormat.MP4);
+		this.undertest.add(a);
+		this.undertest.add(b);
+
+		assertThat(this.undertest.find(i -> i.titleContains("song")), contains(a));
+		assertThat(this.undertest.find(i -> i.titleContains("thing.")), contains(b));
+		assertThat(this.undertest.find(i -> i.titleContains("nope")), empty());
+		assertNull(this.undertest.find(i -> i.titleContains("so")));
+	}
+
+	@Test
+	public void itFindsByArtistAndGroup() throws Exception {
+		final ContentItem a = item("a", "a.mp3", MediaFormat.MP3);
+		a.setMetadata(new Metadata("The Artist", "Album"));
+		final ContentItem b = item("b", "b.mp4", MediaFormat.MP4);
+		this.undertest.add(a);
+		this.undertest.add(b);
+
+		assertThat(this.undertest.find(i -> i.artistContains("artist")), contains(a));
+		assertThat(this.undertest.find(i -> i.contentGroupIs(ContentGroup.VIDEO)), contains(b));
+	}
+
+	@Test
+	public void itForgetsRemovedItems() throws Exception {
+		final ContentItem a = item("a", "foo a.mp4", MediaFormat.MP4);
+		final ContentItem b = item("b", "foo b.mp4", MediaFormat.MP4);
+		this.undertest.add(a);
+		this.undertest.add(b);
+		this.undertest.remove(a);
+
+		assertThat(this.undertest.find(i -> i.titleContains("foo")), contains(b));
+		assertEquals(1, this.undertest.size());
+	}
+
+	@Test
+	public void itStillFindsItemsAfterCompacting() throws Exception {
+		final List<ContentItem> items = new ArrayList<>();
+		for (int x = 0; x < 3000; x++) {
+			final ContentItem i = item("id" + x, "foo " + x + ".mp4", MediaFormat.MP4);
+			items.add(i);
+			this.undertest.add(i);
+		}
+		for (int x = 0; x < 2999; x++) {
+			this.undertest.remove(items.get(x));
+		}
+
+		assertThat(this.undertest.find(i -> i.titleContains("foo")), contains(items.get(2999)));
+		assertEquals(1, this.undertest.size());
+	}
+
+	@Test
+	public void itIntersectsAndUnions() throws Exception {
+		assertArrayEquals(new int[] { 2, 5 }, ContentSearchIndex.intersect(new int[] { 1, 2, 5, 7 }, new int[] { 2, 3, 5 }));
+		assertArrayEquals(new int[] { 1, 2, 3, 5, 7 }, ContentSearchIndex.union(new int[] { 1, 2, 5, 7 }, new int[] { 2, 3, 5 }));
+		assertArrayEquals(new int[0], ContentSearchIndex.intersect(new int[] { 1 }, new int[0]));
+	}
+
+	private static ContentItem item(final String id, final String title, final MediaFormat format) {
+		return new ContentItem(id, "0", title, new File("/media/" + title), format, 0L, 0L);
+	}
+
+}
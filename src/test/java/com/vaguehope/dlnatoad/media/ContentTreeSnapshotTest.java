@@ -0,0 +1,122 @@
+package com.vaguehope.dlnatoad.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vaguehope.dlnatoad.media.MediaIndex.HierarchyMode;
+
+public class ContentTreeSnapshotTest {
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File snapshotFile;
+	private List<File> roots;
+	private ContentTree contentTree;
+	private MockContent mockContent;
+
+	@Before
+	public void before() throws Exception {
+		this.snapshotFile = new File(this.tmp.newFolder("snapshot"), "tree");
+		this.roots = Collections.singletonList(this.tmp.getRoot());
+		this.contentTree = new ContentTree();
+		this.mockContent = new MockContent(this.contentTree, this.tmp);
+	}
+
+	@Test
+	public void itRoundTripsNodesAndItems() throws Exception {
+		final ContentNode dir = this.mockContent.addMockDir("dir");
+		final List<ContentItem> items = this.mockContent.givenMockItems(3, dir);
+		items.get(0).setDurationMillis(1234L);
+		items.get(1).setWidthAndHeight(640, 480);
+		snapshot(this.contentTree).save();
+
+		final ContentTree loaded = new ContentTree();
+		assertTrue(snapshot(loaded).load());
+
+		final ContentNode loadedDir = loaded.getNode(dir.getId());
+		assertEquals(dir.getFile(), loadedDir.getFile());
+		assertThat(MockContent.contentIds(loadedDir.getCopyOfItems()),
+				containsInAnyOrder(MockContent.contentIds(items).toArray()));
+		assertEquals(1234L, loaded.getItem(items.get(0).getId()).getDurationMillis());
+		assertEquals(640, loaded.getItem(items.get(1).getId()).getWidth());
+		assertEquals(items.get(2).getFileLength(), loaded.getItem(items.get(2).getId()).getFileLength());
+	}
+
+	@Test
+	public void itIgnoresSnapshotForDifferentRoots() throws Exception {
+		this.mockContent.givenMockItems(2);
+		snapshot(this.contentTree).save();
+
+		final ContentTree loaded = new ContentTree();
+		final ContentTreeSnapshot other = new ContentTreeSnapshot(this.snapshotFile, loaded, HierarchyMode.PRESERVE,
+				Collections.singletonList(this.tmp.newFolder("other")));
+		assertFalse(other.load());
+		assertThat(loaded.getItems(), hasSize(0));
+	}
+
+	@Test
+	public void itRemovesFilesDeletedSinceSave() throws Exception {
+		final ContentNode dir = this.mockContent.addMockDir("dir");
+		final List<ContentItem> items = this.mockContent.givenMockItems(2, dir);
+		snapshot(this.contentTree).save();
+		assertTrue(items.get(0).getFile().delete());
+
+		final ContentTree loaded = new ContentTree();
+		final ContentTreeSnapshot s = snapshot(loaded);
+		assertTrue(s.load());
+		s.removeMissing();
+
+		assertNull(loaded.getItem(items.get(0).getId()));
+		assertEquals(items.get(1).getId(), loaded.getItem(items.get(1).getId()).getId());
+	}
+
+	@Test
+	public void itKeepsTheDirOfAFileWhoseIdChangedSinceSave() throws Exception {
+		final File dir = this.tmp.newFolder("dir");
+		final File file = new File(dir, "a.mkv");
+		FileUtils.writeStringToFile(file, "video", "UTF-8");
+		final ContentTree saved = new ContentTree();
+		new MediaIndex(saved, HierarchyMode.PRESERVE, new MediaId(null), new MediaInfo()).fileFound(this.tmp.getRoot(), file, null, null);
+		final ContentItem oldItem = saved.getItemsForFile(file).get(0);
+		snapshot(saved).save();
+
+		final ContentTree loaded = new ContentTree();
+		assertTrue(snapshot(loaded).load());
+		final MediaId newIds = new MediaId(null) {
+			@Override
+			public void contentIdAsync(final ContentGroup type, final File f, final BigInteger auth, final MediaIdCallback callback) throws IOException {
+				callback.onResult("new-id");
+			}
+		};
+		new MediaIndex(loaded, HierarchyMode.PRESERVE, newIds, new MediaInfo()).fileFound(this.tmp.getRoot(), file, null, null);
+
+		assertNull(loaded.getItem(oldItem.getId()));
+		final ContentItem newItem = loaded.getItem("new-id");
+		final ContentNode dirNode = loaded.getNode(newItem.getParentId());
+		assertEquals(oldItem.getParentId(), dirNode.getId());
+		assertThat(MockContent.contentIds(dirNode.getCopyOfItems()), containsInAnyOrder("new-id"));
+		assertTrue(loaded.getNode(dirNode.getParentId()).hasNodeWithId(dirNode.getId()));
+	}
+
+	private ContentTreeSnapshot snapshot(final ContentTree tree) {
+		return new ContentTreeSnapshot(this.snapshotFile, tree, HierarchyMode.PRESERVE, this.roots);
+	}
+
+}
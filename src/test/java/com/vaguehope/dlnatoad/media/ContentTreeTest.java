@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -84,6 +85,32 @@ public class ContentTreeTest {
 		assertThat(this.undertest.getItems(), not(hasItem(b)));
 	}
 
+	@Test
+	public void itRemovesEverythingUnderARemovedDir() throws Exception {
+		final ContentNode aa = this.mockContent.addMockDir("aa");
+		final ContentItem a = this.mockContent.addMockItem("a", aa);
+
+		// Like flattern mode, where a sub dir is not a child of its parent dir's node.
+		final File bbDir = new File(aa.getFile(), "bb");
+		final ContentNode bb = new ContentNode("bb", this.undertest.getRootNode().getId(), "bb", bbDir, null, null, null);
+		this.undertest.addNode(bb);
+		this.undertest.getRootNode().addNodeIfAbsent(bb);
+		final ContentItem b = this.mockContent.addMockItem("b", bb);
+
+		final ContentNode cc = this.mockContent.addMockDir("cc");
+		final ContentItem c = this.mockContent.addMockItem("c", cc);
+
+		this.undertest.removeFile(aa.getFile());
+		assertThat(this.undertest.getNodes(), not(hasItem(aa)));
+		assertThat(this.undertest.getNodes(), not(hasItem(bb)));
+		assertThat(this.undertest.getItems(), not(hasItem(a)));
+		assertThat(this.undertest.getItems(), not(hasItem(b)));
+		assertThat(this.undertest.getRecent(), not(hasItem(b)));
+
+		assertThat(this.undertest.getNodes(), hasItem(cc));
+		assertThat(this.undertest.getItems(), hasItem(c));
+	}
+
 	@Test
 	public void itGetsNodeByPath() throws Exception {
 		final ContentNode a = this.mockContent.addMockDir("aa");
@@ -221,16 +248,31 @@ public class ContentTreeTest {
 		assertThat(this.undertest.getRecent(), hasSize(0));
 	}
 
+	@Test
+	public void itReordersRecentWhenAnItemIsReloadedWithANewerModifiedTime() throws Exception {
+		final List<ContentItem> items = this.mockContent.givenMockItems(3, f -> f.setLastModified(idNumber(f) * 1000L));
+		assertEquals(Arrays.asList("id2", "id1", "id0"), itemIds(this.undertest.getRecent()));
+
+		items.get(0).getFile().setLastModified(10000L);
+		this.undertest.reloadItem(items.get(0));
+
+		assertEquals(Arrays.asList("id0", "id2", "id1"), itemIds(this.undertest.getRecent()));
+		assertEquals(10000L, this.undertest.getRecent().iterator().next().getLastModified());
+	}
+
 	private static Consumer<File> sequentialTimeStamps() {
 		return new Consumer<>() {
 			@Override
 			public void accept(final File f) {
-				final int n = Integer.parseInt(f.getName().substring(0, f.getName().indexOf(".")).replace("id", ""));
-				when(f.lastModified()).thenReturn(n * 1000L);
+				when(f.lastModified()).thenReturn(idNumber(f) * 1000L);
 			}
 		};
 	}
 
+	private static int idNumber(final File f) {
+		return Integer.parseInt(f.getName().substring(0, f.getName().indexOf(".")).replace("id", ""));
+	}
+
 	private static List<String> itemIds(final Collection<ContentItem> items) {
 		return items.stream().map(i -> i.getId()).collect(Collectors.toList());
 	}
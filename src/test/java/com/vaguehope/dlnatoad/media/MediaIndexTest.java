@@ -138,6 +138,19 @@ public class MediaIndexTest {
 		verify(this.mediaId).fileGoneAsync(file);
 	}
 
+	@Test
+	public void itRemovesFilesMissingFromARescannedDir() throws Exception {
+		final File gone = mockFile("gone.mkv");
+		final File kept = mockFile("kept.mkv");
+		this.undertest.fileFound(this.tmp.getRoot(), gone, null, null);
+		this.undertest.fileFound(this.tmp.getRoot(), kept, null, null);
+		waitForEmptyQueue();
+
+		this.undertest.dirRescanned(this.tmp.getRoot(), Arrays.asList(kept));
+		assertEquals(Arrays.asList(kept), this.contentTree.getItemFilesInDir(this.tmp.getRoot()));
+		verify(this.mediaId).fileGoneAsync(gone);
+	}
+
 	@Test
 	public void itSeparatesMediaType() throws Exception {
 		final List<File> expectedVideos = mockFiles(3, ".mkv");
@@ -0,0 +1,204 @@
+package com.vaguehope.dlnatoad.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vaguehope.dlnatoad.db.FileInfo;
+import com.vaguehope.dlnatoad.db.MediaMetadataStore;
+import com.vaguehope.dlnatoad.db.StoredFileInfo;
+import com.vaguehope.dlnatoad.ffmpeg.FfprobeInfo;
+import com.vaguehope.dlnatoad.util.ExecutorHelper;
+
+public class MediaInfoTest {
+
+	private static final int MAX_WORKERS = 4;
+	private static final long TIMEOUT_MILLIS = 10000L;
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	private MediaMetadataStore mediaMetadataStore;
+	private ExecutorService exSvc;
+
+	private final AtomicInteger probeCount = new AtomicInteger();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger maxRunning = new AtomicInteger();
+	private volatile CountDownLatch blockProbes = new CountDownLatch(0);
+
+	private MediaInfo undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.mediaMetadataStore = mock(MediaMetadataStore.class);
+		this.exSvc = ExecutorHelper.newExecutor(MAX_WORKERS, MAX_WORKERS, "mi-test", Thread.NORM_PRIORITY);
+		final BooleanSupplier neverOverloaded = () -> false;
+		this.undertest = new MediaInfo(this.mediaMetadataStore, null, this.exSvc, MAX_WORKERS, this::fakeProbe, neverOverloaded);
+	}
+
+	@After
+	public void after() throws Exception {
+		this.blockProbes.countDown();
+		this.exSvc.shutdownNow();
+	}
+
+	private FfprobeInfo fakeProbe(final File file) {
+		this.probeCount.incrementAndGet();
+		final int now = this.running.incrementAndGet();
+		this.maxRunning.accumulateAndGet(now, Math::max);
+		try {
+			Thread.sleep(20);
+			this.blockProbes.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			this.running.decrementAndGet();
+		}
+		return new FfprobeInfo(Collections.emptySet(), Collections.emptySet(), 1234L, 640, 480);
+	}
+
+	@Test
+	public void itRunsSeveralProbesAtOnceOnceTheLimitHasGrown() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			queue(makeItem("warmup-" + i));
+		}
+		waitFor(() -> this.probeCount.get() == 10 && this.running.get() == 0);
+
+		this.blockProbes = new CountDownLatch(1);
+		this.maxRunning.set(0);
+		for (int i = 0; i < MAX_WORKERS; i++) {
+			queue(makeItem("blocked-" + i));
+		}
+		waitFor(() -> this.running.get() >= 2);
+		this.blockProbes.countDown();
+
+		assertThat(this.maxRunning.get(), greaterThanOrEqualTo(2));
+	}
+
+	@Test
+	public void itJoinsASecondRequestForTheSameIdToTheQueuedJob() throws Exception {
+		this.blockProbes = new CountDownLatch(1);
+		final ContentItem first = makeItem("same-id");
+		final ContentItem second = new ContentItem("same-id", "0", "copy", this.tmp.newFile("copy.avi"), MediaFormat.AVI);
+
+		queue(first);
+		waitFor(() -> this.running.get() == 1);
+		queue(second);
+		this.blockProbes.countDown();
+
+		waitFor(() -> first.getDurationMillis() > 0 && second.getDurationMillis() > 0);
+		assertEquals(1, this.probeCount.get());
+		assertEquals(1234L, second.getDurationMillis());
+		assertEquals(640, second.getWidth());
+	}
+
+	@Test
+	public void itUsesAPreloadedInfoIfTheSizeStillMatches() throws Exception {
+		final ContentItem item = makeItem("id-1", 10);
+		preload("id-1", new StoredFileInfo(10, new FileInfo(5000, 320, 240)));
+
+		queue(item);
+
+		assertEquals(5000L, item.getDurationMillis());
+		assertEquals(320, item.getWidth());
+		assertEquals(0, this.probeCount.get());
+		verify(this.mediaMetadataStore, never()).readFileInfo(anyString(), any(File.class));
+	}
+
+	@Test
+	public void itProbesWithoutAskingTheDbAgainIfThePreloadedSizeDoesNotMatch() throws Exception {
+		final ContentItem item = makeItem("id-1", 10);
+		preload("id-1", new StoredFileInfo(99, new FileInfo(5000, 320, 240)));
+
+		queue(item);
+
+		waitFor(() -> item.getDurationMillis() > 0);
+		assertEquals(1234L, item.getDurationMillis());
+		assertEquals(1, this.probeCount.get());
+		verify(this.mediaMetadataStore, never()).readFileInfo(anyString(), any(File.class));
+	}
+
+	@Test
+	public void itUsesAPreloadedInfoForEveryFileWithTheSameId() throws Exception {
+		final ContentItem first = makeItem("same-id", 10);
+		final File copyFile = new File(this.tmp.getRoot(), "copy.avi");
+		FileUtils.writeByteArrayToFile(copyFile, new byte[10]);
+		final ContentItem second = new ContentItem("same-id", "0", "copy", copyFile, MediaFormat.AVI);
+		preload("same-id", new StoredFileInfo(10, new FileInfo(5000, 320, 240)));
+
+		queue(first);
+		queue(second);
+
+		assertEquals(5000L, first.getDurationMillis());
+		assertEquals(5000L, second.getDurationMillis());
+		assertEquals(0, this.probeCount.get());
+	}
+
+	@Test
+	public void itAsksTheDbForAnIdThatWasNotPreloaded() throws Exception {
+		final ContentItem item = makeItem("new-id", 10);
+		preload("other-id", new StoredFileInfo(10, new FileInfo(5000, 320, 240)));
+
+		queue(item);
+
+		waitFor(() -> item.getDurationMillis() > 0);
+		verify(this.mediaMetadataStore).readFileInfo(eq("new-id"), any(File.class));
+	}
+
+	private void preload(final String id, final StoredFileInfo info) throws Exception {
+		final Map<String, StoredFileInfo> all = new HashMap<>();
+		all.put(id, info);
+		when(this.mediaMetadataStore.readAllFileInfos()).thenReturn(all);
+		this.undertest.preloadStoredInfos();
+	}
+
+	private void queue(final ContentItem item) {
+		this.undertest.readInfoAsync(item.getFile(), item);
+	}
+
+	private ContentItem makeItem(final String id) throws Exception {
+		final File f = this.tmp.newFile(id + ".avi");  // Not a format HeaderProbe reads, so always goes to the fake ffprobe.
+		return new ContentItem(id, "0", id, f, MediaFormat.AVI);
+	}
+
+	private ContentItem makeItem(final String id, final int length) throws Exception {
+		final ContentItem item = makeItem(id);
+		FileUtils.writeByteArrayToFile(item.getFile(), new byte[length]);
+		return item;
+	}
+
+	private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+		while (!condition.getAsBoolean()) {
+			assertTrue("Timed out waiting.", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+}
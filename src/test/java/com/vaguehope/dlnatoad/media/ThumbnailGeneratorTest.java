@@ -0,0 +1,149 @@
+package com.vaguehope.dlnatoad.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vaguehope.dlnatoad.util.DaemonThreadFactory;
+import com.vaguehope.dlnatoad.util.ImageResizer;
+
+public class ThumbnailGeneratorTest {
+
+	private static final long TIMEOUT_MILLIS = 10000L;
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final List<String> generated = new CopyOnWriteArrayList<>();
+	private final CountDownLatch running = new CountDownLatch(1);
+	private final CountDownLatch unblock = new CountDownLatch(1);
+
+	private ExecutorService clientEx;
+	private ThumbnailGenerator undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.clientEx = Executors.newCachedThreadPool(new DaemonThreadFactory("client"));
+		this.undertest = new ThumbnailGenerator(this.tmp.newFolder("cache"), 1, 1, new FakeResizer());
+	}
+
+	@After
+	public void after() throws Exception {
+		this.unblock.countDown();
+		this.clientEx.shutdownNow();
+	}
+
+	@Test
+	public void itSharesOneTaskBetweenRequestsForTheSameFile() throws Exception {
+		blockTheOnlyThread();
+		final ContentItem item = makeItem("a");
+
+		this.undertest.generateInBackground(item);
+		final Future<File> thumb = generateInForeground(item);
+		this.unblock.countDown();
+
+		assertTrue(thumb.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).exists());
+		waitFor(() -> this.generated.size() == 2);
+		assertEquals(Arrays.asList("blocker", "a"), this.generated);
+	}
+
+	@Test
+	public void itRunsAForegroundRequestAheadOfQueuedBackgroundWork() throws Exception {
+		blockTheOnlyThread();
+		this.undertest.generateInBackground(makeItem("b"));
+		this.undertest.generateInBackground(makeItem("c"));
+		final Future<File> thumb = generateInForeground(makeItem("d"));
+		this.unblock.countDown();
+
+		thumb.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		waitFor(() -> this.generated.size() == 4);
+		assertEquals(Arrays.asList("blocker", "d", "b", "c"), this.generated);
+	}
+
+	@Test
+	public void itMovesQueuedBackgroundWorkAheadWhenAClientAsksForIt() throws Exception {
+		blockTheOnlyThread();
+		this.undertest.generateInBackground(makeItem("b"));
+		final ContentItem c = makeItem("c");
+		this.undertest.generateInBackground(c);
+		final Future<File> thumb = generateInForeground(c);
+		this.unblock.countDown();
+
+		thumb.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		waitFor(() -> this.generated.size() == 3);
+		assertEquals(Arrays.asList("blocker", "c", "b"), this.generated);
+	}
+
+	private void blockTheOnlyThread() throws Exception {
+		this.undertest.generateInBackground(makeItem("blocker"));
+		assertTrue(this.running.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Returns once the request is queued and the client is waiting on it.
+	 */
+	private Future<File> generateInForeground(final ContentItem item) throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final Thread[] client = new Thread[1];
+		final Future<File> f = this.clientEx.submit(() -> {
+			client[0] = Thread.currentThread();
+			started.countDown();
+			return this.undertest.generate(item);
+		});
+		assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		waitFor(() -> client[0].getState() == Thread.State.WAITING);
+		return f;
+	}
+
+	private ContentItem makeItem(final String name) throws IOException {
+		final File f = this.tmp.newFile(name + ".jpg");
+		return new ContentItem(name, "0", name, f, MediaFormat.JPEG);
+	}
+
+	private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+		while (!condition.getAsBoolean()) {
+			assertTrue("Timed out waiting.", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Records the order files are resized in, and holds the first one until unblocked.
+	 */
+	private class FakeResizer extends ImageResizer {
+		@Override
+		public void scaleImageToFile(final File inF, final int size, final float quality, final File outF) throws IOException {
+			final String name = inF.getName().replace(".jpg", "");
+			if ("blocker".equals(name)) {
+				ThumbnailGeneratorTest.this.running.countDown();
+				try {
+					ThumbnailGeneratorTest.this.unblock.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				catch (final InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			ThumbnailGeneratorTest.this.generated.add(name);
+			FileUtils.touch(outF);
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.vaguehope.dlnatoad.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricRegistryTest {
+
+	private MetricRegistry undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.undertest = new MetricRegistry();
+	}
+
+	@Test
+	public void itWritesCountersAndGauges() throws Exception {
+		this.undertest.counter("my_things_total", "Some things.", "kind", "a").add(3);
+		this.undertest.counter("my_things_total", "Some things.", "kind", "b").inc();
+		this.undertest.gauge("my_level", "A \"level\".", () -> 1.5d);
+		this.undertest.counter("my_other_total", "Counted elsewhere.", () -> 7L, "name", "quote\"d");
+
+		assertEquals("# HELP my_level A \"level\".\n"
+				+ "# TYPE my_level gauge\n"
+				+ "my_level 1.5\n"
+				+ "# HELP my_other_total Counted elsewhere.\n"
+				+ "# TYPE my_other_total counter\n"
+				+ "my_other_total{name=\"quote\\\"d\"} 7\n"
+				+ "# HELP my_things_total Some things.\n"
+				+ "# TYPE my_things_total counter\n"
+				+ "my_things_total{kind=\"a\"} 3\n"
+				+ "my_things_total{kind=\"b\"} 1\n",
+				write());
+	}
+
+	@Test
+	public void itReturnsTheSameCounterForTheSameLabels() throws Exception {
+		assertSame(this.undertest.counter("c_total", "c", "a", "1"), this.undertest.counter("c_total", "c", "a", "1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void itRejectsChangingType() throws Exception {
+		this.undertest.counter("thing", "c");
+		this.undertest.histogram("thing", "h");
+	}
+
+	@Test
+	public void itWritesCumulativeHistogramBuckets() throws Exception {
+		final Histogram h = this.undertest.histogram("my_seconds", "Latency.", "op", "x");
+		h.observeNanos(TimeUnit.MICROSECONDS.toNanos(500));
+		h.observeNanos(TimeUnit.MILLISECONDS.toNanos(20));
+		h.observeNanos(TimeUnit.MINUTES.toNanos(2));
+
+		final String out = write();
+		assertContains(out, "my_seconds_bucket{op=\"x\",le=\"0.001\"} 1\n");
+		assertContains(out, "my_seconds_bucket{op=\"x\",le=\"0.01\"} 1\n");
+		assertContains(out, "my_seconds_bucket{op=\"x\",le=\"0.025\"} 2\n");
+		assertContains(out, "my_seconds_bucket{op=\"x\",le=\"60\"} 2\n");
+		assertContains(out, "my_seconds_bucket{op=\"x\",le=\"+Inf\"} 3\n");
+		assertContains(out, "my_seconds_sum{op=\"x\"} 120.0205\n");
+		assertContains(out, "my_seconds_count{op=\"x\"} 3\n");
+		assertEquals(3, h.getCount());
+	}
+
+	private String write() throws Exception {
+		final StringBuilder s = new StringBuilder();
+		this.undertest.writeTo(s);
+		return s.toString();
+	}
+
+	private static void assertContains(final String actual, final String expected) {
+		if (!actual.contains(expected)) throw new AssertionError("Expected to contain:\n" + expected + "\nbut was:\n" + actual);
+	}
+
+}
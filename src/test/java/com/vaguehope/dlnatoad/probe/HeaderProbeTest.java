@@ -0,0 +1,199 @@
+package com.vaguehope.dlnatoad.probe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vaguehope.dlnatoad.db.FileInfo;
+import com.vaguehope.dlnatoad.media.MediaFormat;
+
+public class HeaderProbeTest {
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void itReadsPngJpegAndGifSize() throws Exception {
+		for (final String type : new String[] { "png", "jpg", "gif" }) {
+			final File f = this.tmp.newFile("img." + type);
+			ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), type, f);
+			assertEquals(type, new FileInfo(0, 30, 20), HeaderProbe.probe(f, MediaFormat.identify(f)));
+		}
+	}
+
+	@Test
+	public void itReadsWebpSize() throws Exception {
+		final ByteBuffer b = le(30);
+		b.put(ascii("RIFF")).putInt(22).put(ascii("WEBPVP8X")).putInt(10);
+		b.putInt(0);  // Flags and reserved.
+		put24(b, 640 - 1);
+		put24(b, 480 - 1);
+		assertEquals(new FileInfo(0, 640, 480), probe("img.webp", b));
+	}
+
+	@Test
+	public void itReadsMp4DurationAndSize() throws Exception {
+		final byte[] mvhd = be(32).put((byte) 0).put(new byte[3]).putInt(0).putInt(0).putInt(1000).putInt(5500).array();
+		final byte[] hdlr = be(12).putInt(0).putInt(0).put(ascii("vide")).array();
+		final ByteBuffer stsd = be(44).putInt(0).putInt(1);
+		stsd.putInt(36).put(ascii("avc1")).put(new byte[6]).putShort((short) 1).put(new byte[16]);
+		stsd.putShort((short) 640).putShort((short) 480);
+		final byte[] trak = box("trak", box("mdia", box("hdlr", hdlr), box("minf", box("stbl", box("stsd", stsd.array())))));
+		final byte[] file = concat(box("ftyp", ascii("isom")), box("mdat", new byte[1000]), box("moov", box("mvhd", mvhd), trak));
+		assertEquals(new FileInfo(5500, 640, 480), probe("vid.mp4", file));
+	}
+
+	@Test
+	public void itReadsMatroskaDurationAndSize() throws Exception {
+		final byte[] info = ebml(0x1549A966, ebml(0x2AD7B1, new byte[] { 0x0F, 0x42, 0x40 }), ebml(0x4489, be(4).putFloat(7250f).array()));
+		final byte[] video = ebml(0xE0, ebml(0xB0, new byte[] { 0x05, 0x00 }), ebml(0xBA, new byte[] { 0x02, (byte) 0xD0 }));
+		final byte[] tracks = ebml(0x1654AE6B, ebml(0xAE, ebml(0x83, new byte[] { 2 })), ebml(0xAE, ebml(0x83, new byte[] { 1 }), video));
+		final byte[] cluster = ebml(0x1F43B675, new byte[100]);
+		final byte[] file = concat(ebml(0x1A45DFA3, ebml(0x4282, ascii("webm"))), ebml(0x18538067, info, tracks, cluster));
+		assertEquals(new FileInfo(7250, 1280, 720), probe("vid.mkv", file));
+	}
+
+	@Test
+	public void itReturnsNullForVideoWithoutDuration() throws Exception {
+		final byte[] video = ebml(0xE0, ebml(0xB0, new byte[] { 0x05, 0x00 }), ebml(0xBA, new byte[] { 0x02, (byte) 0xD0 }));
+		final byte[] tracks = ebml(0x1654AE6B, ebml(0xAE, ebml(0x83, new byte[] { 1 }), video));
+		final byte[] file = concat(ebml(0x1A45DFA3, ebml(0x4282, ascii("webm"))), ebml(0x18538067, tracks));
+		assertNull(probe("vid.webm", file));
+	}
+
+	@Test
+	public void itReadsFlacDuration() throws Exception {
+		final ByteBuffer b = be(8 + 34);
+		b.put(ascii("fLaC")).put((byte) 0x80).put((byte) 0).putShort((short) 34);
+		b.putShort((short) 4096).putShort((short) 4096).put(new byte[6]);
+		// 44100 Hz, 2 channels, 16 bits, 441000 samples.
+		b.put((byte) 0x0A).put((byte) 0xC4).put((byte) 0x42).put((byte) 0xF0).putInt(441000);
+		assertEquals(new FileInfo(10000, 0, 0), probe("a.flac", b));
+	}
+
+	@Test
+	public void itReadsOggVorbisDuration() throws Exception {
+		final ByteBuffer idPacket = le(30).put((byte) 1).put(ascii("vorbis")).putInt(0).put((byte) 2).putInt(44100);
+		final byte[] file = concat(oggPage(7, 0, idPacket.array()), oggPage(9, 123, new byte[10]), oggPage(7, 441000 * 2, new byte[10]));
+		assertEquals(new FileInfo(20000, 0, 0), probe("a.ogg", file));
+	}
+
+	@Test
+	public void itReadsOpusDurationWithPreSkip() throws Exception {
+		final ByteBuffer head = le(19).put(ascii("OpusHead")).put((byte) 1).put((byte) 2).putShort((short) 312).putInt(44100);
+		final byte[] file = concat(oggPage(7, 0, head.array()), oggPage(7, 48000 * 3 + 312, new byte[10]));
+		assertEquals(new FileInfo(3000, 0, 0), probe("a.opus", file));
+	}
+
+	@Test
+	public void itEstimatesCbrMp3Duration() throws Exception {
+		// MPEG 1 Layer III, 128 kbit/s, 44.1 kHz, stereo, 417 bytes per frame.
+		final ByteBuffer b = be(10 + 417 * 100);
+		b.put(ascii("ID3")).put((byte) 4).put((byte) 0).put((byte) 0).putInt(0);
+		for (int i = 0; i < 100; i++) {
+			b.putInt(0xFFFB9000).put(new byte[413]);
+		}
+		assertEquals(new FileInfo(417 * 100 * 8 / 128, 0, 0), probe("a.mp3", b));
+	}
+
+	@Test
+	public void itReadsMp3FrameCountFromXingHeader() throws Exception {
+		final ByteBuffer b = be(417 * 3);
+		b.putInt(0xFFFB9000).put(new byte[32]).put(ascii("Xing")).putInt(0x1).putInt(1000).put(new byte[417 - 48]);
+		b.putInt(0xFFFB9000).put(new byte[413]);
+		b.putInt(0xFFFB9000).put(new byte[413]);
+		assertEquals(new FileInfo(1000 * 1152 * 1000L / 44100, 0, 0), probe("a.mp3", b));
+	}
+
+	@Test
+	public void itReturnsNullForJunk() throws Exception {
+		final byte[] junk = new byte[1000];
+		for (int i = 0; i < junk.length; i++) {
+			junk[i] = (byte) (i * 31);
+		}
+		for (final String name : new String[] { "a.jpg", "a.png", "a.gif", "a.webp", "a.mp4", "a.mkv", "a.mp3", "a.flac", "a.ogg" }) {
+			assertNull(name, probe(name, junk));
+		}
+	}
+
+	@Test
+	public void itReturnsNullForUnhandledFormat() throws Exception {
+		assertNull(probe("vid.avi", new byte[100]));
+	}
+
+	private FileInfo probe(final String name, final ByteBuffer content) throws Exception {
+		return probe(name, content.array());
+	}
+
+	private FileInfo probe(final String name, final byte[] content) throws Exception {
+		final File f = new File(this.tmp.getRoot(), name);
+		FileUtils.writeByteArrayToFile(f, content);
+		return HeaderProbe.probe(f, MediaFormat.identify(f));
+	}
+
+	private static ByteBuffer be(final int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+	}
+
+	private static ByteBuffer le(final int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void put24(final ByteBuffer b, final int v) {
+		b.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+	}
+
+	private static byte[] ascii(final String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] concat(final byte[]... parts) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (final byte[] p : parts) {
+			out.write(p, 0, p.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] box(final String type, final byte[]... content) {
+		final byte[] c = concat(content);
+		return concat(be(8).putInt(8 + c.length).put(ascii(type)).array(), c);
+	}
+
+	/**
+	 * Size is always written as 8 bytes, which is valid if wasteful.
+	 */
+	private static byte[] ebml(final int id, final byte[]... content) {
+		final byte[] c = concat(content);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] idBytes = ByteBuffer.allocate(4).putInt(id).array();
+		int i = 0;
+		while (idBytes[i] == 0) i++;
+		out.write(idBytes, i, 4 - i);
+		out.write(0x01);
+		final byte[] size = ByteBuffer.allocate(8).putLong(c.length).array();
+		out.write(size, 1, 7);
+		out.write(c, 0, c.length);
+		return out.toByteArray();
+	}
+
+	private static byte[] oggPage(final int serial, final long granule, final byte[] packet) {
+		final ByteBuffer b = le(27 + 1 + packet.length);
+		b.put(ascii("OggS")).put((byte) 0).put((byte) 0).putLong(granule).putInt(serial).putInt(0).putInt(0);
+		b.put((byte) 1).put((byte) packet.length).put(packet);
+		return b.array();
+	}
+
+}
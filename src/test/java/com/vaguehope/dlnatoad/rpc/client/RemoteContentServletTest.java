@@ -1,6 +1,7 @@
 package com.vaguehope.dlnatoad.rpc.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.mock;
@@ -60,4 +61,65 @@ public class RemoteContentServletTest {
 		assertEquals("image/jpeg", this.resp.getContentType());
 	}
 
+	@Test
+	public void itPassesOnRangeRequests() throws Exception {
+		final MediaBlockingStub stub = mock(MediaBlockingStub.class);
+		when(this.rpcClient.getMediaBlockingStub("1")).thenReturn(stub);
+
+		final Iterator<ReadMediaReply> replies = Arrays.asList(
+				ReadMediaReply.newBuilder().setTotalFileLength(9).setMimeType("image/jpeg").setRangeStart(3).setContent(ByteString.copyFrom("456", StandardCharsets.UTF_8)).build()).iterator();
+		when(stub.readMedia(isA(ReadMediaRequest.class))).thenReturn(replies);
+		when(stub.withDeadlineAfter(anyLong(), isA(TimeUnit.class))).thenReturn(stub);
+
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.req.addHeader("Range", "bytes=3-5");
+		this.undertest.doGet(this.req, this.resp);
+
+		verify(stub).readMedia(ReadMediaRequest.newBuilder().setId("someid").setOffset(3).setLength(3).build());
+		assertEquals(206, this.resp.getStatus());
+		assertEquals("bytes 3-5/9", this.resp.getHeader("Content-Range"));
+		assertEquals("456", this.resp.getContentAsString());
+		assertEquals(3, this.resp.getContentLength());
+	}
+
+	@Test
+	public void itSendsEverythingIfTheRemoteIgnoresTheRange() throws Exception {
+		final MediaBlockingStub stub = mock(MediaBlockingStub.class);
+		when(this.rpcClient.getMediaBlockingStub("1")).thenReturn(stub);
+
+		// Older remotes do not set range_start and send the whole file.
+		final Iterator<ReadMediaReply> replies = Arrays.asList(
+				ReadMediaReply.newBuilder().setTotalFileLength(9).setMimeType("image/jpeg").setContent(ByteString.copyFrom("123", StandardCharsets.UTF_8)).build(),
+				ReadMediaReply.newBuilder().setContent(ByteString.copyFrom("456789", StandardCharsets.UTF_8)).build()).iterator();
+		when(stub.readMedia(isA(ReadMediaRequest.class))).thenReturn(replies);
+		when(stub.withDeadlineAfter(anyLong(), isA(TimeUnit.class))).thenReturn(stub);
+
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.req.addHeader("Range", "bytes=3-5");
+		this.undertest.doGet(this.req, this.resp);
+
+		assertEquals(200, this.resp.getStatus());
+		assertNull(this.resp.getHeader("Content-Range"));
+		assertEquals("123456789", this.resp.getContentAsString());
+		assertEquals(9, this.resp.getContentLength());
+	}
+
+	@Test
+	public void itRejectsRangesPastTheEnd() throws Exception {
+		final MediaBlockingStub stub = mock(MediaBlockingStub.class);
+		when(this.rpcClient.getMediaBlockingStub("1")).thenReturn(stub);
+
+		final Iterator<ReadMediaReply> replies = Arrays.asList(
+				ReadMediaReply.newBuilder().setTotalFileLength(9).setMimeType("image/jpeg").setRangeStart(9).build()).iterator();
+		when(stub.readMedia(isA(ReadMediaRequest.class))).thenReturn(replies);
+		when(stub.withDeadlineAfter(anyLong(), isA(TimeUnit.class))).thenReturn(stub);
+
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.req.addHeader("Range", "bytes=20-");
+		this.undertest.doGet(this.req, this.resp);
+
+		assertEquals(416, this.resp.getStatus());
+		assertEquals("bytes */9", this.resp.getHeader("Content-Range"));
+	}
+
 }
@@ -1,6 +1,10 @@
 package com.vaguehope.dlnatoad.rpc.server;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -9,6 +13,11 @@ import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import org.apache.commons.io.FileUtils;
@@ -25,7 +34,9 @@ import com.vaguehope.dlnatoad.media.ContentTree;
 import com.vaguehope.dlnatoad.media.MediaFormat;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.ReadMediaReply;
 import com.vaguehope.dlnatoad.rpc.MediaToadProto.ReadMediaRequest;
+import com.vaguehope.dlnatoad.util.ByteRange;
 
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 public class MediaImplTest {
@@ -74,6 +85,216 @@ public class MediaImplTest {
 		assertArrayEquals(data, actual.toByteArray());
 	}
 
+	@Test
+	public void itServesARangeOfContent() throws Exception {
+		final ReadMediaRequest req = ReadMediaRequest.newBuilder().setId("someid").setOffset(300 * 1024).setLength(400 * 1024).build();
+		final StreamObserver<ReadMediaReply> respObs = mock(StreamObserver.class);
+
+		final ContentItem item = mock(ContentItem.class);
+		when(item.getParentId()).thenReturn("parentid");
+		when(item.getFormat()).thenReturn(MediaFormat.JPEG);
+		when(this.contentTree.getItem("someid")).thenReturn(item);
+
+		final ContentNode node = mock(ContentNode.class);
+		when(this.contentTree.getNode("parentid")).thenReturn(node);
+
+		final File file = this.tmp.newFile();
+		final byte[] data = new byte[1000 * 1024];
+		fillArray(data);
+		FileUtils.writeByteArrayToFile(file, data);
+		when(item.getFile()).thenReturn(file);
+
+		this.undertest.readMedia(req, respObs);
+		verify(respObs, Mockito.never()).onError(any(Throwable.class));
+
+		final ArgumentCaptor<ReadMediaReply> cap = ArgumentCaptor.forClass(ReadMediaReply.class);
+		verify(respObs, times(2)).onNext(cap.capture());
+		assertEquals(data.length, cap.getAllValues().get(0).getTotalFileLength());
+		assertEquals(300 * 1024, cap.getAllValues().get(0).getRangeStart());
+
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		for (final ReadMediaReply r : cap.getAllValues()) {
+			r.getContent().writeTo(actual);
+		}
+		assertArrayEquals(Arrays.copyOfRange(data, 300 * 1024, 700 * 1024), actual.toByteArray());
+	}
+
+	@Test
+	public void itOnlySendsWhileTheClientIsReady() throws Exception {
+		final ReadMediaRequest req = ReadMediaRequest.newBuilder().setId("someid").build();
+		final byte[] data = mockItemWithContent(1000 * 1024);  // 4 messages.
+		final FakeServerObserver respObs = new FakeServerObserver();
+
+		this.undertest.readMedia(req, respObs);
+		assertTrue(respObs.sent.isEmpty());
+
+		respObs.becomeReadyFor(1);
+		assertEquals(1, respObs.sent.size());
+		respObs.becomeReadyFor(2);
+		assertEquals(3, respObs.sent.size());
+		assertFalse(respObs.completed);
+
+		respObs.becomeReadyFor(10);
+		assertEquals(4, respObs.sent.size());
+		assertTrue(respObs.completed);
+		assertNull(respObs.error);
+		assertEquals(data.length, respObs.replies.get(0).getTotalFileLength());
+
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		for (final byte[] b : respObs.sent) {
+			actual.write(b);
+		}
+		assertArrayEquals(data, actual.toByteArray());
+	}
+
+	@Test
+	public void itRefillsOnePooledBufferForEachMessage() throws Exception {
+		final byte[] data = new byte[600 * 1024];
+		fillArray(data);
+		final FakeServerObserver respObs = new FakeServerObserver();
+
+		MediaImpl.sendWhenReady(openChannel(data), ByteRange.Requested.of(0, 0).resolve(data.length), ReadMediaReply.newBuilder(), respObs);
+		respObs.becomeReadyFor(2);
+		final int pooledWhileSending = MediaImpl.pooledBufferCount();
+
+		// The first reply wraps the same buffer, which now holds the second message.
+		assertArrayEquals(respObs.sent.get(1), respObs.replies.get(0).getContent().toByteArray());
+
+		respObs.becomeReadyFor(10);
+		assertTrue(respObs.completed);
+		assertArrayEquals(Arrays.copyOfRange(data, 512 * 1024, data.length), respObs.sent.get(2));
+		assertEquals(pooledWhileSending + 1, MediaImpl.pooledBufferCount());
+	}
+
+	@Test
+	public void itClosesTheFileAndReturnsTheBufferWhenCancelled() throws Exception {
+		final byte[] data = new byte[1000 * 1024];
+		fillArray(data);
+		final FileChannel channel = openChannel(data);
+		final FakeServerObserver respObs = new FakeServerObserver();
+
+		MediaImpl.sendWhenReady(channel, ByteRange.Requested.of(0, 0).resolve(data.length), ReadMediaReply.newBuilder(), respObs);
+		respObs.becomeReadyFor(1);
+		final int pooledWhileSending = MediaImpl.pooledBufferCount();
+
+		respObs.cancel();
+		assertFalse(channel.isOpen());
+		assertEquals(pooledWhileSending + 1, MediaImpl.pooledBufferCount());
+
+		respObs.becomeReadyFor(10);
+		assertEquals(1, respObs.sent.size());
+		assertFalse(respObs.completed);
+	}
+
+	private byte[] mockItemWithContent(final int length) throws Exception {
+		final ContentItem item = mock(ContentItem.class);
+		when(item.getParentId()).thenReturn("parentid");
+		when(item.getFormat()).thenReturn(MediaFormat.JPEG);
+		when(this.contentTree.getItem("someid")).thenReturn(item);
+
+		final ContentNode node = mock(ContentNode.class);
+		when(this.contentTree.getNode("parentid")).thenReturn(node);
+
+		final File file = this.tmp.newFile();
+		final byte[] data = new byte[length];
+		fillArray(data);
+		FileUtils.writeByteArrayToFile(file, data);
+		when(item.getFile()).thenReturn(file);
+		return data;
+	}
+
+	private FileChannel openChannel(final byte[] data) throws Exception {
+		final File file = this.tmp.newFile();
+		FileUtils.writeByteArrayToFile(file, data);
+		return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Copies each message's content as it is sent, as the real transport serialises it before onNext() returns.
+	 */
+	private static class FakeServerObserver extends ServerCallStreamObserver<ReadMediaReply> {
+		final List<ReadMediaReply> replies = new ArrayList<>();
+		final List<byte[]> sent = new ArrayList<>();
+		boolean completed = false;
+		Throwable error = null;
+		private Runnable onReadyHandler;
+		private Runnable onCancelHandler;
+		private boolean cancelled = false;
+		private int readyFor = 0;
+
+		/**
+		 * Ready for this many messages, then not ready again.
+		 */
+		void becomeReadyFor(final int messages) {
+			this.readyFor = messages;
+			this.onReadyHandler.run();
+		}
+
+		void cancel() {
+			this.cancelled = true;
+			this.readyFor = 0;
+			this.onCancelHandler.run();
+		}
+
+		@Override
+		public boolean isReady() {
+			return !this.cancelled && this.readyFor > 0;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return this.cancelled;
+		}
+
+		@Override
+		public void setOnReadyHandler(final Runnable onReadyHandler) {
+			this.onReadyHandler = onReadyHandler;
+		}
+
+		@Override
+		public void setOnCancelHandler(final Runnable onCancelHandler) {
+			this.onCancelHandler = onCancelHandler;
+		}
+
+		@Override
+		public void onNext(final ReadMediaReply value) {
+			if (this.readyFor < 1) throw new IllegalStateException("Sent while not ready.");
+			this.readyFor -= 1;
+			this.replies.add(value);
+			this.sent.add(value.getContent().toByteArray());
+		}
+
+		@Override
+		public void onError(final Throwable t) {
+			this.error = t;
+		}
+
+		@Override
+		public void onCompleted() {
+			this.completed = true;
+		}
+
+		@Override
+		public void setCompression(final String compression) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void disableAutoInboundFlowControl() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void request(final int count) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setMessageCompression(final boolean enable) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
 	private static void fillArray(final byte[] arr) {
 		final Random rnd = new Random();
 		for (int i = 0; i < arr.length; i++) {
@@ -3,7 +3,12 @@ package com.vaguehope.dlnatoad.tagdeterminer;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.doAnswer;
@@ -13,11 +18,14 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -49,6 +57,8 @@ import com.vaguehope.dlnatoad.tagdeterminer.TagDeterminerProto.DetermineTagsRequ
 
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
 public class TagDeterminerControllerTest {
@@ -191,6 +201,183 @@ public class TagDeterminerControllerTest {
 				));
 	}
 
+	@Test
+	public void itOnlyUploadsWhileTheDeterminerIsReady() throws Exception {
+		final List<FakeRequestStream> calls = fakeFlowControlledCalls();
+		final ContentItem itemA = mockItem("myphotos A");
+		final byte[] content = writeContent(itemA, 600 * 1024);  // 3 messages.
+
+		this.undertest.findWork();
+		assertEquals(1, calls.size());
+		final FakeRequestStream call = calls.get(0);
+		assertThat(call.sent, empty());
+
+		call.becomeReadyFor(1);
+		assertEquals(1, call.sent.size());
+		assertFalse(call.completed);
+
+		call.becomeReadyFor(10);
+		assertEquals(3, call.sent.size());
+		assertTrue(call.completed);
+		assertNull(call.error);
+
+		final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+		for (final DetermineTagsRequest req : call.sent) {
+			assertEquals("jpeg", req.getFileExt());
+			req.getContent().writeTo(uploaded);
+		}
+		assertArrayEquals(content, uploaded.toByteArray());
+	}
+
+	@Test
+	public void itWaitsForAReplyBeforeStartingTheNextItem() throws Exception {
+		final List<FakeRequestStream> calls = fakeFlowControlledCalls();
+		mockItem("myphotos A");
+		mockItem("myphotos B");
+
+		this.undertest.findWork();
+		assertEquals(1, calls.size());
+
+		calls.get(0).becomeReadyFor(10);
+		assertTrue(calls.get(0).completed);
+		assertEquals(1, calls.size());  // Uploaded but not replied to is still in flight.
+
+		calls.get(0).respObs.onCompleted();
+		assertEquals(2, calls.size());
+	}
+
+	@Test
+	public void itStopsUploadingAndStartsTheNextItemIfTheCallFailsMidUpload() throws Exception {
+		final List<FakeRequestStream> calls = fakeFlowControlledCalls();
+		writeContent(mockItem("myphotos A"), 600 * 1024);
+		writeContent(mockItem("myphotos B"), 600 * 1024);
+
+		this.undertest.findWork();
+		final FakeRequestStream first = calls.get(0);
+		first.becomeReadyFor(1);
+		assertEquals(1, first.sent.size());
+
+		first.respObs.onError(new StatusRuntimeException(Status.UNAVAILABLE));
+		assertEquals(2, calls.size());
+
+		first.becomeReadyFor(10);
+		assertEquals(1, first.sent.size());
+		assertFalse(first.completed);
+
+		final FakeRequestStream second = calls.get(1);
+		second.becomeReadyFor(10);
+		assertEquals(3, second.sent.size());
+		assertTrue(second.completed);
+	}
+
+	@Test
+	public void itFailsTheUploadIfTheFileGoesAway() throws Exception {
+		final List<FakeRequestStream> calls = fakeFlowControlledCalls();
+		final ContentItem itemA = mockItem("myphotos A");
+
+		this.undertest.findWork();
+		assertTrue(itemA.getFile().delete());
+		calls.get(0).becomeReadyFor(10);
+
+		assertThat(calls.get(0).sent, empty());
+		assertFalse(calls.get(0).completed);
+		assertNotNull(calls.get(0).error);
+	}
+
+	/**
+	 * Make the stub behave like a real one, which gives its ClientResponseObserver a request stream
+	 * that only takes messages while isReady().
+	 */
+	private List<FakeRequestStream> fakeFlowControlledCalls() {
+		final List<FakeRequestStream> calls = new ArrayList<>();
+		when(this.stub.determineTags(any())).thenAnswer(inv -> {
+			@SuppressWarnings("unchecked")
+			final ClientResponseObserver<DetermineTagsRequest, DetermineTagsReply> respObs = inv.getArgument(0, ClientResponseObserver.class);
+			final FakeRequestStream call = new FakeRequestStream(respObs);
+			calls.add(call);
+			respObs.beforeStart(call);
+			return call;
+		});
+		return calls;
+	}
+
+	private static byte[] writeContent(final ContentItem item, final int length) throws Exception {
+		final byte[] content = new byte[length];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		FileUtils.writeByteArrayToFile(item.getFile(), content);
+		return content;
+	}
+
+	private static class FakeRequestStream extends ClientCallStreamObserver<DetermineTagsRequest> {
+		final ClientResponseObserver<DetermineTagsRequest, DetermineTagsReply> respObs;
+		final List<DetermineTagsRequest> sent = new ArrayList<>();
+		boolean completed = false;
+		Throwable error = null;
+		private Runnable onReadyHandler;
+		private int readyFor = 0;
+
+		FakeRequestStream(final ClientResponseObserver<DetermineTagsRequest, DetermineTagsReply> respObs) {
+			this.respObs = respObs;
+		}
+
+		/**
+		 * Ready for this many messages, then not ready again.
+		 */
+		void becomeReadyFor(final int messages) {
+			this.readyFor = messages;
+			this.onReadyHandler.run();
+		}
+
+		@Override
+		public boolean isReady() {
+			return this.readyFor > 0;
+		}
+
+		@Override
+		public void setOnReadyHandler(final Runnable onReadyHandler) {
+			this.onReadyHandler = onReadyHandler;
+		}
+
+		@Override
+		public void onNext(final DetermineTagsRequest value) {
+			if (this.readyFor < 1) throw new IllegalStateException("Sent while not ready.");
+			this.readyFor -= 1;
+			this.sent.add(value);
+		}
+
+		@Override
+		public void onError(final Throwable t) {
+			this.error = t;
+		}
+
+		@Override
+		public void onCompleted() {
+			this.completed = true;
+		}
+
+		@Override
+		public void cancel(final String message, final Throwable cause) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void disableAutoInboundFlowControl() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void request(final int count) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setMessageCompression(final boolean enable) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
 	private ContentItem mockItem(final String name, final String... tags) throws Exception {
 		final String id = this.mockMediaMetadataStore.addFileWithNameAndSuffexAndTags(name, ".jpeg", tags);
 		final File file = new File(this.db.getFilePathForId(id));
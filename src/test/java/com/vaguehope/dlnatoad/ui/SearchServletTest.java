@@ -2,24 +2,58 @@ package com.vaguehope.dlnatoad.ui;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anySet;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.jupnp.UpnpService;
+import org.jupnp.controlpoint.ActionCallback;
+import org.jupnp.controlpoint.ControlPoint;
+import org.jupnp.model.meta.Action;
+import org.jupnp.model.meta.ActionArgument;
+import org.jupnp.model.meta.DeviceDetails;
+import org.jupnp.model.meta.RemoteDevice;
+import org.jupnp.model.meta.RemoteService;
+import org.jupnp.model.types.Datatype;
+import org.jupnp.model.types.ServiceType;
+import org.jupnp.registry.Registry;
+import org.jupnp.support.contentdirectory.callback.Search;
+import org.jupnp.support.model.DIDLContent;
+import org.jupnp.support.model.Res;
+import org.jupnp.support.model.item.VideoItem;
 import org.teleal.common.mock.http.MockHttpServletRequest;
 import org.teleal.common.mock.http.MockHttpServletResponse;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.vaguehope.dlnatoad.auth.ReqAttr;
 import com.vaguehope.dlnatoad.db.DbCache;
 import com.vaguehope.dlnatoad.db.MediaDb;
 import com.vaguehope.dlnatoad.db.MockMediaMetadataStore;
@@ -30,6 +64,12 @@ import com.vaguehope.dlnatoad.media.ContentServlet;
 import com.vaguehope.dlnatoad.media.ContentTree;
 import com.vaguehope.dlnatoad.media.MediaFormat;
 import com.vaguehope.dlnatoad.media.ThumbnailGenerator;
+import com.vaguehope.dlnatoad.rpc.MediaGrpc.MediaFutureStub;
+import com.vaguehope.dlnatoad.rpc.MediaToadProto.MediaItem;
+import com.vaguehope.dlnatoad.rpc.MediaToadProto.SearchReply;
+import com.vaguehope.dlnatoad.rpc.MediaToadProto.SearchRequest;
+import com.vaguehope.dlnatoad.rpc.RpcTarget;
+import com.vaguehope.dlnatoad.rpc.client.RemoteInstance;
 import com.vaguehope.dlnatoad.rpc.client.RpcClient;
 
 public class SearchServletTest {
@@ -49,6 +89,10 @@ public class SearchServletTest {
 	private SearchServlet undertest;
 
 
+	private final Collection<RemoteDevice> remoteDevices = new ArrayList<>();
+	private final Map<Action<?>, Function<Search, Future<?>>> remoteSearches = new HashMap<>();
+	private final List<RemoteInstance> remoteInstances = new ArrayList<>();
+
 	private MockHttpServletRequest req;
 	private MockHttpServletResponse resp;
 
@@ -64,7 +108,21 @@ public class SearchServletTest {
 		this.dbCache = mock(DbCache.class);
 		when(this.dbCache.searchTopTags(anySet(), anyString())).thenReturn(Collections.emptyList());
 
-		this.undertest = new SearchServlet(this.servletCommon, this.contentTree, this.contentServlet, this.db, this.dbCache, this.upnpService, this.rpcClient, this.thumbnailGenerator, this.searchEngine);
+		this.upnpService = mock(UpnpService.class);
+		final Registry registry = mock(Registry.class);
+		when(this.upnpService.getRegistry()).thenReturn(registry);
+		when(registry.getRemoteDevices()).thenReturn(this.remoteDevices);
+		final ControlPoint controlPoint = mock(ControlPoint.class);
+		when(this.upnpService.getControlPoint()).thenReturn(controlPoint);
+		doAnswer(inv -> {
+			final Search search = inv.getArgument(0, Search.class);
+			return this.remoteSearches.get(search.getActionInvocation().getAction()).apply(search);
+		}).when(controlPoint).execute(any(ActionCallback.class));
+
+		this.rpcClient = mock(RpcClient.class);
+		when(this.rpcClient.getRemoteInstances()).thenReturn(this.remoteInstances);
+
+		this.undertest = makeServlet(SearchServlet.DEFAULT_REMOTE_SEARCH_BUDGET_MILLIS);
 
 		this.req = new MockHttpServletRequest();
 		this.resp = new MockHttpServletResponse();
@@ -121,6 +179,186 @@ public class SearchServletTest {
 		verify(this.contentServlet).service(this.req, this.resp);
 	}
 
+	@Test
+	public void itShowsLocalAndRemoteResultsTogether() throws Exception {
+		mockItem("thing 0", "foo");
+		givenRemoteContentDirectory("Remote CD", search -> {
+			search.received(search.getActionInvocation(), didlWithOneItem());
+			return CompletableFuture.completedFuture(null);
+		});
+		final RemoteInstance ri = givenRemoteInstance("fast", Futures.immediateFuture(searchReplyWithOneItem()));
+
+		doRemoteSearch("t=foo");
+
+		assertEquals(200, this.resp.getStatus());
+		final String page = this.resp.getContentAsString();
+		assertThat(page, containsString("<h3>Local items: 1</h3>"));
+		assertThat(page, containsString("<h3>Remote CD items: 1</h3>"));
+		assertThat(page, containsString("remote cd thing"));
+		assertThat(page, containsString("<h3>" + ri.getTarget() + " items: 1</h3>"));
+		assertThat(page, containsString("remote rpc thing"));
+		assertThat(page, containsString("Remote CD: "));
+		assertThat(page, not(containsString("timed out")));
+	}
+
+	@Test
+	public void itShowsWhatArrivedWithinTheBudgetAndCancelsTheRest() throws Exception {
+		final long budgetMillis = 1000L;
+		this.undertest = makeServlet(budgetMillis);
+		mockItem("thing 0", "foo");
+		final CompletableFuture<Void> slowCd = new CompletableFuture<>();
+		givenRemoteContentDirectory("Slow CD", search -> slowCd);
+		final SettableFuture<SearchReply> slowRpc = SettableFuture.create();
+		final RemoteInstance slow = givenRemoteInstance("slow", slowRpc);
+		final RemoteInstance fast = givenRemoteInstance("fast", Futures.immediateFuture(searchReplyWithOneItem()));
+
+		final long startNanos = System.nanoTime();
+		doRemoteSearch("t=foo");
+		final long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+		final String page = this.resp.getContentAsString();
+		assertThat(page, containsString("<h3>Local items: 1</h3>"));
+		assertThat(page, containsString("<h3>" + fast.getTarget() + " items: 1</h3>"));
+		assertThat(page, containsString("<h3>Slow CD</h3>"));
+		assertThat(page, containsString("<h3>" + slow.getTarget() + "</h3>"));
+		assertThat(page, containsString("<p>No reply within "));
+		assertThat(page, containsString("Slow CD: timed out"));
+		assertThat(page, containsString(slow.getTarget() + ": timed out"));
+		assertTrue(slowCd.isCancelled());
+		assertTrue(slowRpc.isCancelled());
+		assertTrue("Took " + tookMillis + " ms, each slow source got its own budget.", tookMillis < 2 * budgetMillis);
+	}
+
+	@Test
+	public void itShowsFailedSourcesAsErrors() throws Exception {
+		givenRemoteContentDirectory("Broken CD", search -> {
+			search.failure(search.getActionInvocation(), null, "boom");
+			return CompletableFuture.completedFuture(null);
+		});
+		final RemoteInstance ri = givenRemoteInstance("broken", Futures.immediateFailedFuture(new IllegalStateException("bang")));
+
+		doRemoteSearch("t=foo");
+
+		final String page = this.resp.getContentAsString();
+		assertThat(page, containsString("<h3>Local items: 0</h3>"));
+		assertThat(page, containsString("<h3>Broken CD</h3>"));
+		assertThat(page, containsString("<p>Failed to search content directory: boom</p>"));
+		assertThat(page, containsString("<h3>" + ri.getTarget() + "</h3>"));
+		assertThat(page, containsString("<p>Search failed: java.lang.IllegalStateException: bang</p>"));
+	}
+
+	@Test
+	public void itStartsEveryRemoteSearchBeforeWaitingOnAny() throws Exception {
+		final CountDownLatch rpcStarted = new CountDownLatch(1);
+		givenRemoteContentDirectory("Remote CD", search -> CompletableFuture.runAsync(() -> {
+			try {
+				// Only replies once the RPC has also been sent.
+				rpcStarted.await(10, TimeUnit.SECONDS);
+			}
+			catch (final InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			search.received(search.getActionInvocation(), didlWithOneItem());
+		}));
+		final SettableFuture<SearchReply> rpc = SettableFuture.create();
+		final RemoteInstance ri = givenRemoteInstance("rpc", rpc);
+		final MediaFutureStub stub = this.rpcClient.getMediaFutureStub(ri.getId());
+		when(stub.search(any(SearchRequest.class))).thenAnswer(inv -> {
+			rpcStarted.countDown();
+			rpc.set(searchReplyWithOneItem());
+			return rpc;
+		});
+
+		doRemoteSearch("t=foo");
+
+		final String page = this.resp.getContentAsString();
+		assertThat(page, containsString("<h3>Remote CD items: 1</h3>"));
+		assertThat(page, containsString("<h3>" + ri.getTarget() + " items: 1</h3>"));
+	}
+
+	@Test
+	public void itCancelsRemoteSearchesIfThePageFails() throws Exception {
+		final SettableFuture<SearchReply> rpc = SettableFuture.create();
+		givenRemoteInstance("rpc", rpc);
+
+		this.req.setParameter("limit", "-1");
+		doRemoteSearch("t=foo");
+
+		assertEquals(400, this.resp.getStatus());
+		assertTrue(rpc.isCancelled());
+	}
+
+	private SearchServlet makeServlet(final long remoteSearchBudgetMillis) {
+		return new SearchServlet(this.servletCommon, this.contentTree, this.contentServlet, this.db, this.dbCache, this.upnpService, this.rpcClient, this.thumbnailGenerator, this.searchEngine, remoteSearchBudgetMillis);
+	}
+
+	private void doRemoteSearch(final String query) throws Exception {
+		ReqAttr.ALLOW_REMOTE_SEARCH.set(this.req, Boolean.TRUE);
+		this.req.setParameter("query", query);
+		this.req.setParameter("remote", "1");
+		this.undertest.doGet(this.req, this.resp);
+	}
+
+	private void givenRemoteContentDirectory(final String friendlyName, final Function<Search, Future<?>> onSearch) {
+		final RemoteDevice device = mock(RemoteDevice.class);
+		final RemoteService service = mock(RemoteService.class);
+		final DeviceDetails details = mock(DeviceDetails.class);
+		when(details.getFriendlyName()).thenReturn(friendlyName);
+		doReturn(details).when(device).getDetails();
+		doReturn(device).when(service).getDevice();
+		doReturn(new RemoteService[] { service }).when(device).findServices(any(ServiceType.class));
+
+		final Action<?> action = mockSearchAction();
+		doReturn(action).when(service).getAction("Search");
+		this.remoteSearches.put(action, onSearch);
+		this.remoteDevices.add(device);
+	}
+
+	/**
+	 * Just enough of a ContentDirectory Search action for the callback to set its inputs.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Action<RemoteService> mockSearchAction() {
+		final Action<RemoteService> action = mock(Action.class);
+		when(action.getInputArgument(anyString())).thenAnswer(inv -> {
+			final String name = inv.getArgument(0, String.class);
+			final ActionArgument<RemoteService> arg = mock(ActionArgument.class);
+			when(arg.getName()).thenReturn(name);
+			final boolean isCount = "StartingIndex".equals(name) || "RequestedCount".equals(name);
+			doReturn(isCount ? Datatype.Builtin.UI4.getDatatype() : Datatype.Builtin.STRING.getDatatype()).when(arg).getDatatype();
+			return arg;
+		});
+		return action;
+	}
+
+	private RemoteInstance givenRemoteInstance(final String id, final ListenableFuture<SearchReply> reply) {
+		final RemoteInstance ri = new RemoteInstance(id, new RpcTarget(id + ".example.com:8765", true));
+		final MediaFutureStub stub = mock(MediaFutureStub.class);
+		when(stub.withDeadlineAfter(anyLong(), any(TimeUnit.class))).thenReturn(stub);
+		when(stub.search(any(SearchRequest.class))).thenReturn(reply);
+		when(this.rpcClient.getMediaFutureStub(id)).thenReturn(stub);
+		this.remoteInstances.add(ri);
+		return ri;
+	}
+
+	private static DIDLContent didlWithOneItem() {
+		final DIDLContent didl = new DIDLContent();
+		final Res res = new Res(MediaFormat.MP4.asMimetype(), Long.valueOf(1234L), "http://remote.example.com/cd-item.mp4");
+		didl.addItem(new VideoItem("cd-item", "0", "remote cd thing", "", res));
+		return didl;
+	}
+
+	private static SearchReply searchReplyWithOneItem() {
+		return SearchReply.newBuilder()
+				.addResult(MediaItem.newBuilder()
+						.setId("rpc-item")
+						.setTitle("remote rpc thing")
+						.setMimeType("video/mp4")
+						.setFileLength(1234L)
+						.build())
+				.build();
+	}
+
 	private void assertPageContainsItem(final ContentItem i, final String pathPrefix, final String itemQueryString) {
 		assertThat(this.resp.getContentAsString(), containsString(
 				"<li><a href=\"" + pathPrefix + "i/" + i.getId() + itemQueryString + "\" autofocus>"
@@ -0,0 +1,64 @@
+package com.vaguehope.dlnatoad.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+	private final AdaptiveLimit undertest = new AdaptiveLimit(4);
+
+	@Test
+	public void itStartsWithOneInFlight() throws Exception {
+		assertTrue(this.undertest.tryAcquire());
+		assertFalse(this.undertest.tryAcquire());
+		this.undertest.cancel();
+		assertTrue(this.undertest.tryAcquire());
+	}
+
+	@Test
+	public void itGrowsWhileFastUpToMaxAndHalvesOnFailure() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			assertTrue(this.undertest.tryAcquire());
+			this.undertest.onSuccess(1000L);
+		}
+		assertEquals(4, this.undertest.getLimit());
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(this.undertest.tryAcquire());
+		}
+		assertFalse(this.undertest.tryAcquire());
+
+		this.undertest.onFailure();
+		assertEquals(2, this.undertest.getLimit());
+		assertEquals(3, this.undertest.getInFlight());
+		assertFalse(this.undertest.tryAcquire());
+	}
+
+	@Test
+	public void itDoesNotGrowWhenSlow() throws Exception {
+		assertTrue(this.undertest.tryAcquire());
+		this.undertest.onSuccess(1000L);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(this.undertest.tryAcquire());
+			this.undertest.onSuccess(5000L);
+		}
+		assertEquals(2, this.undertest.getLimit());
+	}
+
+	@Test
+	public void itStillGrowsToMaxAfterOneUnusuallyQuickReply() throws Exception {
+		assertTrue(this.undertest.tryAcquire());
+		this.undertest.onSuccess(100L);
+
+		final long[] latencies = new long[] { 1000L, 1500L, 1200L, 1800L, 1100L };
+		for (int i = 0; i < 500; i++) {
+			assertTrue(this.undertest.tryAcquire());
+			this.undertest.onSuccess(latencies[i % latencies.length]);
+		}
+		assertEquals(4, this.undertest.getLimit());
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.vaguehope.dlnatoad.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+	@Test
+	public void itParsesSingleRanges() throws Exception {
+		assertEquals("bytes 10-20/100", ByteRange.parse("bytes=10-20", 100).toContentRange());
+		assertEquals("bytes 10-99/100", ByteRange.parse("bytes=10-", 100).toContentRange());
+		assertEquals("bytes 10-99/100", ByteRange.parse("bytes=10-500", 100).toContentRange());
+		assertEquals("bytes 90-99/100", ByteRange.parse("bytes=-10", 100).toContentRange());
+		assertEquals("bytes 0-99/100", ByteRange.parse("bytes=-500", 100).toContentRange());
+		assertEquals(11, ByteRange.parse("bytes=10-20", 100).length());
+	}
+
+	@Test
+	public void itIgnoresRangesItCanNotUse() throws Exception {
+		assertNull(ByteRange.parse(null, 100));
+		assertNull(ByteRange.parse("items=1-2", 100));
+		assertNull(ByteRange.parse("bytes=1-2,5-6", 100));
+		assertNull(ByteRange.parse("bytes=5-2", 100));
+		assertNull(ByteRange.parse("bytes=a-b", 100));
+	}
+
+	@Test
+	public void itRejectsRangesPastTheEnd() throws Exception {
+		assertFalse(ByteRange.parse("bytes=100-", 100).isSatisfiable());
+		assertFalse(ByteRange.parse("bytes=150-200", 100).isSatisfiable());
+		assertFalse(ByteRange.parse("bytes=-0", 100).isSatisfiable());
+	}
+
+	@Test
+	public void itPassesOnRangesAsOffsetAndLength() throws Exception {
+		assertRequested(10, 11, "bytes=10-20");
+		assertRequested(10, 0, "bytes=10-");
+		assertRequested(-10, 0, "bytes=-10");
+		assertRequested(0, 0, "bytes=0-9223372036854775807");
+		assertTrue(ByteRange.Requested.parse("bytes=-0").isEmptySuffix());
+
+		assertEquals("bytes 10-20/100", ByteRange.Requested.of(10, 11).resolve(100).toContentRange());
+		assertEquals("bytes 90-99/100", ByteRange.Requested.of(-10, 0).resolve(100).toContentRange());
+		assertEquals("bytes 0-99/100", ByteRange.Requested.of(0, 0).resolve(100).toContentRange());
+		assertFalse(ByteRange.Requested.of(100, 1).resolve(100).isSatisfiable());
+	}
+
+	private static void assertRequested(final long offset, final long length, final String header) {
+		final ByteRange.Requested r = ByteRange.Requested.parse(header);
+		assertEquals(offset, r.getOffset());
+		assertEquals(length, r.getLength());
+	}
+
+}
@@ -2,10 +2,21 @@ package com.vaguehope.dlnatoad.util;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Before;
@@ -37,6 +48,58 @@ public class ImageResizerTest {
 		assertThat(f.length(), greaterThan(1L));
 	}
 
+	@Test
+	public void itScalesLargeImageToSize() throws Exception {
+		final File in = this.tmp.newFile("in.jpg");
+		ImageIO.write(solidImage(3000, 1500, Color.RED), "jpg", in);
+		final File f = this.tmp.newFile();
+		this.undertest.scaleImageToFile(in, 200, 0.8f, f);
+
+		final BufferedImage out = ImageIO.read(f);
+		assertEquals(200, out.getWidth());
+		assertEquals(100, out.getHeight());
+	}
+
+	@Test
+	public void itUsesEmbeddedThumbnailWhenBigEnough() throws Exception {
+		final File in = this.tmp.newFile("in.jpg");
+		final ImageWriter w = ImageIO.getImageWritersByFormatName("jpg").next();
+		try (final FileImageOutputStream os = new FileImageOutputStream(in)) {
+			w.setOutput(os);
+			w.write(null, new IIOImage(solidImage(3000, 3000, Color.RED), Arrays.asList(solidImage(240, 240, Color.BLUE)), null), w.getDefaultWriteParam());
+		}
+		finally {
+			w.dispose();
+		}
+		final File f = this.tmp.newFile();
+		this.undertest.scaleImageToFile(in, 200, 0.8f, f);
+
+		final Color c = new Color(ImageIO.read(f).getRGB(100, 100));
+		assertThat(c.getBlue(), greaterThan(200));
+		assertThat(c.getRed(), lessThan(50));
+	}
+
+	@Test
+	public void itSubsamplesToTwiceTheSize() throws Exception {
+		assertEquals(1, ImageResizer.subsamplingFor(300, 200, 200));
+		assertEquals(1, ImageResizer.subsamplingFor(799, 200, 200));
+		assertEquals(2, ImageResizer.subsamplingFor(800, 200, 200));
+		assertEquals(20, ImageResizer.subsamplingFor(6000, 8000, 200));
+	}
+
+	private static BufferedImage solidImage(final int width, final int height, final Color color) {
+		final BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = img.createGraphics();
+		try {
+			g.setColor(color);
+			g.fillRect(0, 0, width, height);
+		}
+		finally {
+			g.dispose();
+		}
+		return img;
+	}
+
 	@Ignore
 	@Test
 	public void itDecodesLocalFile() throws Exception {
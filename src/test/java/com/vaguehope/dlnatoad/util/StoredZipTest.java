@@ -0,0 +1,95 @@
+package com.vaguehope.dlnatoad.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StoredZipTest {
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	private List<StoredZip.Entry> entries;
+	private List<byte[]> contents;
+
+	@Before
+	public void before() throws Exception {
+		this.entries = new ArrayList<>();
+		this.contents = new ArrayList<>();
+		givenFile("a.txt", "some text");
+		givenFile("b \u00fc.bin", "more text that is a bit longer than the first");
+		givenFile("empty", "");
+	}
+
+	@Test
+	public void itWritesAValidZip() throws Exception {
+		final StoredZip undertest = new StoredZip(this.entries);
+		final byte[] zip = write(undertest, 0, undertest.length() - 1);
+		assertEquals(undertest.length(), zip.length);
+
+		final File f = this.tmp.newFile("out.zip");
+		Files.write(f.toPath(), zip);
+		try (final ZipFile zf = new ZipFile(f)) {
+			assertEquals(this.entries.size(), zf.size());
+			for (int i = 0; i < this.entries.size(); i++) {
+				final ZipEntry e = zf.getEntry(this.entries.get(i).name);
+				assertEquals(ZipEntry.STORED, e.getMethod());
+				try (final InputStream in = zf.getInputStream(e)) {
+					assertArrayEquals(this.contents.get(i), in.readAllBytes());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void itWritesRangesThatJoinUpToTheWholeZip() throws Exception {
+		final byte[] whole = write(new StoredZip(this.entries), 0, new StoredZip(this.entries).length() - 1);
+
+		for (final int split : new int[] { 1, 30, 40, 100, whole.length - 30, whole.length - 1 }) {
+			final StoredZip undertest = new StoredZip(this.entries);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			undertest.write(out, split, whole.length - 1);
+			undertest.write(out, 0, split - 1);
+			final byte[] b = out.toByteArray();
+			final byte[] joined = new byte[whole.length];
+			System.arraycopy(b, b.length - split, joined, 0, split);
+			System.arraycopy(b, 0, joined, split, whole.length - split);
+			assertArrayEquals("split at " + split, whole, joined);
+		}
+	}
+
+	@Test
+	public void itKeepsLayoutWhenFileChangesLength() throws Exception {
+		final StoredZip undertest = new StoredZip(this.entries);
+		Files.write(this.entries.get(0).file.toPath(), "short".getBytes(StandardCharsets.UTF_8));
+		assertEquals(undertest.length(), write(undertest, 0, undertest.length() - 1).length);
+	}
+
+	private void givenFile(final String name, final String content) throws Exception {
+		final File f = this.tmp.newFile("file" + this.entries.size());
+		final byte[] b = content.getBytes(StandardCharsets.UTF_8);
+		Files.write(f.toPath(), b);
+		this.entries.add(new StoredZip.Entry(name, f, f.length(), f.lastModified()));
+		this.contents.add(b);
+	}
+
+	private static byte[] write(final StoredZip zip, final long first, final long last) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		zip.write(out, first, last);
+		return out.toByteArray();
+	}
+
+}
@@ -1,5 +1,7 @@
 package com.vaguehope.dlnatoad.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.isA;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
@@ -10,6 +12,8 @@ import java.io.FileFilter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -46,4 +50,52 @@ public class TreeWalkerTest {
 		o.verifyNoMoreInteractions();
 	}
 
+	@Test
+	public void itCallsHikerInTheSameOrderWhateverTheNumberOfListers () throws Exception {
+		for (int a = 0; a < 5; a++) {
+			final File dirA = this.tmp.newFolder("dir_" + a);
+			for (int b = 0; b < 5; b++) {
+				final File dirB = new File(dirA, "sub_" + b);
+				dirB.mkdir();
+				new File(dirB, "file_" + b).createNewFile();
+			}
+			new File(dirA, "file_" + a).createNewFile();
+		}
+		final FileFilter fileFilter = f -> true;
+
+		final List<String> oneLister = new ArrayList<>();
+		new TreeWalker(Arrays.asList(this.tmp.getRoot()), fileFilter, new RecordingHiker(oneLister)).walk();
+		final List<String> manyListers = new ArrayList<>();
+		final ExecutorService listers = Executors.newFixedThreadPool(8);
+		try {
+			new TreeWalker(Arrays.asList(this.tmp.getRoot()), fileFilter, new RecordingHiker(manyListers), listers, 8).walk();
+			new TreeWalker(Arrays.asList(this.tmp.getRoot()), fileFilter, new RecordingHiker(new ArrayList<>()), listers, 8).walk();
+			assertFalse("Walk must not shut down a shared pool.", listers.isShutdown());
+		}
+		finally {
+			listers.shutdownNow();
+		}
+
+		assertEquals(1 + 5 + 25 + 5 + 25, oneLister.size());
+		assertEquals(oneLister, manyListers);
+	}
+
+	private static class RecordingHiker extends Hiker {
+		private final List<String> calls;
+
+		RecordingHiker (final List<String> calls) {
+			this.calls = calls;
+		}
+
+		@Override
+		public void onDir (final File dir) {
+			this.calls.add("dir " + dir);
+		}
+
+		@Override
+		public void onDirWithFiles (final File dir, final List<File> files) {
+			this.calls.add("files " + dir + " " + files);
+		}
+	}
+
 }
@@ -1,5 +1,6 @@
 package com.vaguehope.dlnatoad.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
@@ -8,13 +9,19 @@ import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import java.io.File;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.Watchable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -40,6 +47,7 @@ import com.vaguehope.dlnatoad.util.Watcher.FileListener;
 public class WatcherTest {
 
 	private ExecutorService schEx;
+	private ExecutorService listers;
 	@Rule
 	public TemporaryFolder tmp = new TemporaryFolder();
 	private File tmpRoot;
@@ -56,12 +64,14 @@ public class WatcherTest {
 		roots.add(this.tmpRoot);
 		this.listener = mock(FileListener.class);
 		this.time = new Time.FakeTime();
-		this.undertest = new Watcher(roots, MediaFormat.MediaFileFilter.INSTANCE, this.listener, this.time, 10);
+		this.listers = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-list"));
+		this.undertest = new Watcher(roots, MediaFormat.MediaFileFilter.INSTANCE, this.listener, this.time, 10, this.listers, 2);
 	}
 
 	@After
 	public void after() {
 		this.undertest.shutdown();
+		this.listers.shutdownNow();
 	}
 
 	private void startWatcher(final int waitForEventCount, final int timeoutSeconds) throws Exception {
@@ -233,4 +243,74 @@ public class WatcherTest {
 		verifyNoMoreInteractions(this.listener);
 	}
 
+	@Test
+	public void itRescansADirWhenEventsAreLost() throws Exception {
+		final File f1 = this.tmp.newFile("file1.mp4");
+		final File oldDir = this.tmp.newFolder("old");
+		this.undertest.prescan();
+		verify(this.listener).fileFound(this.tmpRoot, f1, EventType.SCAN, null);
+
+		final File newDir = this.tmp.newFolder("new");
+		final File f2 = new File(newDir, "file2.mp4");
+		FileUtils.touch(f2);
+		if (!oldDir.delete()) fail("Delete failed.");
+
+		this.undertest.readWatchKey(this.tmpRoot, this.tmpRoot.toPath(), new OverflowWatchKey());
+		verify(this.listener, times(2)).fileFound(this.tmpRoot, f1, EventType.SCAN, null);
+		verify(this.listener).fileFound(this.tmpRoot, f2, EventType.SCAN, null);
+		verify(this.listener).fileGone(oldDir, true);
+		verify(this.listener).dirRescanned(this.tmpRoot, Collections.singletonList(f1));
+		assertEquals(0, this.undertest.getWatchEventCount());
+
+		// new is now watched and old is forgotten, so neither is reported again.
+		this.undertest.readWatchKey(this.tmpRoot, this.tmpRoot.toPath(), new OverflowWatchKey());
+		verify(this.listener, times(3)).fileFound(this.tmpRoot, f1, EventType.SCAN, null);
+		verify(this.listener, times(2)).dirRescanned(this.tmpRoot, Collections.singletonList(f1));
+		verifyNoMoreInteractions(this.listener);
+	}
+
+	private static class OverflowWatchKey implements WatchKey {
+
+		@Override
+		public List<WatchEvent<?>> pollEvents() {
+			return Collections.singletonList(new WatchEvent<Object>() {
+				@Override
+				public Kind<Object> kind() {
+					return StandardWatchEventKinds.OVERFLOW;
+				}
+
+				@Override
+				public int count() {
+					return 1;
+				}
+
+				@Override
+				public Object context() {
+					return null;
+				}
+			});
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+
+		@Override
+		public boolean reset() {
+			return true;
+		}
+
+		@Override
+		public void cancel() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Watchable watchable() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
 }